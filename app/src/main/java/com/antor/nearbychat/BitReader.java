@@ -0,0 +1,61 @@
+package com.antor.nearbychat;
+
+/**
+ * MSB-first bit reader over a byte[] with an explicit bit limit. Refills a
+ * long accumulator a byte at a time so each symbol read is a shift and a mask.
+ */
+public final class BitReader {
+
+    private final byte[] data;
+    private final int bitLimit;
+    private int byteIndex;
+    private int bitPosition = 0;
+    private long accumulator = 0;
+    private int accumulatorBits = 0;
+
+    public BitReader(byte[] data, int offset, int bitLimit) {
+        this.data = data;
+        this.byteIndex = offset;
+        this.bitLimit = bitLimit;
+    }
+
+    /**
+     * Reader for the trailer format produced by {@link BitWriter#toByteArrayWithTrailer()}:
+     * the last byte holds the number of valid bits in the byte before it.
+     * A trailer larger than 8 is clamped to the available data.
+     */
+    public static BitReader fromTrailerFormat(byte[] data) {
+        if (data == null || data.length < 2) {
+            return new BitReader(new byte[0], 0, 0);
+        }
+        return new BitReader(data, 0, trailerBitLength(data));
+    }
+
+    public static int trailerBitLength(byte[] data) {
+        if (data == null || data.length < 2) return 0;
+        int lastValidBits = data[data.length - 1] & 0xFF;
+        int totalBits = (data.length - 2) * 8 + lastValidBits;
+        return Math.min(totalBits, (data.length - 1) * 8);
+    }
+
+    public int remaining() {
+        return bitLimit - bitPosition;
+    }
+
+    public boolean hasRemaining(int bitCount) {
+        return bitLimit - bitPosition >= bitCount;
+    }
+
+    /** Reads {@code bitCount} (at most 32) bits; callers check {@link #hasRemaining(int)} first. */
+    public int read(int bitCount) {
+        while (accumulatorBits < bitCount) {
+            accumulator = (accumulator << 8) | (data[byteIndex++] & 0xFF);
+            accumulatorBits += 8;
+        }
+        accumulatorBits -= bitCount;
+        bitPosition += bitCount;
+        int value = (int) ((accumulator >>> accumulatorBits) & ((1L << bitCount) - 1));
+        accumulator &= (1L << accumulatorBits) - 1;
+        return value;
+    }
+}
@@ -0,0 +1,81 @@
+package com.antor.nearbychat;
+
+import java.util.Arrays;
+
+/**
+ * MSB-first bit packer backed by a long accumulator. Whole bytes are flushed
+ * into a growable byte[] as soon as they fill, so writing costs a few shifts
+ * per symbol instead of a String of '0'/'1' characters.
+ */
+public final class BitWriter {
+
+    private byte[] buffer;
+    private int byteLength = 0;
+    private long accumulator = 0;
+    private int accumulatorBits = 0;
+
+    public BitWriter() {
+        this(32);
+    }
+
+    public BitWriter(int initialCapacityBytes) {
+        buffer = new byte[Math.max(4, initialCapacityBytes)];
+    }
+
+    /** Appends the low {@code bitCount} bits of {@code value}, most significant bit first. */
+    public void write(int value, int bitCount) {
+        accumulator = (accumulator << bitCount) | (value & ((1L << bitCount) - 1));
+        accumulatorBits += bitCount;
+        while (accumulatorBits >= 8) {
+            accumulatorBits -= 8;
+            ensureCapacity(byteLength + 1);
+            buffer[byteLength++] = (byte) (accumulator >>> accumulatorBits);
+        }
+        accumulator &= (1L << accumulatorBits) - 1;
+    }
+
+    public int bitLength() {
+        return byteLength * 8 + accumulatorBits;
+    }
+
+    public boolean isEmpty() {
+        return byteLength == 0 && accumulatorBits == 0;
+    }
+
+    public void reset() {
+        byteLength = 0;
+        accumulator = 0;
+        accumulatorBits = 0;
+    }
+
+    /** Packed bits with the final partial byte zero-padded on the right. */
+    public byte[] toByteArray() {
+        int total = byteLength + (accumulatorBits > 0 ? 1 : 0);
+        byte[] out = Arrays.copyOf(buffer, total);
+        if (accumulatorBits > 0) {
+            out[byteLength] = (byte) (accumulator << (8 - accumulatorBits));
+        }
+        return out;
+    }
+
+    /**
+     * Packed bits followed by one trailer byte holding the number of valid
+     * bits (1-8) in the last data byte. This is the on-air format used by the
+     * 5-bit message and 6/4-bit link models.
+     */
+    public byte[] toByteArrayWithTrailer() {
+        int dataBytes = byteLength + (accumulatorBits > 0 ? 1 : 0);
+        byte[] out = Arrays.copyOf(buffer, dataBytes + 1);
+        if (accumulatorBits > 0) {
+            out[byteLength] = (byte) (accumulator << (8 - accumulatorBits));
+        }
+        out[dataBytes] = (byte) (accumulatorBits == 0 ? 8 : accumulatorBits);
+        return out;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+        }
+    }
+}
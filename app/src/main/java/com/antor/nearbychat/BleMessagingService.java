@@ -42,29 +42,57 @@ import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 
 import com.antor.nearbychat.Database.AppDatabase;
+import com.antor.nearbychat.Database.MessageEntity;
+import com.antor.nearbychat.Database.MessageRetention;
+import com.antor.nearbychat.Database.MessageWriter;
+import com.antor.nearbychat.Message.AdmissionFilter;
+import com.antor.nearbychat.Message.AntiEntropy;
+import com.antor.nearbychat.Message.BlePacketEncoder;
+import com.antor.nearbychat.Message.DuplicateFilter;
+import com.antor.nearbychat.Message.IngestQueue;
+import com.antor.nearbychat.Message.LongHashSet;
 import com.antor.nearbychat.Message.MessageConverterForBle;
 import com.antor.nearbychat.Message.MessageHelper;
 import com.antor.nearbychat.Message.MessageProcessor;
+import com.antor.nearbychat.Message.MessageRelay;
+import com.antor.nearbychat.Message.OutboundChunkCache;
+import com.antor.nearbychat.Message.ReassemblyProgress;
+import com.antor.nearbychat.Message.SyncDigest;
+import com.antor.nearbychat.Radio.AdvertisingSetTransport;
+import com.antor.nearbychat.Radio.ExtendedBleTransport;
+import com.antor.nearbychat.Radio.PeerCapabilities;
+import com.antor.nearbychat.Radio.RadioTransport;
+import com.antor.nearbychat.Radio.TransmitScheduler;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
 import java.lang.reflect.Type;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BleMessagingService extends Service {
 
     private ScheduledExecutorService bleExecutor;
     private ExecutorService processingExecutor;
-    private final ConcurrentLinkedQueue<byte[]> sendingQueue = new ConcurrentLinkedQueue<>();
-    private final android.util.LruCache<String, Boolean> receivedMessages = new android.util.LruCache<>(2000);
-    private android.util.LruCache<String, Boolean> receivedChunks;
+    private final OutboundChunkCache outboundCache = new OutboundChunkCache();
+    private final Random repairBackoff = new Random();
+    private final PeerCapabilities peerCapabilities = new PeerCapabilities();
+    private static final long DUPLICATE_WINDOW_MS = 10 * 60 * 1000;
+    private DuplicateFilter receivedPackets;
+    private AdmissionFilter admissionFilter;
+    private volatile MessageRelay messageRelay;
+    private ScheduledFuture<?> relayTask;
+    private long relayAssessmentMs;
+    private volatile AntiEntropy antiEntropy;
+    private ScheduledFuture<?> syncTask;
+    private int syncIntervalScheduled = 0;
+    private volatile String[] joinedGroupIds = new String[0];
+    private SharedPreferences.OnSharedPreferenceChangeListener admissionListsListener;
     private volatile boolean isCycleRunning = false;
 
     private AppDatabase database;
@@ -79,19 +107,36 @@ public class BleMessagingService extends Service {
     private static final int NOTIFICATION_ID = 1001;
 
     private static UUID SERVICE_UUID = UUID.fromString("0000aaaa-0000-1000-8000-00805f9b34fb");
+    private static UUID EXTENSION_SERVICE_UUID = extensionServiceUuid(SERVICE_UUID);
+    private static UUID RELAY_SERVICE_UUID = relayServiceUuid(SERVICE_UUID);
+    private static UUID SYNC_SERVICE_UUID = syncServiceUuid(SERVICE_UUID);
 
     private static int MAX_PAYLOAD_SIZE = 27;
     private static int ADVERTISING_DURATION_MS = 900;
+    private static int DELAY_BETWEEN_CHUNKS_MS = 1000;
     private static int CHUNK_TIMEOUT_MS = 300000;
-    private static int CHUNK_CLEANUP_INTERVAL_MS = 60000;
     private static int MAX_MESSAGE_SAVED = 2000;
+    private static int MAX_MESSAGES_PER_CHAT = 0;
+    private static int MESSAGE_MAX_AGE_DAYS = 0;
     private static int BROADCAST_ROUNDS = 3;
+    private static int FEC_PARITY_PERCENT = 0;
+    private static int COMPACT_HEADERS = 0;
+    private static int SEALED_MESSAGES = 0;
+    private static int RELAY_HOPS = 0;
+    private static int SYNC_INTERVAL = 0;
+    private static int EXTENDED_ADVERTISING = 1;
+    private static int PERSISTENT_ADVERTISING = 1;
     private static int SCAN_MODE = 2;
+    private static int SCAN_REPORT_DELAY = 0;
     private static int ADVERTISE_MODE = 2;
     private static int TX_POWER_LEVEL = 3;
 
     private static final String REQUEST_MARKER = "??";
     private static final int MAX_MISSING_CHUNKS = 30;
+    private static final int REQUEST_HEADER_SIZE = 12;
+    private static final long REPAIR_BACKOFF_MIN_MS = 300;
+    private static final int REPAIR_BACKOFF_RANGE_MS = 1200;
+    private static final long REPAIR_QUIET_MS = 2000;
 
     private static final String PREFS_NAME = "NearbyChatPrefs";
     private static final String KEY_USER_ID_BITS = "userIdBits";
@@ -112,9 +157,30 @@ public class BleMessagingService extends Service {
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothLeAdvertiser advertiser;
     private BluetoothLeScanner scanner;
-    private AdvertiseCallback advertiseCallback;
+    private volatile AdvertiseCallback advertiseCallback;
+    private volatile ExtendedBleTransport extendedTransport;
+    private volatile AdvertisingSetTransport legacySet;
+    private volatile AdvertisingSetTransport extendedSet;
 
     private boolean isScanning = false;
+    private static final int INGEST_CAPACITY = 1024;
+    private static final int INGEST_MAX_BATCH = 128;
+    private IngestQueue ingestQueue;
+    private final ArrayList<byte[]> ingestFresh = new ArrayList<>(INGEST_MAX_BATCH);
+    private static final long WRITE_BEHIND_MS = 20;
+    private static final long RELAY_TICK_MS = 250;
+    private static final int RELAY_ASSESSMENT_SLOTS = 4;
+    private static final int RELAY_ROUNDS = 2;
+    private static final long SYNC_WINDOW_MS = 30 * 60 * 1000;
+    private static final long SYNC_BACKOFF_MIN_MS = 300;
+    private static final int SYNC_BACKOFF_RANGE_MS = 1500;
+    private static final long SYNC_QUIET_MS = 30 * 1000;
+    private static final int SYNC_MAX_REPLIES = 4;
+    private static final int SYNC_SCAN_LIMIT = 64;
+    private MessageWriter messageWriter;
+    private MessageRetention messageRetention;
+    private final ReassemblyProgress reassemblyProgress = ReassemblyProgress.getInstance();
+    private long ingestDropsLogged = 0;
     private boolean isServiceRunning = false;
     private Handler mainHandler;
     private volatile boolean isAdvertising = false;
@@ -124,15 +190,21 @@ public class BleMessagingService extends Service {
     private BroadcastReceiver bluetoothReceiver;
     private final IBinder binder = new LocalBinder();
 
-    private String currentSendingMessageId;
-    private volatile int failedChunksCount = 0;
-    private volatile int totalChunksToSend = 0;
-    private static final Charset ISO_8859_1 = StandardCharsets.ISO_8859_1;
+    private TransmitScheduler transmitScheduler;
+    private volatile TransmitScheduler.Job userJob;
+    private final AtomicInteger activeUserJobs = new AtomicInteger();
 
     private ScanCallback scanCallback = new ScanCallback() {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
-            handleScanResult(result);
+            enqueueScanResult(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (ScanResult result : results) {
+                enqueueScanResult(result);
+            }
         }
 
         @Override
@@ -155,41 +227,55 @@ public class BleMessagingService extends Service {
 
         int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
         int chunkCacheSize = Math.max(2000, maxMemory / 100);
-        receivedChunks = new android.util.LruCache<>(chunkCacheSize);
-        Log.d(TAG, "Chunk cache initialized with size: " + chunkCacheSize);
+        receivedPackets = new DuplicateFilter(chunkCacheSize, DUPLICATE_WINDOW_MS, System.currentTimeMillis());
+        Log.d(TAG, "Duplicate filter initialized for " + chunkCacheSize + " packets, "
+                + receivedPackets.memoryBytes() + " bytes");
 
         bleExecutor = Executors.newSingleThreadScheduledExecutor();
-        processingExecutor = Executors.newCachedThreadPool();
+        processingExecutor = Executors.newFixedThreadPool(2);
+        ingestQueue = new IngestQueue(INGEST_CAPACITY, INGEST_MAX_BATCH, this::ingestBatch);
         mainHandler = new Handler(Looper.getMainLooper());
         database = AppDatabase.getInstance(this);
         messageDao = database.messageDao();
 
         loadConfigurableSettings();
         initializeData();
+        setupAdmissionFilter();
+        messageRetention = new MessageRetention(database, MAX_MESSAGE_SAVED, MAX_MESSAGES_PER_CHAT, MESSAGE_MAX_AGE_DAYS);
+        messageWriter = new MessageWriter(messageDao, WRITE_BEHIND_MS, messageRetention::onInserted);
 
         messageProcessor = new MessageProcessor(this, processingExecutor, userId);
+        transmitScheduler = new TransmitScheduler(advertiserTransport, DELAY_BETWEEN_CHUNKS_MS, ADVERTISING_DURATION_MS);
 
         acquireWakeLock();
         setupBluetoothReceiver();
         createNotificationChannel();
 
-        processingExecutor.submit(() -> {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    Thread.sleep(CHUNK_CLEANUP_INTERVAL_MS);
-                    if (messageProcessor != null) {
-                        messageProcessor.cleanupExpiredReassemblers(CHUNK_TIMEOUT_MS, (failedMsg) -> {
-                            addMessage(failedMsg);
-                            if (timeoutCallback != null) {
-                                mainHandler.post(() -> timeoutCallback.onMessageTimeout(failedMsg));
-                            }
-                        });
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
-        });
+        messageProcessor.setMaxChunkTimeoutMs(CHUNK_TIMEOUT_MS);
+        messageProcessor.setOutboundCache(outboundCache);
+        long tickMs = messageProcessor.getTimerTickMs();
+        bleExecutor.scheduleWithFixedDelay(this::expirePartialMessages, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        applyRelaySettings();
+        applySyncSettings();
+        ingestQueue.start();
+    }
+
+    private void expirePartialMessages() {
+        try {
+            if (messageProcessor == null) return;
+            long now = System.currentTimeMillis();
+            messageProcessor.requestStalledChunks(now, this::sendMissingPartsRequest);
+            reassemblyProgress.expire(now - CHUNK_TIMEOUT_MS);
+            messageProcessor.expireReassemblers(now, (failedMsg) ->
+                    processingExecutor.submit(() -> {
+                        addMessage(failedMsg);
+                        if (timeoutCallback != null) {
+                            mainHandler.post(() -> timeoutCallback.onMessageTimeout(failedMsg));
+                        }
+                    }));
+        } catch (Exception e) {
+            Log.e(TAG, "Error expiring partial messages", e);
+        }
     }
 
     @Override
@@ -208,6 +294,17 @@ public class BleMessagingService extends Service {
                 return START_NOT_STICKY;
             }
             loadConfigurableSettings();
+            if (messageProcessor != null) {
+                messageProcessor.setMaxChunkTimeoutMs(CHUNK_TIMEOUT_MS);
+            }
+            if (transmitScheduler != null) {
+                transmitScheduler.setSlotMs(DELAY_BETWEEN_CHUNKS_MS);
+            }
+            if (messageRetention != null) {
+                messageRetention.setLimits(MAX_MESSAGE_SAVED, MAX_MESSAGES_PER_CHAT, MESSAGE_MAX_AGE_DAYS);
+            }
+            applyRelaySettings();
+            applySyncSettings();
 
             if (!isServiceRunning) {
                 try {
@@ -273,19 +370,47 @@ public class BleMessagingService extends Service {
             } catch (IllegalArgumentException e) {
                 SERVICE_UUID = UUID.fromString("0000aaaa-0000-1000-8000-00805f9b34fb");
             }
+            EXTENSION_SERVICE_UUID = extensionServiceUuid(SERVICE_UUID);
+            RELAY_SERVICE_UUID = relayServiceUuid(SERVICE_UUID);
+            SYNC_SERVICE_UUID = syncServiceUuid(SERVICE_UUID);
 
             ADVERTISING_DURATION_MS = prefs.getInt("ADVERTISING_DURATION_MS", 900);
+            DELAY_BETWEEN_CHUNKS_MS = prefs.getInt("DELAY_BETWEEN_CHUNKS_MS", 1000);
+            if (DELAY_BETWEEN_CHUNKS_MS < 100) DELAY_BETWEEN_CHUNKS_MS = 100;
             CHUNK_TIMEOUT_MS = prefs.getInt("CHUNK_TIMEOUT_MS", 300000);
-            CHUNK_CLEANUP_INTERVAL_MS = prefs.getInt("CHUNK_CLEANUP_INTERVAL_MS", 60000);
             MAX_MESSAGE_SAVED = prefs.getInt("MAX_MESSAGE_SAVED", 2000);
+            MAX_MESSAGES_PER_CHAT = prefs.getInt("MAX_MESSAGES_PER_CHAT", 0);
+            MESSAGE_MAX_AGE_DAYS = prefs.getInt("MESSAGE_MAX_AGE_DAYS", 0);
 
             BROADCAST_ROUNDS = prefs.getInt("BROADCAST_ROUNDS", 3);
             if (BROADCAST_ROUNDS < 1) BROADCAST_ROUNDS = 1;
 
+            FEC_PARITY_PERCENT = prefs.getInt("FEC_PARITY_PERCENT", 0);
+            if (FEC_PARITY_PERCENT < 0) FEC_PARITY_PERCENT = 0;
+            if (FEC_PARITY_PERCENT > 200) FEC_PARITY_PERCENT = 200;
+
+            COMPACT_HEADERS = prefs.getInt("COMPACT_HEADERS", 0) == 1 ? 1 : 0;
+            SEALED_MESSAGES = prefs.getInt("SEALED_MESSAGES", 0) == 1 ? 1 : 0;
+
+            RELAY_HOPS = prefs.getInt("RELAY_HOPS", 0);
+            if (RELAY_HOPS < 0) RELAY_HOPS = 0;
+            if (RELAY_HOPS > 7) RELAY_HOPS = 7;
+
+            SYNC_INTERVAL = prefs.getInt("SYNC_INTERVAL", 0);
+            if (SYNC_INTERVAL < 0) SYNC_INTERVAL = 0;
+            if (SYNC_INTERVAL > 3600) SYNC_INTERVAL = 3600;
+
+            EXTENDED_ADVERTISING = prefs.getInt("EXTENDED_ADVERTISING", 1) == 0 ? 0 : 1;
+            PERSISTENT_ADVERTISING = prefs.getInt("PERSISTENT_ADVERTISING", 1) == 0 ? 0 : 1;
+
             SCAN_MODE = prefs.getInt("SCAN_MODE", 2);
             if (SCAN_MODE < 0) SCAN_MODE = 0;
             if (SCAN_MODE > 2) SCAN_MODE = 2;
 
+            SCAN_REPORT_DELAY = prefs.getInt("SCAN_REPORT_DELAY", 0);
+            if (SCAN_REPORT_DELAY < 0) SCAN_REPORT_DELAY = 0;
+            if (SCAN_REPORT_DELAY > 10000) SCAN_REPORT_DELAY = 10000;
+
             ADVERTISE_MODE = prefs.getInt("ADVERTISE_MODE", 2);
             if (ADVERTISE_MODE < 0) ADVERTISE_MODE = 0;
             if (ADVERTISE_MODE > 2) ADVERTISE_MODE = 2;
@@ -299,22 +424,32 @@ public class BleMessagingService extends Service {
         }
     }
 
-    private String generateChunkKey(byte[] data) {
-        if (data == null || data.length < 13) {
-            return "";
-        }
+    /**
+     * FEC parity, compact continuation chunks, "??" repair requests and "!!" capability beacons
+     * go out under a sibling UUID (low bit of the 16-bit short flipped). Older builds scan only
+     * SERVICE_UUID and count every packet as a data chunk, so they must never see any of them.
+     * Extended-PDU packets stay on SERVICE_UUID: legacy scanners never receive extended PDUs.
+     */
+    private static UUID extensionServiceUuid(UUID serviceUuid) {
+        return new UUID(serviceUuid.getMostSignificantBits() ^ (1L << 32), serviceUuid.getLeastSignificantBits());
+    }
 
-        try {
-            StringBuilder key = new StringBuilder();
+    /**
+     * Relay frames get a second sibling UUID: their hop and relayer bytes would make
+     * older builds misread them, and only relay-aware scanners unwrap them.
+     */
+    private static UUID relayServiceUuid(UUID serviceUuid) {
+        return new UUID(serviceUuid.getMostSignificantBits() ^ (2L << 32), serviceUuid.getLeastSignificantBits());
+    }
 
-            for (int i = 0; i < Math.min(13, data.length); i++) {
-                key.append(String.format("%02x", data[i]));
-            }
-            return key.toString();
-        } catch (Exception e) {
-            Log.e(TAG, "Error generating chunk key", e);
-            return "";
-        }
+    /** Sync digests likewise, so only builds that answer them scan for them. */
+    private static UUID syncServiceUuid(UUID serviceUuid) {
+        return new UUID(serviceUuid.getMostSignificantBits() ^ (3L << 32), serviceUuid.getLeastSignificantBits());
+    }
+
+    private static UUID serviceUuidFor(byte[] packet) {
+        return BlePacketEncoder.isExtensionPacket(packet) || PeerCapabilities.isBeacon(packet)
+                ? EXTENSION_SERVICE_UUID : SERVICE_UUID;
     }
 
     private void startForegroundService() {
@@ -483,6 +618,19 @@ public class BleMessagingService extends Service {
             if (advertiser == null) {
                 Log.e(TAG, "BLE Advertiser not available");
             }
+            int extendedSize = advertiser != null && EXTENDED_ADVERTISING == 1
+                    ? ExtendedBleTransport.supportedPacketSize(bluetoothAdapter) : 0;
+            extendedTransport = extendedSize > MAX_PAYLOAD_SIZE
+                    ? new ExtendedBleTransport(advertiser, extendedSize, ADVERTISE_MODE, TX_POWER_LEVEL) : null;
+            Log.d(TAG, "Extended advertising: " + (extendedTransport != null ? extendedSize + " bytes" : "off"));
+            closeAdvertisingSets();
+            if (advertiser != null && PERSISTENT_ADVERTISING == 1) {
+                AdvertisingSetTransport.FailureListener onFailure = status -> transmitScheduler.reportFailure();
+                legacySet = new AdvertisingSetTransport(advertiser, true, MAX_PAYLOAD_SIZE,
+                        ADVERTISE_MODE, TX_POWER_LEVEL, onFailure);
+                extendedSet = extendedTransport != null ? new AdvertisingSetTransport(advertiser, false,
+                        extendedTransport.maxPacketSize(), ADVERTISE_MODE, TX_POWER_LEVEL, onFailure) : null;
+            }
 
             if (scanner == null) {
                 Log.e(TAG, "BLE Scanner not available");
@@ -500,16 +648,12 @@ public class BleMessagingService extends Service {
     }
 
     public void cancelAdvertising() {
-        stopAdvertising();
-        mainHandler.removeCallbacksAndMessages(null);
-
-        if (advertisingListener != null) {
+        TransmitScheduler.Job job = userJob;
+        if (job != null) {
+            job.cancel();
+        } else if (advertisingListener != null) {
             mainHandler.post(() -> advertisingListener.onAdvertisingCompleted());
         }
-        currentSendingMessageId = null;
-        failedChunksCount = 0;
-        totalChunksToSend = 0;
-
         Log.d(TAG, "Advertising cancelled by user");
     }
 
@@ -541,12 +685,75 @@ public class BleMessagingService extends Service {
         }
     }
 
-    private void startAdvertising(byte[] payload) {
+    /** The scheduler's view of the advertiser: legacy or extended, whichever fits the packet. */
+    private final RadioTransport advertiserTransport = new RadioTransport() {
+        @Override
+        public int maxPacketSize() {
+            ExtendedBleTransport extended = extendedTransport;
+            return extended != null ? extended.maxPacketSize() : MAX_PAYLOAD_SIZE;
+        }
+
+        @Override
+        public boolean isExtended() {
+            return extendedTransport != null;
+        }
+
+        @Override
+        public boolean advertise(UUID serviceUuid, byte[] packet, long durationMs) {
+            if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+                Log.w(TAG, "Bluetooth disabled, skipping packet");
+                return false;
+            }
+            UUID uuid = serviceUuid != null ? serviceUuid : serviceUuidFor(packet);
+            boolean large = packet.length > MAX_PAYLOAD_SIZE;
+            AdvertisingSetTransport set = large ? extendedSet : legacySet;
+            AdvertisingSetTransport otherSet = large ? legacySet : extendedSet;
+            if (otherSet != null) otherSet.stopAdvertising();
+            if (set != null && set.isUsable() && hasRequiredPermissions()) {
+                return set.advertise(uuid, packet, durationMs);
+            }
+            if (set != null) set.stopAdvertising();
+            startAdvertising(packet, uuid);
+            return true;
+        }
+
+        @Override
+        public void stopAdvertising() {
+            pauseAdvertisingSets();
+            BleMessagingService.this.stopAdvertising();
+        }
+    };
+
+    private void pauseAdvertisingSets() {
+        AdvertisingSetTransport set = legacySet;
+        if (set != null) set.stopAdvertising();
+        set = extendedSet;
+        if (set != null) set.stopAdvertising();
+    }
+
+    private void closeAdvertisingSets() {
+        AdvertisingSetTransport set = legacySet;
+        if (set != null) set.close();
+        set = extendedSet;
+        if (set != null) set.close();
+        legacySet = null;
+        extendedSet = null;
+    }
+
+    private void startAdvertising(byte[] payload, UUID serviceUuid) {
         if (advertiser == null) return;
         try {
             if (!hasRequiredPermissions()) return;
             stopAdvertising();
 
+            ExtendedBleTransport extended = extendedTransport;
+            if (payload.length > MAX_PAYLOAD_SIZE && extended != null) {
+                if (!extended.advertise(serviceUuid, payload, ADVERTISING_DURATION_MS)) {
+                    transmitScheduler.reportFailure();
+                }
+                return;
+            }
+
             int advertiseMode;
             switch (ADVERTISE_MODE) {
                 case 0: advertiseMode = AdvertiseSettings.ADVERTISE_MODE_LOW_POWER; break;
@@ -570,7 +777,7 @@ public class BleMessagingService extends Service {
                     .build();
 
             AdvertiseData data = new AdvertiseData.Builder()
-                    .addServiceData(new ParcelUuid(SERVICE_UUID), payload)
+                    .addServiceData(new ParcelUuid(serviceUuid), payload)
                     .build();
 
             advertiseCallback = new AdvertiseCallback() {
@@ -578,7 +785,9 @@ public class BleMessagingService extends Service {
                 public void onStartSuccess(AdvertiseSettings settings) {
                     isAdvertising = true;
                     Log.d(TAG, "Advertise started: " + payload.length + " bytes");
+                    AdvertiseCallback self = this;
                     mainHandler.postDelayed(() -> {
+                        if (advertiseCallback != self) return;
                         stopAdvertising();
                         isAdvertising = false;
                         Log.d(TAG, "Advertise completed");
@@ -587,19 +796,21 @@ public class BleMessagingService extends Service {
                 @Override
                 public void onStartFailure(int errorCode) {
                     isAdvertising = false;
-                    failedChunksCount++;
-                    Log.e(TAG, "Advertise failed (chunk " + failedChunksCount + "/" + totalChunksToSend + "): " + errorCode);
+                    transmitScheduler.reportFailure();
+                    Log.e(TAG, "Advertise failed: " + errorCode);
                 }
             };
             advertiser.startAdvertising(settings, data, advertiseCallback);
         } catch (Exception e) {
             isAdvertising = false;
-            failedChunksCount++;
+            transmitScheduler.reportFailure();
             Log.e(TAG, "Error advertising", e);
         }
     }
 
     private void stopAdvertising() {
+        ExtendedBleTransport extended = extendedTransport;
+        if (extended != null) extended.stopAdvertising();
         try {
             if (advertiser != null && advertiseCallback != null) {
                 if (!hasRequiredPermissions()) return;
@@ -625,13 +836,34 @@ public class BleMessagingService extends Service {
                 case 2:
                 default: scanMode = ScanSettings.SCAN_MODE_LOW_LATENCY; break;
             }
-            ScanSettings settings = new ScanSettings.Builder()
-                    .setScanMode(scanMode)
-                    .build();
+            ScanSettings.Builder settingsBuilder = new ScanSettings.Builder()
+                    .setScanMode(scanMode);
+            if (extendedTransport != null) {
+                settingsBuilder.setLegacy(false).setPhy(ScanSettings.PHY_LE_ALL_SUPPORTED);
+            }
+            // Controller batching where the chip has it, otherwise batch in software
+            ingestQueue.setLingerMs(0);
+            if (SCAN_REPORT_DELAY > 0) {
+                if (bluetoothAdapter.isOffloadedScanBatchingSupported()) {
+                    settingsBuilder.setReportDelay(SCAN_REPORT_DELAY);
+                } else {
+                    ingestQueue.setLingerMs(SCAN_REPORT_DELAY);
+                }
+            }
+            ScanSettings settings = settingsBuilder.build();
 
-            List<ScanFilter> filters = Collections.singletonList(
+            List<ScanFilter> filters = Arrays.asList(
                     new ScanFilter.Builder()
                             .setServiceData(new ParcelUuid(SERVICE_UUID), new byte[0], new byte[0])
+                            .build(),
+                    new ScanFilter.Builder()
+                            .setServiceData(new ParcelUuid(EXTENSION_SERVICE_UUID), new byte[0], new byte[0])
+                            .build(),
+                    new ScanFilter.Builder()
+                            .setServiceData(new ParcelUuid(RELAY_SERVICE_UUID), new byte[0], new byte[0])
+                            .build(),
+                    new ScanFilter.Builder()
+                            .setServiceData(new ParcelUuid(SYNC_SERVICE_UUID), new byte[0], new byte[0])
                             .build()
             );
             scanner.startScan(filters, settings, scanCallback);
@@ -664,52 +896,92 @@ public class BleMessagingService extends Service {
 
 
 
-    private boolean isUserInGroup(String groupId) {
-        try {
-            SharedPreferences prefs = getSharedPreferences("NearbyChatPrefs", MODE_PRIVATE);
-            String groupsJson = prefs.getString("groupsList", null);
-
-            if (groupsJson == null) {
-                return false;
+    /**
+     * Keeps the admission filter's group and block lists in step with the
+     * prefs; they are parsed here, once per edit, instead of per packet.
+     */
+    private void setupAdmissionFilter() {
+        admissionFilter = new AdmissionFilter(userIdBits);
+        admissionFilter.setRejectionListener((senderIdBits, messageIdBits) -> {
+            MessageProcessor processor = messageProcessor;
+            if (processor != null) processor.discardMessage(senderIdBits, messageIdBits);
+        });
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        loadJoinedGroups(prefs);
+        loadBlockedSenders(prefs);
+        admissionListsListener = (p, key) -> {
+            if ("groupsList".equals(key)) {
+                loadJoinedGroups(p);
+            } else if ("blockedList".equals(key)) {
+                loadBlockedSenders(p);
             }
+        };
+        prefs.registerOnSharedPreferenceChangeListener(admissionListsListener);
+    }
 
-            Gson gson = new Gson();
+    private void loadJoinedGroups(SharedPreferences prefs) {
+        try {
+            String groupsJson = prefs.getString("groupsList", null);
             Type type = new TypeToken<List<GroupModel>>(){}.getType();
-            List<GroupModel> groups = gson.fromJson(groupsJson, type);
-
+            List<GroupModel> groups = groupsJson == null ? null : new Gson().fromJson(groupsJson, type);
+            long[] ids = new long[groups == null ? 0 : groups.size()];
+            String[] groupIds = new String[ids.length];
+            int count = 0;
             if (groups != null) {
                 for (GroupModel g : groups) {
-                    if (g.getId().equals(groupId)) {
-                        return true;
+                    if (g.getId() != null && g.getId().length() == 5) {
+                        groupIds[count] = g.getId();
+                        ids[count++] = MessageHelper.asciiIdToTimestamp(g.getId());
                     }
                 }
             }
-
-            return false;
+            admissionFilter.setJoinedGroups(LongHashSet.of(ids, count));
+            joinedGroupIds = Arrays.copyOf(groupIds, count);
+            Log.d(TAG, "Admission filter: " + admissionFilter);
         } catch (Exception e) {
-            Log.e(TAG, "Error checking if user is in group", e);
-            return false;
+            Log.e(TAG, "Error loading joined groups", e);
         }
     }
 
-    private boolean isUserBlocked(String senderId) {
-        SharedPreferences prefs = getSharedPreferences("NearbyChatPrefs", MODE_PRIVATE);
-        String json = prefs.getString("blockedList", null);
-
-        if (json != null) {
+    private void loadBlockedSenders(SharedPreferences prefs) {
+        try {
+            String json = prefs.getString("blockedList", null);
             Type type = new TypeToken<List<String>>(){}.getType();
-            List<String> blockedList = new com.google.gson.Gson().fromJson(json, type);
-            return blockedList != null && blockedList.contains(senderId);
+            List<String> blockedList = json == null ? null : new Gson().fromJson(json, type);
+            long[] ids = new long[blockedList == null ? 0 : blockedList.size()];
+            int count = 0;
+            if (blockedList != null) {
+                for (String senderId : blockedList) {
+                    if (senderId != null && senderId.length() == 8) {
+                        ids[count++] = MessageHelper.displayIdToTimestamp(senderId);
+                    }
+                }
+            }
+            admissionFilter.setBlockedSenders(LongHashSet.of(ids, count));
+            Log.d(TAG, "Admission filter: " + admissionFilter);
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading blocked list", e);
         }
+    }
 
-        return false;
+    private boolean isUserInGroup(String groupId) {
+        return groupId != null && groupId.length() == 5
+                && admissionFilter.isJoinedGroup(MessageHelper.asciiIdToTimestamp(groupId));
+    }
+
+    private boolean isUserBlocked(String senderId) {
+        return senderId != null && senderId.length() == 8
+                && admissionFilter.isBlocked(MessageHelper.displayIdToTimestamp(senderId));
     }
 
     public void sendMessage(String payload, String chatType, String chatId) {
         processingExecutor.submit(() -> {
             try {
                 MessageConverterForBle converter = new MessageConverterForBle(
-                        this, payload, chatType, chatId, userId, userIdBits, MAX_PAYLOAD_SIZE);
+                        this, payload, chatType, chatId, userId, userIdBits, choosePacketSize());
+                converter.setParityPercent(FEC_PARITY_PERCENT);
+                converter.setCompactHeaders(COMPACT_HEADERS == 1);
+                converter.setSealed(SEALED_MESSAGES == 1);
                 converter.process();
                 MessageModel msgToSave = converter.getMessageToSave();
                 List<byte[]> packets = converter.getBlePacketsToSend();
@@ -720,7 +992,9 @@ public class BleMessagingService extends Service {
                 if ("F".equals(chatType) && !chatId.isEmpty()) {
                     autoAddFriendIfSending(chatId);
                 }
-                schedulePacketsForAdvertising(packets, msgToSave);
+                outboundCache.put(packets);
+                schedulePacketsForAdvertising(withCapabilityBeacon(packets), msgToSave,
+                        TransmitScheduler.Priority.forChatType(chatType));
 
             } catch (Exception e) {
                 Log.e(TAG, "Error in sendMessage", e);
@@ -766,11 +1040,16 @@ public class BleMessagingService extends Service {
         processingExecutor.submit(() -> {
             try {
                 MessageConverterForBle converter = new MessageConverterForBle(
-                        this, messageToRetransmit, MAX_PAYLOAD_SIZE);
+                        this, messageToRetransmit, choosePacketSize());
+                converter.setParityPercent(FEC_PARITY_PERCENT);
+                converter.setCompactHeaders(COMPACT_HEADERS == 1);
+                converter.setSealed(SEALED_MESSAGES == 1);
                 converter.process();
                 List<byte[]> packets = converter.getBlePacketsToSend();
 
-                schedulePacketsForAdvertising(packets, null);
+                outboundCache.put(packets);
+                schedulePacketsForAdvertising(withCapabilityBeacon(packets), null,
+                        TransmitScheduler.Priority.RETRANSMIT);
 
             } catch (Exception e) {
                 Log.e(TAG, "Error in retransmitMessage", e);
@@ -781,110 +1060,310 @@ public class BleMessagingService extends Service {
         });
     }
 
-    private void schedulePacketsForAdvertising(List<byte[]> packets, MessageModel originalMessage) {
-        failedChunksCount = 0;
+    /**
+     * Large packets only when this device can send them and every peer heard
+     * recently can receive them; a legacy-only scanner never sees extended PDUs.
+     * While a relay runs, chunks leave room for the relay prefix, so relays fit the same PDU.
+     */
+    private int choosePacketSize() {
+        return maxFrameSize() - (messageRelay != null ? MessageRelay.RELAY_OVERHEAD : 0);
+    }
 
-        if (advertisingListener != null) {
-            mainHandler.post(() -> advertisingListener.onAdvertisingStarted());
+    private int maxFrameSize() {
+        ExtendedBleTransport extended = extendedTransport;
+        if (extended == null) return MAX_PAYLOAD_SIZE;
+        return peerCapabilities.choosePacketSize(MAX_PAYLOAD_SIZE, extended.maxPacketSize(), System.currentTimeMillis());
+    }
+
+    /**
+     * Brings the relay and its tick in line with RELAY_HOPS: created when
+     * relaying is switched on, rebuilt when the hop limit or slot length
+     * changes, cancelled and dropped when it is switched off.
+     */
+    private void applyRelaySettings() {
+        long assessmentMs = (long) RELAY_ASSESSMENT_SLOTS * DELAY_BETWEEN_CHUNKS_MS;
+        MessageRelay relay = messageRelay;
+        if (relay == null ? RELAY_HOPS == 0
+                : relay.getMaxHops() == RELAY_HOPS && relayAssessmentMs == assessmentMs) {
+            return;
         }
-        currentSendingMessageId = (originalMessage != null) ? originalMessage.getMessageId() : "retransmit";
+        if (relayTask != null) {
+            relayTask.cancel(false);
+            relayTask = null;
+        }
+        messageRelay = null;
+        if (RELAY_HOPS > 0) {
+            relayAssessmentMs = assessmentMs;
+            messageRelay = new MessageRelay(userIdBits, RELAY_HOPS, RELAY_ROUNDS, assessmentMs);
+            relayTask = bleExecutor.scheduleWithFixedDelay(this::relayDueMessages,
+                    RELAY_TICK_MS, RELAY_TICK_MS, TimeUnit.MILLISECONDS);
+        }
+        Log.d(TAG, "Relay " + (RELAY_HOPS > 0 ? "on, " + RELAY_HOPS + " hops" : "off"));
+    }
 
-        if (packets != null && !packets.isEmpty()) {
-            List<byte[]> allPackets = new ArrayList<>();
-            for (int round = 0; round < BROADCAST_ROUNDS; round++) {
-                allPackets.addAll(packets);
+    private void relayDueMessages() {
+        MessageRelay relay = messageRelay;
+        if (relay == null) return;
+        try {
+            for (List<byte[]> frames : relay.pollDue(System.currentTimeMillis(), maxFrameSize())) {
+                transmitScheduler.submit(TransmitScheduler.Priority.RELAY, frames, 1, RELAY_SERVICE_UUID, null);
             }
-            totalChunksToSend = allPackets.size();
-
-            for (int i = 0; i < allPackets.size(); i++) {
-                final byte[] packet = allPackets.get(i);
-                final int index = i;
-                final boolean isLast = (i == allPackets.size() - 1);
+        } catch (Exception e) {
+            Log.e(TAG, "Error relaying messages", e);
+        }
+    }
 
-                mainHandler.postDelayed(() -> {
-                    try {
-                        if (bluetoothAdapter != null && bluetoothAdapter.isEnabled()) {
-                            startAdvertising(packet);
-                            Log.d(TAG, "Sent chunk " + (index + 1) + "/" + allPackets.size());
-                        } else {
-                            Log.w(TAG, "Bluetooth disabled, skipping chunk " + (index + 1));
-                            failedChunksCount++;
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error advertising chunk " + (index + 1), e);
-                        failedChunksCount++;
-                    }
+    /**
+     * Appends a capability beacon to a legacy-framed send when one is due, so
+     * peers learn this device can receive extended PDUs.
+     */
+    private List<byte[]> withCapabilityBeacon(List<byte[]> packets) {
+        if (extendedTransport == null || packets == null || packets.isEmpty()) return packets;
+        if (packets.get(0).length > MAX_PAYLOAD_SIZE) return packets;
+        if (!peerCapabilities.beaconDue(System.currentTimeMillis())) return packets;
+        List<byte[]> withBeacon = new ArrayList<>(packets);
+        withBeacon.add(PeerCapabilities.encodeBeacon(userIdBits, true));
+        return withBeacon;
+    }
 
-                    if (isLast && advertisingListener != null) {
-                        mainHandler.postDelayed(() -> {
-                            advertisingListener.onAdvertisingCompleted();
+    /** Same beacon when idle and hearing legacy traffic, so listen-only devices are counted too. */
+    private void sendCapabilityBeaconIfIdle(long now) {
+        if (extendedTransport == null || !transmitScheduler.isIdle()) return;
+        if (!peerCapabilities.beaconDue(now)) return;
+        byte[] beacon = PeerCapabilities.encodeBeacon(userIdBits, true);
+        transmitScheduler.submit(TransmitScheduler.Priority.CONTROL, Collections.singletonList(beacon), 1,
+                EXTENSION_SERVICE_UUID, null);
+    }
 
-                            if (failedChunksCount > 0 && originalMessage != null) {
-                                Log.d(TAG, "Message sending had " + failedChunksCount + " failures out of " + totalChunksToSend);
-                                markMessageAsFailed(originalMessage);
-                            }
-                            currentSendingMessageId = null;
-                            failedChunksCount = 0;
-                            totalChunksToSend = 0;
-                        }, ADVERTISING_DURATION_MS + 500);
-                    }
-                }, i * 1000L);
-            }
-            Log.d(TAG, "Scheduled " + allPackets.size() + " packets (" + BROADCAST_ROUNDS + " rounds)");
-        } else {
-            if (advertisingListener != null) {
+    private void schedulePacketsForAdvertising(List<byte[]> packets, MessageModel originalMessage,
+                                               TransmitScheduler.Priority priority) {
+        if (packets == null || packets.isEmpty()) {
+            if (advertisingListener != null && activeUserJobs.get() == 0) {
                 mainHandler.post(() -> advertisingListener.onAdvertisingCompleted());
             }
-            currentSendingMessageId = null;
+            return;
         }
+        activeUserJobs.incrementAndGet();
+        if (advertisingListener != null) {
+            mainHandler.post(() -> advertisingListener.onAdvertisingStarted());
+        }
+        userJob = transmitScheduler.submit(priority, packets, BROADCAST_ROUNDS, null, job -> {
+            if (userJob == job) userJob = null;
+            if (job.getFailures() > 0 && originalMessage != null && !job.isCancelled()) {
+                Log.d(TAG, "Message sending had " + job.getFailures() + " failures out of " + job.getTotalSends());
+                markMessageAsFailed(originalMessage);
+            }
+            if (activeUserJobs.decrementAndGet() == 0 && advertisingListener != null) {
+                mainHandler.post(() -> advertisingListener.onAdvertisingCompleted());
+            }
+        });
+        Log.d(TAG, "Queued " + packets.size() + " packets x " + BROADCAST_ROUNDS + " rounds at " + priority);
     }
 
+    /**
+     * Goes through the writer like the original save, so it commits after
+     * any upsert of the same message still queued there.
+     */
     private void markMessageAsFailed(MessageModel msg) {
-        processingExecutor.submit(() -> {
-            try {
-                msg.setFailed(true);
-
-                messageDao.deleteMessage(msg.getSenderId(), msg.getMessageId(), msg.getTimestamp());
-                messageDao.insertMessage(com.antor.nearbychat.Database.MessageEntity.fromMessageModel(msg));
-
-                Log.d(TAG, "Marked message as failed: " + msg.getMessageId());
+        msg.setFailed(true);
+        messageWriter.save(msg);
+        Log.d(TAG, "Marked message as failed: " + msg.getMessageId());
 
-                if (timeoutCallback != null) {
-                    mainHandler.post(() -> timeoutCallback.onMessageTimeout(msg));
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error marking message as failed", e);
-            }
-        });
+        if (timeoutCallback != null) {
+            mainHandler.post(() -> timeoutCallback.onMessageTimeout(msg));
+        }
     }
 
     public void sendMissingPartsRequest(String targetUserId, String messageId, List<Integer> missingChunks) {
+        sendMissingPartsRequest(MessageHelper.displayIdToTimestamp(targetUserId),
+                MessageHelper.displayIdToTimestamp(messageId), missingChunks);
+    }
+
+    public void sendMissingPartsRequest(long targetBits, long msgBits, List<Integer> missingChunks) {
         processingExecutor.submit(() -> {
             try {
-                long targetBits = MessageHelper.displayIdToTimestamp(targetUserId);
-                String targetAscii = MessageHelper.timestampToAsciiId(targetBits);
-                long msgBits = MessageHelper.displayIdToTimestamp(messageId);
-                String msgAscii = MessageHelper.timestampToAsciiId(msgBits);
-
-                byte[] header = (REQUEST_MARKER + targetAscii + msgAscii).getBytes(ISO_8859_1);
                 int count = Math.min(missingChunks.size(), MAX_MISSING_CHUNKS);
-                byte[] payload = new byte[header.length + count];
-                System.arraycopy(header, 0, payload, 0, header.length);
+                byte[] payload = new byte[REQUEST_HEADER_SIZE + count];
+                payload[0] = (byte) REQUEST_MARKER.charAt(0);
+                payload[1] = (byte) REQUEST_MARKER.charAt(1);
+                MessageHelper.putId40(payload, 2, targetBits);
+                MessageHelper.putId40(payload, 2 + BlePacketEncoder.ID_LENGTH, msgBits);
                 for (int i = 0; i < count; i++) {
-                    payload[header.length + i] = missingChunks.get(i).byteValue();
+                    payload[REQUEST_HEADER_SIZE + i] = missingChunks.get(i).byteValue();
                 }
-                mainHandler.post(() -> {
-                    startAdvertising(payload);
-                    Log.d(TAG, "Sent request for " + count + " chunks");
-                });
+                transmitScheduler.submit(TransmitScheduler.Priority.CONTROL, Collections.singletonList(payload), 1,
+                        EXTENSION_SERVICE_UUID, null);
+                Log.d(TAG, "Queued request for " + count + " chunks");
             } catch (Exception e) {
                 Log.e(TAG, "Error creating request", e);
             }
         });
     }
 
+    private static boolean isRepairRequest(byte[] data) {
+        return data != null && data.length > REQUEST_HEADER_SIZE
+                && data[0] == REQUEST_MARKER.charAt(0) && data[1] == REQUEST_MARKER.charAt(1);
+    }
+
+    /**
+     * Answers a "??" request with the listed chunks if this device sent or
+     * fully received the message. The original sender answers at once; other
+     * holders wait a random backoff and skip chunks someone else re-sent
+     * meanwhile, so one request does not trigger a burst of duplicates.
+     */
+    private void handleRepairRequest(byte[] data) {
+        long targetBits = MessageHelper.readId40(data, 2);
+        long msgBits = MessageHelper.readId40(data, 2 + BlePacketEncoder.ID_LENGTH);
+        int[] chunkIndices = new int[data.length - REQUEST_HEADER_SIZE];
+        for (int i = 0; i < chunkIndices.length; i++) {
+            chunkIndices[i] = data[REQUEST_HEADER_SIZE + i] & 0xFF;
+        }
+        messageProcessor.onRepairRequestHeard(targetBits, msgBits, System.currentTimeMillis());
+        if (!outboundCache.contains(targetBits, msgBits)) return;
+
+        long backoff = targetBits == userIdBits ? 0 : REPAIR_BACKOFF_MIN_MS + repairBackoff.nextInt(REPAIR_BACKOFF_RANGE_MS);
+        mainHandler.postDelayed(() -> {
+            List<byte[]> packets = outboundCache.getChunks(targetBits, msgBits, chunkIndices,
+                    System.currentTimeMillis(), REPAIR_QUIET_MS);
+            if (!packets.isEmpty()) {
+                transmitScheduler.submit(priorityForPacket(packets.get(0)), packets, 1, null, null);
+                Log.d(TAG, "Answering repair request with " + packets.size() + " chunks");
+            }
+        }, backoff);
+    }
+
+    /**
+     * Brings the digest schedule in line with SYNC_INTERVAL: a new interval
+     * cancels the running task and schedules one at that period, keeping
+     * what has been heard and claimed; 0 cancels it and drops the state.
+     */
+    private void applySyncSettings() {
+        if (SYNC_INTERVAL == syncIntervalScheduled) return;
+        if (syncTask != null) {
+            syncTask.cancel(false);
+            syncTask = null;
+        }
+        syncIntervalScheduled = SYNC_INTERVAL;
+        if (SYNC_INTERVAL == 0) {
+            antiEntropy = null;
+            Log.d(TAG, "Sync digests off");
+            return;
+        }
+        if (antiEntropy == null) antiEntropy = new AntiEntropy();
+        long syncMs = SYNC_INTERVAL * 1000L;
+        syncTask = bleExecutor.scheduleWithFixedDelay(() -> processingExecutor.submit(this::sendSyncDigest),
+                syncMs, syncMs, TimeUnit.MILLISECONDS);
+        Log.d(TAG, "Sync digest every " + SYNC_INTERVAL + " s");
+    }
+
+    /**
+     * Advertises a digest of the messages stored for the next chat in
+     * rotation (Nearby, then each joined group) within the sync window. If
+     * there are more than fit, the window shrinks to the newest ones.
+     */
+    private void sendSyncDigest() {
+        AntiEntropy sync = antiEntropy;
+        if (sync == null) return;
+        try {
+            String[] groups = joinedGroupIds;
+            int chat = sync.nextChat(groups.length + 1);
+            String chatType = chat == 0 ? "N" : "G";
+            String chatId = chat == 0 ? "" : groups[chat - 1];
+            long now = System.currentTimeMillis();
+            int size = Math.max(MAX_PAYLOAD_SIZE, SyncDigest.HEADER_SIZE + 1);
+            int capacity = SyncDigest.capacity(size);
+            List<MessageEntity> recent = messageDao.getRecentCompleteMessages(
+                    chatType, chatId, now - SYNC_WINDOW_MS, capacity);
+            long[] senders = new long[recent.size()];
+            long[] ids = new long[recent.size()];
+            for (int i = 0; i < recent.size(); i++) {
+                senders[i] = recent.get(i).senderTimestampBits;
+                ids[i] = recent.get(i).messageTimestampBits;
+            }
+            long oldest = recent.size() == capacity
+                    ? recent.get(recent.size() - 1).timestampMillis : now - SYNC_WINDOW_MS;
+            byte[] digest = SyncDigest.encode(SyncDigest.chatTag(chatType, chatId), (int) ((now - oldest) / 1000),
+                    sync.nextSalt(), senders, ids, recent.size(), size);
+            transmitScheduler.submit(TransmitScheduler.Priority.RETRANSMIT, Collections.singletonList(digest), 1,
+                    SYNC_SERVICE_UUID, null);
+        } catch (Exception e) {
+            Log.e(TAG, "Error sending sync digest", e);
+        }
+    }
+
+    /**
+     * Answers a peer's digest with up to {@link #SYNC_MAX_REPLIES} stored
+     * messages of that chat it is missing, after a random backoff so peers
+     * hearing the same digest do not all send the same messages.
+     */
+    private void handleSyncDigest(byte[] data) {
+        AntiEntropy sync = antiEntropy;
+        if (sync == null) return;
+        SyncDigest digest = SyncDigest.decode(data);
+        if (digest == null) return;
+        sync.onDigestHeard();
+        String chatId = null;
+        if (digest.getChatTag() == SyncDigest.NEARBY_TAG) {
+            chatId = "";
+        } else {
+            for (String groupId : joinedGroupIds) {
+                if (SyncDigest.chatTag("G", groupId) == digest.getChatTag()) {
+                    chatId = groupId;
+                    break;
+                }
+            }
+            if (chatId == null) return;
+        }
+        String chatType = chatId.isEmpty() ? "N" : "G";
+        String replyChatId = chatId;
+        long backoff = SYNC_BACKOFF_MIN_MS + repairBackoff.nextInt(SYNC_BACKOFF_RANGE_MS);
+        bleExecutor.schedule(() -> processingExecutor.submit(() -> answerSyncDigest(digest, chatType, replyChatId)),
+                backoff, TimeUnit.MILLISECONDS);
+    }
+
+    private void answerSyncDigest(SyncDigest digest, String chatType, String chatId) {
+        AntiEntropy sync = antiEntropy;
+        if (sync == null) return;
+        try {
+            long now = System.currentTimeMillis();
+            List<MessageEntity> held = messageDao.getRecentCompleteMessages(
+                    chatType, chatId, now - digest.getWindowSec() * 1000L, SYNC_SCAN_LIMIT);
+            int sent = 0;
+            for (MessageEntity entity : held) {
+                if (sent >= SYNC_MAX_REPLIES) break;
+                if (digest.mightContain(entity.senderTimestampBits, entity.messageTimestampBits)) continue;
+                if (!sync.claim(entity.senderTimestampBits, entity.messageTimestampBits, now, SYNC_QUIET_MS)) {
+                    continue;
+                }
+                MessageConverterForBle converter = new MessageConverterForBle(
+                        this, entity.toMessageModel(), choosePacketSize());
+                converter.setParityPercent(FEC_PARITY_PERCENT);
+                converter.setCompactHeaders(COMPACT_HEADERS == 1);
+                converter.setSealed(SEALED_MESSAGES == 1);
+                converter.process();
+                List<byte[]> packets = converter.getBlePacketsToSend();
+                outboundCache.put(packets);
+                transmitScheduler.submit(TransmitScheduler.Priority.RETRANSMIT, packets, 1, null, null);
+                sent++;
+            }
+            if (sent > 0) Log.d(TAG, "Answered sync digest with " + sent + " messages");
+        } catch (Exception e) {
+            Log.e(TAG, "Error answering sync digest", e);
+        }
+    }
+
+    /** Repair answers keep the priority class of the message they belong to. */
+    private static TransmitScheduler.Priority priorityForPacket(byte[] packet) {
+        switch ((packet[0] >> 5) & 0x03) {
+            case 3: return TransmitScheduler.Priority.DIRECT;
+            case 2: return TransmitScheduler.Priority.GROUP;
+            default: return TransmitScheduler.Priority.NEARBY;
+        }
+    }
+
     private void stopBleOperations() {
         try {
+            closeAdvertisingSets();
             stopAdvertising();
             stopScanningInternal();
         } catch (Exception e) {
@@ -910,29 +1389,12 @@ public class BleMessagingService extends Service {
             }
         }
 
-        try {
-            if (msg.isComplete()) {
-                if (messageDao.partialMessageExists(msg.getSenderId(), msg.getMessageId()) > 0) {
-                    messageDao.deletePartialMessage(msg.getSenderId(), msg.getMessageId());
-                    Log.d(TAG, "Deleted partial message before saving complete: " + msg.getMessageId());
-                }
-                if (messageDao.messageExists(msg.getSenderId(), msg.getMessage(), msg.getTimestamp()) == 0) {
-                    messageDao.insertMessage(com.antor.nearbychat.Database.MessageEntity.fromMessageModel(msg));
-                    AppDatabase.cleanupOldMessages(this, MAX_MESSAGE_SAVED);
-                    Log.d(TAG, "✅ Saved complete message: " + msg.getMessageId());
-                }
-            } else {
-                if (messageDao.partialMessageExists(msg.getSenderId(), msg.getMessageId()) > 0) {
-                    messageDao.updatePartialMessage(msg.getSenderId(), msg.getMessageId(), msg.getMessage());
-                    Log.d(TAG, "Updated partial message: " + msg.getMessageId() + " -> " + msg.getMessage());
-                } else {
-                    messageDao.insertMessage(com.antor.nearbychat.Database.MessageEntity.fromMessageModel(msg));
-                    Log.d(TAG, "Inserted partial message: " + msg.getMessageId() + " -> " + msg.getMessage());
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error saving message", e);
+        if (!msg.isComplete() && !msg.isFailed()) {
+            reassemblyProgress.update(msg, System.currentTimeMillis());
+            return;
         }
+        reassemblyProgress.remove(msg.getSenderId(), msg.getMessageId());
+        messageWriter.save(msg);
 
         Log.d(TAG, "💾 Saving message: chatType=" + msg.getChatType() +
                 " | chatId=" + msg.getChatId() +
@@ -943,54 +1405,113 @@ public class BleMessagingService extends Service {
                 " | content=" + msg.getMessage().substring(0, Math.min(50, msg.getMessage().length())));
     }
 
-    private void handleScanResult(ScanResult result) {
+    private void enqueueScanResult(ScanResult result) {
+        byte[] data = acceptScanResult(result);
+        if (data != null) ingestQueue.offer(data);
+    }
+
+    /**
+     * Runs on the ingest thread: one reassembly pass for everything that
+     * queued up since the last batch; the writer commits the results.
+     * Packets are recorded as seen here, once they are no longer sheddable.
+     */
+    private void ingestBatch(List<byte[]> packets) {
+        long now = System.currentTimeMillis();
+        ingestFresh.clear();
+        for (byte[] packet : packets) {
+            if (!receivedPackets.checkAndAdd(packet, now)) ingestFresh.add(packet);
+        }
+        for (MessageModel msg : messageProcessor.processIncomingBatch(ingestFresh, userIdBits)) {
+            deliverMessage(msg);
+        }
+        long dropped = ingestQueue.getDropped();
+        if (dropped != ingestDropsLogged) {
+            ingestDropsLogged = dropped;
+            Log.w(TAG, "Ingest queue shedding load: " + ingestQueue);
+        }
+    }
+
+    /**
+     * Handles control packets, admission and duplicate filtering for one
+     * advert and returns the data packet still to be reassembled, or null.
+     */
+    private byte[] acceptScanResult(ScanResult result) {
         ScanRecord record = result.getScanRecord();
-        if (record == null) return;
+        if (record == null) return null;
+        long now = System.currentTimeMillis();
         byte[] data = record.getServiceData(new ParcelUuid(SERVICE_UUID));
-        if (data == null) return;
+        byte[] relayFrame = null;
+        if (data == null) {
+            relayFrame = record.getServiceData(new ParcelUuid(RELAY_SERVICE_UUID));
+            if (relayFrame != null) {
+                if (relayFrame.length <= MessageRelay.RELAY_OVERHEAD) return null;
+                data = MessageRelay.unwrap(relayFrame);
+            }
+        }
+        if (data == null) {
+            byte[] digest = record.getServiceData(new ParcelUuid(SYNC_SERVICE_UUID));
+            if (digest != null) {
+                handleSyncDigest(digest);
+                return null;
+            }
+        }
+        if (data == null) {
+            data = record.getServiceData(new ParcelUuid(EXTENSION_SERVICE_UUID));
+            if (isRepairRequest(data)) {
+                handleRepairRequest(data);
+                return null;
+            }
+            if (PeerCapabilities.isBeacon(data)) {
+                peerCapabilities.onBeacon(data, now);
+                return null;
+            }
+            if (data == null || !BlePacketEncoder.isExtensionPacket(data)) return null;
+        }
+        if (data.length >= BlePacketEncoder.HEADER_SIZE && !BlePacketEncoder.isCompactPacket(data)) {
+            long senderBits = MessageHelper.readId40(data, 1);
+            long msgBits = MessageHelper.readId40(data, 1 + BlePacketEncoder.ID_LENGTH);
+            outboundCache.markHeard(senderBits, msgBits, data[BlePacketEncoder.HEADER_SIZE - 1] & 0xFF, now);
+            AntiEntropy sync = antiEntropy;
+            if (sync != null) sync.noteHeard(senderBits, msgBits, now);
+            // A relayed sender is out of range; it says nothing about who is listening
+            if (senderBits != userIdBits && relayFrame == null) {
+                boolean extendedPdu = !result.isLegacy();
+                peerCapabilities.onHeard(senderBits, extendedPdu, now);
+                if (!extendedPdu) sendCapabilityBeaconIfIdle(now);
+            }
+        }
 
         if (MessageConverterForBle.isAckPacket(data)) {
             handleAckPacket(data);
-            return;
+            return null;
         }
 
-        String chunkKey = generateChunkKey(data);
-        if (!chunkKey.isEmpty() && receivedChunks.get(chunkKey) != null) {
+        MessageRelay relay = messageRelay;
+        if (relay != null) relay.onPacket(data, relayFrame, now);
+        if (!admissionFilter.admit(data)) return null;
+        // Only looked up here: the queue may still shed it, and a later round must then get through
+        if (receivedPackets.contains(data)) return null;
+        return data;
+    }
+
+    private void deliverMessage(MessageModel msg) {
+        if (isUserBlocked(msg.getSenderId())) {
+            Log.d(TAG, "⛔ Dropping message from blocked user: " + msg.getSenderId());
             return;
         }
-        if (!chunkKey.isEmpty()) {
-            receivedChunks.put(chunkKey, true);
-        }
-        String messageId = Arrays.toString(data);
-        if (receivedMessages.get(messageId) != null) return;
-        receivedMessages.put(messageId, true);
-
-        messageProcessor.processIncomingDataAsync(data, userId)
-                .thenAccept(msg -> {
-                    if (msg != null) {
-                        if (isUserBlocked(msg.getSenderId())) {
-                            Log.d(TAG, "⛔ Dropping message from blocked user: " + msg.getSenderId());
-                            return;
-                        }
 
-                        if ("G".equals(msg.getChatType())) {
-                            if (!isUserInGroup(msg.getChatId())) {
-                                Log.d(TAG, "⛔ Dropping message from unjoined group: " + msg.getChatId());
-                                return;
-                            }
-                        }
+        if ("G".equals(msg.getChatType())) {
+            if (!isUserInGroup(msg.getChatId())) {
+                Log.d(TAG, "⛔ Dropping message from unjoined group: " + msg.getChatId());
+                return;
+            }
+        }
 
-                        addMessage(msg);
+        addMessage(msg);
 
-                        if ("F".equals(msg.getChatType()) && msg.isComplete() && !msg.isSelf()) {
-                            sendAckIfEnabled(msg);
-                        }
-                    }
-                })
-                .exceptionally(e -> {
-                    Log.e(TAG, "Error processing message", e);
-                    return null;
-                });
+        if ("F".equals(msg.getChatType()) && msg.isComplete() && !msg.isSelf()) {
+            sendAckIfEnabled(msg);
+        }
     }
 
     private void handleAckPacket(byte[] data) {
@@ -998,25 +1519,17 @@ public class BleMessagingService extends Service {
             MessageConverterForBle.AckInfo ackInfo = MessageConverterForBle.parseAckPacket(data);
             if (ackInfo == null) return;
 
-            long senderBits = MessageHelper.asciiIdToTimestamp(ackInfo.senderAsciiId);
-            String senderDisplayId = MessageHelper.timestampToDisplayId(senderBits);
-
-            long msgBits = MessageHelper.asciiIdToTimestamp(ackInfo.messageAsciiId);
-            String msgDisplayId = MessageHelper.timestampToDisplayId(msgBits);
-
-            long friendBits = MessageHelper.asciiIdToTimestamp(ackInfo.friendAsciiId);
-            String friendDisplayId = MessageHelper.timestampToDisplayId(friendBits);
-
-            if (!senderDisplayId.equals(userId)) {
-                Log.d(TAG, "❌ ACK not for me. Expected: " + userId + ", Got: " + senderDisplayId);
+            if (ackInfo.senderIdBits != userIdBits) {
+                Log.d(TAG, "❌ ACK not for me");
                 return;
             }
 
-            Log.d(TAG, "✅ Received ACK for message: " + msgDisplayId + " from: " + friendDisplayId);
+            Log.d(TAG, "✅ Received ACK for message: " + MessageHelper.timestampToDisplayId(ackInfo.messageIdBits)
+                    + " from: " + MessageHelper.timestampToDisplayId(ackInfo.friendIdBits));
 
             processingExecutor.submit(() -> {
                 try {
-                    messageDao.markMessageAsAcknowledged(userId, msgDisplayId);
+                    messageDao.markMessageAsAcknowledged(userIdBits, ackInfo.messageIdBits);
                     Log.d(TAG, "✅ Marked message as acknowledged in database");
                 } catch (Exception e) {
                     Log.e(TAG, "Error marking message as acknowledged", e);
@@ -1030,9 +1543,11 @@ public class BleMessagingService extends Service {
 
     private void sendAckIfEnabled(MessageModel msg) {
         try {
-            String senderAsciiId = MessageHelper.timestampToAsciiId(
-                    MessageHelper.displayIdToTimestamp(msg.getSenderId())
-            );
+            long senderBits = msg.getSenderTimestampBits();
+            if (senderBits == 0) {
+                senderBits = MessageHelper.displayIdToTimestamp(msg.getSenderId());
+            }
+            String senderAsciiId = MessageHelper.timestampToAsciiId(senderBits);
 
             SharedPreferences prefs = getSharedPreferences("NearbyChatPrefs", MODE_PRIVATE);
             String key = "F:" + senderAsciiId;
@@ -1046,27 +1561,17 @@ public class BleMessagingService extends Service {
             if (msgBits == 0) {
                 msgBits = MessageHelper.displayIdToTimestamp(msg.getMessageId());
             }
-            String messageAsciiId = MessageHelper.timestampToAsciiId(msgBits);
-
-            String myAsciiId = MessageHelper.timestampToAsciiId(
-                    MessageHelper.displayIdToTimestamp(userId)
-            );
 
             byte[] ackPacket = MessageConverterForBle.createAckPacket(
-                    senderAsciiId,
-                    messageAsciiId,
+                    senderBits,
+                    msgBits,
                     msg.getChunkCount(),
                     0,
-                    myAsciiId
+                    userIdBits
             );
 
-            for (int i = 0; i < 3; i++) {
-                final int index = i;
-                mainHandler.postDelayed(() -> {
-                    startAdvertising(ackPacket);
-                    Log.d(TAG, "📤 Sent ACK packet " + (index + 1) + "/3");
-                }, i * 1000L);
-            }
+            transmitScheduler.submit(TransmitScheduler.Priority.CONTROL, Collections.singletonList(ackPacket), 3,
+                    SERVICE_UUID, null);
 
             Log.d(TAG, "📤 Sending ACK for message: " + msg.getMessageId());
 
@@ -1450,6 +1955,18 @@ public class BleMessagingService extends Service {
         isCycleRunning = false;
         bleExecutor.shutdownNow();
         processingExecutor.shutdownNow();
+        ingestQueue.shutdown();
+        Log.d(TAG, "Ingest queue: " + ingestQueue);
+        messageWriter.close();
+        Log.d(TAG, "Message writer: " + messageWriter);
+        getSharedPreferences(PREFS_NAME, MODE_PRIVATE)
+                .unregisterOnSharedPreferenceChangeListener(admissionListsListener);
+        Log.d(TAG, "Admission filter: " + admissionFilter);
+        MessageRelay relay = messageRelay;
+        if (relay != null) Log.d(TAG, "Message relay: " + relay);
+        AntiEntropy sync = antiEntropy;
+        if (sync != null) Log.d(TAG, "Anti-entropy: " + sync);
+        transmitScheduler.shutdown();
         stopBleOperations();
 
         if (wakeLock != null && wakeLock.isHeld()) {
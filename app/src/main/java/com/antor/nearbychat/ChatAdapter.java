@@ -33,7 +33,7 @@ import android.widget.FrameLayout;
 import android.widget.Toast;
 
 import com.antor.nearbychat.Database.AppDatabase;
-import com.antor.nearbychat.Message.MessageHelper;
+import com.antor.nearbychat.Message.ChatKeyRegistry;
 
 public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder> {
 
@@ -212,8 +212,8 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder
         String rawMessage = msg.getMessage();
         if (msg.isFailed() && !"N".equals(msg.getChatType())) {
             try {
-                String password = MessageHelper.getPasswordForChat(context, msg.getChatType(), msg.getChatId(), myUserId);
-                String decrypted = CryptoUtils.decrypt(rawMessage, password);
+                CryptoUtils.ChatKey key = ChatKeyRegistry.getInstance(context).keyFor(msg.getChatType(), msg.getChatId(), myUserId);
+                String decrypted = CryptoUtils.decrypt(rawMessage, key);
                 if (decrypted != null && !decrypted.isEmpty()) {
                     rawMessage = decrypted;
                 }
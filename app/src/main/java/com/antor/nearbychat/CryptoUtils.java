@@ -2,122 +2,200 @@ package com.antor.nearbychat;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.WeakHashMap;
-
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Chat payload ciphers. Keys come from {@link #deriveKey}, normally through
+ * {@link com.antor.nearbychat.Message.ChatKeyRegistry}, so no per-message
+ * hashing or lookups happen here. A null key leaves the data as it is.
+ *
+ * The legacy cipher is a keyed XOR stream with no integrity check. Sealed
+ * messages use AES-CTR with a truncated HMAC-SHA256 tag of
+ * {@link #TAG_LENGTH} bytes over the packet header, the unencrypted stream
+ * prefix and the ciphertext, so a wrong key or a damaged stream is
+ * detected before the payload is used. The counter block is the sender and
+ * message id, which are unique per sender.
+ */
 public class CryptoUtils {
 
     private static final Charset ISO_8859_1 = StandardCharsets.ISO_8859_1;
 
-    private static final Map<String, CacheEntry> keyCache = Collections.synchronizedMap(new WeakHashMap<>());
+    public static final int TAG_LENGTH = 4;
+    private static final byte[] CIPHER_KEY_LABEL = "nearbychat-ctr".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MAC_KEY_LABEL = "nearbychat-mac".getBytes(StandardCharsets.US_ASCII);
 
-    public static String encrypt(String textToEncrypt, String password) {
-        if (password == null || password.isEmpty()) {
-            return textToEncrypt;
+    public static final class ChatKey {
+        final byte[] streamKey;
+        final SecretKeySpec cipherKey;
+        final SecretKeySpec macKey;
+
+        ChatKey(byte[] streamKey) throws GeneralSecurityException {
+            this.streamKey = streamKey;
+            this.cipherKey = new SecretKeySpec(Arrays.copyOf(hmac(streamKey, CIPHER_KEY_LABEL), 16), "AES");
+            this.macKey = new SecretKeySpec(hmac(streamKey, MAC_KEY_LABEL), "HmacSHA256");
         }
-        try {
-            byte[] key = getCachedKey(password);
-            byte[] textBytes = textToEncrypt.getBytes(ISO_8859_1);
-            byte[] result = new byte[textBytes.length];
-
-            int keyIndex = 0;
-            byte prevByte = 0;
-
-            for (int i = 0; i < textBytes.length; i++) {
-                byte mixedKey = (byte) (key[keyIndex] ^ prevByte);
-                result[i] = (byte) (textBytes[i] ^ mixedKey);
-                prevByte = result[i];
-                keyIndex = (keyIndex + 1 + (i % 3)) % key.length;
+
+        private static byte[] hmac(byte[] key, byte[] label) throws GeneralSecurityException {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(label);
+        }
+    }
+
+    /** Per-thread cipher state; JCE instances are not thread-safe. */
+    private static final class Sealer {
+        final Cipher cipher;
+        final Mac mac;
+        final byte[] iv = new byte[16];
+        final byte[] tag = new byte[32];
+
+        Sealer() {
+            try {
+                cipher = Cipher.getInstance("AES/CTR/NoPadding");
+                mac = Mac.getInstance("HmacSHA256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES-CTR/HMAC-SHA256 not available", e);
             }
-            return new String(result, ISO_8859_1);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return textToEncrypt;
+        }
+
+        void start(ChatKey key, int mode, int headerByte, long senderIdBits, long messageIdBits)
+                throws GeneralSecurityException {
+            putId40(iv, 0, senderIdBits);
+            putId40(iv, 5, messageIdBits);
+            cipher.init(mode, key.cipherKey, new IvParameterSpec(iv));
+            mac.init(key.macKey);
+            mac.update((byte) headerByte);
+            mac.update(iv, 0, 10);
         }
     }
 
-    public static String decrypt(String textToDecrypt, String password) {
+    private static final ThreadLocal<Sealer> sealers = ThreadLocal.withInitial(Sealer::new);
+
+    public static ChatKey deriveKey(String password) {
         if (password == null || password.isEmpty()) {
-            return textToDecrypt;
+            return null;
         }
         try {
-            byte[] key = getCachedKey(password);
-            byte[] textBytes = textToDecrypt.getBytes(ISO_8859_1);
-            byte[] result = new byte[textBytes.length];
-
-            int keyIndex = 0;
-            byte prevByte = 0;
-
-            for (int i = 0; i < textBytes.length; i++) {
-                byte mixedKey = (byte) (key[keyIndex] ^ prevByte);
-                result[i] = (byte) (textBytes[i] ^ mixedKey);
-                prevByte = textBytes[i];
-                keyIndex = (keyIndex + 1 + (i % 3)) % key.length;
-            }
-            return new String(result, ISO_8859_1);
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return new ChatKey(digest.digest(password.getBytes(StandardCharsets.UTF_8)));
         } catch (Exception e) {
             e.printStackTrace();
-            return textToDecrypt;
+            return null;
         }
     }
 
-    private static class CacheEntry {
-        byte[] key;
-        long expiry;
-
-        CacheEntry(byte[] key) {
-            this.key = key;
-            this.expiry = System.currentTimeMillis() + (30 * 60 * 1000);
+    /**
+     * Encrypts {@code buf[offset, offset + length)} in place and writes the tag
+     * right after it, so the buffer needs {@link #TAG_LENGTH} spare bytes.
+     * {@code buf[prefixOffset, offset)} is authenticated but left readable.
+     * Returns the sealed length.
+     */
+    public static int seal(ChatKey key, int headerByte, long senderIdBits, long messageIdBits,
+                           byte[] buf, int prefixOffset, int offset, int length) {
+        Sealer s = sealers.get();
+        try {
+            s.start(key, Cipher.ENCRYPT_MODE, headerByte, senderIdBits, messageIdBits);
+            s.cipher.doFinal(buf, offset, length, buf, offset);
+            s.mac.update(buf, prefixOffset, offset + length - prefixOffset);
+            s.mac.doFinal(s.tag, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Sealing failed", e);
         }
+        System.arraycopy(s.tag, 0, buf, offset + length, TAG_LENGTH);
+        return length + TAG_LENGTH;
+    }
 
-        boolean isExpired() {
-            return System.currentTimeMillis() > expiry;
+    /**
+     * Checks the tag of a sealed {@code buf[offset, offset + sealedLength)} and
+     * decrypts it in place; the plaintext is the first
+     * {@code sealedLength - TAG_LENGTH} bytes. Returns false, leaving the
+     * buffer untouched, if the key is wrong or the data was altered.
+     */
+    public static boolean open(ChatKey key, int headerByte, long senderIdBits, long messageIdBits,
+                               byte[] buf, int prefixOffset, int offset, int sealedLength) {
+        if (key == null || sealedLength < TAG_LENGTH) return false;
+        int length = sealedLength - TAG_LENGTH;
+        Sealer s = sealers.get();
+        try {
+            s.start(key, Cipher.DECRYPT_MODE, headerByte, senderIdBits, messageIdBits);
+            s.mac.update(buf, prefixOffset, offset + length - prefixOffset);
+            s.mac.doFinal(s.tag, 0);
+            int diff = 0;
+            for (int i = 0; i < TAG_LENGTH; i++) {
+                diff |= s.tag[i] ^ buf[offset + length + i];
+            }
+            if (diff != 0) return false;
+            s.cipher.doFinal(buf, offset, length, buf, offset);
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
         }
     }
 
-    private static byte[] getCachedKey(String password) throws Exception {
-        CacheEntry entry = keyCache.get(password);
-
-        if (entry != null && !entry.isExpired()) {
-            return entry.key;
+    private static void putId40(byte[] dst, int offset, long bits40) {
+        for (int i = 0; i < 5; i++) {
+            dst[offset + i] = (byte) (bits40 >>> ((4 - i) * 8));
         }
-        byte[] key = generateKey(password);
+    }
 
-        if (keyCache.size() < 50) {
-            keyCache.put(password, new CacheEntry(key));
+    public static String encrypt(String textToEncrypt, ChatKey key) {
+        if (key == null) {
+            return textToEncrypt;
         }
-
-        return key;
+        byte[] textBytes = textToEncrypt.getBytes(ISO_8859_1);
+        return new String(encrypt(textBytes, 0, textBytes.length, key), ISO_8859_1);
     }
 
-    private static byte[] generateKey(String password) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+    public static String decrypt(String textToDecrypt, ChatKey key) {
+        if (key == null) {
+            return textToDecrypt;
+        }
+        byte[] textBytes = textToDecrypt.getBytes(ISO_8859_1);
+        return new String(decrypt(textBytes, 0, textBytes.length, key), ISO_8859_1);
     }
 
-    public static void clearKeyCache() {
-        keyCache.clear();
+    public static byte[] encrypt(byte[] src, int offset, int length, ChatKey key) {
+        byte[] result = new byte[length];
+        if (key == null) {
+            System.arraycopy(src, offset, result, 0, length);
+            return result;
+        }
+        byte[] streamKey = key.streamKey;
+        int keyIndex = 0;
+        byte prevByte = 0;
+
+        for (int i = 0; i < length; i++) {
+            byte mixedKey = (byte) (streamKey[keyIndex] ^ prevByte);
+            result[i] = (byte) (src[offset + i] ^ mixedKey);
+            prevByte = result[i];
+            keyIndex = (keyIndex + 1 + (i % 3)) % streamKey.length;
+        }
+        return result;
     }
 
-    static {
-        Thread cleanupThread = new Thread(() -> {
-            while (true) {
-                try {
-                    Thread.sleep(60000);
-
-                    synchronized (keyCache) {
-                        keyCache.entrySet().removeIf(e -> e.getValue().isExpired());
-                    }
-                } catch (InterruptedException e) {
-                    break;
-                }
-            }
-        });
-
-        cleanupThread.setDaemon(true);
-        cleanupThread.start();
+    public static byte[] decrypt(byte[] src, int offset, int length, ChatKey key) {
+        byte[] result = new byte[length];
+        if (key == null) {
+            System.arraycopy(src, offset, result, 0, length);
+            return result;
+        }
+        byte[] streamKey = key.streamKey;
+        int keyIndex = 0;
+        byte prevByte = 0;
+
+        for (int i = 0; i < length; i++) {
+            byte mixedKey = (byte) (streamKey[keyIndex] ^ prevByte);
+            result[i] = (byte) (src[offset + i] ^ mixedKey);
+            prevByte = src[offset + i];
+            keyIndex = (keyIndex + 1 + (i % 3)) % streamKey.length;
+        }
+        return result;
     }
-}
\ No newline at end of file
+}
@@ -10,7 +10,7 @@ import androidx.sqlite.db.SupportSQLiteDatabase;
 
 @Database(
         entities = {MessageEntity.class, SavedMessageEntity.class},
-        version = 14,
+        version = 16,
         exportSchema = false
 )
 public abstract class AppDatabase extends RoomDatabase {
@@ -27,6 +27,21 @@ public abstract class AppDatabase extends RoomDatabase {
         }
     };
 
+    static final Migration MIGRATION_14_15 = new Migration(14, 15) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_messages_timestampMillis ON messages(timestampMillis)");
+        }
+    };
+
+    static final Migration MIGRATION_15_16 = new Migration(15, 16) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_messages_senderTimestampBits_messageTimestampBits "
+                    + "ON messages(senderTimestampBits, messageTimestampBits)");
+        }
+    };
+
     static final Migration MIGRATION_10_11 = new Migration(10, 11) {
         @Override
         public void migrate(@NonNull SupportSQLiteDatabase database) {
@@ -144,7 +159,9 @@ public abstract class AppDatabase extends RoomDatabase {
                                     MIGRATION_10_11,
                                     MIGRATION_11_12,
                                     MIGRATION_12_13,
-                                    MIGRATION_13_14
+                                    MIGRATION_13_14,
+                                    MIGRATION_14_15,
+                                    MIGRATION_15_16
                             )
                             .fallbackToDestructiveMigration()
                             .build();
@@ -153,18 +170,4 @@ public abstract class AppDatabase extends RoomDatabase {
         }
         return INSTANCE;
     }
-
-    public static void cleanupOldMessages(Context context, int maxMessages) {
-        new Thread(() -> {
-            try {
-                MessageDao dao = getInstance(context).messageDao();
-                int currentCount = dao.getMessageCount();
-                if (currentCount > maxMessages) {
-                    dao.deleteOldMessages(maxMessages);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }).start();
-    }
 }
\ No newline at end of file
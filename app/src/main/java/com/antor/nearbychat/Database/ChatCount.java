@@ -0,0 +1,7 @@
+package com.antor.nearbychat.Database;
+
+public class ChatCount {
+    public String chatType;
+    public String chatId;
+    public int count;
+}
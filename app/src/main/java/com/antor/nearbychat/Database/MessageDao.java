@@ -4,6 +4,8 @@ import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.Transaction;
+import java.util.ArrayList;
 import java.util.List;
 
 @Dao
@@ -24,6 +26,11 @@ public interface MessageDao {
             "ORDER BY timestampMillis ASC")
     LiveData<List<MessageEntity>> getMessagesForChat(String chatType, String chatId);
 
+    @Query("SELECT * FROM messages WHERE chatType = :chatType AND chatId = :chatId " +
+            "AND timestampMillis >= :sinceMillis AND isComplete = 1 AND isFailed = 0 AND messageTimestampBits != 0 " +
+            "ORDER BY timestampMillis DESC LIMIT :limit")
+    List<MessageEntity> getRecentCompleteMessages(String chatType, String chatId, long sinceMillis, int limit);
+
     @Insert
     void insertMessage(com.antor.nearbychat.Database.MessageEntity message);
 
@@ -61,8 +68,22 @@ public interface MessageDao {
     @Query("SELECT COUNT(*) FROM messages")
     int getMessageCount();
 
-    @Query("DELETE FROM messages WHERE id NOT IN (SELECT id FROM messages ORDER BY timestampMillis DESC LIMIT :limit)")
-    void deleteOldMessages(int limit);
+    @Query("SELECT COUNT(*) FROM messages WHERE chatType = :chatType AND chatId = :chatId")
+    int getMessageCountForChat(String chatType, String chatId);
+
+    @Query("SELECT chatType, chatId, COUNT(*) AS count FROM messages GROUP BY chatType, chatId HAVING COUNT(*) > :limit")
+    List<ChatCount> getChatsOverLimit(int limit);
+
+    @Query("DELETE FROM messages WHERE id IN (SELECT id FROM messages ORDER BY timestampMillis ASC LIMIT :count)")
+    int deleteOldestMessages(int count);
+
+    @Query("DELETE FROM messages WHERE id IN (SELECT id FROM messages WHERE chatType = :chatType AND chatId = :chatId " +
+            "ORDER BY timestampMillis ASC LIMIT :count)")
+    int deleteOldestMessagesInChat(String chatType, String chatId, int count);
+
+    @Query("DELETE FROM messages WHERE id IN (SELECT id FROM messages WHERE timestampMillis < :cutoffMillis " +
+            "ORDER BY timestampMillis ASC LIMIT :count)")
+    int deleteMessagesOlderThan(long cutoffMillis, int count);
 
     @Query("SELECT COUNT(*) FROM messages WHERE senderId = :senderId AND message = :message AND timestamp = :timestamp")
     int messageExists(String senderId, String message, String timestamp);
@@ -88,6 +109,52 @@ public interface MessageDao {
     @Query("SELECT * FROM messages WHERE messageId = :messageId LIMIT 1")
     MessageEntity getMessageById(String messageId);
 
-    @Query("UPDATE messages SET isAcknowledged = 1 WHERE senderId = :senderId AND messageId = :messageId")
-    void markMessageAsAcknowledged(String senderId, String messageId);
+    @Query("UPDATE messages SET isAcknowledged = 1 WHERE " +
+            "senderTimestampBits = :senderIdBits AND messageTimestampBits = :messageIdBits")
+    void markMessageAsAcknowledged(long senderIdBits, long messageIdBits);
+
+    @Query("DELETE FROM messages WHERE senderTimestampBits = :senderIdBits AND " +
+            "messageTimestampBits = :messageIdBits AND isComplete = 0")
+    int deletePartialRows(long senderIdBits, long messageIdBits);
+
+    @Query("UPDATE messages SET message = :newMessage, isFailed = :isFailed WHERE " +
+            "senderTimestampBits = :senderIdBits AND messageTimestampBits = :messageIdBits AND isComplete = 0")
+    int updatePartialRow(long senderIdBits, long messageIdBits, String newMessage, boolean isFailed);
+
+    @Query("SELECT COUNT(*) FROM messages WHERE senderTimestampBits = :senderIdBits AND messageTimestampBits = :messageIdBits")
+    int messageIdExists(long senderIdBits, long messageIdBits);
+
+    @Query("UPDATE messages SET isFailed = 1 WHERE senderTimestampBits = :senderIdBits AND " +
+            "messageTimestampBits = :messageIdBits AND isComplete = 1")
+    int markCompleteRowFailed(long senderIdBits, long messageIdBits);
+
+    /**
+     * Writes a batch of received messages in one transaction and returns
+     * the ones that added a row (a complete message that replaces its
+     * partial row does not). Idempotent: a complete message replaces
+     * its partial row once, and a partial never overwrites or duplicates a
+     * message that is already stored complete. A failed send sets the flag
+     * on its stored row in place.
+     */
+    @Transaction
+    default List<MessageEntity> upsertMessages(List<MessageEntity> messages) {
+        List<MessageEntity> inserted = new ArrayList<>();
+        for (MessageEntity message : messages) {
+            if (message.isComplete) {
+                int replaced = deletePartialRows(message.senderTimestampBits, message.messageTimestampBits);
+                if (messageExists(message.senderId, message.message, message.timestamp) == 0) {
+                    insertMessage(message);
+                    if (replaced == 0) inserted.add(message);
+                } else if (message.isFailed) {
+                    markCompleteRowFailed(message.senderTimestampBits, message.messageTimestampBits);
+                }
+            } else if (updatePartialRow(message.senderTimestampBits, message.messageTimestampBits,
+                    message.message, message.isFailed) == 0
+                    && messageIdExists(message.senderTimestampBits, message.messageTimestampBits) == 0) {
+                insertMessage(message);
+                inserted.add(message);
+            }
+        }
+        return inserted;
+    }
 }
\ No newline at end of file
@@ -9,7 +9,9 @@ import androidx.room.Index;
                 @Index(value = {"senderId", "timestamp"}),
                 @Index(value = {"messageId"}),
                 @Index(value = {"chatType", "chatId", "timestampMillis"}),
-                @Index(value = {"message"})
+                @Index(value = {"message"}),
+                @Index(value = {"timestampMillis"}),
+                @Index(value = {"senderTimestampBits", "messageTimestampBits"})
         })
 public class MessageEntity {
     @PrimaryKey(autoGenerate = true)
@@ -0,0 +1,171 @@
+package com.antor.nearbychat.Database;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Keeps the messages table within its limits without counting the whole
+ * table after every insert. The writer reports what it inserted and the
+ * running counts (total and per chat) move with it; only when a count
+ * passes its high-water mark is the exact count read back and the oldest
+ * rows deleted, {@link #DELETE_BATCH} at a time through the
+ * timestampMillis indices. Age limits, a sweep of every chat and
+ * incremental vacuum run from {@link #runIdle(long)} on an idle schedule.
+ */
+public class MessageRetention {
+
+    private static final String TAG = "MessageRetention";
+
+    public static final int DELETE_BATCH = 100;
+    public static final int VACUUM_PAGES = 256;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private final AppDatabase database;
+    private final MessageDao dao;
+    private volatile int maxMessages;
+    private volatile int maxPerChat;
+    private volatile long maxAgeMs;
+
+    private int count = -1;
+    private final Map<String, Integer> chatCounts = new HashMap<>();
+
+    /** {@code maxPerChat} and {@code maxAgeDays} of 0 disable that limit. */
+    public MessageRetention(AppDatabase database, int maxMessages, int maxPerChat, int maxAgeDays) {
+        this.database = database;
+        this.dao = database.messageDao();
+        setLimits(maxMessages, maxPerChat, maxAgeDays);
+    }
+
+    public void setLimits(int maxMessages, int maxPerChat, int maxAgeDays) {
+        this.maxMessages = maxMessages;
+        this.maxPerChat = maxPerChat;
+        this.maxAgeMs = maxAgeDays * DAY_MS;
+    }
+
+    private static int slack(int limit) {
+        return Math.max(1, Math.min(DELETE_BATCH, limit / 10));
+    }
+
+    private static String chatKey(String chatType, String chatId) {
+        return chatType + ":" + chatId;
+    }
+
+    /** Called after each committed write with the rows it added. */
+    public synchronized void onInserted(List<MessageEntity> inserted) {
+        if (inserted.isEmpty()) return;
+        try {
+            count = count < 0 ? dao.getMessageCount() : count + inserted.size();
+            if (count > maxMessages + slack(maxMessages)) {
+                count = dao.getMessageCount();
+                count -= trim(count - maxMessages, dao::deleteOldestMessages);
+                chatCounts.clear();
+            }
+
+            int perChat = maxPerChat;
+            if (perChat <= 0) return;
+            Map<String, MessageEntity> touched = new HashMap<>();
+            Map<String, Integer> added = new HashMap<>();
+            for (MessageEntity message : inserted) {
+                String key = chatKey(message.chatType, message.chatId);
+                touched.put(key, message);
+                added.merge(key, 1, Integer::sum);
+            }
+            for (Map.Entry<String, MessageEntity> entry : touched.entrySet()) {
+                String key = entry.getKey();
+                MessageEntity message = entry.getValue();
+                Integer known = chatCounts.get(key);
+                int chatCount = known == null
+                        ? dao.getMessageCountForChat(message.chatType, message.chatId)
+                        : known + added.get(key);
+                if (chatCount > perChat + slack(perChat)) {
+                    chatCount = dao.getMessageCountForChat(message.chatType, message.chatId);
+                    int deleted = trim(chatCount - perChat,
+                            n -> dao.deleteOldestMessagesInChat(message.chatType, message.chatId, n));
+                    chatCount -= deleted;
+                    count -= deleted;
+                }
+                chatCounts.put(key, chatCount);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error enforcing message limits", e);
+            count = -1;
+            chatCounts.clear();
+        }
+    }
+
+    /** Deletes up to {@code excess} rows in batches; returns how many went. */
+    private static int trim(int excess, IntUnaryOperator deleteBatch) {
+        int deleted = 0;
+        while (excess > 0) {
+            int batch = Math.min(DELETE_BATCH, excess);
+            int removed = deleteBatch.applyAsInt(batch);
+            deleted += removed;
+            excess -= removed;
+            if (removed < batch) break;
+        }
+        return deleted;
+    }
+
+    /**
+     * Applies every policy exactly, re-reads the counts and gives freed pages
+     * back to the file system. Meant for an idle, deferrable job.
+     */
+    public synchronized void runIdle(long nowMs) {
+        try {
+            int deleted = 0;
+            if (maxAgeMs > 0) {
+                long cutoff = nowMs - maxAgeMs;
+                deleted += trim(Integer.MAX_VALUE, n -> dao.deleteMessagesOlderThan(cutoff, n));
+            }
+            if (maxPerChat > 0) {
+                for (ChatCount chat : dao.getChatsOverLimit(maxPerChat)) {
+                    deleted += trim(chat.count - maxPerChat,
+                            n -> dao.deleteOldestMessagesInChat(chat.chatType, chat.chatId, n));
+                }
+            }
+            count = dao.getMessageCount();
+            if (count > maxMessages) {
+                int removed = trim(count - maxMessages, dao::deleteOldestMessages);
+                count -= removed;
+                deleted += removed;
+            }
+            chatCounts.clear();
+            Log.d(TAG, "Idle retention removed " + deleted + " messages, " + count + " left");
+            incrementalVacuum();
+        } catch (Exception e) {
+            Log.e(TAG, "Error in idle retention", e);
+        }
+    }
+
+    private void incrementalVacuum() {
+        SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        if (longForQuery(db, "PRAGMA auto_vacuum") != 2) {
+            // The mode only takes effect after one full VACUUM
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            Log.d(TAG, "Switched database to incremental vacuum");
+            return;
+        }
+        long freePages = longForQuery(db, "PRAGMA freelist_count");
+        if (freePages == 0) return;
+        // Pages are freed one per step, so the statement must run to completion
+        try (Cursor cursor = db.query("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")")) {
+            while (cursor.moveToNext()) {
+            }
+        }
+        Log.d(TAG, "Incremental vacuum: " + Math.min(freePages, VACUUM_PAGES) + " of " + freePages + " free pages");
+    }
+
+    private static long longForQuery(SupportSQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.query(sql)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+}
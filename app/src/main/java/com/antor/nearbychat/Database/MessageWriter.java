@@ -0,0 +1,105 @@
+package com.antor.nearbychat.Database;
+
+import android.util.Log;
+
+import com.antor.nearbychat.MessageModel;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind stage for received messages. Saves are collected for
+ * {@code delayMs} after the first one, collapsed to the latest state of
+ * each message, and committed with one {@link MessageDao#upsertMessages}
+ * transaction, so observers of the messages table are invalidated once
+ * per flush rather than once per chunk. The rows it added are then handed
+ * to {@code onInserted}, which is {@link MessageRetention#onInserted} in
+ * the service.
+ */
+public class MessageWriter {
+
+    private static final String TAG = "MessageWriter";
+
+    private final MessageDao dao;
+    private final long delayMs;
+    private final ScheduledExecutorService executor;
+    private final Consumer<List<MessageEntity>> onInserted;
+    private LinkedHashMap<String, MessageModel> pending = new LinkedHashMap<>();
+    private boolean scheduled = false;
+
+    private long saves = 0;
+    private long rows = 0;
+    private long flushes = 0;
+
+    public MessageWriter(MessageDao dao, long delayMs, Consumer<List<MessageEntity>> onInserted) {
+        this(dao, delayMs, onInserted,
+                Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "db-writer")));
+    }
+
+    public MessageWriter(MessageDao dao, long delayMs, Consumer<List<MessageEntity>> onInserted,
+                         ScheduledExecutorService executor) {
+        this.dao = dao;
+        this.delayMs = delayMs;
+        this.onInserted = onInserted;
+        this.executor = executor;
+    }
+
+    public void save(MessageModel msg) {
+        String key = msg.getSenderId() + ":" + msg.getMessageId();
+        synchronized (this) {
+            saves++;
+            MessageModel previous = pending.get(key);
+            if (previous == null || !previous.isComplete() || msg.isComplete()) {
+                pending.put(key, msg);
+            }
+            if (scheduled) return;
+            scheduled = true;
+        }
+        try {
+            executor.schedule(this::flush, delayMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.e(TAG, "Message writer stopped", e);
+        }
+    }
+
+    private void flush() {
+        LinkedHashMap<String, MessageModel> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new LinkedHashMap<>();
+            scheduled = false;
+        }
+        if (batch.isEmpty()) return;
+        List<MessageEntity> entities = new ArrayList<>(batch.size());
+        for (MessageModel msg : batch.values()) {
+            entities.add(MessageEntity.fromMessageModel(msg));
+        }
+        try {
+            List<MessageEntity> inserted = dao.upsertMessages(entities);
+            synchronized (this) {
+                rows += entities.size();
+                flushes++;
+            }
+            Log.d(TAG, "Flushed " + entities.size() + " messages");
+            onInserted.accept(inserted);
+        } catch (Exception e) {
+            Log.e(TAG, "Error writing messages", e);
+        }
+    }
+
+    /** Writes whatever is pending and stops the writer thread. */
+    public void close() {
+        executor.execute(this::flush);
+        executor.shutdown();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "saves=" + saves + " rows=" + rows + " flushes=" + flushes;
+    }
+}
@@ -766,11 +766,9 @@ public class GroupsFriendsActivity extends Activity {
 
     private void saveGroups() {
         DataCache.saveGroups(this, groupsList);
-        CryptoUtils.clearKeyCache();
     }
 
     private void saveFriends() {
         DataCache.saveFriends(this, friendsList);
-        CryptoUtils.clearKeyCache();
     }
 }
\ No newline at end of file
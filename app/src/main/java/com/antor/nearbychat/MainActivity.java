@@ -65,7 +65,10 @@ import com.google.gson.reflect.TypeToken;
 import java.lang.reflect.Type;
 import java.util.*;
 
+import com.antor.nearbychat.Message.BlePacketEncoder;
+import com.antor.nearbychat.Message.ChatKeyRegistry;
 import com.antor.nearbychat.Message.MessageHelper;
+import com.antor.nearbychat.Message.ReassemblyProgress;
 
 public class MainActivity extends BaseActivity {
 
@@ -99,6 +102,9 @@ public class MainActivity extends BaseActivity {
     private ChatAdapter chatAdapter;
     private TextView textStatus;
     private List<MessageModel> messageList = new ArrayList<>();
+    private final List<MessageModel> storedMessages = new ArrayList<>();
+    private final Set<String> storedMessageKeys = new HashSet<>();
+    private boolean showReassemblyProgress = false;
 
     private ImageView appIcon;
     private TextView appTitle;
@@ -106,6 +112,7 @@ public class MainActivity extends BaseActivity {
 
     private TextView chunkCountView;
     private int currentMaxPayloadSize = 27;
+    private boolean compactHeadersEnabled = false;
     private static final int MAX_CHUNKS_LIMIT = 250;
 
     private SharedPreferences prefs;
@@ -231,10 +238,12 @@ public class MainActivity extends BaseActivity {
         setupDatabase();
         markCurrentChatAsRead();
         observeTotalUnreadCount();
+        ReassemblyProgress.getInstance().getChanges().observe(this, version -> onReassemblyProgress());
         checkBatteryOptimization();
         checkPermissionsAndStartService();
 
         scheduleServiceWatchdog();
+        scheduleMessageRetention();
     }
 
     private void setupUI() {
@@ -582,6 +591,7 @@ public class MainActivity extends BaseActivity {
 
             Log.d(TAG, "🔍 Total messages received: " + messages.size());
 
+            showReassemblyProgress = false;
             messageList.clear();
 
             String lowerQuery = query.toLowerCase();
@@ -648,12 +658,7 @@ public class MainActivity extends BaseActivity {
 
             boolean wasAtBottom = isAtBottom();
 
-            messageList.clear();
-            for (com.antor.nearbychat.Database.MessageEntity entity : messages) {
-                messageList.add(entity.toMessageModel());
-            }
-
-            chatAdapter.notifyDataSetChanged();
+            showStoredMessages(messages);
 
             if (wasAtBottom && !messageList.isEmpty()) {
                 recyclerView.scrollToPosition(messageList.size() - 1);
@@ -1411,6 +1416,7 @@ public class MainActivity extends BaseActivity {
         inputVideoURL.setVisibility(View.GONE);
         switchInputImage.setImageResource(R.drawable.text);
 
+        showReassemblyProgress = false;
         messageList.clear();
         chatAdapter.notifyDataSetChanged();
 
@@ -1462,11 +1468,7 @@ public class MainActivity extends BaseActivity {
             if (messages != null) {
                 boolean wasAtBottom = isAtBottom();
 
-                messageList.clear();
-                for (com.antor.nearbychat.Database.MessageEntity entity : messages) {
-                    messageList.add(entity.toMessageModel());
-                }
-                chatAdapter.notifyDataSetChanged();
+                showStoredMessages(messages);
 
                 if (wasAtBottom && !messageList.isEmpty()) {
                     recyclerView.scrollToPosition(messageList.size() - 1);
@@ -1639,6 +1641,53 @@ public class MainActivity extends BaseActivity {
         userId = getUserIdString(userIdBits);
     }
 
+    /** Shows the stored messages of the active chat with in-progress receptions below them. */
+    private void showStoredMessages(List<com.antor.nearbychat.Database.MessageEntity> messages) {
+        storedMessages.clear();
+        storedMessageKeys.clear();
+        for (com.antor.nearbychat.Database.MessageEntity entity : messages) {
+            storedMessages.add(entity.toMessageModel());
+            storedMessageKeys.add(entity.senderId + ":" + entity.messageId);
+        }
+        showReassemblyProgress = true;
+        messageList.clear();
+        messageList.addAll(storedMessages);
+        appendPartialMessages();
+        chatAdapter.notifyDataSetChanged();
+    }
+
+    private int appendPartialMessages() {
+        int count = 0;
+        for (MessageModel partial : ReassemblyProgress.getInstance().getPartials(activeChatType, activeChatId)) {
+            if (storedMessageKeys.contains(partial.getSenderId() + ":" + partial.getMessageId())) continue;
+            messageList.add(partial);
+            count++;
+        }
+        return count;
+    }
+
+    /** Redraws only the progress rows at the end of the list. */
+    private void onReassemblyProgress() {
+        if (!showReassemblyProgress) return;
+        boolean wasAtBottom = isAtBottom();
+        int start = storedMessages.size();
+        int oldCount = messageList.size() - start;
+        messageList.subList(start, messageList.size()).clear();
+        int newCount = appendPartialMessages();
+
+        int common = Math.min(oldCount, newCount);
+        if (common > 0) chatAdapter.notifyItemRangeChanged(start, common);
+        if (newCount > oldCount) {
+            chatAdapter.notifyItemRangeInserted(start + oldCount, newCount - oldCount);
+        } else if (oldCount > newCount) {
+            chatAdapter.notifyItemRangeRemoved(start + newCount, oldCount - newCount);
+        }
+        if (wasAtBottom && newCount > oldCount) {
+            recyclerView.scrollToPosition(messageList.size() - 1);
+        }
+        if ((oldCount == 0) != (newCount == 0)) updateChatUI();
+    }
+
     private void updateChatUI() {
         if (messageList.isEmpty()) {
             textStatus.setText("No messages yet!\nStart the conversation");
@@ -1854,6 +1903,8 @@ public class MainActivity extends BaseActivity {
         if (currentMaxPayloadSize < 20) {
             currentMaxPayloadSize = 20;
         }
+        compactHeadersEnabled = prefs.getInt("COMPACT_HEADERS", 0) == 1
+                && prefs.getInt("FEC_PARITY_PERCENT", 0) == 0;
     }
 
     private int calculateCurrentChunkCount() {
@@ -1903,8 +1954,8 @@ public class MainActivity extends BaseActivity {
         byte[] payloadBytes;
         if (!"N".equals(activeChatType)) {
             try {
-                String password = MessageHelper.getPasswordForChat(this, activeChatType, activeChatId, userId);
-                String encrypted = CryptoUtils.encrypt(contentToProcess, password);
+                CryptoUtils.ChatKey key = ChatKeyRegistry.getInstance(this).keyFor(activeChatType, activeChatId, userId);
+                String encrypted = CryptoUtils.encrypt(contentToProcess, key);
                 if (encrypted == null) encrypted = "";
                 payloadBytes = encrypted.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
             } catch (Exception e) {
@@ -1932,6 +1983,10 @@ public class MainActivity extends BaseActivity {
 
         if (streamSize == 0) return 1;
 
+        if (compactHeadersEnabled) {
+            return BlePacketEncoder.compactChunkCount(streamSize, currentMaxPayloadSize);
+        }
+
         int count = (int) Math.ceil((double) streamSize / capacityPerChunk);
 
         return count;
@@ -2279,8 +2334,8 @@ public class MainActivity extends BaseActivity {
                     String checkMsg = parsed.message;
                     if(msg.isFailed() && !"N".equals(msg.getChatType())){
                         try {
-                            String password = MessageHelper.getPasswordForChat(this, msg.getChatType(), msg.getChatId(), userId);
-                            String decrypted = CryptoUtils.decrypt(checkMsg, password);
+                            CryptoUtils.ChatKey key = ChatKeyRegistry.getInstance(this).keyFor(msg.getChatType(), msg.getChatId(), userId);
+                            String decrypted = CryptoUtils.decrypt(checkMsg, key);
                             if(decrypted != null) checkMsg = decrypted;
                         } catch(Exception e){}
                     }
@@ -2610,6 +2665,7 @@ public class MainActivity extends BaseActivity {
 
         savedMessagesLiveData.observe(this, messages -> {
             if (messages != null) {
+                showReassemblyProgress = false;
                 messageList.clear();
                 for (SavedMessageEntity entity : messages) {
                     messageList.add(entity.toMessageModel());
@@ -3055,6 +3111,33 @@ public class MainActivity extends BaseActivity {
         }
     }
 
+    private void scheduleMessageRetention() {
+        try {
+            androidx.work.Constraints constraints = new androidx.work.Constraints.Builder()
+                    .setRequiresDeviceIdle(true)
+                    .setRequiresBatteryNotLow(true)
+                    .build();
+            androidx.work.PeriodicWorkRequest retentionWork =
+                    new androidx.work.PeriodicWorkRequest.Builder(
+                            MessageRetentionWorker.class,
+                            6,
+                            java.util.concurrent.TimeUnit.HOURS
+                    )
+                            .setConstraints(constraints)
+                            .addTag("message_retention")
+                            .build();
+
+            androidx.work.WorkManager.getInstance(this)
+                    .enqueueUniquePeriodicWork(
+                            "message_retention",
+                            androidx.work.ExistingPeriodicWorkPolicy.KEEP,
+                            retentionWork
+                    );
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to schedule message retention", e);
+        }
+    }
+
     public String getCurrentUserId() {
         return userId;
     }
@@ -0,0 +1,117 @@
+package com.antor.nearbychat.Message;
+
+/**
+ * Rejects packets the user will never see straight from the scan bytes,
+ * before duplicate filtering, queueing or reassembly spend anything on
+ * them: full-header packets from blocked senders, the first chunk of a
+ * Group message for a group that was not joined, and the first chunk of a
+ * Friend message addressed to someone else.
+ *
+ * The lists are held as {@link LongHashSet}s of 40-bit ids that are
+ * replaced wholesale when the user edits them, so {@link #admit} reads
+ * only the header and a couple of array slots. Later chunks of a
+ * rejected first chunk carry no chat id; the {@link RejectionListener}
+ * is told the message id so they can be dropped downstream.
+ */
+public class AdmissionFilter {
+
+    private static final int SENDER_ID_OFFSET = 1;
+    private static final int CHUNK_INDEX_OFFSET = BlePacketEncoder.HEADER_SIZE - 1;
+
+    private final long myIdBits;
+    private volatile LongHashSet blockedSenders = LongHashSet.EMPTY;
+    private volatile LongHashSet joinedGroups = LongHashSet.EMPTY;
+    private volatile RejectionListener rejectionListener;
+
+    // Written by the scan thread only; read for logging
+    private long rejectedBlocked = 0;
+    private long rejectedGroup = 0;
+    private long rejectedFriend = 0;
+
+    public AdmissionFilter(long myIdBits) {
+        this.myIdBits = myIdBits;
+    }
+
+    public interface RejectionListener {
+        void onMessageRejected(long senderIdBits, long messageIdBits);
+    }
+
+    /** Called on the scan thread for each first chunk rejected as not for this device. */
+    public void setRejectionListener(RejectionListener rejectionListener) {
+        this.rejectionListener = rejectionListener;
+    }
+
+    /** Sender ids as read by {@link MessageHelper#displayIdToTimestamp}. */
+    public void setBlockedSenders(LongHashSet blockedSenders) {
+        this.blockedSenders = blockedSenders;
+    }
+
+    /** Group ids as read by {@link MessageHelper#asciiIdToTimestamp}. */
+    public void setJoinedGroups(LongHashSet joinedGroups) {
+        this.joinedGroups = joinedGroups;
+    }
+
+    public boolean isBlocked(long senderIdBits) {
+        return blockedSenders.contains(senderIdBits);
+    }
+
+    public boolean isJoinedGroup(long groupIdBits) {
+        return joinedGroups.contains(groupIdBits);
+    }
+
+    /**
+     * Returns false if the packet can be dropped. Compact continuation
+     * chunks carry no ids and always pass; their session only exists if
+     * an admitted full-header chunk opened it.
+     */
+    public boolean admit(byte[] packet) {
+        if (packet.length < BlePacketEncoder.HEADER_SIZE || BlePacketEncoder.isCompactPacket(packet)) {
+            return true;
+        }
+        if (blockedSenders.contains(MessageHelper.readId40(packet, SENDER_ID_OFFSET))) {
+            rejectedBlocked++;
+            return false;
+        }
+        if (packet[CHUNK_INDEX_OFFSET] != 0
+                || packet.length < BlePacketEncoder.HEADER_SIZE + BlePacketEncoder.ID_LENGTH) {
+            return true;
+        }
+        switch ((packet[0] >> 5) & 0x03) {
+            case BlePacketView.CHAT_TYPE_GROUP:
+                if (!joinedGroups.contains(MessageHelper.readId40(packet, BlePacketEncoder.HEADER_SIZE))) {
+                    rejectedGroup++;
+                    notifyRejected(packet);
+                    return false;
+                }
+                return true;
+            case BlePacketView.CHAT_TYPE_FRIEND:
+                if (MessageHelper.readId40(packet, BlePacketEncoder.HEADER_SIZE) != myIdBits) {
+                    rejectedFriend++;
+                    notifyRejected(packet);
+                    return false;
+                }
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private void notifyRejected(byte[] packet) {
+        RejectionListener listener = rejectionListener;
+        if (listener != null) {
+            listener.onMessageRejected(MessageHelper.readId40(packet, SENDER_ID_OFFSET),
+                    MessageHelper.readId40(packet, SENDER_ID_OFFSET + BlePacketEncoder.ID_LENGTH));
+        }
+    }
+
+    public long getRejected() {
+        return rejectedBlocked + rejectedGroup + rejectedFriend;
+    }
+
+    @Override
+    public String toString() {
+        return "blocked=" + blockedSenders.size() + " groups=" + joinedGroups.size()
+                + " rejected: sender=" + rejectedBlocked + " group=" + rejectedGroup
+                + " friend=" + rejectedFriend;
+    }
+}
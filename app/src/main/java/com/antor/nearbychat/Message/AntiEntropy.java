@@ -0,0 +1,91 @@
+package com.antor.nearbychat.Message;
+
+import java.util.Random;
+
+/**
+ * Bookkeeping for digest-based gap filling. A device advertises a
+ * {@link SyncDigest} for one of its chats at a time, in rotation; peers
+ * answer with the stored messages the digest lacks.
+ *
+ * Several peers usually hear the same digest, so answers are claimed
+ * through {@link #claim}: a message seen on air within the quiet period,
+ * whether sent by its author, another peer's answer or this device, is not
+ * sent again.
+ */
+public class AntiEntropy {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final long[] senderIds;
+    private final long[] messageIds;
+    private final long[] heardAt;
+    private int next = 0;
+    private int rotation = 0;
+    private final Random random;
+
+    private long digestsSent = 0;
+    private long digestsHeard = 0;
+    private long messagesSent = 0;
+
+    public AntiEntropy() {
+        this(DEFAULT_CAPACITY, new Random());
+    }
+
+    public AntiEntropy(int capacity, Random random) {
+        int size = Math.max(1, capacity);
+        senderIds = new long[size];
+        messageIds = new long[size];
+        heardAt = new long[size];
+        this.random = random;
+    }
+
+    /** Index of the chat to summarise next out of {@code chatCount}. */
+    public synchronized int nextChat(int chatCount) {
+        digestsSent++;
+        rotation = (rotation + 1) % Math.max(1, chatCount);
+        return rotation;
+    }
+
+    public synchronized int nextSalt() {
+        return random.nextInt(256);
+    }
+
+    public synchronized void onDigestHeard() {
+        digestsHeard++;
+    }
+
+    public synchronized void noteHeard(long senderIdBits, long messageIdBits, long nowMs) {
+        int i = indexOf(senderIdBits, messageIdBits);
+        if (i == -1) {
+            i = next;
+            next = (next + 1) % senderIds.length;
+            senderIds[i] = senderIdBits;
+            messageIds[i] = messageIdBits;
+        }
+        heardAt[i] = nowMs;
+    }
+
+    /**
+     * True if this device should send the message now, in which case it is
+     * noted as heard; false if it was on air within {@code quietMs}.
+     */
+    public synchronized boolean claim(long senderIdBits, long messageIdBits, long nowMs, long quietMs) {
+        int i = indexOf(senderIdBits, messageIdBits);
+        if (i != -1 && nowMs - heardAt[i] < quietMs) return false;
+        noteHeard(senderIdBits, messageIdBits, nowMs);
+        messagesSent++;
+        return true;
+    }
+
+    private int indexOf(long senderIdBits, long messageIdBits) {
+        for (int i = 0; i < senderIds.length; i++) {
+            if (messageIds[i] == messageIdBits && senderIds[i] == senderIdBits && heardAt[i] != 0) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "digests sent=" + digestsSent + " heard=" + digestsHeard + " messages sent=" + messagesSent;
+    }
+}
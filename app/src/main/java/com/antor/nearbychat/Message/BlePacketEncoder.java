@@ -0,0 +1,183 @@
+package com.antor.nearbychat.Message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Slices one message stream into BLE packets. Each packet is allocated once at
+ * its final size and the header, 40-bit ids and payload slice are written
+ * straight into it from the source array.
+ *
+ * Packet layout: [header][senderId x5][messageId x5][totalChunks][chunkIndex][data...]
+ *
+ * With forward error correction, parity packets follow the data packets and
+ * carry chunkIndex = totalChunks + parityIndex:
+ * [header][senderId x5][messageId x5][totalChunks][chunkIndex][lastShardLength][parity...]
+ * Data chunks are then one byte shorter so a parity packet, which must be as
+ * wide as a full chunk, still fits in maxPacketSize.
+ *
+ * With compact framing, chunk 0 keeps the full header and every later chunk
+ * sets bit 7 of the header byte (unused by chat types 1-3) and replaces the
+ * two 5-byte ids with a 24-bit session token derived from them:
+ * [header|0x80][token x3][totalChunks][chunkIndex][data...]
+ */
+public class BlePacketEncoder {
+
+    public static final int ID_LENGTH = 5;
+    public static final int HEADER_SIZE = 1 + ID_LENGTH + ID_LENGTH + 2;
+    public static final int MAX_CHUNKS = 255;
+    public static final int COMPACT_FLAG = 0x80;
+    public static final int SESSION_TOKEN_LENGTH = 3;
+    public static final int COMPACT_HEADER_SIZE = 1 + SESSION_TOKEN_LENGTH + 2;
+
+    public static int dataPerChunk(int maxPacketSize) {
+        return Math.max(1, maxPacketSize - HEADER_SIZE);
+    }
+
+    public static int chunkCount(int streamLength, int maxPacketSize) {
+        int perChunk = dataPerChunk(maxPacketSize);
+        int chunks = (streamLength + perChunk - 1) / perChunk;
+        if (chunks == 0) chunks = 1;
+        return Math.min(chunks, MAX_CHUNKS);
+    }
+
+    public static List<byte[]> encode(byte headerByte, long senderIdBits, long messageIdBits,
+                                      byte[] stream, int maxPacketSize) {
+        int perChunk = dataPerChunk(maxPacketSize);
+        int totalChunks = chunkCount(stream.length, maxPacketSize);
+
+        List<byte[]> packets = new ArrayList<>(totalChunks);
+        for (int i = 0; i < totalChunks; i++) {
+            int start = i * perChunk;
+            int length = Math.max(0, Math.min(perChunk, stream.length - start));
+            packets.add(encodePacket(headerByte, senderIdBits, messageIdBits,
+                    totalChunks, i, stream, start, length));
+        }
+        return packets;
+    }
+
+    public static int compactChunkCount(int streamLength, int maxPacketSize) {
+        int first = dataPerChunk(maxPacketSize);
+        if (streamLength <= first) return 1;
+        int perChunk = Math.max(1, maxPacketSize - COMPACT_HEADER_SIZE);
+        return Math.min(1 + (streamLength - first + perChunk - 1) / perChunk, MAX_CHUNKS);
+    }
+
+    /** Chunk 0 with the full header, then continuation chunks carrying only the session token. */
+    public static List<byte[]> encodeCompact(byte headerByte, long senderIdBits, long messageIdBits,
+                                             byte[] stream, int maxPacketSize) {
+        int first = dataPerChunk(maxPacketSize);
+        int perChunk = Math.max(1, maxPacketSize - COMPACT_HEADER_SIZE);
+        int totalChunks = compactChunkCount(stream.length, maxPacketSize);
+        int token = sessionToken(senderIdBits, messageIdBits);
+
+        List<byte[]> packets = new ArrayList<>(totalChunks);
+        packets.add(encodePacket(headerByte, senderIdBits, messageIdBits, totalChunks, 0,
+                stream, 0, Math.min(first, stream.length)));
+        for (int i = 1; i < totalChunks; i++) {
+            int start = first + (i - 1) * perChunk;
+            int length = Math.max(0, Math.min(perChunk, stream.length - start));
+            byte[] packet = new byte[COMPACT_HEADER_SIZE + length];
+            packet[0] = (byte) (headerByte | COMPACT_FLAG);
+            packet[1] = (byte) (token >>> 16);
+            packet[2] = (byte) (token >>> 8);
+            packet[3] = (byte) token;
+            packet[4] = (byte) totalChunks;
+            packet[5] = (byte) i;
+            System.arraycopy(stream, start, packet, COMPACT_HEADER_SIZE, length);
+            packets.add(packet);
+        }
+        return packets;
+    }
+
+    public static int sessionToken(long senderIdBits, long messageIdBits) {
+        return (int) (ReassemblyTable.hash(senderIdBits, messageIdBits) >>> 40);
+    }
+
+    public static boolean isCompactPacket(byte[] packet) {
+        return packet != null && packet.length >= COMPACT_HEADER_SIZE && (packet[0] & COMPACT_FLAG) != 0;
+    }
+
+    /** Packets older builds must not see: compact continuation chunks and FEC parity. */
+    public static boolean isExtensionPacket(byte[] packet) {
+        return isCompactPacket(packet) || isParityPacket(packet);
+    }
+
+    public static int chunkIndexOf(byte[] packet) {
+        return packet[(isCompactPacket(packet) ? COMPACT_HEADER_SIZE : HEADER_SIZE) - 1] & 0xFF;
+    }
+
+    /**
+     * Data packets followed by {@code parityPercent}% Reed-Solomon parity packets
+     * (at least one). Falls back to {@link #encode} if the parity does not fit in
+     * the one-byte chunk index.
+     */
+    public static List<byte[]> encodeWithParity(byte headerByte, long senderIdBits, long messageIdBits,
+                                                byte[] stream, int maxPacketSize, int parityPercent) {
+        int shardSize = fecShardSize(maxPacketSize);
+        int dataChunks = Math.max(1, (stream.length + shardSize - 1) / shardSize);
+        int parityChunks = parityChunkCount(dataChunks, parityPercent);
+        if (parityChunks == 0 || shardSize < 1 || dataChunks + parityChunks > MAX_CHUNKS) {
+            return encode(headerByte, senderIdBits, messageIdBits, stream, maxPacketSize);
+        }
+
+        List<byte[]> packets = new ArrayList<>(dataChunks + parityChunks);
+        for (int i = 0; i < dataChunks; i++) {
+            int start = i * shardSize;
+            int length = Math.max(0, Math.min(shardSize, stream.length - start));
+            packets.add(encodePacket(headerByte, senderIdBits, messageIdBits,
+                    dataChunks, i, stream, start, length));
+        }
+
+        int lastShardLength = stream.length - (dataChunks - 1) * shardSize;
+        byte[][] parity = ErasureCoder.encode(stream, dataChunks, shardSize, parityChunks);
+        for (int p = 0; p < parityChunks; p++) {
+            byte[] packet = new byte[HEADER_SIZE + 1 + shardSize];
+            ByteBuffer buffer = ByteBuffer.wrap(packet);
+            buffer.put(headerByte);
+            putId40(buffer, senderIdBits);
+            putId40(buffer, messageIdBits);
+            buffer.put((byte) dataChunks);
+            buffer.put((byte) (dataChunks + p));
+            buffer.put((byte) lastShardLength);
+            buffer.put(parity[p]);
+            packets.add(packet);
+        }
+        return packets;
+    }
+
+    public static int fecShardSize(int maxPacketSize) {
+        return dataPerChunk(maxPacketSize) - 1;
+    }
+
+    public static int parityChunkCount(int dataChunks, int parityPercent) {
+        if (parityPercent <= 0) return 0;
+        return Math.max(1, (dataChunks * parityPercent + 99) / 100);
+    }
+
+    /** Parity packets are the only ones whose chunk index is at or past the chunk count. */
+    public static boolean isParityPacket(byte[] packet) {
+        return packet != null && packet.length > HEADER_SIZE && (packet[0] & COMPACT_FLAG) == 0
+                && (packet[HEADER_SIZE - 1] & 0xFF) >= (packet[HEADER_SIZE - 2] & 0xFF);
+    }
+
+    public static byte[] encodePacket(byte headerByte, long senderIdBits, long messageIdBits,
+                                      int totalChunks, int chunkIndex,
+                                      byte[] source, int offset, int length) {
+        byte[] packet = new byte[HEADER_SIZE + length];
+        ByteBuffer buffer = ByteBuffer.wrap(packet);
+        buffer.put(headerByte);
+        putId40(buffer, senderIdBits);
+        putId40(buffer, messageIdBits);
+        buffer.put((byte) totalChunks);
+        buffer.put((byte) chunkIndex);
+        buffer.put(source, offset, length);
+        return packet;
+    }
+
+    static void putId40(ByteBuffer buffer, long bits40) {
+        buffer.put((byte) (bits40 >>> 32));
+        buffer.putInt((int) bits40);
+    }
+}
@@ -0,0 +1,126 @@
+package com.antor.nearbychat.Message;
+
+/**
+ * Reusable read-only view over a received BLE packet. Header fields are read
+ * straight from the scan byte[]; nothing is copied or decoded into Strings,
+ * so rejecting a duplicate or foreign packet costs no allocation.
+ *
+ * Compact continuation chunks (see {@link BlePacketEncoder#encodeCompact}) have
+ * no ids, only {@link #sessionToken()}; the caller maps it back to a message.
+ */
+public final class BlePacketView {
+
+    public static final int CHAT_TYPE_NEARBY = 1;
+    public static final int CHAT_TYPE_GROUP = 2;
+    public static final int CHAT_TYPE_FRIEND = 3;
+
+    private static final int SENDER_ID_OFFSET = 1;
+    private static final int MESSAGE_ID_OFFSET = SENDER_ID_OFFSET + BlePacketEncoder.ID_LENGTH;
+    private static final int TOTAL_CHUNKS_OFFSET = MESSAGE_ID_OFFSET + BlePacketEncoder.ID_LENGTH;
+    private static final int CHUNK_INDEX_OFFSET = TOTAL_CHUNKS_OFFSET + 1;
+    private static final int COMPACT_TOTAL_CHUNKS_OFFSET = 1 + BlePacketEncoder.SESSION_TOKEN_LENGTH;
+
+    private byte[] data;
+    private boolean compact;
+
+    /** Points the view at {@code packet}; returns false if it is too short to hold a header. */
+    public boolean wrap(byte[] packet) {
+        compact = BlePacketEncoder.isCompactPacket(packet);
+        if (packet == null || packet.length < headerSize()) {
+            data = null;
+            return false;
+        }
+        data = packet;
+        return true;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    private int headerSize() {
+        return compact ? BlePacketEncoder.COMPACT_HEADER_SIZE : BlePacketEncoder.HEADER_SIZE;
+    }
+
+    public byte[] array() {
+        return data;
+    }
+
+    /** Header byte without the compact framing flag. */
+    public int headerByte() {
+        return data[0] & 0xFF & ~BlePacketEncoder.COMPACT_FLAG;
+    }
+
+    /** Bits 7-5: 1 = Nearby, 2 = Group, 3 = Friend. */
+    public int chatTypeId() {
+        return (headerByte() >> 5) & 0b111;
+    }
+
+    /** Bit 4. */
+    public boolean isReply() {
+        return ((headerByte() >> 4) & 0b1) == 1;
+    }
+
+    /** Bits 3-0. */
+    public int msgTypeId() {
+        return headerByte() & 0b1111;
+    }
+
+    public long senderIdBits() {
+        return MessageHelper.readId40(data, SENDER_ID_OFFSET);
+    }
+
+    public long messageIdBits() {
+        return MessageHelper.readId40(data, MESSAGE_ID_OFFSET);
+    }
+
+    /** Only valid on compact continuation chunks. */
+    public int sessionToken() {
+        return ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+    }
+
+    public int totalChunks() {
+        return data[compact ? COMPACT_TOTAL_CHUNKS_OFFSET : TOTAL_CHUNKS_OFFSET] & 0xFF;
+    }
+
+    public int chunkIndex() {
+        return data[compact ? COMPACT_TOTAL_CHUNKS_OFFSET + 1 : CHUNK_INDEX_OFFSET] & 0xFF;
+    }
+
+    public int dataOffset() {
+        return headerSize();
+    }
+
+    public int dataLength() {
+        return data.length - headerSize();
+    }
+
+    /** 40-bit id stored at {@code index} bytes into the chunk data (e.g. the G/F chat id on chunk 0). */
+    public long dataId40(int index) {
+        return MessageHelper.readId40(data, BlePacketEncoder.HEADER_SIZE + index);
+    }
+
+    public String chatTypeCode() {
+        return chatTypeCode(chatTypeId());
+    }
+
+    /** "N", "G" or "F" as stored in the database and shown in the UI. */
+    public static String chatTypeCode(int chatTypeId) {
+        switch (chatTypeId) {
+            case CHAT_TYPE_GROUP: return "G";
+            case CHAT_TYPE_FRIEND: return "F";
+            default: return "N";
+        }
+    }
+
+    /** Wire id for a chat type code; 0 if the code is unknown. */
+    public static int chatTypeId(String chatTypeCode) {
+        if (chatTypeCode == null || chatTypeCode.length() != 1) return 0;
+        switch (chatTypeCode.charAt(0)) {
+            case 'N': return CHAT_TYPE_NEARBY;
+            case 'G': return CHAT_TYPE_GROUP;
+            case 'F': return CHAT_TYPE_FRIEND;
+            default: return 0;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.antor.nearbychat.Message;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.antor.nearbychat.CryptoUtils;
+import com.antor.nearbychat.CryptoUtils.ChatKey;
+import com.antor.nearbychat.FriendModel;
+import com.antor.nearbychat.GroupModel;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Derived cipher keys per chat. The group and friend lists are parsed and
+ * hashed once into an immutable table keyed by 40-bit ids; lookups read
+ * that table through a volatile reference without locking. The table is
+ * dropped whenever either list changes in the prefs and rebuilt by the
+ * next lookup.
+ *
+ * Chats without a configured key fall back to the group id or the given
+ * user id as password, like before; those keys are derived on first use
+ * and added to the table.
+ */
+public class ChatKeyRegistry {
+
+    private static final String TAG = "ChatKeyRegistry";
+    private static final String PREFS_NAME = "NearbyChatPrefs";
+    private static final String KEY_GROUPS_LIST = "groupsList";
+    private static final String KEY_FRIENDS_LIST = "friendsList";
+
+    private static final long KIND_GROUP = 1L << 40;
+    private static final long KIND_FRIEND = 2L << 40;
+    private static final long KIND_USER = 3L << 40;
+    /** Derived fallback keys beyond this make the next miss start from the configured ones again. */
+    private static final int MAX_ENTRIES = 512;
+
+    private static volatile ChatKeyRegistry INSTANCE;
+
+    public static ChatKeyRegistry getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (ChatKeyRegistry.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ChatKeyRegistry(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final SharedPreferences prefs;
+    private final SharedPreferences.OnSharedPreferenceChangeListener listener;
+    private volatile KeyTable table;
+
+    private ChatKeyRegistry(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        listener = (p, key) -> {
+            if (KEY_GROUPS_LIST.equals(key) || KEY_FRIENDS_LIST.equals(key)) {
+                invalidate();
+            }
+        };
+        prefs.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    public synchronized void invalidate() {
+        table = null;
+    }
+
+    /**
+     * Key for a chat; null for Nearby, which is not encrypted.
+     * {@code myUserId} is the display id used when a friend has no key of its own.
+     */
+    public ChatKey keyFor(String chatType, String chatId, String myUserId) {
+        if ("G".equals(chatType)) {
+            if (chatId == null || chatId.length() != 5) return CryptoUtils.deriveKey(chatId);
+            return groupKey(MessageHelper.asciiIdToTimestamp(chatId), chatId);
+        } else if ("F".equals(chatType)) {
+            if (chatId != null && chatId.length() == 5) {
+                ChatKey key = currentTable().get(KIND_FRIEND | MessageHelper.asciiIdToTimestamp(chatId));
+                if (key != null) return key;
+            }
+            if (myUserId == null || myUserId.length() != 8) return CryptoUtils.deriveKey(myUserId);
+            return userKey(MessageHelper.displayIdToTimestamp(myUserId), myUserId);
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link #keyFor(String, String, String)} for ids read straight
+     * from a packet, with a negative {@code chatIdBits} for an unknown chat
+     * id; id strings are only built to derive a missing key.
+     */
+    public ChatKey keyFor(int chatTypeId, long chatIdBits, long myUserIdBits) {
+        if (chatTypeId == BlePacketView.CHAT_TYPE_GROUP) {
+            return chatIdBits < 0 ? null : groupKey(chatIdBits, null);
+        } else if (chatTypeId == BlePacketView.CHAT_TYPE_FRIEND) {
+            ChatKey key = chatIdBits < 0 ? null : currentTable().get(KIND_FRIEND | chatIdBits);
+            return key != null ? key : userKey(myUserIdBits, null);
+        }
+        return null;
+    }
+
+    private ChatKey groupKey(long chatIdBits, String chatId) {
+        long id = KIND_GROUP | chatIdBits;
+        ChatKey key = currentTable().get(id);
+        if (key != null) return key;
+        return addDerived(id, chatId != null ? chatId : MessageHelper.timestampToAsciiId(chatIdBits));
+    }
+
+    private ChatKey userKey(long userIdBits, String userId) {
+        long id = KIND_USER | userIdBits;
+        ChatKey key = currentTable().get(id);
+        if (key != null) return key;
+        return addDerived(id, userId != null ? userId : MessageHelper.timestampToDisplayId(userIdBits));
+    }
+
+    private KeyTable currentTable() {
+        KeyTable current = table;
+        return current != null ? current : rebuild();
+    }
+
+    private synchronized KeyTable rebuild() {
+        KeyTable current = table;
+        if (current != null) return current;
+        long[] ids = new long[0];
+        ChatKey[] keys = new ChatKey[0];
+        int count = 0;
+        try {
+            Gson gson = new Gson();
+            String groupsJson = prefs.getString(KEY_GROUPS_LIST, null);
+            String friendsJson = prefs.getString(KEY_FRIENDS_LIST, null);
+            Type groupsType = new TypeToken<List<GroupModel>>() {}.getType();
+            Type friendsType = new TypeToken<List<FriendModel>>() {}.getType();
+            List<GroupModel> groups = groupsJson == null ? null : gson.fromJson(groupsJson, groupsType);
+            List<FriendModel> friends = friendsJson == null ? null : gson.fromJson(friendsJson, friendsType);
+            int capacity = (groups == null ? 0 : groups.size()) + (friends == null ? 0 : friends.size());
+            ids = new long[capacity];
+            keys = new ChatKey[capacity];
+            if (groups != null) {
+                for (GroupModel g : groups) {
+                    if (g.getId() == null || g.getId().length() != 5) continue;
+                    String password = g.getEncryptionKey() == null || g.getEncryptionKey().isEmpty()
+                            ? g.getId() : g.getEncryptionKey();
+                    ids[count] = KIND_GROUP | MessageHelper.asciiIdToTimestamp(g.getId());
+                    keys[count++] = CryptoUtils.deriveKey(password);
+                }
+            }
+            if (friends != null) {
+                for (FriendModel f : friends) {
+                    if (f.getDisplayId() == null || f.getDisplayId().length() != 8
+                            || f.getEncryptionKey() == null || f.getEncryptionKey().isEmpty()) continue;
+                    ids[count] = KIND_FRIEND | MessageHelper.displayIdToTimestamp(f.getDisplayId());
+                    keys[count++] = CryptoUtils.deriveKey(f.getEncryptionKey());
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading chat keys", e);
+        }
+        current = new KeyTable(ids, keys, count);
+        table = current;
+        Log.d(TAG, "Loaded " + count + " chat keys");
+        return current;
+    }
+
+    private synchronized ChatKey addDerived(long id, String password) {
+        KeyTable current = currentTable();
+        ChatKey key = current.get(id);
+        if (key != null) return key;
+        key = CryptoUtils.deriveKey(password);
+        if (key == null) return null;
+        if (current.size >= MAX_ENTRIES) {
+            table = null;
+            current = rebuild();
+        }
+        table = current.with(id, key);
+        return key;
+    }
+
+    /** Immutable open-addressing map from tagged 40-bit id to key; id 0 is never used. */
+    private static final class KeyTable {
+        final long[] ids;
+        final ChatKey[] keys;
+        final int mask;
+        final int size;
+
+        KeyTable(long[] entryIds, ChatKey[] entryKeys, int count) {
+            int capacity = 4;
+            while (capacity < count * 2) capacity <<= 1;
+            ids = new long[capacity];
+            keys = new ChatKey[capacity];
+            mask = capacity - 1;
+            int added = 0;
+            for (int i = 0; i < count; i++) {
+                int slot = slot(entryIds[i]);
+                while (ids[slot] != 0 && ids[slot] != entryIds[i]) slot = (slot + 1) & mask;
+                if (ids[slot] == 0) added++;
+                ids[slot] = entryIds[i];
+                keys[slot] = entryKeys[i];
+            }
+            size = added;
+        }
+
+        private int slot(long id) {
+            return (int) LongHashSet.hash(id) & mask;
+        }
+
+        ChatKey get(long id) {
+            int slot = slot(id);
+            long current;
+            while ((current = ids[slot]) != 0) {
+                if (current == id) return keys[slot];
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        KeyTable with(long id, ChatKey key) {
+            long[] entryIds = new long[size + 1];
+            ChatKey[] entryKeys = new ChatKey[size + 1];
+            int n = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == 0) continue;
+                entryIds[n] = ids[i];
+                entryKeys[n++] = keys[i];
+            }
+            entryIds[n] = id;
+            entryKeys[n++] = key;
+            return new KeyTable(entryIds, entryKeys, n);
+        }
+    }
+}
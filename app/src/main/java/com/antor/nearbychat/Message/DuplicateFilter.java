@@ -0,0 +1,134 @@
+package com.antor.nearbychat.Message;
+
+import java.util.Arrays;
+
+/**
+ * Time-windowed duplicate filter over raw packets. Two Bloom filter
+ * generations over a 64-bit hash of the whole packet: lookups check both,
+ * inserts go to the current one, and the older generation is dropped once
+ * the current one is full or {@code windowMs} old. A packet is therefore
+ * remembered for between one and two windows. Memory is fixed at
+ * construction and nothing is allocated per packet.
+ *
+ * Bloom filters never miss a packet they have seen, but may report an
+ * unseen one as a duplicate; {@link #falsePositiveRate()} gives the
+ * expected rate with both generations full.
+ */
+public class DuplicateFilter {
+
+    private static final int BITS_PER_ENTRY = 16;
+    private static final int HASHES = 11;
+
+    private final long[][] generations = new long[2][];
+    private final int bitMask;
+    private final int capacity;
+    private final long windowMs;
+    private int current = 0;
+    private int count = 0;
+    private long generationStartMs;
+
+    public DuplicateFilter(int capacity, long windowMs, long nowMs) {
+        int bits = Integer.highestOneBit(Math.max(64, capacity * BITS_PER_ENTRY - 1)) << 1;
+        this.generations[0] = new long[bits >>> 6];
+        this.generations[1] = new long[bits >>> 6];
+        this.bitMask = bits - 1;
+        this.capacity = capacity;
+        this.windowMs = windowMs;
+        this.generationStartMs = nowMs;
+    }
+
+    /**
+     * Records {@code data} and returns true if it was already seen within
+     * the window.
+     */
+    public synchronized boolean checkAndAdd(byte[] data, long nowMs) {
+        if (count >= capacity || nowMs - generationStartMs >= windowMs) rotate(nowMs);
+        long hash = hash(data);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long[] now = generations[current];
+        long[] old = generations[current ^ 1];
+        boolean inNow = true;
+        boolean inOld = true;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & bitMask;
+            long mask = 1L << bit;
+            int word = bit >>> 6;
+            if ((now[word] & mask) == 0) {
+                inNow = false;
+                now[word] |= mask;
+            }
+            if ((old[word] & mask) == 0) inOld = false;
+        }
+        if (!inNow) count++;
+        return inNow || inOld;
+    }
+
+    /**
+     * True if {@code data} was seen within the window; records nothing, so
+     * a packet that is dropped before {@link #checkAndAdd} still counts as new.
+     */
+    public synchronized boolean contains(byte[] data) {
+        long hash = hash(data);
+        return contains(generations[current], hash) || contains(generations[current ^ 1], hash);
+    }
+
+    private boolean contains(long[] generation, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & bitMask;
+            if ((generation[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /** Bytes held by the bit arrays. */
+    public int memoryBytes() {
+        return generations[0].length * 8 * 2;
+    }
+
+    /** Expected false-positive rate with both generations at capacity. */
+    public double falsePositiveRate() {
+        double bits = bitMask + 1.0;
+        double one = Math.pow(1 - Math.exp(-HASHES * (double) capacity / bits), HASHES);
+        return 1 - (1 - one) * (1 - one);
+    }
+
+    private void rotate(long nowMs) {
+        current ^= 1;
+        Arrays.fill(generations[current], 0);
+        count = 0;
+        generationStartMs = nowMs;
+    }
+
+    static long hash(byte[] data) {
+        long h = 0x9E3779B97F4A7C15L ^ data.length;
+        int i = 0;
+        for (; i + 8 <= data.length; i += 8) {
+            long k = (data[i] & 0xFFL)
+                    | (data[i + 1] & 0xFFL) << 8
+                    | (data[i + 2] & 0xFFL) << 16
+                    | (data[i + 3] & 0xFFL) << 24
+                    | (data[i + 4] & 0xFFL) << 32
+                    | (data[i + 5] & 0xFFL) << 40
+                    | (data[i + 6] & 0xFFL) << 48
+                    | (data[i + 7] & 0xFFL) << 56;
+            h = Long.rotateLeft(h ^ mix(k), 27) * 5 + 0x52DCE729;
+        }
+        long tail = 0;
+        for (int shift = 0; i < data.length; i++, shift += 8) {
+            tail |= (data[i] & 0xFFL) << shift;
+        }
+        return mix(h ^ mix(tail));
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        k *= 0xC4CEB9FE1A85EC53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,162 @@
+package com.antor.nearbychat.Message;
+
+/**
+ * Systematic Reed-Solomon erasure code over GF(256) with a Cauchy generator.
+ * Data shards are sent as-is; parity shard p is sum(C[p][i] * data[i]) with
+ * C[p][i] = 1 / (x_p + y_i), x_p = dataShards + p, y_i = i. Every square
+ * submatrix of a Cauchy matrix is invertible, so any dataShards of the
+ * dataShards + parityShards shards rebuild the message.
+ */
+public final class ErasureCoder {
+
+    public static final int MAX_SHARDS = 256;
+
+    private static final int PRIMITIVE_POLY = 0x11D;
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) x ^= PRIMITIVE_POLY;
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+    }
+
+    private ErasureCoder() {
+    }
+
+    static int mul(int a, int b) {
+        if (a == 0 || b == 0) return 0;
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    static int inv(int a) {
+        return EXP[255 - LOG[a]];
+    }
+
+    static int coefficient(int dataShards, int parityIndex, int dataIndex) {
+        return inv((dataShards + parityIndex) ^ dataIndex);
+    }
+
+    /**
+     * Parity for {@code stream} split into {@code dataShards} shards of
+     * {@code shardSize} bytes; the last shard is zero-padded.
+     */
+    public static byte[][] encode(byte[] stream, int dataShards, int shardSize, int parityShards) {
+        if (dataShards + parityShards > MAX_SHARDS) {
+            throw new IllegalArgumentException("Too many shards: " + (dataShards + parityShards));
+        }
+        byte[][] parity = new byte[parityShards][shardSize];
+        for (int i = 0; i < dataShards; i++) {
+            int start = i * shardSize;
+            int length = Math.max(0, Math.min(shardSize, stream.length - start));
+            for (int p = 0; p < parityShards; p++) {
+                mulAdd(parity[p], coefficient(dataShards, p, i), stream, start, length);
+            }
+        }
+        return parity;
+    }
+
+    /**
+     * Fills the null entries of {@code data} (each shardSize long, zero-padded)
+     * from the non-null entries of {@code parity}. Returns false if fewer than
+     * data.length shards are present in total.
+     */
+    public static boolean reconstruct(byte[][] data, byte[][] parity, int shardSize) {
+        int dataShards = data.length;
+        int missingCount = 0;
+        for (byte[] shard : data) {
+            if (shard == null) missingCount++;
+        }
+        if (missingCount == 0) return true;
+
+        int[] missing = new int[missingCount];
+        int[] rows = new int[missingCount];
+        int m = 0;
+        for (int i = 0; i < dataShards; i++) {
+            if (data[i] == null) missing[m++] = i;
+        }
+        int r = 0;
+        for (int p = 0; p < parity.length && r < missingCount; p++) {
+            if (parity[p] != null) rows[r++] = p;
+        }
+        if (r < missingCount) return false;
+
+        // Syndromes: parity minus the contribution of every shard we already hold
+        byte[][] syndromes = new byte[missingCount][];
+        for (int j = 0; j < missingCount; j++) {
+            byte[] s = parity[rows[j]].clone();
+            for (int i = 0; i < dataShards; i++) {
+                if (data[i] != null) {
+                    mulAdd(s, coefficient(dataShards, rows[j], i), data[i], 0, Math.min(shardSize, data[i].length));
+                }
+            }
+            syndromes[j] = s;
+        }
+
+        int[][] matrix = new int[missingCount][missingCount];
+        for (int j = 0; j < missingCount; j++) {
+            for (int c = 0; c < missingCount; c++) {
+                matrix[j][c] = coefficient(dataShards, rows[j], missing[c]);
+            }
+        }
+        int[][] inverse = invert(matrix);
+
+        for (int c = 0; c < missingCount; c++) {
+            byte[] shard = new byte[shardSize];
+            for (int j = 0; j < missingCount; j++) {
+                mulAdd(shard, inverse[c][j], syndromes[j], 0, shardSize);
+            }
+            data[missing[c]] = shard;
+        }
+        return true;
+    }
+
+    private static void mulAdd(byte[] target, int factor, byte[] source, int offset, int length) {
+        if (factor == 0) return;
+        int logFactor = LOG[factor];
+        for (int b = 0; b < length; b++) {
+            int v = source[offset + b] & 0xFF;
+            if (v != 0) {
+                target[b] ^= (byte) EXP[LOG[v] + logFactor];
+            }
+        }
+    }
+
+    private static int[][] invert(int[][] matrix) {
+        int n = matrix.length;
+        int[][] work = new int[n][];
+        int[][] result = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            work[i] = matrix[i].clone();
+            result[i][i] = 1;
+        }
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (work[pivot][col] == 0) pivot++;
+            int[] t = work[pivot]; work[pivot] = work[col]; work[col] = t;
+            t = result[pivot]; result[pivot] = result[col]; result[col] = t;
+
+            int scale = inv(work[col][col]);
+            for (int k = 0; k < n; k++) {
+                work[col][k] = mul(work[col][k], scale);
+                result[col][k] = mul(result[col][k], scale);
+            }
+            for (int row = 0; row < n; row++) {
+                int factor = work[row][col];
+                if (row == col || factor == 0) continue;
+                for (int k = 0; k < n; k++) {
+                    work[row][k] ^= mul(factor, work[col][k]);
+                    result[row][k] ^= mul(factor, result[col][k]);
+                }
+            }
+        }
+        return result;
+    }
+}
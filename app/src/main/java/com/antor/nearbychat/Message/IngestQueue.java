@@ -0,0 +1,197 @@
+package com.antor.nearbychat.Message;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-capacity hand-off between the scan callback and a single ingest
+ * thread. Producers only store a reference in a preallocated ring; the
+ * consumer drains everything queued (up to {@code maxBatch}) per pass, so
+ * a burst of adverts becomes a few large batches instead of a task each.
+ *
+ * Group and Friend packets sit in their own lane ahead of Nearby ones.
+ * When the queue is full the oldest Nearby packet is shed, and only when
+ * there is no Nearby traffic left the oldest packet of the other lane.
+ */
+public class IngestQueue {
+
+    private static final String TAG = "IngestQueue";
+
+    private static final int LANE_PRIORITY = 0;
+    private static final int LANE_NEARBY = 1;
+
+    public interface Consumer {
+        /** The list is reused for the next batch; do not keep it. */
+        void onBatch(List<byte[]> packets);
+    }
+
+    private final int capacity;
+    private final int maxBatch;
+    private final Consumer consumer;
+    private final byte[][][] rings = new byte[2][][];
+    private final long[][] enqueuedAt = new long[2][];
+    private final int[] heads = new int[2];
+    private final int[] sizes = new int[2];
+    private final ArrayList<byte[]> batch;
+    private volatile long lingerMs = 0;
+    private Thread thread;
+    private boolean running = false;
+
+    private long offered = 0;
+    private long processed = 0;
+    private long droppedNearby = 0;
+    private long droppedPriority = 0;
+    private int maxDepth = 0;
+    private long totalLatencyNanos = 0;
+    private long maxLatencyNanos = 0;
+
+    public IngestQueue(int capacity, int maxBatch, Consumer consumer) {
+        this.capacity = capacity;
+        this.maxBatch = maxBatch;
+        this.consumer = consumer;
+        this.batch = new ArrayList<>(maxBatch);
+        for (int lane = 0; lane < 2; lane++) {
+            rings[lane] = new byte[capacity][];
+            enqueuedAt[lane] = new long[capacity];
+        }
+    }
+
+    /** Extra time the consumer waits after the first packet so that more can join its batch. */
+    public void setLingerMs(long lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::consume, "ble-ingest");
+        thread.start();
+    }
+
+    public void shutdown() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            thread = null;
+            notifyAll();
+        }
+        if (t != null) t.interrupt();
+    }
+
+    /** Queues a packet, shedding the oldest Nearby packet if full. */
+    public synchronized void offer(byte[] packet) {
+        int lane = isNearby(packet) ? LANE_NEARBY : LANE_PRIORITY;
+        offered++;
+        if (sizes[LANE_PRIORITY] + sizes[LANE_NEARBY] >= capacity) {
+            if (sizes[LANE_NEARBY] > 0) {
+                poll(LANE_NEARBY);
+                droppedNearby++;
+            } else if (lane == LANE_NEARBY) {
+                droppedNearby++;
+                return;
+            } else {
+                poll(LANE_PRIORITY);
+                droppedPriority++;
+            }
+        }
+        int tail = (heads[lane] + sizes[lane]) % capacity;
+        rings[lane][tail] = packet;
+        enqueuedAt[lane][tail] = System.nanoTime();
+        sizes[lane]++;
+        maxDepth = Math.max(maxDepth, sizes[LANE_PRIORITY] + sizes[LANE_NEARBY]);
+        if (sizes[LANE_PRIORITY] + sizes[LANE_NEARBY] == 1) notifyAll();
+    }
+
+    private static boolean isNearby(byte[] packet) {
+        return packet.length == 0
+                || ((packet[0] & ~BlePacketEncoder.COMPACT_FLAG) >> 5 & 0x03) == BlePacketView.CHAT_TYPE_NEARBY;
+    }
+
+    private byte[] poll(int lane) {
+        int head = heads[lane];
+        byte[] packet = rings[lane][head];
+        rings[lane][head] = null;
+        heads[lane] = (head + 1) % capacity;
+        sizes[lane]--;
+        return packet;
+    }
+
+    private void consume() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (running && sizes[LANE_PRIORITY] + sizes[LANE_NEARBY] == 0) wait();
+                    if (!running) return;
+                    long deadline = System.currentTimeMillis() + lingerMs;
+                    long remaining;
+                    while (running && (remaining = deadline - System.currentTimeMillis()) > 0
+                            && sizes[LANE_PRIORITY] + sizes[LANE_NEARBY] < maxBatch) {
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!running) return;
+                long now = System.nanoTime();
+                batch.clear();
+                for (int lane = 0; lane < 2 && batch.size() < maxBatch; lane++) {
+                    while (sizes[lane] > 0 && batch.size() < maxBatch) {
+                        long latency = now - enqueuedAt[lane][heads[lane]];
+                        totalLatencyNanos += latency;
+                        maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+                        batch.add(poll(lane));
+                    }
+                }
+                processed += batch.size();
+            }
+            try {
+                consumer.onBatch(batch);
+            } catch (Exception e) {
+                Log.e(TAG, "Error processing ingest batch", e);
+            }
+        }
+    }
+
+    public synchronized int getDepth() {
+        return sizes[LANE_PRIORITY] + sizes[LANE_NEARBY];
+    }
+
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public synchronized long getOffered() {
+        return offered;
+    }
+
+    public synchronized long getProcessed() {
+        return processed;
+    }
+
+    public synchronized long getDropped() {
+        return droppedNearby + droppedPriority;
+    }
+
+    public synchronized long getDroppedNearby() {
+        return droppedNearby;
+    }
+
+    public synchronized long getAverageLatencyMicros() {
+        return processed == 0 ? 0 : totalLatencyNanos / processed / 1000;
+    }
+
+    public synchronized long getMaxLatencyMicros() {
+        return maxLatencyNanos / 1000;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "depth=" + getDepth() + " maxDepth=" + maxDepth
+                + " offered=" + offered + " processed=" + processed
+                + " dropped=" + (droppedNearby + droppedPriority) + " (nearby " + droppedNearby + ")"
+                + " latency avg=" + getAverageLatencyMicros() + "us max=" + getMaxLatencyMicros() + "us";
+    }
+}
@@ -0,0 +1,87 @@
+package com.antor.nearbychat.Message;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of longs in a single open-addressing array, so a lookup
+ * is a few array reads with no boxing. Meant for small lists that change
+ * rarely: build a new set and swap the reference when they do.
+ */
+public final class LongHashSet {
+
+    public static final LongHashSet EMPTY = new LongHashSet(new long[0], 0);
+
+    private static final long FREE = 0;
+
+    private final long[] slots;
+    private final int mask;
+    private final boolean containsFree;
+    private final int size;
+
+    private LongHashSet(long[] values, int count) {
+        int capacity = 2;
+        while (capacity < count * 2) capacity <<= 1;
+        slots = new long[capacity];
+        mask = capacity - 1;
+        boolean free = false;
+        int added = 0;
+        for (int i = 0; i < count; i++) {
+            long value = values[i];
+            if (value == FREE) {
+                if (!free) added++;
+                free = true;
+                continue;
+            }
+            int slot = (int) hash(value) & mask;
+            while (slots[slot] != FREE && slots[slot] != value) slot = (slot + 1) & mask;
+            if (slots[slot] == FREE) added++;
+            slots[slot] = value;
+        }
+        containsFree = free;
+        size = added;
+    }
+
+    public static LongHashSet of(long[] values, int count) {
+        return count == 0 ? EMPTY : new LongHashSet(values, count);
+    }
+
+    public static LongHashSet of(long... values) {
+        return of(values, values.length);
+    }
+
+    static long hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    public boolean contains(long value) {
+        if (value == FREE) return containsFree;
+        int slot = (int) hash(value) & mask;
+        long current;
+        while ((current = slots[slot]) != FREE) {
+            if (current == value) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public String toString() {
+        long[] values = new long[size];
+        int n = 0;
+        if (containsFree) values[n++] = FREE;
+        for (long slot : slots) {
+            if (slot != FREE) values[n++] = slot;
+        }
+        return Arrays.toString(values);
+    }
+}
@@ -10,7 +10,6 @@ import com.antor.nearbychat.PayloadCompress;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -20,22 +19,22 @@ public class MessageConverterForBle {
     private final int MAX_PAYLOAD_SIZE;
     private static final int USER_ID_LENGTH = 5;
     private static final int MESSAGE_ID_LENGTH = 5;
-    private static final int CHAT_TYPE_LENGTH = 1;
-    private static final int CHUNK_METADATA_LENGTH = 2;
     private static final int CHAT_ID_LENGTH = 5;
 
-    private static final int BASE_HEADER_SIZE = CHAT_TYPE_LENGTH + USER_ID_LENGTH + MESSAGE_ID_LENGTH + CHUNK_METADATA_LENGTH;
-    private static final int FIRST_CHUNK_GF_HEADER_SIZE = BASE_HEADER_SIZE + CHAT_ID_LENGTH;
-
     private final Context context;
     private final String chatType;
     private final String chatId;
     private final String senderDisplayId;
     private final long senderIdBits;
     private long existingMessageIdBits = -1;
+    private int parityPercent = 0;
+    private boolean compactHeaders = false;
+    private boolean sealed = false;
 
     private static final int ACK_MSG_TYPE_ID = 12; // 1100 in binary
     private static final int ACK_PACKET_SIZE = 18; // 13 base + 5 friendId
+    // Sealed payloads flip bit 2 of the message type: 0-3 -> 4-7, 14-15 -> 10-11
+    private static final int SEALED_TYPE_FLIP = 0b0100;
 
     private final String payloadToSend;
 
@@ -57,7 +56,7 @@ public class MessageConverterForBle {
 
     public MessageConverterForBle(Context context, MessageModel modelToRetransmit, int maxPayloadSize) {
         this.context = context;
-        this.payloadToSend = modelToRetransmit.getMessage();
+        this.payloadToSend = withReplyPrefix(modelToRetransmit);
         this.chatType = modelToRetransmit.getChatType();
         this.chatId = modelToRetransmit.getChatId();
         this.senderDisplayId = modelToRetransmit.getSenderId();
@@ -66,29 +65,61 @@ public class MessageConverterForBle {
         this.MAX_PAYLOAD_SIZE = maxPayloadSize;
     }
 
+    /**
+     * Stored messages keep their reply link in replyToUserId/replyToMessageId
+     * and the text without the [r> prefix, so it is put back for sending.
+     */
+    private static String withReplyPrefix(MessageModel model) {
+        String message = model.getMessage();
+        long replyUserBits = MessageHelper.displayIdToTimestamp(model.getReplyToUserId());
+        long replyMsgBits = MessageHelper.displayIdToTimestamp(model.getReplyToMessageId());
+        if (message == null || message.startsWith("[r>") || replyUserBits == 0 || replyMsgBits == 0) {
+            return message;
+        }
+        return "[r>" + MessageHelper.timestampToAsciiId(replyUserBits)
+                + MessageHelper.timestampToAsciiId(replyMsgBits) + message;
+    }
+
+    /** Appends Reed-Solomon parity chunks worth this share of the data chunks; 0 disables FEC. */
+    public void setParityPercent(int parityPercent) {
+        this.parityPercent = Math.max(0, parityPercent);
+    }
+
+    /** Token-only headers on chunks after the first; ignored when FEC parity is on. */
+    public void setCompactHeaders(boolean compactHeaders) {
+        this.compactHeaders = compactHeaders;
+    }
+
+    /** Authenticated AES-CTR payloads for Group and Friend chats instead of the legacy cipher. */
+    public void setSealed(boolean sealed) {
+        this.sealed = sealed;
+    }
+
+    public static boolean isSealedType(int msgTypeId) {
+        return msgTypeId >= 4 && msgTypeId <= 11;
+    }
+
+    /** Maps a plain message type to its sealed twin and back. */
+    public static int flipSealedType(int msgTypeId) {
+        return msgTypeId ^ SEALED_TYPE_FLIP;
+    }
+
     public void process() {
         long messageIdBits;
         if (existingMessageIdBits != -1) {
             messageIdBits = existingMessageIdBits;
         } else {
-            messageIdBits = System.currentTimeMillis() & ((1L << 40) - 1);
+            messageIdBits = System.currentTimeMillis() & MessageHelper.ID40_MASK;
         }
-        String messageAsciiId = MessageHelper.timestampToAsciiId(messageIdBits);
-        String senderAsciiId = MessageHelper.timestampToAsciiId(senderIdBits);
-
-        String rUserId = "";
-        String rMsgId = "";
+        long replyUserBits = 0;
+        long replyMsgBits = 0;
         boolean isReplyDetected = false;
         String tempPayload = payloadToSend;
 
         if (tempPayload.startsWith("[r>") && tempPayload.length() >= 13) {
             try {
-                String replyUserAscii = tempPayload.substring(3, 8);
-                String replyMsgAscii = tempPayload.substring(8, 13);
-
-                rUserId = MessageHelper.timestampToDisplayId(MessageHelper.asciiIdToTimestamp(replyUserAscii));
-                rMsgId = MessageHelper.timestampToDisplayId(MessageHelper.asciiIdToTimestamp(replyMsgAscii));
-
+                replyUserBits = MessageHelper.asciiIdToTimestamp(tempPayload.substring(3, 8));
+                replyMsgBits = MessageHelper.asciiIdToTimestamp(tempPayload.substring(8, 13));
                 tempPayload = tempPayload.substring(13);
                 isReplyDetected = true;
             } catch (Exception e) {
@@ -141,70 +172,56 @@ public class MessageConverterForBle {
             contentToEncrypt = contentToEncrypt.substring(3);
         }
 
-        int chatTypeId = 0;
-        if ("N".equals(chatType)) chatTypeId = 1;
-        else if ("G".equals(chatType)) chatTypeId = 2;
-        else if ("F".equals(chatType)) chatTypeId = 3;
+        int chatTypeId = BlePacketView.chatTypeId(chatType);
 
         int replyBit = isReplyDetected ? 1 : 0;
 
+        CryptoUtils.ChatKey key = chatTypeId == BlePacketView.CHAT_TYPE_NEARBY ? null
+                : ChatKeyRegistry.getInstance(context).keyFor(chatType, chatId, senderDisplayId);
+        boolean sealPayload = sealed && key != null;
+        if (sealPayload) msgTypeId = flipSealedType(msgTypeId);
+
         byte headerByte = (byte) ((chatTypeId << 5) | (replyBit << 4) | msgTypeId);
 
-        String messagePayload;
-        if ("N".equals(chatType)) {
-            messagePayload = contentToEncrypt;
-        } else {
-            try {
-                String password = MessageHelper.getPasswordForChat(context, chatType, chatId, senderDisplayId);
-                messagePayload = CryptoUtils.encrypt(contentToEncrypt, password);
-                if (messagePayload == null) messagePayload = "";
-            } catch (Exception e) {
-                messagePayload = "";
-            }
+        byte[] payloadBytes = contentToEncrypt.getBytes(ISO_8859_1);
+        if (key != null && !sealPayload) {
+            payloadBytes = CryptoUtils.encrypt(payloadBytes, 0, payloadBytes.length, key);
         }
 
-        java.io.ByteArrayOutputStream stream = new java.io.ByteArrayOutputStream();
-        try {
-            if ("G".equals(chatType) || "F".equals(chatType)) {
-                String paddedId = (chatId == null) ? "     " : String.format("%-5s", chatId).substring(0, 5);
-                stream.write(paddedId.getBytes(ISO_8859_1));
-            }
-            if (isReplyDetected) {
-                String replyUserAscii = MessageHelper.timestampToAsciiId(MessageHelper.displayIdToTimestamp(rUserId));
-                String replyMsgAscii = MessageHelper.timestampToAsciiId(MessageHelper.displayIdToTimestamp(rMsgId));
-
-                stream.write(replyUserAscii.getBytes(ISO_8859_1));
-                stream.write(replyMsgAscii.getBytes(ISO_8859_1));
-            }
-
-            stream.write(messagePayload.getBytes(ISO_8859_1));
+        boolean hasChatId = chatTypeId == BlePacketView.CHAT_TYPE_GROUP || chatTypeId == BlePacketView.CHAT_TYPE_FRIEND;
+        byte[] fullStreamData = new byte[(hasChatId ? CHAT_ID_LENGTH : 0)
+                + (isReplyDetected ? USER_ID_LENGTH + MESSAGE_ID_LENGTH : 0)
+                + payloadBytes.length + (sealPayload ? CryptoUtils.TAG_LENGTH : 0)];
+        int offset = 0;
 
-        } catch (Exception e) {
-            Log.e("MsgConverter", "Stream build error", e);
+        if (hasChatId) {
+            String paddedId = (chatId == null) ? "     " : String.format("%-5s", chatId).substring(0, 5);
+            System.arraycopy(paddedId.getBytes(ISO_8859_1), 0, fullStreamData, offset, CHAT_ID_LENGTH);
+            offset += CHAT_ID_LENGTH;
+        }
+        if (isReplyDetected) {
+            MessageHelper.putId40(fullStreamData, offset, replyUserBits);
+            offset += USER_ID_LENGTH;
+            MessageHelper.putId40(fullStreamData, offset, replyMsgBits);
+            offset += MESSAGE_ID_LENGTH;
+        }
+        System.arraycopy(payloadBytes, 0, fullStreamData, offset, payloadBytes.length);
+        if (sealPayload) {
+            CryptoUtils.seal(key, headerByte, senderIdBits, messageIdBits,
+                    fullStreamData, 0, offset, payloadBytes.length);
         }
 
-        byte[] fullStreamData = stream.toByteArray();
-
-        int dataPerChunk = MAX_PAYLOAD_SIZE - BASE_HEADER_SIZE;
-        if (dataPerChunk <= 0) dataPerChunk = 1;
-
-        int totalChunks = (int) Math.ceil((double) fullStreamData.length / dataPerChunk);
-        if (totalChunks == 0) totalChunks = 1;
-        if (totalChunks > 255) totalChunks = 255;
-
-        this.blePacketsToSend = new ArrayList<>();
-
-        for (int i = 0; i < totalChunks; i++) {
-            int start = i * dataPerChunk;
-            int length = Math.min(dataPerChunk, fullStreamData.length - start);
-
-            byte[] chunkData = new byte[length];
-            System.arraycopy(fullStreamData, start, chunkData, 0, length);
-
-            byte[] packet = createByteHeaderPacket(headerByte, senderAsciiId, messageAsciiId,
-                    i, totalChunks, chunkData);
-            this.blePacketsToSend.add(packet);
+        if (parityPercent > 0) {
+            this.blePacketsToSend = BlePacketEncoder.encodeWithParity(headerByte, senderIdBits, messageIdBits,
+                    fullStreamData, MAX_PAYLOAD_SIZE, parityPercent);
+        } else if (compactHeaders) {
+            this.blePacketsToSend = BlePacketEncoder.encodeCompact(headerByte, senderIdBits, messageIdBits,
+                    fullStreamData, MAX_PAYLOAD_SIZE);
+        } else {
+            this.blePacketsToSend = BlePacketEncoder.encode(headerByte, senderIdBits, messageIdBits,
+                    fullStreamData, MAX_PAYLOAD_SIZE);
         }
+        int totalChunks = blePacketsToSend.get(0)[BlePacketEncoder.HEADER_SIZE - 2] & 0xFF;
 
         if (existingMessageIdBits == -1) {
             String finalLocalMessage = tempPayload;
@@ -219,38 +236,38 @@ public class MessageConverterForBle {
             this.messageToSave.setChatId(chatId);
 
             if (isReplyDetected) {
-                this.messageToSave.setReplyToUserId(rUserId);
-                this.messageToSave.setReplyToMessageId(rMsgId);
+                this.messageToSave.setReplyToUserId(MessageHelper.timestampToDisplayId(replyUserBits));
+                this.messageToSave.setReplyToMessageId(MessageHelper.timestampToDisplayId(replyMsgBits));
                 this.messageToSave.setReplyToMessagePreview("Loading reply...");
             }
         }
     }
 
 
-    public static byte[] createAckPacket(String senderAsciiId, String messageAsciiId,
-                                         int totalChunks, int chunkIndex, String friendAsciiId) {
+    public static byte[] createAckPacket(long senderIdBits, long messageIdBits,
+                                         int totalChunks, int chunkIndex, long friendIdBits) {
         byte[] packet = new byte[ACK_PACKET_SIZE];
         int offset = 0;
 
         // Header byte: chatType=3 (Friend), replyBit=0, msgTypeId=12 (1100)
-        int chatTypeId = 3; // Friend
+        int chatTypeId = BlePacketView.CHAT_TYPE_FRIEND;
         int replyBit = 0;
         int msgTypeId = ACK_MSG_TYPE_ID;
         byte headerByte = (byte) ((chatTypeId << 5) | (replyBit << 4) | msgTypeId);
 
         packet[offset++] = headerByte;
 
-        System.arraycopy(senderAsciiId.getBytes(ISO_8859_1), 0, packet, offset, 5);
-        offset += 5;
+        MessageHelper.putId40(packet, offset, senderIdBits);
+        offset += USER_ID_LENGTH;
 
-        System.arraycopy(messageAsciiId.getBytes(ISO_8859_1), 0, packet, offset, 5);
-        offset += 5;
+        MessageHelper.putId40(packet, offset, messageIdBits);
+        offset += MESSAGE_ID_LENGTH;
 
         packet[offset++] = (byte) totalChunks;
 
         packet[offset++] = (byte) chunkIndex;
 
-        System.arraycopy(friendAsciiId.getBytes(ISO_8859_1), 0, packet, offset, 5);
+        MessageHelper.putId40(packet, offset, friendIdBits);
 
         return packet;
     }
@@ -271,130 +288,38 @@ public class MessageConverterForBle {
 
         int offset = 1;
 
-        String senderAsciiId = new String(data, offset, 5, ISO_8859_1);
-        offset += 5;
+        long senderIdBits = MessageHelper.readId40(data, offset);
+        offset += USER_ID_LENGTH;
 
-        String messageAsciiId = new String(data, offset, 5, ISO_8859_1);
-        offset += 5;
+        long messageIdBits = MessageHelper.readId40(data, offset);
+        offset += MESSAGE_ID_LENGTH;
 
         int totalChunks = data[offset++] & 0xFF;
         int chunkIndex = data[offset++] & 0xFF;
 
-        String friendAsciiId = new String(data, offset, 5, ISO_8859_1);
+        long friendIdBits = MessageHelper.readId40(data, offset);
 
-        return new AckInfo(senderAsciiId, messageAsciiId, totalChunks, chunkIndex, friendAsciiId);
+        return new AckInfo(senderIdBits, messageIdBits, totalChunks, chunkIndex, friendIdBits);
     }
 
+    /** Ids are the raw 40-bit values from the packet. */
     public static class AckInfo {
-        public final String senderAsciiId;
-        public final String messageAsciiId;
+        public final long senderIdBits;
+        public final long messageIdBits;
         public final int totalChunks;
         public final int chunkIndex;
-        public final String friendAsciiId;
+        public final long friendIdBits;
 
-        public AckInfo(String senderAsciiId, String messageAsciiId, int totalChunks,
-                       int chunkIndex, String friendAsciiId) {
-            this.senderAsciiId = senderAsciiId;
-            this.messageAsciiId = messageAsciiId;
+        public AckInfo(long senderIdBits, long messageIdBits, int totalChunks,
+                       int chunkIndex, long friendIdBits) {
+            this.senderIdBits = senderIdBits;
+            this.messageIdBits = messageIdBits;
             this.totalChunks = totalChunks;
             this.chunkIndex = chunkIndex;
-            this.friendAsciiId = friendAsciiId;
+            this.friendIdBits = friendIdBits;
         }
     }
 
-
-
-    private byte[] createByteHeaderPacket(byte headerByte, String senderAscii, String msgAscii,
-                                          int chunkIndex, int totalChunks, byte[] data) {
-
-        byte[] packet = new byte[BASE_HEADER_SIZE + data.length];
-        int offset = 0;
-
-        packet[offset++] = headerByte;
-        System.arraycopy(senderAscii.getBytes(ISO_8859_1), 0, packet, offset, USER_ID_LENGTH);
-        offset += USER_ID_LENGTH;
-        System.arraycopy(msgAscii.getBytes(ISO_8859_1), 0, packet, offset, MESSAGE_ID_LENGTH);
-        offset += MESSAGE_ID_LENGTH;
-        packet[offset++] = (byte) totalChunks;
-        packet[offset++] = (byte) chunkIndex;
-
-        System.arraycopy(data, 0, packet, offset, data.length);
-        return packet;
-    }
-
-
-    private byte[] createGenericPacket(String type, String senderAscii, String msgAscii,
-                                       int chunkIndex, int totalChunks, byte[] data) {
-
-        byte[] packet = new byte[BASE_HEADER_SIZE + data.length];
-        int offset = 0;
-
-        packet[offset++] = (byte) type.charAt(0);
-        System.arraycopy(senderAscii.getBytes(ISO_8859_1), 0, packet, offset, USER_ID_LENGTH);
-        offset += USER_ID_LENGTH;
-        System.arraycopy(msgAscii.getBytes(ISO_8859_1), 0, packet, offset, MESSAGE_ID_LENGTH);
-        offset += MESSAGE_ID_LENGTH;
-        packet[offset++] = (byte) totalChunks;
-        packet[offset++] = (byte) chunkIndex;
-
-        System.arraycopy(data, 0, packet, offset, data.length);
-        return packet;
-    }
-
-
-    private byte[] createNearbyChatReplyPacket(String chatType, String senderAsciiId,
-                                               String messageAsciiId, int chunkIndex, int totalChunks,
-                                               String replyUserAscii, String replyMsgAscii, byte[] chunkData) {
-
-        byte[] packet = new byte[BASE_HEADER_SIZE + 10 + chunkData.length];
-        int offset = 0;
-
-        packet[offset++] = (byte) chatType.charAt(0);
-        System.arraycopy(senderAsciiId.getBytes(ISO_8859_1), 0, packet, offset, USER_ID_LENGTH);
-        offset += USER_ID_LENGTH;
-        System.arraycopy(messageAsciiId.getBytes(ISO_8859_1), 0, packet, offset, MESSAGE_ID_LENGTH);
-        offset += MESSAGE_ID_LENGTH;
-        packet[offset++] = (byte) totalChunks;
-        packet[offset++] = (byte) chunkIndex;
-
-        System.arraycopy(replyUserAscii.getBytes(ISO_8859_1), 0, packet, offset, 5);
-        offset += 5;
-        System.arraycopy(replyMsgAscii.getBytes(ISO_8859_1), 0, packet, offset, 5);
-        offset += 5;
-
-        System.arraycopy(chunkData, 0, packet, offset, chunkData.length);
-
-        return packet;
-    }
-
-    private byte[] createFirstChunkGFReplyPacket(String chatType, String senderAsciiId,
-                                                 String messageAsciiId, int chunkIndex, int totalChunks,
-                                                 String paddedChatId, String replyUserAscii,
-                                                 String replyMsgAscii, byte[] chunkData) {
-
-        byte[] packet = new byte[FIRST_CHUNK_GF_HEADER_SIZE + 10 + chunkData.length];
-        int offset = 0;
-
-        packet[offset++] = (byte) chatType.charAt(0);
-        System.arraycopy(senderAsciiId.getBytes(ISO_8859_1), 0, packet, offset, USER_ID_LENGTH);
-        offset += USER_ID_LENGTH;
-        System.arraycopy(messageAsciiId.getBytes(ISO_8859_1), 0, packet, offset, MESSAGE_ID_LENGTH);
-        offset += MESSAGE_ID_LENGTH;
-        packet[offset++] = (byte) totalChunks;
-        packet[offset++] = (byte) chunkIndex;
-        System.arraycopy(paddedChatId.getBytes(ISO_8859_1), 0, packet, offset, CHAT_ID_LENGTH);
-        offset += CHAT_ID_LENGTH;
-
-        System.arraycopy(replyUserAscii.getBytes(ISO_8859_1), 0, packet, offset, 5);
-        offset += 5;
-        System.arraycopy(replyMsgAscii.getBytes(ISO_8859_1), 0, packet, offset, 5);
-        offset += 5;
-
-        System.arraycopy(chunkData, 0, packet, offset, chunkData.length);
-
-        return packet;
-    }
-
     public MessageModel getMessageToSave() {
         return messageToSave;
     }
@@ -403,85 +328,6 @@ public class MessageConverterForBle {
         return blePacketsToSend;
     }
 
-    private byte[] createNearbyChatPacket(String chatType, String senderAsciiId, String messageAsciiId,
-                                          int chunkIndex, int totalChunks, byte[] chunkData) {
-        byte[] packet = new byte[BASE_HEADER_SIZE + chunkData.length];
-        int offset = 0;
-
-        packet[offset++] = (byte) chatType.charAt(0);
-        System.arraycopy(senderAsciiId.getBytes(ISO_8859_1), 0, packet, offset, USER_ID_LENGTH);
-        offset += USER_ID_LENGTH;
-        System.arraycopy(messageAsciiId.getBytes(ISO_8859_1), 0, packet, offset, MESSAGE_ID_LENGTH);
-        offset += MESSAGE_ID_LENGTH;
-        packet[offset++] = (byte) totalChunks;
-        packet[offset++] = (byte) chunkIndex;
-        System.arraycopy(chunkData, 0, packet, offset, chunkData.length);
-
-        return packet;
-    }
-
-    private byte[] createFirstChunkGFPacket(String chatType, String senderAsciiId, String messageAsciiId,
-                                            int chunkIndex, int totalChunks, String paddedChatId, byte[] chunkData) {
-        byte[] packet = new byte[FIRST_CHUNK_GF_HEADER_SIZE + chunkData.length];
-        int offset = 0;
-
-        packet[offset++] = (byte) chatType.charAt(0);
-        System.arraycopy(senderAsciiId.getBytes(ISO_8859_1), 0, packet, offset, USER_ID_LENGTH);
-        offset += USER_ID_LENGTH;
-        System.arraycopy(messageAsciiId.getBytes(ISO_8859_1), 0, packet, offset, MESSAGE_ID_LENGTH);
-        offset += MESSAGE_ID_LENGTH;
-        packet[offset++] = (byte) totalChunks;
-        packet[offset++] = (byte) chunkIndex;
-        System.arraycopy(paddedChatId.getBytes(ISO_8859_1), 0, packet, offset, CHAT_ID_LENGTH);
-        offset += CHAT_ID_LENGTH;
-        System.arraycopy(chunkData, 0, packet, offset, chunkData.length);
-
-        return packet;
-    }
-
-    private byte[] createNextChunkGFPacket(String chatType, String senderAsciiId, String messageAsciiId,
-                                           int chunkIndex, int totalChunks, byte[] chunkData) {
-        byte[] packet = new byte[BASE_HEADER_SIZE + chunkData.length];
-        int offset = 0;
-
-        packet[offset++] = (byte) chatType.charAt(0);
-        System.arraycopy(senderAsciiId.getBytes(ISO_8859_1), 0, packet, offset, USER_ID_LENGTH);
-        offset += USER_ID_LENGTH;
-        System.arraycopy(messageAsciiId.getBytes(ISO_8859_1), 0, packet, offset, MESSAGE_ID_LENGTH);
-        offset += MESSAGE_ID_LENGTH;
-        packet[offset++] = (byte) totalChunks;
-        packet[offset++] = (byte) chunkIndex;
-        System.arraycopy(chunkData, 0, packet, offset, chunkData.length);
-
-        return packet;
-    }
-
-    private List<byte[]> createVariableSizeChunks(byte[] data, int firstChunkSize, int nextChunkSize) {
-        List<byte[]> chunks = new ArrayList<>();
-        if (data.length == 0) {
-            chunks.add(new byte[0]);
-            return chunks;
-        }
-
-        int offset = 0;
-        boolean isFirstChunk = true;
-
-        while (offset < data.length) {
-            int chunkSize;
-            if (isFirstChunk) {
-                chunkSize = Math.min(firstChunkSize, data.length - offset);
-                isFirstChunk = false;
-            } else {
-                chunkSize = Math.min(nextChunkSize, data.length - offset);
-            }
-            byte[] chunk = new byte[chunkSize];
-            System.arraycopy(data, offset, chunk, 0, chunkSize);
-            chunks.add(chunk);
-            offset += chunkSize;
-        }
-        return chunks;
-    }
-
     private String createFormattedTimestamp(int chunkCount, long messageIdBits) {
         long fullTimestamp = MessageHelper.reconstructFullTimestamp(messageIdBits);
         SimpleDateFormat sdf = new SimpleDateFormat("hh:mm:ss a | dd-MM-yyyy", Locale.getDefault());
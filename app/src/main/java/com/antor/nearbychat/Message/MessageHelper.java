@@ -1,37 +1,38 @@
 package com.antor.nearbychat.Message;
 
-import android.content.Context;
-import android.content.SharedPreferences;
-
-import com.antor.nearbychat.FriendModel;
-import com.antor.nearbychat.GroupModel;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
-import java.lang.reflect.Type;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
 
+/**
+ * User, message and group ids are 40-bit values and travel as plain longs
+ * inside the pipeline. The strings below are only for the edges: the
+ * 5-char ASCII form is the raw bytes as Latin-1 chars (group ids in prefs
+ * and payloads), the 8-char display form is base-32 over {@link #ALPHABET}
+ * (UI and database rows).
+ */
 public class MessageHelper {
+    public static final long ID40_MASK = (1L << 40) - 1;
     private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ123456".toCharArray();
-    private static final String PREFS_NAME = "NearbyChatPrefs";
-    private static final String KEY_GROUPS_LIST = "groupsList";
-    private static final String KEY_FRIENDS_LIST = "friendsList";
+    // Char -> 5-bit value; characters outside the alphabet read as 0 like before
+    private static final byte[] ALPHABET_INDEX = new byte[128];
+
+    static {
+        for (int i = 0; i < ALPHABET.length; i++) {
+            ALPHABET_INDEX[ALPHABET[i]] = (byte) i;
+        }
+    }
 
     public static String generateAsciiId() {
         return timestampToAsciiId(System.currentTimeMillis());
     }
 
     public static String timestampToAsciiId(long timestamp) {
-        long bits40 = timestamp & ((1L << 40) - 1);
-        StringBuilder sb = new StringBuilder();
-        for (int i = 4; i >= 0; i--) {
-            int byteValue = (int) ((bits40 >> (i * 8)) & 0xFF);
-            sb.append((char) byteValue);
+        char[] chars = new char[5];
+        for (int i = 0; i < 5; i++) {
+            chars[i] = (char) ((timestamp >>> ((4 - i) * 8)) & 0xFF);
         }
-        return sb.toString();
+        return new String(chars);
     }
 
     public static long asciiIdToTimestamp(String asciiId) {
@@ -43,16 +44,28 @@ public class MessageHelper {
         return bits40;
     }
 
+    public static void putId40(byte[] dst, int offset, long bits40) {
+        for (int i = 0; i < 5; i++) {
+            dst[offset + i] = (byte) (bits40 >>> ((4 - i) * 8));
+        }
+    }
+
+    public static long readId40(byte[] src, int offset) {
+        long bits40 = 0;
+        for (int i = 0; i < 5; i++) {
+            bits40 = (bits40 << 8) | (src[offset + i] & 0xFF);
+        }
+        return bits40;
+    }
+
     public static String timestampToDisplayId(long timestamp) {
-        long bits40 = timestamp & ((1L << 40) - 1);
-        StringBuilder sb = new StringBuilder();
-        long temp = bits40;
-        for (int i = 0; i < 8; i++) {
-            int index = (int) (temp & 0b11111);
-            sb.append(ALPHABET[index]);
-            temp >>= 5;
+        char[] chars = new char[8];
+        long temp = timestamp & ID40_MASK;
+        for (int i = 7; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (temp & 0b11111)];
+            temp >>>= 5;
         }
-        return sb.reverse().toString();
+        return new String(chars);
     }
 
     public static long displayIdToTimestamp(String displayId) {
@@ -60,22 +73,14 @@ public class MessageHelper {
         long bits40 = 0;
         for (int i = 0; i < 8; i++) {
             char c = displayId.charAt(i);
-            int index = -1;
-            for (int j = 0; j < ALPHABET.length; j++) {
-                if (ALPHABET[j] == c) {
-                    index = j;
-                    break;
-                }
-            }
-            if (index == -1) index = 0;
-            bits40 = (bits40 << 5) | index;
+            bits40 = (bits40 << 5) | (c < ALPHABET_INDEX.length ? ALPHABET_INDEX[c] : 0);
         }
         return bits40;
     }
 
     public static long reconstructFullTimestamp(long timestampBits40) {
         long currentMs = System.currentTimeMillis();
-        long currentHigh = currentMs & ~((1L << 40) - 1);
+        long currentHigh = currentMs & ~ID40_MASK;
         long reconstructed = currentHigh | timestampBits40;
         if (reconstructed > currentMs + 1000) {
             return reconstructed - (1L << 40);
@@ -87,38 +92,4 @@ public class MessageHelper {
         SimpleDateFormat sdf = new SimpleDateFormat("hh:mm:ss a | dd-MM-yyyy", Locale.getDefault());
         return sdf.format(new Date(timestampMs));
     }
-
-    public static String getPasswordForChat(Context context, String chatType, String chatId, String myUserId) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        Gson gson = new Gson();
-
-        if ("G".equals(chatType)) {
-            String groupsJson = prefs.getString(KEY_GROUPS_LIST, null);
-            if (groupsJson != null) {
-                Type type = new TypeToken<List<GroupModel>>() {}.getType();
-                List<GroupModel> groups = gson.fromJson(groupsJson, type);
-                for (GroupModel g : groups) {
-                    if (g.getId().equals(chatId)) {
-                        return g.getEncryptionKey().isEmpty() ? g.getId() : g.getEncryptionKey();
-                    }
-                }
-            }
-            return chatId;
-        } else if ("F".equals(chatType)) {
-            String friendsJson = prefs.getString(KEY_FRIENDS_LIST, null);
-            if (friendsJson != null) {
-                Type type = new TypeToken<List<FriendModel>>() {}.getType();
-                List<FriendModel> friends = gson.fromJson(friendsJson, type);
-                String friendDisplayId = timestampToDisplayId(asciiIdToTimestamp(chatId));
-
-                for (FriendModel f : friends) {
-                    if (f.getDisplayId().equals(friendDisplayId)) {
-                        return f.getEncryptionKey().isEmpty() ? myUserId : f.getEncryptionKey();
-                    }
-                }
-            }
-            return myUserId;
-        }
-        return "";
-    }
-}
\ No newline at end of file
+}
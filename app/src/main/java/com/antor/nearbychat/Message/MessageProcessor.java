@@ -12,173 +12,274 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.concurrent.ExecutorService;
 
 public class MessageProcessor {
     private static final String TAG = "MessageProcessor";
 
-    private final Map<String, MessageReassembler> reassemblers = new HashMap<>();
+    private static final long TIMER_TICK_MS = 250;
+    private static final int TIMER_WHEEL_SLOTS = 512;
+    private static final long DEFAULT_CHUNK_GAP_MS = 1000;
+    private static final long MIN_CHUNK_TIMEOUT_MS = 5000;
+    private static final int TIMEOUT_GAP_MULTIPLIER = 2;
+    private static final long MIN_STALL_MS = 3000;
+    private static final int MAX_REPAIR_REQUESTS = 3;
+    private static final int PENDING_COMPACT_CAPACITY = 64;
+    private static final long PENDING_COMPACT_MAX_AGE_MS = 60000;
+    private static final int FINISHED_CAPACITY = 512;
+    /** Chat id of a group or friend message whose chunk 0 has not arrived yet. */
+    private static final long NO_CHAT_ID = -1;
+
+    private final ReassemblyTable<MessageReassembler> reassemblers = new ReassemblyTable<>();
+    // Compact continuation chunks: (session token, header byte + chunk count) -> reassembler
+    private final ReassemblyTable<MessageReassembler> sessions = new ReassemblyTable<>();
+    private final PendingCompactChunks pendingCompact = new PendingCompactChunks(PENDING_COMPACT_CAPACITY);
+    // Messages already delivered or not meant for this device: their leftover parity and
+    // later rounds must not start a reassembly that would ask for repairs and time out
+    private final RecentMessageIds finished = new RecentMessageIds(FINISHED_CAPACITY);
+    private final ThreadLocal<ArrayList<byte[]>> releasedChunks = ThreadLocal.withInitial(ArrayList::new);
+    private final TimerWheel<MessageReassembler> expiryWheel =
+            new TimerWheel<>(TIMER_TICK_MS, TIMER_WHEEL_SLOTS, System.currentTimeMillis());
+    private final TimerWheel<MessageReassembler> stallWheel =
+            new TimerWheel<>(TIMER_TICK_MS, TIMER_WHEEL_SLOTS, System.currentTimeMillis());
+    private volatile long maxChunkTimeoutMs = 300000;
+    private volatile OutboundChunkCache outboundCache;
+    private long sessionCollisions = 0;
+    private final ThreadLocal<BlePacketView> packetViews = ThreadLocal.withInitial(BlePacketView::new);
     private final Context context;
     private final ExecutorService processingExecutor;
     private final String myDisplayId;
-    private final String myAsciiId;
+    private final long myIdBits;
     private static final Charset ISO_8859_1 = StandardCharsets.ISO_8859_1;
 
     public MessageProcessor(Context context, ExecutorService processingExecutor, String myDisplayId) {
         this.context = context;
         this.processingExecutor = processingExecutor;
         this.myDisplayId = myDisplayId;
-        this.myAsciiId = MessageHelper.timestampToAsciiId(MessageHelper.displayIdToTimestamp(myDisplayId));
-        Log.d(TAG, "MessageProcessor initialized with myDisplayId=" + myDisplayId + " myAsciiId=" + myAsciiId);
+        this.myIdBits = MessageHelper.displayIdToTimestamp(myDisplayId);
+        Log.d(TAG, "MessageProcessor initialized with myDisplayId=" + myDisplayId);
     }
 
     public MessageModel processIncomingData(byte[] data, String myDisplayId) {
-        if (data == null || data.length < 13) {
-            return null;
-        }
-        int offset = 0;
+        return processIncomingData(data,
+                myDisplayId.equals(this.myDisplayId) ? myIdBits : MessageHelper.displayIdToTimestamp(myDisplayId));
+    }
 
-        int headerByte = data[offset] & 0xFF; offset += 1;
+    /** Packets sent by {@code myIdBits} are ignored. */
+    public MessageModel processIncomingData(byte[] data, long myIdBits) {
+        ArrayList<byte[]> released = releasedChunks.get();
+        MessageModel result = processPacket(data, myIdBits, released);
+        // Compact chunks that arrived before their chunk 0 can be placed now
+        for (int i = 0; i < released.size(); i++) {
+            MessageModel next = processPacket(released.get(i), myIdBits, released);
+            if (next != null && (result == null || !result.isComplete())) result = next;
+        }
+        released.clear();
+        return result;
+    }
 
-        int chatTypeId = (headerByte >> 5) & 0b111; // Bits 7-5
-        int isReplyVal = (headerByte >> 4) & 0b1;   // Bit 4
-        int msgTypeId = headerByte & 0b1111;        // Bits 3-0
+    private static long sessionKey(int headerByte, int totalChunks) {
+        return ((long) headerByte << 8) | totalChunks;
+    }
 
-        boolean isReply = (isReplyVal == 1);
+    private MessageModel processPacket(byte[] data, long myBits, List<byte[]> released) {
+        BlePacketView packet = packetViews.get();
+        if (!packet.wrap(data)) {
+            return null;
+        }
 
-        String currentChatType = "N";
-        if (chatTypeId == 2) currentChatType = "G";
-        else if (chatTypeId == 3) currentChatType = "F";
+        int chatTypeId = packet.chatTypeId();
+        int totalChunks = packet.totalChunks();
+        int chunkIndex = packet.chunkIndex();
+        long senderIdBits;
+        long messageIdBits;
+        MessageReassembler reassembler;
 
-        String senderAsciiId = new String(data, offset, 5, ISO_8859_1); offset += 5;
-        String messageAsciiId = new String(data, offset, 5, ISO_8859_1); offset += 5;
-        int totalChunks = data[offset] & 0xFF; offset += 1;
-        int chunkIndex = data[offset] & 0xFF; offset += 1;
+        if (packet.isCompact()) {
+            reassembler = sessions.get(packet.sessionToken(), sessionKey(packet.headerByte(), totalChunks));
+            if (reassembler == null) {
+                pendingCompact.add(data, System.currentTimeMillis());
+                return null;
+            }
+            if (reassembler.sessionCollision) return null;
+            senderIdBits = reassembler.senderIdBits;
+            messageIdBits = reassembler.messageIdBits;
+        } else {
+            senderIdBits = packet.senderIdBits();
+            if (senderIdBits == myBits) return null;
+            messageIdBits = packet.messageIdBits();
+            reassembler = null;
+        }
 
-        byte[] chunkData = new byte[data.length - offset];
-        System.arraycopy(data, offset, chunkData, 0, chunkData.length);
+        boolean hasChatId = chunkIndex == 0 && !packet.isCompact() && packet.dataLength() >= 5
+                && (chatTypeId == BlePacketView.CHAT_TYPE_GROUP || chatTypeId == BlePacketView.CHAT_TYPE_FRIEND);
 
-        long senderIdBits = MessageHelper.asciiIdToTimestamp(senderAsciiId);
-        String senderDisplayId = MessageHelper.timestampToDisplayId(senderIdBits);
+        if (hasChatId && chatTypeId == BlePacketView.CHAT_TYPE_FRIEND && packet.dataId40(0) != myBits) {
+            discardMessage(senderIdBits, messageIdBits);
+            return null;
+        }
 
-        if (senderDisplayId.equals(myDisplayId)) return null;
+        if (reassembler == null) {
+            reassembler = reassemblers.get(senderIdBits, messageIdBits);
+        }
+        if (reassembler != null && reassembler.hasChunk(chunkIndex)) return null;
+        if (reassembler == null && finished.contains(senderIdBits, messageIdBits)) return null;
 
-        long messageIdBits = MessageHelper.asciiIdToTimestamp(messageAsciiId);
-        String messageDisplayId = MessageHelper.timestampToDisplayId(messageIdBits);
+        boolean isReply = packet.isReply();
+        long chatIdBits = NO_CHAT_ID;
+        if (hasChatId) {
+            chatIdBits = chatTypeId == BlePacketView.CHAT_TYPE_FRIEND ? senderIdBits : packet.dataId40(0);
+        }
 
-        String chatId = null;
-        if (chunkIndex == 0) {
-            if ("G".equals(currentChatType) || "F".equals(currentChatType)) {
-                if (chunkData.length >= 5) {
-                    chatId = new String(chunkData, 0, 5, ISO_8859_1);
-                    if ("F".equals(currentChatType)) {
-                        if (!chatId.equals(myAsciiId)) return null;
-                        chatId = senderAsciiId;
+        if (reassembler == null) {
+            MessageReassembler created = new MessageReassembler(senderIdBits, messageIdBits, chatTypeId, chatIdBits);
+            created.msgTypeId = packet.msgTypeId();
+            created.headerByte = (byte) packet.headerByte();
+            created.sessionToken = BlePacketEncoder.sessionToken(senderIdBits, messageIdBits);
+            created.sessionKey = sessionKey(packet.headerByte(), totalChunks);
+            reassembler = reassemblers.putIfAbsent(senderIdBits, messageIdBits, created);
+            if (reassembler == created) {
+                MessageReassembler owner = sessions.putIfAbsent(created.sessionToken, created.sessionKey, created);
+                if (owner == created) {
+                    pendingCompact.drainTo(created.sessionToken, created.sessionKey, released,
+                            System.currentTimeMillis() - PENDING_COMPACT_MAX_AGE_MS);
+                } else {
+                    // Two live messages share a session: their compact chunks cannot be told
+                    // apart, so neither takes any. Full-header chunks still reach both by id.
+                    owner.sessionCollision = true;
+                    created.sessionCollision = true;
+                    synchronized (this) {
+                        sessionCollisions++;
                     }
+                    Log.w(TAG, "Session token collision on message " + created.messageDisplayId());
                 }
             }
         }
-
-        String reassemblerKey = senderDisplayId + "_" + messageDisplayId;
-        MessageReassembler reassembler;
-
-        synchronized (reassemblers) {
-            reassembler = reassemblers.get(reassemblerKey);
-            if (reassembler == null) {
-                reassembler = new MessageReassembler(senderDisplayId, messageDisplayId, currentChatType, chatId);
-                reassembler.msgTypeId = msgTypeId;
-                reassemblers.put(reassemblerKey, reassembler);
-            }
-            if (chatId != null && reassembler.chatId == null) {
-                reassembler.chatId = chatId;
-            }
+        if (chatIdBits != NO_CHAT_ID) {
+            reassembler.setChatIdIfAbsent(chatIdBits);
         }
 
-        if (reassembler.hasChunk(chunkIndex)) return null;
-        reassembler.addChunk(chunkIndex, totalChunks, chunkData);
+        long now = System.currentTimeMillis();
+        if (!reassembler.addChunk(chunkIndex, totalChunks, data, packet.dataOffset(), packet.dataLength(), now)) {
+            return null;
+        }
 
         if (reassembler.isComplete()) {
-            String fullStreamPayload;
-            synchronized (reassemblers) {
-                fullStreamPayload = reassembler.reassemble();
-            }
+            byte[] fullStreamPayload = reassembler.reassemble();
 
+            if (fullStreamPayload != null && reassembler.recoveredChunkZero
+                    && !acceptRecoveredChatId(reassembler, fullStreamPayload, chatTypeId, myBits)) {
+                discardMessage(senderIdBits, messageIdBits);
+                return null;
+            }
             if (fullStreamPayload != null) {
                 MessageModel completeMsg = buildMessageModelFromStream(
-                        fullStreamPayload, senderDisplayId, messageDisplayId,
-                        senderIdBits, messageIdBits, totalChunks,
-                        currentChatType, reassembler.chatId, isReply, reassembler.msgTypeId
+                        fullStreamPayload, senderIdBits, messageIdBits, totalChunks,
+                        chatTypeId, reassembler.chatIdBits, isReply,
+                        reassembler.headerByte, reassembler.msgTypeId
                 );
-                synchronized (reassemblers) {
-                    reassemblers.remove(reassemblerKey);
+                retire(reassembler);
+                if (completeMsg == null) return null;
+                finished.add(senderIdBits, messageIdBits);
+                OutboundChunkCache cache = outboundCache;
+                if (cache != null) {
+                    cache.put(reassembler.toPackets());
                 }
                 return completeMsg;
             }
         }
+        expiryWheel.schedule(reassembler.timer, reassembler.nextDeadline(maxChunkTimeoutMs));
+        stallWheel.schedule(reassembler.stallTimer, reassembler.lastChunkAt + reassembler.stallWindowMs());
 
         String progressMsg = "Receiving Chunk (" + reassembler.getReceivedCount() + "/" + totalChunks + ")";
 
         MessageModel partialMsg = new MessageModel(
-                senderDisplayId,
+                reassembler.senderDisplayId(),
                 progressMsg,
                 false,
                 createFormattedTimestamp(totalChunks, messageIdBits),
                 senderIdBits,
                 messageIdBits
         );
-        partialMsg.setMessageId(messageDisplayId);
+        partialMsg.setMessageId(reassembler.messageDisplayId());
         partialMsg.setChunkCount(totalChunks);
         partialMsg.setIsComplete(false);
-        partialMsg.setChatType(currentChatType);
-        partialMsg.setChatId(reassembler.chatId != null ? reassembler.chatId : "");
+        partialMsg.setChatType(BlePacketView.chatTypeCode(chatTypeId));
+        partialMsg.setChatId(reassembler.chatIdCode());
+        partialMsg.setMissingChunks(reassembler.getMissingChunkIndices());
         return partialMsg;
     }
 
 
-    private MessageModel buildMessageModelFromStream(String streamPayload, String senderDisplayId,
-                                                     String messageDisplayId, long senderIdBits,
-                                                     long messageIdBits, int totalChunks,
-                                                     String chatType, String knownChatId,
-                                                     boolean isReply, int msgTypeId) {
+    /**
+     * Chunk 0 rebuilt from parity never went through the chat id checks above,
+     * so apply them to the reassembled stream.
+     */
+    private boolean acceptRecoveredChatId(MessageReassembler reassembler, byte[] stream,
+                                          int chatTypeId, long myBits) {
+        if (chatTypeId != BlePacketView.CHAT_TYPE_GROUP && chatTypeId != BlePacketView.CHAT_TYPE_FRIEND) {
+            return true;
+        }
+        if (stream.length < 5) return false;
+        if (chatTypeId == BlePacketView.CHAT_TYPE_FRIEND) {
+            if (MessageHelper.readId40(stream, 0) != myBits) return false;
+            reassembler.setChatIdIfAbsent(reassembler.senderIdBits);
+        } else {
+            reassembler.setChatIdIfAbsent(MessageHelper.readId40(stream, 0));
+        }
+        return true;
+    }
 
-        byte[] fullData = streamPayload.getBytes(ISO_8859_1);
+    /**
+     * Returns null if a sealed payload fails authentication. Display strings
+     * for the ids are only built here, on the way out to the UI and database.
+     */
+    private MessageModel buildMessageModelFromStream(byte[] fullData, long senderIdBits, long messageIdBits,
+                                                     int totalChunks, int chatTypeId, long chatIdBits,
+                                                     boolean isReply, byte headerByte, int msgTypeId) {
         int offset = 0;
-        String chatId = knownChatId;
 
-        if ("G".equals(chatType) || "F".equals(chatType)) {
+        if (chatTypeId == BlePacketView.CHAT_TYPE_GROUP || chatTypeId == BlePacketView.CHAT_TYPE_FRIEND) {
             if (fullData.length >= offset + 5) offset += 5;
         }
 
-        String replyUserAscii = "";
-        String replyMsgAscii = "";
+        boolean hasReplyIds = false;
+        long replyUserBits = 0;
+        long replyMsgBits = 0;
 
         if (isReply) {
             if (fullData.length >= offset + 10) {
-                replyUserAscii = new String(fullData, offset, 5, ISO_8859_1);
+                hasReplyIds = true;
+                replyUserBits = MessageHelper.readId40(fullData, offset);
                 offset += 5;
-                replyMsgAscii = new String(fullData, offset, 5, ISO_8859_1);
+                replyMsgBits = MessageHelper.readId40(fullData, offset);
                 offset += 5;
             }
         }
 
         String actualPayload = "";
-        if (offset < fullData.length) {
-            actualPayload = new String(fullData, offset, fullData.length - offset, ISO_8859_1);
-        }
-
-        if (!"N".equals(chatType)) {
-            try {
-                String password = MessageHelper.getPasswordForChat(context, chatType, chatId, senderDisplayId);
-                String decrypted = CryptoUtils.decrypt(actualPayload, password);
-                if (decrypted != null) actualPayload = decrypted;
-            } catch (Exception e) {
-                Log.e(TAG, "Decrypt failed", e);
+        if (MessageConverterForBle.isSealedType(msgTypeId)) {
+            CryptoUtils.ChatKey key = ChatKeyRegistry.getInstance(context).keyFor(chatTypeId, chatIdBits, senderIdBits);
+            int sealedLength = fullData.length - offset;
+            if (!CryptoUtils.open(key, headerByte, senderIdBits, messageIdBits, fullData, 0, offset, sealedLength)) {
+                Log.w(TAG, "Rejected sealed message " + MessageHelper.timestampToDisplayId(messageIdBits)
+                        + " from " + MessageHelper.timestampToDisplayId(senderIdBits));
+                return null;
+            }
+            actualPayload = new String(fullData, offset, sealedLength - CryptoUtils.TAG_LENGTH, ISO_8859_1);
+            msgTypeId = MessageConverterForBle.flipSealedType(msgTypeId);
+        } else if (offset < fullData.length) {
+            int length = fullData.length - offset;
+            if (chatTypeId == BlePacketView.CHAT_TYPE_GROUP || chatTypeId == BlePacketView.CHAT_TYPE_FRIEND) {
+                CryptoUtils.ChatKey key = ChatKeyRegistry.getInstance(context).keyFor(chatTypeId, chatIdBits, senderIdBits);
+                actualPayload = new String(CryptoUtils.decrypt(fullData, offset, length, key), ISO_8859_1);
+            } else {
+                actualPayload = new String(fullData, offset, length, ISO_8859_1);
             }
         }
 
@@ -204,29 +305,21 @@ public class MessageProcessor {
         }
 
         MessageModel newMsg = new MessageModel(
-                senderDisplayId, actualPayload, false,
+                MessageHelper.timestampToDisplayId(senderIdBits), actualPayload, false,
                 createFormattedTimestamp(totalChunks, messageIdBits),
                 senderIdBits, messageIdBits
         );
-        newMsg.setMessageId(messageDisplayId);
+        newMsg.setMessageId(MessageHelper.timestampToDisplayId(messageIdBits));
         newMsg.setIsComplete(true);
-        newMsg.setChatType(chatType);
-        newMsg.setChatId(chatId != null ? chatId : "");
+        newMsg.setChatType(BlePacketView.chatTypeCode(chatTypeId));
+        newMsg.setChatId(chatIdBits != NO_CHAT_ID ? MessageHelper.timestampToAsciiId(chatIdBits) : "");
 
         if (isReply) {
-            try {
-                if (!replyUserAscii.isEmpty()) {
-                    long rUserBits = MessageHelper.asciiIdToTimestamp(replyUserAscii);
-                    newMsg.setReplyToUserId(MessageHelper.timestampToDisplayId(rUserBits));
-                }
-                if (!replyMsgAscii.isEmpty()) {
-                    long rMsgBits = MessageHelper.asciiIdToTimestamp(replyMsgAscii);
-                    newMsg.setReplyToMessageId(MessageHelper.timestampToDisplayId(rMsgBits));
-                }
-                newMsg.setReplyToMessagePreview("Loading preview...");
-            } catch (Exception e) {
-                Log.e(TAG, "Reply parse error", e);
+            if (hasReplyIds) {
+                newMsg.setReplyToUserId(MessageHelper.timestampToDisplayId(replyUserBits));
+                newMsg.setReplyToMessageId(MessageHelper.timestampToDisplayId(replyMsgBits));
             }
+            newMsg.setReplyToMessagePreview("Loading preview...");
         }
         return newMsg;
     }
@@ -249,99 +342,226 @@ public class MessageProcessor {
         }, processingExecutor);
     }
 
-    public void cleanupExpiredReassemblers(long timeoutMs, TimeoutCallback callback) {
-        synchronized (reassemblers) {
-            Iterator<Map.Entry<String, MessageReassembler>> it = reassemblers.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<String, MessageReassembler> entry = it.next();
-                MessageReassembler reassembler = entry.getValue();
-
-                if (reassembler.isExpired(timeoutMs)) {
-                    Log.d(TAG, "⏱ Timing out reassembler for message: " + reassembler.messageId);
-
-                    String msgChatType = reassembler.chatType != null ? reassembler.chatType : "N";
-                    String msgChatId = reassembler.chatId != null ? reassembler.chatId : "";
-
-                    String failedContent = String.format(Locale.US, "Failed to receive (%d/%d chunks)",
-                            reassembler.getReceivedCount(),
-                            reassembler.totalChunks > 0 ? reassembler.totalChunks : 1);
-
-                    MessageModel failedMsg = new MessageModel(
-                            reassembler.senderId,
-                            failedContent,
-                            false,
-                            "Timeout | " + createFormattedTimestamp(1, 0),
-                            0,
-                            0
-                    );
-                    failedMsg.setMessageId(reassembler.messageId);
-                    failedMsg.setIsComplete(false);
-                    failedMsg.setFailed(true);
-                    failedMsg.setChatType(msgChatType);
-                    failedMsg.setChatId(msgChatId);
-
-                    Log.d(TAG, "✗ Failed message created: chatType=" + msgChatType +
-                            " | chatId=" + msgChatId + " | content=" + failedContent);
-
-                    if (callback != null) {
-                        callback.onTimeout(failedMsg);
-                    }
-                    it.remove();
-                }
+    /**
+     * Runs a whole scan batch in one task and returns one model per message
+     * the batch touched, in first-seen order: the latest state of each, with
+     * a complete message never replaced by a later partial. The caller can
+     * then persist the batch in a single transaction.
+     */
+    public List<MessageModel> processIncomingBatch(List<byte[]> packets, long myIdBits) {
+        LinkedHashMap<String, MessageModel> latest = new LinkedHashMap<>();
+        for (byte[] data : packets) {
+            MessageModel msg = processIncomingData(data, myIdBits);
+            if (msg == null) continue;
+            String key = msg.getSenderId() + ":" + msg.getMessageId();
+            MessageModel previous = latest.get(key);
+            if (previous != null && previous.isComplete() && !msg.isComplete()) continue;
+            latest.put(key, msg);
+        }
+        return new ArrayList<>(latest.values());
+    }
+
+    private boolean retire(MessageReassembler reassembler) {
+        boolean removed = reassemblers.remove(reassembler.senderIdBits, reassembler.messageIdBits, reassembler);
+        sessions.remove(reassembler.sessionToken, reassembler.sessionKey, reassembler);
+        expiryWheel.cancel(reassembler.timer);
+        stallWheel.cancel(reassembler.stallTimer);
+        return removed;
+    }
+
+    /**
+     * Forgets a message that is not for this device, such as a Friend
+     * message to someone else or a message of a group that was not joined.
+     * Chunks that arrived ahead of its chunk 0 are dropped with their
+     * reassembly, and later ones are ignored, so it is never repaired or
+     * timed out.
+     */
+    public void discardMessage(long senderIdBits, long messageIdBits) {
+        finished.add(senderIdBits, messageIdBits);
+        MessageReassembler reassembler = reassemblers.get(senderIdBits, messageIdBits);
+        if (reassembler != null) retire(reassembler);
+    }
+
+    public interface MissingChunksCallback {
+        void onMissingChunks(long senderIdBits, long messageIdBits, List<Integer> missingChunks);
+    }
+
+    /** Completed messages are added here so this device can answer repair requests for them. */
+    public void setOutboundCache(OutboundChunkCache outboundCache) {
+        this.outboundCache = outboundCache;
+    }
+
+    /**
+     * Asks for the missing chunks of every reassembly that has gone a full
+     * broadcast round without a new chunk, at most {@link #MAX_REPAIR_REQUESTS}
+     * times per message. Call on the same tick as {@link #expireReassemblers}.
+     */
+    public void requestStalledChunks(long nowMs, MissingChunksCallback callback) {
+        for (MessageReassembler reassembler : stallWheel.advance(nowMs)) {
+            if (reassemblers.get(reassembler.senderIdBits, reassembler.messageIdBits) != reassembler) continue;
+            List<Integer> missing = reassembler.getMissingChunkIndices();
+            if (missing.isEmpty() || !reassembler.tryStartRepairRequest()) continue;
+
+            long window = reassembler.stallWindowMs();
+            stallWheel.schedule(reassembler.stallTimer, nowMs + window);
+            long expiry = Math.min(nowMs + maxChunkTimeoutMs, nowMs + TIMEOUT_GAP_MULTIPLIER * window);
+            if (expiry > reassembler.timer.getDeadlineMs()) {
+                expiryWheel.schedule(reassembler.timer, expiry);
+            }
+            Log.d(TAG, "Requesting " + missing.size() + " missing chunks of " + reassembler.messageDisplayId());
+            if (callback != null) {
+                callback.onMissingChunks(reassembler.senderIdBits, reassembler.messageIdBits, missing);
+            }
+        }
+    }
+
+    /** Another device already asked for this message's chunks; wait for that repair instead of asking again. */
+    public void onRepairRequestHeard(long senderIdBits, long messageIdBits, long nowMs) {
+        MessageReassembler reassembler = reassemblers.get(senderIdBits, messageIdBits);
+        if (reassembler != null) {
+            stallWheel.schedule(reassembler.stallTimer, nowMs + reassembler.stallWindowMs());
+        }
+    }
+
+    /** Upper bound for the adaptive per-message timeout (the CHUNK_TIMEOUT_MS setting). */
+    public void setMaxChunkTimeoutMs(long maxChunkTimeoutMs) {
+        this.maxChunkTimeoutMs = Math.max(MIN_CHUNK_TIMEOUT_MS, maxChunkTimeoutMs);
+    }
+
+    public long getTimerTickMs() {
+        return TIMER_TICK_MS;
+    }
+
+    /** Messages whose compact session was already held by another live message. */
+    public synchronized long getSessionCollisions() {
+        return sessionCollisions;
+    }
+
+    /** Fails every partial message whose deadline has passed; call every {@link #getTimerTickMs()}. */
+    public void expireReassemblers(long nowMs, TimeoutCallback callback) {
+        for (MessageReassembler reassembler : expiryWheel.advance(nowMs)) {
+            if (!retire(reassembler)) {
+                continue;
+            }
+            Log.d(TAG, "⏱ Timing out reassembler for message: " + reassembler.messageDisplayId());
+
+            String msgChatType = BlePacketView.chatTypeCode(reassembler.chatTypeId);
+            String msgChatId = reassembler.chatIdCode();
+
+            String failedContent = String.format(Locale.US, "Failed to receive (%d/%d chunks)",
+                    reassembler.getReceivedCount(),
+                    reassembler.totalChunks > 0 ? reassembler.totalChunks : 1);
+
+            MessageModel failedMsg = new MessageModel(
+                    reassembler.senderDisplayId(),
+                    failedContent,
+                    false,
+                    "Timeout | " + createFormattedTimestamp(1, reassembler.messageIdBits),
+                    reassembler.senderIdBits,
+                    reassembler.messageIdBits
+            );
+            failedMsg.setMessageId(reassembler.messageDisplayId());
+            failedMsg.setIsComplete(false);
+            failedMsg.setFailed(true);
+            failedMsg.setChatType(msgChatType);
+            failedMsg.setChatId(msgChatId);
+
+            Log.d(TAG, "✗ Failed message created: chatType=" + msgChatType +
+                    " | chatId=" + msgChatId + " | content=" + failedContent);
+
+            if (callback != null) {
+                callback.onTimeout(failedMsg);
             }
         }
     }
 
     private static class MessageReassembler {
-        final String senderId;
-        final String messageId;
+        final long senderIdBits;
+        final long messageIdBits;
+        final int chatTypeId;
+        final TimerWheel.Handle<MessageReassembler> timer = new TimerWheel.Handle<>(this);
+        final TimerWheel.Handle<MessageReassembler> stallTimer = new TimerWheel.Handle<>(this);
         private final SparseArray<byte[]> chunks = new SparseArray<>();
-        private final long creationTimestamp;
         private int totalChunks = -1;
         private int receivedCount = 0;
+        private volatile long lastChunkAt = 0;
+        private long avgChunkGapMs = 0;
+        private int repairRequests = 0;
 
-        String chatType = null;
-        String chatId = null;
+        long chatIdBits;
         int msgTypeId = 0;
         boolean isValidated = false;
+        boolean recoveredChunkZero = false;
+        byte headerByte;
+        int sessionToken;
+        long sessionKey;
+        volatile boolean sessionCollision = false;
+
+        MessageReassembler(long senderIdBits, long messageIdBits, int chatTypeId, long chatIdBits) {
+            this.senderIdBits = senderIdBits;
+            this.messageIdBits = messageIdBits;
+            this.chatTypeId = chatTypeId;
+            this.chatIdBits = chatIdBits;
+        }
+
+        String senderDisplayId() {
+            return MessageHelper.timestampToDisplayId(senderIdBits);
+        }
 
-        MessageReassembler(String senderId, String messageId, String chatType, String chatId) {
-            this.senderId = senderId;
-            this.messageId = messageId;
-            this.chatType = chatType;
-            this.chatId = chatId;
-            this.creationTimestamp = System.currentTimeMillis();
+        String messageDisplayId() {
+            return MessageHelper.timestampToDisplayId(messageIdBits);
         }
 
-        synchronized boolean addChunk(int chunkIndex, int totalChunks, byte[] chunkData) {
+        /** Chat id as stored with the message; empty until chunk 0 is in. */
+        synchronized String chatIdCode() {
+            return chatIdBits != NO_CHAT_ID ? MessageHelper.timestampToAsciiId(chatIdBits) : "";
+        }
+
+        synchronized boolean addChunk(int chunkIndex, int totalChunks, byte[] source, int offset, int length, long nowMs) {
             if (this.totalChunks == -1) {
                 this.totalChunks = totalChunks;
             } else if (this.totalChunks != totalChunks) {
-                Log.w(TAG, "Inconsistent total chunk count for message " + messageId);
+                Log.w(TAG, "Inconsistent total chunk count for message " + messageDisplayId());
+                return false;
+            }
+            if (chunkIndex >= totalChunks && length < 2) {
                 return false;
             }
             if (chunks.get(chunkIndex) == null) {
-                chunks.put(chunkIndex, chunkData);
+                chunks.put(chunkIndex, Arrays.copyOfRange(source, offset, offset + length));
                 receivedCount++;
+                if (lastChunkAt != 0) {
+                    long gap = nowMs - lastChunkAt;
+                    avgChunkGapMs = avgChunkGapMs == 0 ? gap : (avgChunkGapMs * 3 + gap) / 4;
+                }
+                lastChunkAt = nowMs;
                 return true;
             }
             return false;
         }
 
+        synchronized void setChatIdIfAbsent(long chatIdBits) {
+            if (this.chatIdBits == NO_CHAT_ID) this.chatIdBits = chatIdBits;
+        }
+
         synchronized boolean hasChunk(int chunkIndex) {
             return chunks.get(chunkIndex) != null;
         }
 
+        /** Parity chunks (index >= totalChunks) count too: any totalChunks distinct chunks suffice. */
         synchronized boolean isComplete() {
-            return totalChunks > 0 && receivedCount == totalChunks;
+            return totalChunks > 0 && receivedCount >= totalChunks;
         }
 
         synchronized int getReceivedCount() {
             return receivedCount;
         }
 
-        synchronized String reassemble() {
+        synchronized byte[] reassemble() {
             if (!isComplete()) return null;
+            for (int i = 0; i < totalChunks; i++) {
+                if (chunks.get(i) == null) return reassembleFromParity();
+            }
 
             int totalSize = 0;
             for (int i = 0; i < totalChunks; i++) {
@@ -354,7 +574,77 @@ public class MessageProcessor {
                 System.arraycopy(chunk, 0, fullBytes, offset, chunk.length);
                 offset += chunk.length;
             }
-            return new String(fullBytes, ISO_8859_1);
+            return fullBytes;
+        }
+
+        /** Parity chunk data is [lastShardLength][shard]; see {@link BlePacketEncoder#encodeWithParity}. */
+        private byte[] reassembleFromParity() {
+            byte[][] parity = new byte[ErasureCoder.MAX_SHARDS - totalChunks][];
+            int shardSize = -1;
+            int lastShardLength = -1;
+            for (int n = 0; n < chunks.size(); n++) {
+                int index = chunks.keyAt(n);
+                if (index < totalChunks) continue;
+                byte[] chunk = chunks.valueAt(n);
+                if (shardSize == -1) {
+                    shardSize = chunk.length - 1;
+                    lastShardLength = chunk[0] & 0xFF;
+                } else if (chunk.length - 1 != shardSize) {
+                    continue;
+                }
+                parity[index - totalChunks] = Arrays.copyOfRange(chunk, 1, chunk.length);
+            }
+            if (shardSize <= 0 || lastShardLength < 1 || lastShardLength > shardSize) return null;
+
+            byte[][] data = new byte[totalChunks][];
+            for (int i = 0; i < totalChunks; i++) {
+                byte[] chunk = chunks.get(i);
+                if (chunk != null) {
+                    if (chunk.length > shardSize) return null;
+                    data[i] = chunk.length == shardSize ? chunk : Arrays.copyOf(chunk, shardSize);
+                }
+            }
+            boolean chunkZeroMissing = data[0] == null;
+            if (!ErasureCoder.reconstruct(data, parity, shardSize)) return null;
+            recoveredChunkZero = chunkZeroMissing;
+            for (int i = 0; i < totalChunks; i++) {
+                if (chunks.get(i) == null) {
+                    int length = i == totalChunks - 1 ? lastShardLength : shardSize;
+                    chunks.put(i, length == shardSize ? data[i] : Arrays.copyOf(data[i], length));
+                }
+            }
+
+            byte[] fullBytes = new byte[(totalChunks - 1) * shardSize + lastShardLength];
+            for (int i = 0; i < totalChunks; i++) {
+                int length = i == totalChunks - 1 ? lastShardLength : shardSize;
+                System.arraycopy(data[i], 0, fullBytes, i * shardSize, length);
+            }
+            Log.d(TAG, "Rebuilt message " + messageDisplayId() + " from parity chunks");
+            return fullBytes;
+        }
+
+        /** Data packets as the sender built them; only valid once {@link #reassemble()} succeeded. */
+        synchronized List<byte[]> toPackets() {
+            List<byte[]> packets = new ArrayList<>(totalChunks);
+            for (int i = 0; i < totalChunks; i++) {
+                byte[] chunk = chunks.get(i);
+                if (chunk == null) continue;
+                packets.add(BlePacketEncoder.encodePacket(headerByte, senderIdBits, messageIdBits,
+                        totalChunks, i, chunk, 0, chunk.length));
+            }
+            return packets;
+        }
+
+        synchronized boolean tryStartRepairRequest() {
+            if (repairRequests >= MAX_REPAIR_REQUESTS) return false;
+            repairRequests++;
+            return true;
+        }
+
+        /** One broadcast round (plus slack) without a new chunk means the sender's rounds have not filled the gaps. */
+        synchronized long stallWindowMs() {
+            long gap = avgChunkGapMs > 0 ? avgChunkGapMs : DEFAULT_CHUNK_GAP_MS;
+            return Math.max(MIN_STALL_MS, gap * (Math.max(totalChunks, 1) + 2));
         }
 
         synchronized List<Integer> getMissingChunkIndices() {
@@ -369,8 +659,56 @@ public class MessageProcessor {
             }
             return missing;
         }
-        boolean isExpired(long timeoutMs) {
-            return System.currentTimeMillis() - creationTimestamp > timeoutMs;
+        /**
+         * A lost chunk comes back one broadcast round (totalChunks packets) later at
+         * the earliest, so allow that round plus one gap per missing chunk, scaled by
+         * the observed inter-chunk gap.
+         */
+        synchronized long nextDeadline(long maxTimeoutMs) {
+            long gap = avgChunkGapMs > 0 ? avgChunkGapMs : DEFAULT_CHUNK_GAP_MS;
+            int missing = Math.max(0, totalChunks - receivedCount);
+            long timeout = TIMEOUT_GAP_MULTIPLIER * gap * (totalChunks + missing);
+            timeout = Math.max(MIN_CHUNK_TIMEOUT_MS, Math.min(maxTimeoutMs, timeout));
+            return lastChunkAt + timeout;
+        }
+    }
+
+    /**
+     * Compact continuation chunks heard before their chunk 0, held in a small
+     * ring until the full-header chunk names the message they belong to.
+     */
+    private static final class PendingCompactChunks {
+        private final byte[][] packets;
+        private final long[] receivedAt;
+        private int next = 0;
+
+        PendingCompactChunks(int capacity) {
+            packets = new byte[capacity][];
+            receivedAt = new long[capacity];
+        }
+
+        synchronized void add(byte[] packet, long nowMs) {
+            packets[next] = Arrays.copyOf(packet, packet.length);
+            receivedAt[next] = nowMs;
+            next = (next + 1) % packets.length;
+        }
+
+        synchronized void drainTo(int token, long key, List<byte[]> out, long notBeforeMs) {
+            if (out == null) return;
+            BlePacketView view = new BlePacketView();
+            for (int i = 0; i < packets.length; i++) {
+                byte[] packet = packets[i];
+                if (packet == null) continue;
+                if (receivedAt[i] < notBeforeMs) {
+                    packets[i] = null;
+                    continue;
+                }
+                if (view.wrap(packet) && view.sessionToken() == token
+                        && sessionKey(view.headerByte(), view.totalChunks()) == key) {
+                    out.add(packet);
+                    packets[i] = null;
+                }
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,207 @@
+package com.antor.nearbychat.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Store-and-forward for multi-hop delivery. Data packets of other devices'
+ * messages are collected into a fixed ring of entries; once every data
+ * chunk of a message is held, it is due for relay after a random delay
+ * within the assessment window. If by then {@code suppressCount} different
+ * neighbours were heard relaying it, the relay is dropped, which keeps a
+ * dense crowd from flooding the channel.
+ *
+ * A relay frame is [hopsLeft][relayer tag][original packet] under its own
+ * service UUID, so builds without relay support never see it. Packets
+ * heard straight from their sender start with {@code maxHops}; each relay
+ * forwards with one hop less and a frame with no hops left is only
+ * consumed. The tag is 8 bits of the relayer's id: the scanner reports
+ * every advertising event and all relayers send byte-identical packets,
+ * so only the tag tells one neighbour sending {@code rounds} times from
+ * several neighbours sending once.
+ */
+public class MessageRelay {
+
+    public static final int RELAY_OVERHEAD = 2;
+    public static final int MAX_HOPS = 0x0F;
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final int DEFAULT_SUPPRESS_COUNT = 3;
+
+    private static final class Entry {
+        final long senderIdBits;
+        final long messageIdBits;
+        final byte[][] packets;
+        int received = 0;
+        int hopsLeft = 0;
+        // Tags of the neighbours heard relaying it, one bit per tag
+        final long[] relayerTags = new long[4];
+        int relayers = 0;
+        long dueAtMs = 0;
+        boolean done = false;
+
+        Entry(long senderIdBits, long messageIdBits, int totalChunks) {
+            this.senderIdBits = senderIdBits;
+            this.messageIdBits = messageIdBits;
+            this.packets = new byte[totalChunks][];
+        }
+    }
+
+    private final long myIdBits;
+    private final int myTag;
+    private final int maxHops;
+    private final int rounds;
+    private final int suppressCount;
+    private final long assessmentMs;
+    private final Random random;
+    private final Entry[] ring;
+    private int next = 0;
+
+    private long relayed = 0;
+    private long suppressed = 0;
+    private long oversized = 0;
+
+    public MessageRelay(long myIdBits, int maxHops, int rounds, long assessmentMs) {
+        this(myIdBits, maxHops, rounds, DEFAULT_SUPPRESS_COUNT, DEFAULT_CAPACITY, assessmentMs, new Random());
+    }
+
+    public MessageRelay(long myIdBits, int maxHops, int rounds, int suppressCount, int capacity,
+                        long assessmentMs, Random random) {
+        this.myIdBits = myIdBits;
+        this.myTag = tagOf(myIdBits);
+        this.maxHops = Math.min(maxHops, MAX_HOPS);
+        this.rounds = Math.max(1, rounds);
+        this.suppressCount = suppressCount;
+        this.assessmentMs = Math.max(1, assessmentMs);
+        this.random = random;
+        this.ring = new Entry[Math.max(1, capacity)];
+    }
+
+    public int getMaxHops() {
+        return maxHops;
+    }
+
+    /** The relayer tag a device with this id puts in its frames. */
+    public static int tagOf(long idBits) {
+        return (int) LongHashSet.hash(idBits) & 0xFF;
+    }
+
+    public static byte[] frame(byte[] packet, int hopsLeft, int relayerTag) {
+        byte[] frame = new byte[RELAY_OVERHEAD + packet.length];
+        frame[0] = (byte) (hopsLeft & MAX_HOPS);
+        frame[1] = (byte) relayerTag;
+        System.arraycopy(packet, 0, frame, RELAY_OVERHEAD, packet.length);
+        return frame;
+    }
+
+    public static int hopsLeft(byte[] frame) {
+        return frame[0] & MAX_HOPS;
+    }
+
+    public static int relayerTag(byte[] frame) {
+        return frame[1] & 0xFF;
+    }
+
+    public static byte[] unwrap(byte[] frame) {
+        return Arrays.copyOfRange(frame, RELAY_OVERHEAD, frame.length);
+    }
+
+    /**
+     * Records a received data packet. {@code relayedFrom} is the frame it
+     * came in, or null if it was heard from its sender.
+     */
+    public synchronized void onPacket(byte[] packet, byte[] relayedFrom, long nowMs) {
+        if (packet.length < BlePacketEncoder.HEADER_SIZE || BlePacketEncoder.isCompactPacket(packet)) return;
+        long senderIdBits = MessageHelper.readId40(packet, 1);
+        if (senderIdBits == myIdBits) return;
+        int totalChunks = packet[BlePacketEncoder.HEADER_SIZE - 2] & 0xFF;
+        int chunkIndex = packet[BlePacketEncoder.HEADER_SIZE - 1] & 0xFF;
+        if (chunkIndex >= totalChunks) return;
+
+        long messageIdBits = MessageHelper.readId40(packet, 1 + BlePacketEncoder.ID_LENGTH);
+        Entry entry = find(senderIdBits, messageIdBits);
+        if (entry == null) {
+            entry = new Entry(senderIdBits, messageIdBits, totalChunks);
+            ring[next] = entry;
+            next = (next + 1) % ring.length;
+        } else if (entry.packets.length != totalChunks) {
+            return;
+        }
+        int hops = relayedFrom == null ? maxHops : Math.min(hopsLeft(relayedFrom), maxHops);
+        entry.hopsLeft = Math.max(entry.hopsLeft, hops);
+        if (relayedFrom != null) {
+            int tag = relayerTag(relayedFrom);
+            long bit = 1L << tag;
+            if ((entry.relayerTags[tag >>> 6] & bit) == 0) {
+                entry.relayerTags[tag >>> 6] |= bit;
+                entry.relayers++;
+            }
+        }
+
+        if (entry.packets[chunkIndex] == null) {
+            entry.packets[chunkIndex] = packet;
+            entry.received++;
+            if (entry.received == totalChunks) {
+                entry.dueAtMs = nowMs + (long) (random.nextDouble() * assessmentMs);
+            }
+        }
+    }
+
+    /**
+     * Relay frames that are due, one list per message holding all its
+     * rounds. Messages whose frames would exceed {@code maxFrameSize} are
+     * not relayed.
+     */
+    public synchronized List<List<byte[]>> pollDue(long nowMs, int maxFrameSize) {
+        List<List<byte[]>> due = new ArrayList<>();
+        for (Entry entry : ring) {
+            if (entry == null || entry.done || entry.received < entry.packets.length || nowMs < entry.dueAtMs) {
+                continue;
+            }
+            entry.done = true;
+            if (entry.hopsLeft <= 0) continue;
+            if (entry.relayers >= suppressCount) {
+                suppressed++;
+                continue;
+            }
+            int largest = 0;
+            for (byte[] packet : entry.packets) largest = Math.max(largest, packet.length);
+            if (RELAY_OVERHEAD + largest > maxFrameSize) {
+                oversized++;
+                continue;
+            }
+            List<byte[]> frames = new ArrayList<>(entry.packets.length * rounds);
+            for (int round = 0; round < rounds; round++) {
+                for (byte[] packet : entry.packets) {
+                    frames.add(frame(packet, entry.hopsLeft - 1, myTag));
+                }
+            }
+            relayed++;
+            due.add(frames);
+        }
+        return due;
+    }
+
+    private Entry find(long senderIdBits, long messageIdBits) {
+        for (Entry entry : ring) {
+            if (entry != null && entry.messageIdBits == messageIdBits && entry.senderIdBits == senderIdBits) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    public synchronized long getRelayed() {
+        return relayed;
+    }
+
+    public synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "relayed=" + relayed + " suppressed=" + suppressed + " oversized=" + oversized;
+    }
+}
@@ -0,0 +1,103 @@
+package com.antor.nearbychat.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data packets of the most recent messages this device sent or fully
+ * received, so it can answer a "??" missing-chunk request with exactly the
+ * chunks asked for. A fixed ring of entries; the oldest message is evicted
+ * first and lookups are a scan over two longs per entry.
+ *
+ * Each chunk remembers when it was last heard on air, so a holder that
+ * hears another device already repairing a chunk does not send it again.
+ */
+public class OutboundChunkCache {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final Entry[] ring;
+    private int next = 0;
+
+    public OutboundChunkCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OutboundChunkCache(int capacity) {
+        ring = new Entry[Math.max(1, capacity)];
+    }
+
+    private static final class Entry {
+        final long senderIdBits;
+        final long messageIdBits;
+        final byte[][] packets;
+        final long[] heardAt;
+
+        Entry(long senderIdBits, long messageIdBits, byte[][] packets) {
+            this.senderIdBits = senderIdBits;
+            this.messageIdBits = messageIdBits;
+            this.packets = packets;
+            this.heardAt = new long[packets.length];
+        }
+    }
+
+    /** Stores the data packets of one message; parity packets in the list are skipped. */
+    public synchronized void put(List<byte[]> packets) {
+        if (packets == null || packets.isEmpty()) return;
+        long senderIdBits = MessageHelper.readId40(packets.get(0), 1);
+        long messageIdBits = MessageHelper.readId40(packets.get(0), 1 + BlePacketEncoder.ID_LENGTH);
+        int totalChunks = packets.get(0)[BlePacketEncoder.HEADER_SIZE - 2] & 0xFF;
+        byte[][] byIndex = new byte[totalChunks][];
+        for (byte[] packet : packets) {
+            int index = BlePacketEncoder.chunkIndexOf(packet);
+            if (index < totalChunks) byIndex[index] = packet;
+        }
+        int existing = indexOf(senderIdBits, messageIdBits);
+        if (existing != -1) {
+            ring[existing] = new Entry(senderIdBits, messageIdBits, byIndex);
+            return;
+        }
+        ring[next] = new Entry(senderIdBits, messageIdBits, byIndex);
+        next = (next + 1) % ring.length;
+    }
+
+    public synchronized boolean contains(long senderIdBits, long messageIdBits) {
+        return indexOf(senderIdBits, messageIdBits) != -1;
+    }
+
+    /** Notes that {@code chunkIndex} of a cached message was just seen on air. */
+    public synchronized void markHeard(long senderIdBits, long messageIdBits, int chunkIndex, long nowMs) {
+        int i = indexOf(senderIdBits, messageIdBits);
+        if (i == -1) return;
+        Entry entry = ring[i];
+        if (chunkIndex < entry.heardAt.length) entry.heardAt[chunkIndex] = nowMs;
+    }
+
+    /**
+     * Packets for the requested chunk indices, skipping any heard within
+     * {@code quietMs} of {@code nowMs}. Empty if the message is not cached.
+     */
+    public synchronized List<byte[]> getChunks(long senderIdBits, long messageIdBits, int[] chunkIndices,
+                                               long nowMs, long quietMs) {
+        List<byte[]> result = new ArrayList<>();
+        int i = indexOf(senderIdBits, messageIdBits);
+        if (i == -1) return result;
+        Entry entry = ring[i];
+        for (int index : chunkIndices) {
+            if (index < 0 || index >= entry.packets.length || entry.packets[index] == null) continue;
+            if (entry.heardAt[index] != 0 && nowMs - entry.heardAt[index] < quietMs) continue;
+            result.add(entry.packets[index]);
+        }
+        return result;
+    }
+
+    private int indexOf(long senderIdBits, long messageIdBits) {
+        for (int i = 0; i < ring.length; i++) {
+            Entry entry = ring[i];
+            if (entry != null && entry.messageIdBits == messageIdBits && entry.senderIdBits == senderIdBits) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,128 @@
+package com.antor.nearbychat.Message;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.antor.nearbychat.MessageModel;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory "Receiving Chunk (x/y)" state for messages still being
+ * reassembled. Partial messages never reach the database; the chat screen
+ * overlays {@link #getPartials} on the stored messages and redraws when
+ * {@link #getChanges()} ticks, which happens at most once per
+ * {@link #UPDATE_INTERVAL_MS} however fast chunks arrive.
+ */
+public class ReassemblyProgress {
+
+    public static final long UPDATE_INTERVAL_MS = 250;
+
+    private static volatile ReassemblyProgress INSTANCE;
+
+    public static ReassemblyProgress getInstance() {
+        if (INSTANCE == null) {
+            synchronized (ReassemblyProgress.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ReassemblyProgress();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private static final class Entry {
+        final MessageModel msg;
+        final long updatedMs;
+
+        Entry(MessageModel msg, long updatedMs) {
+            this.msg = msg;
+            this.updatedMs = updatedMs;
+        }
+    }
+
+    private final Map<String, Entry> partials = new LinkedHashMap<>();
+    private final MutableLiveData<Long> changes = new MutableLiveData<>(0L);
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private long version = 0;
+    private long lastPublishMs = 0;
+    private boolean publishScheduled = false;
+
+    private static String key(String senderId, String messageId) {
+        return senderId + ":" + messageId;
+    }
+
+    /** Records the latest progress of a message that is still incomplete. */
+    public void update(MessageModel partial, long nowMs) {
+        synchronized (this) {
+            partials.put(key(partial.getSenderId(), partial.getMessageId()), new Entry(partial, nowMs));
+        }
+        publish();
+    }
+
+    /** Drops the progress entry once the message completed or failed. */
+    public void remove(String senderId, String messageId) {
+        boolean removed;
+        synchronized (this) {
+            removed = partials.remove(key(senderId, messageId)) != null;
+        }
+        if (removed) publish();
+    }
+
+    /** Drops entries whose reassembly was abandoned without a final message. */
+    public void expire(long olderThanMs) {
+        boolean removed = false;
+        synchronized (this) {
+            Iterator<Entry> it = partials.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().updatedMs < olderThanMs) {
+                    it.remove();
+                    removed = true;
+                }
+            }
+        }
+        if (removed) publish();
+    }
+
+    public synchronized List<MessageModel> getPartials(String chatType, String chatId) {
+        List<MessageModel> result = new ArrayList<>();
+        for (Entry entry : partials.values()) {
+            MessageModel msg = entry.msg;
+            if (chatType.equals(msg.getChatType()) && chatId.equals(msg.getChatId())) {
+                result.add(msg);
+            }
+        }
+        return result;
+    }
+
+    /** Ticks on the main thread, throttled, whenever the set of partials changes. */
+    public LiveData<Long> getChanges() {
+        return changes;
+    }
+
+    private void publish() {
+        long delay;
+        synchronized (this) {
+            if (publishScheduled) return;
+            publishScheduled = true;
+            delay = Math.max(0, lastPublishMs + UPDATE_INTERVAL_MS - SystemClock.uptimeMillis());
+        }
+        handler.postDelayed(() -> {
+            long next;
+            synchronized (this) {
+                publishScheduled = false;
+                lastPublishMs = SystemClock.uptimeMillis();
+                next = ++version;
+            }
+            changes.setValue(next);
+        }, delay);
+    }
+}
@@ -0,0 +1,197 @@
+package com.antor.nearbychat.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Map from a (senderId, messageId) pair of 40-bit ids to a value, with no
+ * boxing or String keys. Entries are spread over independently locked
+ * stripes, each an open-addressing table with linear probing and
+ * backward-shift deletion, so ingest threads only contend when they touch
+ * the same stripe.
+ */
+public class ReassemblyTable<V> {
+
+    private static final int STRIPE_COUNT = 16;
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    private final Stripe<V>[] stripes;
+
+    @SuppressWarnings("unchecked")
+    public ReassemblyTable() {
+        stripes = (Stripe<V>[]) new Stripe[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe<>(INITIAL_STRIPE_CAPACITY);
+        }
+    }
+
+    static long hash(long senderIdBits, long messageIdBits) {
+        long h = senderIdBits * 0x9E3779B97F4A7C15L + messageIdBits;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private Stripe<V> stripeFor(long hash) {
+        return stripes[(int) (hash >>> 60) & (STRIPE_COUNT - 1)];
+    }
+
+    public V get(long senderIdBits, long messageIdBits) {
+        long h = hash(senderIdBits, messageIdBits);
+        Stripe<V> stripe = stripeFor(h);
+        synchronized (stripe) {
+            return stripe.get(senderIdBits, messageIdBits, (int) h);
+        }
+    }
+
+    /** Stores {@code value} unless the key is present; returns whichever value is now mapped. */
+    public V putIfAbsent(long senderIdBits, long messageIdBits, V value) {
+        long h = hash(senderIdBits, messageIdBits);
+        Stripe<V> stripe = stripeFor(h);
+        synchronized (stripe) {
+            V existing = stripe.get(senderIdBits, messageIdBits, (int) h);
+            if (existing != null) return existing;
+            stripe.put(senderIdBits, messageIdBits, (int) h, value);
+            return value;
+        }
+    }
+
+    /** Removes the mapping only if it still points at {@code expected}. */
+    public boolean remove(long senderIdBits, long messageIdBits, V expected) {
+        long h = hash(senderIdBits, messageIdBits);
+        Stripe<V> stripe = stripeFor(h);
+        synchronized (stripe) {
+            return stripe.remove(senderIdBits, messageIdBits, (int) h, expected);
+        }
+    }
+
+    /** Removes and returns every value matching {@code filter}, one stripe at a time. */
+    public List<V> removeIf(Predicate<V> filter) {
+        List<V> removed = new ArrayList<>();
+        for (Stripe<V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.removeIf(filter, removed);
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        int total = 0;
+        for (Stripe<V> stripe : stripes) {
+            synchronized (stripe) {
+                total += stripe.size;
+            }
+        }
+        return total;
+    }
+
+    private static final class Stripe<V> {
+        long[] senderKeys;
+        long[] messageKeys;
+        Object[] values;
+        int size;
+
+        Stripe(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            senderKeys = new long[capacity];
+            messageKeys = new long[capacity];
+            values = new Object[capacity];
+        }
+
+        private int indexOf(long sender, long message, int hash) {
+            int mask = values.length - 1;
+            int i = hash & mask;
+            while (values[i] != null) {
+                if (senderKeys[i] == sender && messageKeys[i] == message) return i;
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(long sender, long message, int hash) {
+            int i = indexOf(sender, message, hash);
+            return i == -1 ? null : (V) values[i];
+        }
+
+        void put(long sender, long message, int hash, V value) {
+            if ((size + 1) * 4 > values.length * 3) {
+                resize(values.length * 2);
+            }
+            int mask = values.length - 1;
+            int i = hash & mask;
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            senderKeys[i] = sender;
+            messageKeys[i] = message;
+            values[i] = value;
+            size++;
+        }
+
+        boolean remove(long sender, long message, int hash, V expected) {
+            int i = indexOf(sender, message, hash);
+            if (i == -1 || (expected != null && values[i] != expected)) return false;
+            deleteAt(i);
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        void removeIf(Predicate<V> filter, List<V> out) {
+            int i = 0;
+            while (i < values.length) {
+                Object v = values[i];
+                if (v != null && filter.test((V) v)) {
+                    out.add((V) v);
+                    deleteAt(i);
+                    // deleteAt may shift a later entry into slot i; re-examine it
+                } else {
+                    i++;
+                }
+            }
+        }
+
+        private void deleteAt(int slot) {
+            int mask = values.length - 1;
+            int hole = slot;
+            int i = (slot + 1) & mask;
+            while (values[i] != null) {
+                int home = (int) hash(senderKeys[i], messageKeys[i]) & mask;
+                // Move entry i back into the hole if the hole lies on its probe path
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    senderKeys[hole] = senderKeys[i];
+                    messageKeys[hole] = messageKeys[i];
+                    values[hole] = values[i];
+                    hole = i;
+                }
+                i = (i + 1) & mask;
+            }
+            values[hole] = null;
+            size--;
+        }
+
+        private void resize(int capacity) {
+            long[] oldSenders = senderKeys;
+            long[] oldMessages = messageKeys;
+            Object[] oldValues = values;
+            allocate(capacity);
+            int mask = capacity - 1;
+            for (int j = 0; j < oldValues.length; j++) {
+                if (oldValues[j] == null) continue;
+                int i = (int) hash(oldSenders[j], oldMessages[j]) & mask;
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                senderKeys[i] = oldSenders[j];
+                messageKeys[i] = oldMessages[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.antor.nearbychat.Message;
+
+import java.util.Arrays;
+
+/**
+ * Bounded set of (sender, message) ids. Two generations of open-addressing
+ * tables in flat arrays: lookups check both, adds go to the current one,
+ * and the older generation is dropped once the current one holds
+ * {@code capacity} ids. An id is therefore remembered for at least the
+ * next {@code capacity} adds. Memory is fixed at construction and nothing
+ * is allocated per call.
+ */
+public class RecentMessageIds {
+
+    // Ids are 40 bits, so the top bit marks a used slot and 0 stays free
+    private static final long USED = 1L << 63;
+
+    private final int capacity;
+    private final int mask;
+    private long[] current;
+    private long[] previous;
+    private int count = 0;
+
+    public RecentMessageIds(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        int slots = Integer.highestOneBit(this.capacity * 2 - 1) << 1;
+        this.mask = slots - 1;
+        this.current = new long[2 * slots];
+        this.previous = new long[2 * slots];
+    }
+
+    public synchronized boolean contains(long senderIdBits, long messageIdBits) {
+        return isIn(current, senderIdBits, messageIdBits) || isIn(previous, senderIdBits, messageIdBits);
+    }
+
+    public synchronized void add(long senderIdBits, long messageIdBits) {
+        if (isIn(current, senderIdBits, messageIdBits)) return;
+        if (count == capacity) {
+            long[] dropped = previous;
+            previous = current;
+            current = dropped;
+            Arrays.fill(current, 0);
+            count = 0;
+        }
+        int slot = slot(current, senderIdBits, messageIdBits);
+        current[2 * slot] = senderIdBits | USED;
+        current[2 * slot + 1] = messageIdBits;
+        count++;
+    }
+
+    private boolean isIn(long[] table, long senderIdBits, long messageIdBits) {
+        return table[2 * slot(table, senderIdBits, messageIdBits)] != 0;
+    }
+
+    /** The id's slot, or the free slot where it would go; tables are at most half full. */
+    private int slot(long[] table, long senderIdBits, long messageIdBits) {
+        long tagged = senderIdBits | USED;
+        int slot = (int) LongHashSet.hash(senderIdBits * 0x100_0000_0001L ^ messageIdBits) & mask;
+        long used;
+        while ((used = table[2 * slot]) != 0) {
+            if (used == tagged && table[2 * slot + 1] == messageIdBits) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,104 @@
+package com.antor.nearbychat.Message;
+
+/**
+ * Summary of the messages one device stored for a chat in a recent window,
+ * small enough for a single legacy advert:
+ * [chat tag 2][window seconds 2][salt 1][Bloom filter].
+ * The filter is over (sender id, message id) pairs with {@link #HASHES}
+ * probes; the salt changes per digest so a false positive for one message
+ * does not repeat on the next round.
+ *
+ * The chat tag is 0 for Nearby and a 16-bit hash of the group id otherwise,
+ * so a peer can tell which of its joined groups the digest is about.
+ */
+public final class SyncDigest {
+
+    public static final int HEADER_SIZE = 5;
+    public static final int HASHES = 3;
+    public static final int NEARBY_TAG = 0;
+    /** Filter bits per entry for about 5% false positives with {@link #HASHES} probes. */
+    private static final int BITS_PER_ENTRY = 7;
+
+    private final int chatTag;
+    private final int windowSec;
+    private final int salt;
+    private final byte[] filter;
+    private final int filterOffset;
+    private final int filterBits;
+
+    private SyncDigest(byte[] data) {
+        this.chatTag = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+        this.windowSec = ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+        this.salt = data[4] & 0xFF;
+        this.filter = data;
+        this.filterOffset = HEADER_SIZE;
+        this.filterBits = (data.length - HEADER_SIZE) * 8;
+    }
+
+    public static SyncDigest decode(byte[] data) {
+        if (data == null || data.length <= HEADER_SIZE) return null;
+        return new SyncDigest(data);
+    }
+
+    /** Entries a digest of {@code size} bytes holds at the intended error rate. */
+    public static int capacity(int size) {
+        return Math.max(1, (size - HEADER_SIZE) * 8 / BITS_PER_ENTRY);
+    }
+
+    public static int chatTag(String chatType, String chatId) {
+        if (!"G".equals(chatType) || chatId == null || chatId.length() != 5) return NEARBY_TAG;
+        int tag = (int) (LongHashSet.hash(MessageHelper.asciiIdToTimestamp(chatId)) >>> 48);
+        return tag == NEARBY_TAG ? 1 : tag;
+    }
+
+    /**
+     * Digest of {@code size} bytes over the first {@code count} id pairs.
+     * {@code windowSec} is how far back from now the listed messages reach.
+     */
+    public static byte[] encode(int chatTag, int windowSec, int salt,
+                                long[] senderIdBits, long[] messageIdBits, int count, int size) {
+        byte[] data = new byte[size];
+        data[0] = (byte) (chatTag >>> 8);
+        data[1] = (byte) chatTag;
+        int window = Math.min(Math.max(windowSec, 0), 0xFFFF);
+        data[2] = (byte) (window >>> 8);
+        data[3] = (byte) window;
+        data[4] = (byte) salt;
+        int bits = (size - HEADER_SIZE) * 8;
+        for (int i = 0; i < count; i++) {
+            long h = probeHash(senderIdBits[i], messageIdBits[i], salt & 0xFF);
+            for (int k = 0; k < HASHES; k++) {
+                int bit = probe(h, k, bits);
+                data[HEADER_SIZE + (bit >>> 3)] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return data;
+    }
+
+    public boolean mightContain(long senderIdBits, long messageIdBits) {
+        long h = probeHash(senderIdBits, messageIdBits, salt);
+        for (int k = 0; k < HASHES; k++) {
+            int bit = probe(h, k, filterBits);
+            if ((filter[filterOffset + (bit >>> 3)] & (1 << (bit & 7))) == 0) return false;
+        }
+        return true;
+    }
+
+    private static long probeHash(long senderIdBits, long messageIdBits, int salt) {
+        return LongHashSet.hash((senderIdBits << 24) ^ messageIdBits ^ ((long) salt << 56));
+    }
+
+    private static int probe(long h, int k, int bits) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        return Integer.remainderUnsigned(h1 + k * h2, bits);
+    }
+
+    public int getChatTag() {
+        return chatTag;
+    }
+
+    public int getWindowSec() {
+        return windowSec;
+    }
+}
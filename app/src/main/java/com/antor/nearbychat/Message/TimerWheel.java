@@ -0,0 +1,93 @@
+package com.antor.nearbychat.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel. Scheduling, rescheduling and cancelling are O(1) on a
+ * handle that the caller keeps and reuses, and {@link #advance(long)} only
+ * visits the slots whose ticks have elapsed. Deadlines further out than one
+ * rotation simply stay in their slot until a later pass reaches them.
+ */
+public class TimerWheel<T> {
+
+    private final long tickMs;
+    private final Handle<T>[] slots;
+    private final int mask;
+    private long lastTick;
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMs, int wheelSize, long startMs) {
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.tickMs = tickMs;
+        this.slots = (Handle<T>[]) new Handle[size];
+        this.mask = size - 1;
+        this.lastTick = startMs / tickMs;
+    }
+
+    public static final class Handle<T> {
+        final T item;
+        long deadlineMs;
+        int slot = -1;
+        Handle<T> prev;
+        Handle<T> next;
+
+        public Handle(T item) {
+            this.item = item;
+        }
+
+        public long getDeadlineMs() {
+            return deadlineMs;
+        }
+    }
+
+    /** Inserts or moves {@code handle} so it fires at {@code deadlineMs}. */
+    public synchronized void schedule(Handle<T> handle, long deadlineMs) {
+        unlink(handle);
+        handle.deadlineMs = deadlineMs;
+        long tick = Math.max(deadlineMs / tickMs, lastTick + 1);
+        int slot = (int) (tick & mask);
+        handle.slot = slot;
+        handle.next = slots[slot];
+        if (handle.next != null) handle.next.prev = handle;
+        slots[slot] = handle;
+    }
+
+    public synchronized void cancel(Handle<T> handle) {
+        unlink(handle);
+    }
+
+    /** Removes and returns every item whose deadline is at or before {@code nowMs}. */
+    public synchronized List<T> advance(long nowMs) {
+        long nowTick = nowMs / tickMs;
+        List<T> expired = null;
+        long from = Math.max(lastTick + 1, nowTick - mask);
+        for (long tick = from; tick <= nowTick; tick++) {
+            Handle<T> handle = slots[(int) (tick & mask)];
+            while (handle != null) {
+                Handle<T> next = handle.next;
+                if (handle.deadlineMs <= nowMs) {
+                    unlink(handle);
+                    if (expired == null) expired = new ArrayList<>();
+                    expired.add(handle.item);
+                }
+                handle = next;
+            }
+        }
+        lastTick = Math.max(lastTick, nowTick);
+        return expired != null ? expired : new ArrayList<>(0);
+    }
+
+    private void unlink(Handle<T> handle) {
+        if (handle.slot == -1) return;
+        if (handle.prev != null) {
+            handle.prev.next = handle.next;
+        } else {
+            slots[handle.slot] = handle.next;
+        }
+        if (handle.next != null) handle.next.prev = handle.prev;
+        handle.prev = null;
+        handle.next = null;
+        handle.slot = -1;
+    }
+}
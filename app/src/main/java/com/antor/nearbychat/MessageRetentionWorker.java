@@ -0,0 +1,40 @@
+package com.antor.nearbychat;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.antor.nearbychat.Database.AppDatabase;
+import com.antor.nearbychat.Database.MessageRetention;
+
+public class MessageRetentionWorker extends Worker {
+
+    private static final String TAG = "MessageRetentionWorker";
+
+    public MessageRetentionWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        SharedPreferences prefs = context.getSharedPreferences("NearbyChatSettings", Context.MODE_PRIVATE);
+        try {
+            MessageRetention retention = new MessageRetention(
+                    AppDatabase.getInstance(context),
+                    prefs.getInt("MAX_MESSAGE_SAVED", 2000),
+                    prefs.getInt("MAX_MESSAGES_PER_CHAT", 0),
+                    prefs.getInt("MESSAGE_MAX_AGE_DAYS", 0));
+            retention.runIdle(System.currentTimeMillis());
+            return Result.success();
+        } catch (Exception e) {
+            Log.e(TAG, "Message retention failed", e);
+            return Result.retry();
+        }
+    }
+}
@@ -20,223 +20,134 @@ public class PayloadCompress {
 
     private static final String MSG_MODEL_1b = "abcdefghijklmnopqrstuvwxyz./:-#*";
     private static final String MSG_MODEL_2b = "ABCDEFGHIJKLMNOPQRSTUVWXYZ&?%@#+";
-    private static final String MSG_MODEL_3b = "0123456789_=" + ".com/" + ".io/" + ".net/" + ".ai/" + ".tech/" + ".co/" + ".me/" + ".app/" + ".dev/" + ".nu/" + ".cloud/" + ".xyz/" + ".ly/" + ".at/" + ".site/" + ".org/" + "192.168." + ":8080/" + ":8000/" + "127.0.0.1";
-
-    private static final Map<Character, String> msg_map1 = new HashMap<>();
-    private static final Map<String, Character> msg_rev1 = new HashMap<>();
-    private static final Map<Character, String> msg_map2 = new HashMap<>();
-    private static final Map<String, Character> msg_rev2 = new HashMap<>();
-    private static final Map<Character, String> msg_map3 = new HashMap<>();
-    private static final Map<String, Character> msg_rev3 = new HashMap<>();
-
-    private static final Map<Character, String> msg_map1b = new HashMap<>();
-    private static final Map<String, Character> msg_rev1b = new HashMap<>();
-    private static final Map<Character, String> msg_map2b = new HashMap<>();
-    private static final Map<String, Character> msg_rev2b = new HashMap<>();
-    private static final Map<Character, String> msg_map3b = new HashMap<>();
-    private static final Map<String, String> msg_rev3b = new HashMap<>();
+    private static final String[] URL_MULTI_TOKENS = {
+            ".com/", ".io/", ".net/", ".ai/", ".tech/",
+            ".co/", ".me/", ".app/", ".dev/", ".nu/",
+            ".cloud/", ".xyz/", ".ly/", ".at/", ".site/",
+            ".org/", "192.168.", ":8080/", ":8000/", "127.0.0.1"
+    };
+    private static final String URL_SINGLE_CHARS = "0123456789_=";
 
     private static final String LINK_MODEL_1 = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ012345<>|./*";
     private static final String LINK_MODEL_2 = "6789:-_$&+,;=%~?";
 
-    private static final Map<Character, String> map6 = new HashMap<>();
-    private static final Map<String, Character> rev_map6 = new HashMap<>();
-    private static final Map<Character, String> map4 = new HashMap<>();
-    private static final Map<String, Character> rev_map4 = new HashMap<>();
+    // Symbol -> code tables indexed by char (ASCII only, -1 = not in model)
+    private static final int[] MSG_CODE_1 = buildCodeTable(MSG_MODEL_1);
+    private static final int[] MSG_CODE_2 = buildCodeTable(MSG_MODEL_2);
+    private static final int[] MSG_CODE_3 = buildCodeTable(MSG_MODEL_3);
+    private static final int[] MSG_CODE_1B = buildCodeTable(MSG_MODEL_1b);
+    private static final int[] MSG_CODE_2B = buildCodeTable(MSG_MODEL_2b);
+    private static final int[] MSG_CODE_3B = buildCodeTable(URL_SINGLE_CHARS, URL_MULTI_TOKENS.length);
+    private static final int[] LINK_CODE_6 = buildCodeTable(LINK_MODEL_1);
+    private static final int[] LINK_CODE_4 = buildCodeTable(LINK_MODEL_2);
+
+    // Code -> symbol tables
+    private static final char[] MSG_CHARS_1 = MSG_MODEL_1.toCharArray();
+    private static final char[] MSG_CHARS_2 = MSG_MODEL_2.toCharArray();
+    private static final char[] MSG_CHARS_3 = MSG_MODEL_3.toCharArray();
+    private static final char[] MSG_CHARS_1B = MSG_MODEL_1b.toCharArray();
+    private static final char[] MSG_CHARS_2B = MSG_MODEL_2b.toCharArray();
+    private static final String[] MSG_TOKENS_3B = buildUrlTokenTable();
+    private static final char[] LINK_CHARS_6 = LINK_MODEL_1.toCharArray();
+    private static final char[] LINK_CHARS_4 = LINK_MODEL_2.toCharArray();
+
+    private static final int MSG_ESCAPE_HASH = MSG_CODE_1['#'];
+    private static final int MSG_ESCAPE_STAR = MSG_CODE_1['*'];
+    private static final int URL_ESCAPE_HASH = MSG_CODE_1B['#'];
+    private static final int URL_ESCAPE_STAR = MSG_CODE_1B['*'];
+
+    private static final int LINK_FLAG_4BIT = 1 << 4;
 
     private static final Pattern LINK_PATTERN = Pattern.compile("([^<>]*)<([^>]*)>");
     private static final Charset ISO_8859_1 = StandardCharsets.ISO_8859_1;
 
-    static {
-        for (int i = 0; i < MSG_MODEL_1.length(); i++) {
-            char c = MSG_MODEL_1.charAt(i);
-            String bits = String.format("%5s", Integer.toBinaryString(i)).replace(' ', '0');
-            msg_map1.put(c, bits);
-            msg_rev1.put(bits, c);
-        }
-        for (int i = 0; i < MSG_MODEL_2.length(); i++) {
-            char c = MSG_MODEL_2.charAt(i);
-            String bits = String.format("%5s", Integer.toBinaryString(i)).replace(' ', '0');
-            msg_map2.put(c, bits);
-            msg_rev2.put(bits, c);
-        }
-        for (int i = 0; i < MSG_MODEL_3.length(); i++) {
-            char c = MSG_MODEL_3.charAt(i);
-            String bits = String.format("%5s", Integer.toBinaryString(i)).replace(' ', '0');
-            msg_map3.put(c, bits);
-            msg_rev3.put(bits, c);
-        }
-        for (int i = 0; i < LINK_MODEL_1.length(); i++) {
-            char c = LINK_MODEL_1.charAt(i);
-            String bits = String.format("%6s", Integer.toBinaryString(i)).replace(' ', '0');
-            map6.put(c, bits);
-            rev_map6.put(bits, c);
-        }
-
-        for (int i = 0; i < LINK_MODEL_2.length(); i++) {
-            char c = LINK_MODEL_2.charAt(i);
-            String bits = String.format("%4s", Integer.toBinaryString(i)).replace(' ', '0');
-            map4.put(c, bits);
-            rev_map4.put(bits, c);
-        }
-
-        for (int i = 0; i < MSG_MODEL_1b.length(); i++) {
-            char c = MSG_MODEL_1b.charAt(i);
-            String bits = String.format("%5s", Integer.toBinaryString(i)).replace(' ', '0');
-            msg_map1b.put(c, bits);
-            msg_rev1b.put(bits, c);
-        }
-
-        for (int i = 0; i < MSG_MODEL_2b.length(); i++) {
-            char c = MSG_MODEL_2b.charAt(i);
-            String bits = String.format("%5s", Integer.toBinaryString(i)).replace(' ', '0');
-            msg_map2b.put(c, bits);
-            msg_rev2b.put(bits, c);
-        }
-
-        List<String> multiTokens = Arrays.asList(
-                ".com/", ".io/", ".net/", ".ai/", ".tech/",
-                ".co/", ".me/", ".app/", ".dev/", ".nu/",
-                ".cloud/", ".xyz/", ".ly/", ".at/", ".site/",
-                ".org/", "192.168.", ":8080/", ":8000/", "127.0.0.1"
-        );
-
-        int tokenIndex = 0;
-        for (String token : multiTokens) {
-            String bits = String.format("%5s", Integer.toBinaryString(tokenIndex)).replace(' ', '0');
-            msg_rev3b.put(bits, token);
-            tokenIndex++;
-        }
+    private static int[] buildCodeTable(String model) {
+        return buildCodeTable(model, 0);
+    }
 
-        String singleChars = "0123456789_=";
-        for (int i = 0; i < singleChars.length() && tokenIndex < 32; i++) {
-            char c = singleChars.charAt(i);
-            String bits = String.format("%5s", Integer.toBinaryString(tokenIndex)).replace(' ', '0');
-            msg_map3b.put(c, bits);
-            msg_rev3b.put(bits, String.valueOf(c));
-            tokenIndex++;
+    private static int[] buildCodeTable(String model, int firstCode) {
+        int[] table = new int[128];
+        Arrays.fill(table, -1);
+        for (int i = 0; i < model.length(); i++) {
+            table[model.charAt(i)] = firstCode + i;
         }
+        return table;
+    }
 
-
-        String[] tokens = MSG_MODEL_3b.split("");
-        List<String> tokenList = new ArrayList<>();
-
-        tokenList.addAll(Arrays.asList(".com/", ".io/", ".net/", ".ai/", ".tech/",
-                ".co/", ".me/", ".app/", ".dev/", ".nu/",
-                ".cloud/", ".xyz/", ".ly/", ".at/", ".site/",
-                ".org/", "192.168.", ":8080/", ":8000/", "127.0.0.1"));
-
-        for (String t : tokens) {
-            if (t.length() == 1) tokenList.add(t);
+    private static String[] buildUrlTokenTable() {
+        String[] tokens = new String[32];
+        System.arraycopy(URL_MULTI_TOKENS, 0, tokens, 0, URL_MULTI_TOKENS.length);
+        for (int i = 0; i < URL_SINGLE_CHARS.length(); i++) {
+            tokens[URL_MULTI_TOKENS.length + i] = String.valueOf(URL_SINGLE_CHARS.charAt(i));
         }
+        return tokens;
+    }
 
-        for (int i = 0; i < tokenList.size() && i < 32; i++) {
-            String token = tokenList.get(i);
-            String bits = String.format("%5s", Integer.toBinaryString(i)).replace(' ', '0');
-
-            if (token.length() == 1) {
-                msg_map3b.put(token.charAt(0), bits);
-            }
-            msg_rev3b.put(bits, token);
-        }
+    private static int codeOf(int[] table, char c) {
+        return c < table.length ? table[c] : -1;
     }
 
     public static String compressJsonUrl5Bit(String url) {
         if (url == null || url.isEmpty()) return "";
 
-        StringBuilder bits = new StringBuilder();
-        String escapeHash = msg_map1b.get('#');
-        String escapeStar = msg_map1b.get('*');
-
-        if (escapeHash == null || escapeStar == null) {
-            return null;
-        }
-
+        BitWriter writer = new BitWriter(url.length());
         int i = 0;
-        while (i < url.length()) {
-            String matched = null;
-
-            List<String> multiTokens = Arrays.asList(
-                    ".com/", ".io/", ".net/", ".ai/", ".tech/",
-                    ".co/", ".me/", ".app/", ".dev/", ".nu/",
-                    ".cloud/", ".xyz/", ".ly/", ".at/", ".site/",
-                    ".org/", "192.168.", ":8080/", ":8000/", "127.0.0.1"
-            );
-
-            for (String token : multiTokens) {
-                if (url.startsWith(token, i)) {
-                    matched = token;
-                    break;
-                }
+        int len = url.length();
+        while (i < len) {
+            int tokenIndex = matchUrlToken(url, i);
+            if (tokenIndex != -1) {
+                writer.write(URL_ESCAPE_STAR, 5);
+                writer.write(tokenIndex, 5);
+                i += URL_MULTI_TOKENS[tokenIndex].length();
+                continue;
             }
-
-            if (matched != null) {
-                bits.append(escapeStar);
-
-                for (Map.Entry<String, String> entry : msg_rev3b.entrySet()) {
-                    if (entry.getValue().equals(matched)) {
-                        bits.append(entry.getKey());
-                        break;
-                    }
-                }
-                i += matched.length();
+            char c = url.charAt(i);
+            int code;
+            if ((code = codeOf(MSG_CODE_1B, c)) != -1) {
+                writer.write(code, 5);
+            } else if ((code = codeOf(MSG_CODE_2B, c)) != -1) {
+                writer.write(URL_ESCAPE_HASH, 5);
+                writer.write(code, 5);
+            } else if ((code = codeOf(MSG_CODE_3B, c)) != -1) {
+                writer.write(URL_ESCAPE_STAR, 5);
+                writer.write(code, 5);
             } else {
-                char c = url.charAt(i);
-
-                if (msg_map1b.containsKey(c)) {
-                    bits.append(msg_map1b.get(c));
-                } else if (msg_map2b.containsKey(c)) {
-                    bits.append(escapeHash);
-                    bits.append(msg_map2b.get(c));
-                } else if (msg_map3b.containsKey(c)) {
-                    bits.append(escapeStar);
-                    bits.append(msg_map3b.get(c));
-                } else {
-                    return null;
-                }
-                i++;
+                return null;
             }
+            i++;
         }
+        return new String(writer.toByteArrayWithTrailer(), ISO_8859_1);
+    }
 
-        return bitsToAsciiMsg(bits.toString());
+    private static int matchUrlToken(String url, int index) {
+        char first = url.charAt(index);
+        if (first != '.' && first != ':' && first != '1') return -1;
+        for (int t = 0; t < URL_MULTI_TOKENS.length; t++) {
+            if (url.startsWith(URL_MULTI_TOKENS[t], index)) {
+                return t;
+            }
+        }
+        return -1;
     }
 
     public static String decompressJsonUrl5Bit(String asciiData) {
         if (asciiData == null || asciiData.isEmpty()) return "";
 
-        String bits = asciiToBitsMsg(asciiData);
-        StringBuilder result = new StringBuilder();
-        int i = 0;
-        int bitsLen = bits.length();
-
-        while (i < bitsLen) {
-            if (i + 5 > bitsLen) break;
-
-            String block = bits.substring(i, i + 5);
-            Character ch = msg_rev1b.get(block);
-
-            if (ch != null && ch == '#') {
-                if (i + 10 <= bitsLen) {
-                    Character nextCh = msg_rev2b.get(bits.substring(i + 5, i + 10));
-                    if (nextCh != null) result.append(nextCh);
-                    i += 10;
-                } else {
-                    break;
-                }
-            } else if (ch != null && ch == '*') {
-                if (i + 10 <= bitsLen) {
-                    String token = msg_rev3b.get(bits.substring(i + 5, i + 10));
-                    if (token != null) result.append(token);
-                    i += 10;
-                } else {
-                    break;
-                }
+        BitReader reader = messageBitReader(asciiData);
+        StringBuilder result = new StringBuilder(reader.remaining() / 5);
+
+        while (reader.hasRemaining(5)) {
+            int code = reader.read(5);
+            if (code == URL_ESCAPE_HASH) {
+                if (!reader.hasRemaining(5)) break;
+                result.append(MSG_CHARS_2B[reader.read(5)]);
+            } else if (code == URL_ESCAPE_STAR) {
+                if (!reader.hasRemaining(5)) break;
+                result.append(MSG_TOKENS_3B[reader.read(5)]);
             } else {
-                if (ch != null) result.append(ch);
-                i += 5;
+                result.append(MSG_CHARS_1B[code]);
             }
         }
-
         return result.toString();
     }
 
@@ -244,77 +155,62 @@ public class PayloadCompress {
         if (msg == null || msg.isEmpty()) {
             return "";
         }
+        byte[] packed = compressMessageBytes(msg);
+        return packed != null ? new String(packed, ISO_8859_1) : null;
+    }
 
-        StringBuilder bits = new StringBuilder();
-        String escapeHash = msg_map1.get('#');
-        String escapeStar = msg_map1.get('*');
-
-        for (char c : msg.toCharArray()) {
-            if (msg_map1.containsKey(c)) {
-                bits.append(msg_map1.get(c));
-            } else if (msg_map2.containsKey(c)) {
-                bits.append(escapeHash);
-                bits.append(msg_map2.get(c));
-            } else if (msg_map3.containsKey(c)) {
-                bits.append(escapeStar);
-                bits.append(msg_map3.get(c));
+    /** 5-bit packed form of {@code msg} in trailer format, or null if a char is outside the models. */
+    private static byte[] compressMessageBytes(String msg) {
+        BitWriter writer = new BitWriter(msg.length());
+        int len = msg.length();
+        for (int i = 0; i < len; i++) {
+            char c = msg.charAt(i);
+            int code;
+            if ((code = codeOf(MSG_CODE_1, c)) != -1) {
+                writer.write(code, 5);
+            } else if ((code = codeOf(MSG_CODE_2, c)) != -1) {
+                writer.write(MSG_ESCAPE_HASH, 5);
+                writer.write(code, 5);
+            } else if ((code = codeOf(MSG_CODE_3, c)) != -1) {
+                writer.write(MSG_ESCAPE_STAR, 5);
+                writer.write(code, 5);
             } else {
                 return null;
             }
         }
-
-        return bitsToAsciiMsg(bits.toString());
+        return writer.toByteArrayWithTrailer();
     }
 
     public static String decompressMessage(String asciiData) {
         if (asciiData == null || asciiData.isEmpty()) {
             return "";
         }
-        String bits = asciiToBitsMsg(asciiData);
-
-        StringBuilder result = new StringBuilder();
-        int i = 0;
-        int bitsLen = bits.length();
-
-        while (i < bitsLen) {
-            if (i + 5 > bitsLen) {
-                break;
-            }
-
-            String block = bits.substring(i, i + 5);
-            Character ch = msg_rev1.get(block);
-
-            if (ch != null && ch == '#') {
-                if (i + 10 <= bitsLen) {
-                    Character nextCh = msg_rev2.get(bits.substring(i + 5, i + 10));
-                    if (nextCh != null) {
-                        result.append(nextCh);
-                    }
-                    i += 10;
-                } else {
-                    break;
-                }
-            } else if (ch != null && ch == '*') {
-                if (i + 10 <= bitsLen) {
-                    Character nextCh = msg_rev3.get(bits.substring(i + 5, i + 10));
-                    if (nextCh != null) {
-                        result.append(nextCh);
-                    }
-                    i += 10;
-                } else {
-                    break;
-                }
+        BitReader reader = messageBitReader(asciiData);
+        StringBuilder result = new StringBuilder(reader.remaining() / 5);
+
+        while (reader.hasRemaining(5)) {
+            int code = reader.read(5);
+            if (code == MSG_ESCAPE_HASH) {
+                if (!reader.hasRemaining(5)) break;
+                result.append(MSG_CHARS_2[reader.read(5)]);
+            } else if (code == MSG_ESCAPE_STAR) {
+                if (!reader.hasRemaining(5)) break;
+                result.append(MSG_CHARS_3[reader.read(5)]);
             } else {
-                if (ch != null) {
-                    result.append(ch);
-                }
-                i += 5;
+                result.append(MSG_CHARS_1[code]);
             }
         }
-
         return result.toString();
     }
 
+    private static BitReader messageBitReader(String asciiData) {
+        byte[] bytes = asciiData.getBytes(ISO_8859_1);
+        if (bytes.length < 2 || bytes[bytes.length - 1] == 0) {
+            return new BitReader(bytes, 0, 0);
+        }
+        return BitReader.fromTrailerFormat(bytes);
+    }
+
     private static String longestCommonPrefix(List<String> strs) {
         if (strs == null || strs.isEmpty()) {
             return "";
@@ -444,65 +340,37 @@ public class PayloadCompress {
     public static String compressLink(String s) {
         if (s == null || s.isEmpty()) return "";
 
-        StringBuilder bits = new StringBuilder();
-        for (char c : s.toCharArray()) {
-            if (map6.containsKey(c)) {
-                bits.append("0");
-                bits.append(map6.get(c));
-            } else if (map4.containsKey(c)) {
-                bits.append("1");
-                bits.append(map4.get(c));
+        BitWriter writer = new BitWriter(s.length());
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            int code;
+            if ((code = codeOf(LINK_CODE_6, c)) != -1) {
+                writer.write(code, 7);
+            } else if ((code = codeOf(LINK_CODE_4, c)) != -1) {
+                writer.write(LINK_FLAG_4BIT | code, 5);
             } else {
                 throw new IllegalArgumentException("Character '" + c + "' not supported");
             }
         }
-        return linkBitsToAscii(bits.toString());
+        return new String(writer.toByteArrayWithTrailer(), ISO_8859_1);
     }
 
     public static String decompressLink(String asciiData) {
         if (asciiData == null || asciiData.isEmpty()) return "";
 
-        String bits = asciiToLinkBits(asciiData);
+        BitReader reader = BitReader.fromTrailerFormat(asciiData.getBytes(ISO_8859_1));
+        StringBuilder out = new StringBuilder(reader.remaining() / 6);
 
-        StringBuilder out = new StringBuilder();
-        int i = 0;
-        int bitsLen = bits.length();
-
-        while (i < bitsLen) {
-            char flag = bits.charAt(i);
-
-            if (flag == '0') {
-                if (i + 7 <= bitsLen) {
-                    String code6 = bits.substring(i + 1, i + 7);
-                    Character ch6 = rev_map6.get(code6);
-                    if (ch6 != null) {
-                        out.append(ch6);
-                    } else {
-                        Log.w("PayloadCompress", "Invalid 6-bit code: " + code6);
-                    }
-                    i += 7;
-                } else {
-                    break;
-                }
-            } else if (flag == '1') {
-                if (i + 5 <= bitsLen) {
-                    String code4 = bits.substring(i + 1, i + 5);
-                    Character ch4 = rev_map4.get(code4);
-                    if (ch4 != null) {
-                        out.append(ch4);
-                    } else {
-                        Log.w("PayloadCompress", "Invalid 4-bit code: " + code4);
-                    }
-                    i += 5;
-                } else {
-                    break;
-                }
+        while (reader.hasRemaining(1)) {
+            if (reader.read(1) == 0) {
+                if (!reader.hasRemaining(6)) break;
+                out.append(LINK_CHARS_6[reader.read(6)]);
             } else {
-                Log.w("PayloadCompress", "Invalid bit flag in decompressLink: " + flag);
-                i++;
+                if (!reader.hasRemaining(4)) break;
+                out.append(LINK_CHARS_4[reader.read(4)]);
             }
         }
-
         return out.toString();
     }
 
@@ -510,33 +378,18 @@ public class PayloadCompress {
         StringBuilder payload = new StringBuilder();
 
         if (message != null && !message.isEmpty()) {
-            String compressed = compressMessage(message);
+            byte[] compressed = compressMessageBytes(message);
+            byte[] utf8Bytes = message.getBytes(java.nio.charset.StandardCharsets.UTF_8);
 
-            if (compressed != null) {
-                int compressedBytes = compressed.getBytes(ISO_8859_1).length;
-                int originalBytes = message.getBytes(java.nio.charset.StandardCharsets.UTF_8).length;
-
-                if (compressedBytes < originalBytes) {
-                    payload.append(compressed);
-                    Log.d("PayloadCompress", "Using compressed message: " + compressedBytes + " bytes (vs " + originalBytes + " bytes UTF-8)");
-                } else {
-                    try {
-                        byte[] utf8Bytes = message.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                        String packedUtf8 = new String(utf8Bytes, ISO_8859_1);
-                        payload.append(MARKER_UNICODE).append(packedUtf8);
-                        Log.d("PayloadCompress", "Compression inefficient (" + compressedBytes + " >= " + originalBytes + "). Using UTF-8 fallback.");
-                    } catch (Exception e) {
-                        payload.append(MARKER_UNICODE).append(message);
-                    }
-                }
+            if (compressed != null && compressed.length < utf8Bytes.length) {
+                payload.append(new String(compressed, ISO_8859_1));
+                Log.d("PayloadCompress", "Using compressed message: " + compressed.length + " bytes (vs " + utf8Bytes.length + " bytes UTF-8)");
             } else {
-                try {
-                    byte[] utf8Bytes = message.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                    String packedUtf8 = new String(utf8Bytes, ISO_8859_1);
-                    payload.append(MARKER_UNICODE).append(packedUtf8);
+                payload.append(MARKER_UNICODE).append(new String(utf8Bytes, ISO_8859_1));
+                if (compressed != null) {
+                    Log.d("PayloadCompress", "Compression inefficient (" + compressed.length + " >= " + utf8Bytes.length + "). Using UTF-8 fallback.");
+                } else {
                     Log.d("PayloadCompress", "Compression failed (unsupported char). Using UTF-8 fallback.");
-                } catch (Exception e) {
-                    payload.append(MARKER_UNICODE).append(message);
                 }
             }
         }
@@ -651,52 +504,6 @@ public class PayloadCompress {
         return Math.min(posImage, posVideo);
     }
 
-    private static String linkBitsToAscii(String bits) {
-        if (bits.isEmpty()) return "";
-
-        int validBitsInLastByte = bits.length() % 8;
-        if (validBitsInLastByte == 0) validBitsInLastByte = 8;
-
-        int padding = (8 - (bits.length() % 8)) % 8;
-        StringBuilder paddedBits = new StringBuilder(bits);
-        for (int i = 0; i < padding; i++) {
-            paddedBits.append('0');
-        }
-        byte[] bytes = new byte[paddedBits.length() / 8 + 1];
-
-        for (int i = 0; i < bytes.length - 1; i++) {
-            String byteStr = paddedBits.substring(i * 8, (i + 1) * 8);
-            bytes[i] = (byte) Integer.parseInt(byteStr, 2);
-        }
-        bytes[bytes.length - 1] = (byte) validBitsInLastByte;
-
-        return new String(bytes, ISO_8859_1);
-    }
-
-    private static String asciiToLinkBits(String binaryString) {
-        if (binaryString == null || binaryString.isEmpty()) return "";
-
-        byte[] bytes = binaryString.getBytes(ISO_8859_1);
-        if (bytes.length < 2) return "";
-
-        int lastValidBitsCount = bytes[bytes.length - 1] & 0xFF;
-
-        StringBuilder bits = new StringBuilder();
-        for (int i = 0; i < bytes.length - 1; i++) {
-            String byteStr = String.format("%8s", Integer.toBinaryString(bytes[i] & 0xFF))
-                    .replace(' ', '0');
-            bits.append(byteStr);
-        }
-        if (bits.length() > 0) {
-            int totalBits = (bytes.length - 2) * 8 + lastValidBitsCount;
-            if (totalBits > bits.length()) {
-                totalBits = bits.length();
-            }
-            bits.setLength(totalBits);
-        }
-        return bits.toString();
-    }
-
     public static class ParsedPayload {
         public String message = "";
         public String imageUrls = "";
@@ -775,58 +582,4 @@ public class PayloadCompress {
             this.proto = proto;
         }
     }
-
-    private static String bitsToAsciiMsg(String bits) {
-        if (bits.isEmpty()) {
-            return new String(new byte[]{0}, ISO_8859_1);
-        }
-        int validBitsInLastByte = bits.length() % 8;
-        if (validBitsInLastByte == 0) {
-            validBitsInLastByte = 8;
-        }
-        int padding = (8 - (bits.length() % 8)) % 8;
-        StringBuilder paddedBits = new StringBuilder(bits);
-        for (int i = 0; i < padding; i++) {
-            paddedBits.append('0');
-        }
-        byte[] bytes = new byte[paddedBits.length() / 8 + 1];
-
-        for (int i = 0; i < bytes.length - 1; i++) {
-            String byteStr = paddedBits.substring(i * 8, (i + 1) * 8);
-            bytes[i] = (byte) Integer.parseInt(byteStr, 2);
-        }
-        bytes[bytes.length - 1] = (byte) validBitsInLastByte;
-        return new String(bytes, ISO_8859_1);
-    }
-
-    private static String asciiToBitsMsg(String binaryString) {
-        if (binaryString == null || binaryString.isEmpty()) {
-            return "";
-        }
-        byte[] bytes = binaryString.getBytes(ISO_8859_1);
-
-        if (bytes.length < 2) {
-            return "";
-        }
-        int lastValidBitsCount = bytes[bytes.length - 1] & 0xFF;
-
-        if (lastValidBitsCount == 0) {
-            return "";
-        }
-
-        StringBuilder bits = new StringBuilder();
-        for (int i = 0; i < bytes.length - 1; i++) {
-            String byteStr = String.format("%8s", Integer.toBinaryString(bytes[i] & 0xFF))
-                    .replace(' ', '0');
-            bits.append(byteStr);
-        }
-        if (bits.length() > 0) {
-            int totalBits = (bytes.length - 2) * 8 + lastValidBitsCount;
-            if (totalBits > bits.length()) {
-                totalBits = bits.length();
-            }
-            bits.setLength(totalBits);
-        }
-        return bits.toString();
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,215 @@
+package com.antor.nearbychat.Radio;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import java.util.UUID;
+
+/**
+ * Keeps one AdvertisingSet alive and swaps the packet in place with
+ * setAdvertisingData, instead of stopping and restarting the advertiser for
+ * every chunk. Stopping only disables the set; the next packet re-enables
+ * it. If the controller refuses the set it is marked unusable and the
+ * caller falls back to start/stop advertising.
+ */
+public class AdvertisingSetTransport implements RadioTransport {
+
+    private static final String TAG = "AdvertisingSetTransport";
+
+    public interface FailureListener {
+        void onAdvertiseFailed(int status);
+    }
+
+    private final BluetoothLeAdvertiser advertiser;
+    private final boolean legacyMode;
+    private final int maxPacketSize;
+    private final AdvertisingSetParameters parameters;
+    private final FailureListener failureListener;
+
+    private AdvertisingSet advertisingSet;
+    private AdvertiseData pendingData;
+    private boolean starting = false;
+    private boolean enabled = false;
+    private boolean wantEnabled = false;
+    private boolean failed = false;
+
+    public AdvertisingSetTransport(BluetoothLeAdvertiser advertiser, boolean legacyMode, int maxPacketSize,
+                                   int advertiseMode, int txPowerLevel, FailureListener failureListener) {
+        this.advertiser = advertiser;
+        this.legacyMode = legacyMode;
+        this.maxPacketSize = maxPacketSize;
+        this.failureListener = failureListener;
+        this.parameters = new AdvertisingSetParameters.Builder()
+                .setLegacyMode(legacyMode)
+                .setConnectable(false)
+                .setScannable(false)
+                .setInterval(interval(advertiseMode))
+                .setTxPowerLevel(txPower(txPowerLevel))
+                .setPrimaryPhy(BluetoothDevice.PHY_LE_1M)
+                .setSecondaryPhy(BluetoothDevice.PHY_LE_1M)
+                .build();
+    }
+
+    static int interval(int advertiseMode) {
+        switch (advertiseMode) {
+            case 0: return AdvertisingSetParameters.INTERVAL_HIGH;
+            case 1: return AdvertisingSetParameters.INTERVAL_MEDIUM;
+            case 2:
+            default: return AdvertisingSetParameters.INTERVAL_LOW;
+        }
+    }
+
+    static int txPower(int txPowerLevel) {
+        switch (txPowerLevel) {
+            case 0: return AdvertisingSetParameters.TX_POWER_ULTRA_LOW;
+            case 1: return AdvertisingSetParameters.TX_POWER_LOW;
+            case 2: return AdvertisingSetParameters.TX_POWER_MEDIUM;
+            case 3:
+            default: return AdvertisingSetParameters.TX_POWER_HIGH;
+        }
+    }
+
+    private final AdvertisingSetCallback callback = new AdvertisingSetCallback() {
+        @Override
+        public void onAdvertisingSetStarted(AdvertisingSet set, int txPower, int status) {
+            if (status != ADVERTISE_SUCCESS) {
+                synchronized (AdvertisingSetTransport.this) {
+                    starting = false;
+                    failed = true;
+                    pendingData = null;
+                }
+                Log.e(TAG, "Advertising set refused (" + (legacyMode ? "legacy" : "extended") + "): " + status);
+                failureListener.onAdvertiseFailed(status);
+                return;
+            }
+            synchronized (AdvertisingSetTransport.this) {
+                starting = false;
+                advertisingSet = set;
+                enabled = true;
+                try {
+                    if (pendingData != null) set.setAdvertisingData(pendingData);
+                    if (!wantEnabled) {
+                        set.enableAdvertising(false, 0, 0);
+                        enabled = false;
+                    }
+                } catch (SecurityException e) {
+                    Log.e(TAG, "Missing permission for advertising set", e);
+                }
+                pendingData = null;
+            }
+            Log.d(TAG, "Advertising set started (" + (legacyMode ? "legacy" : "extended") + ")");
+        }
+
+        @Override
+        public void onAdvertisingDataSet(AdvertisingSet set, int status) {
+            if (status != ADVERTISE_SUCCESS) {
+                Log.e(TAG, "Advertising data update failed: " + status);
+                failureListener.onAdvertiseFailed(status);
+            }
+        }
+
+        @Override
+        public void onAdvertisingEnabled(AdvertisingSet set, boolean enable, int status) {
+            if (enable && status != ADVERTISE_SUCCESS) {
+                Log.e(TAG, "Advertising set enable failed: " + status);
+                failureListener.onAdvertiseFailed(status);
+            }
+        }
+
+        @Override
+        public void onAdvertisingSetStopped(AdvertisingSet set) {
+            synchronized (AdvertisingSetTransport.this) {
+                if (advertisingSet == set) {
+                    advertisingSet = null;
+                    enabled = false;
+                }
+            }
+        }
+    };
+
+    public synchronized boolean isUsable() {
+        return !failed;
+    }
+
+    @Override
+    public int maxPacketSize() {
+        return maxPacketSize;
+    }
+
+    @Override
+    public boolean isExtended() {
+        return !legacyMode;
+    }
+
+    @Override
+    public synchronized boolean advertise(UUID serviceUuid, byte[] packet, long durationMs) {
+        if (failed || packet == null || packet.length > maxPacketSize) return false;
+        AdvertiseData data = new AdvertiseData.Builder()
+                .addServiceData(new ParcelUuid(serviceUuid), packet)
+                .build();
+        wantEnabled = true;
+        try {
+            if (advertisingSet == null) {
+                if (starting) {
+                    pendingData = data;
+                    return true;
+                }
+                starting = true;
+                advertiser.startAdvertisingSet(parameters, data, null, null, null, 0, 0, callback);
+            } else {
+                advertisingSet.setAdvertisingData(data);
+                if (!enabled) {
+                    advertisingSet.enableAdvertising(true, 0, 0);
+                    enabled = true;
+                }
+            }
+            return true;
+        } catch (SecurityException e) {
+            Log.e(TAG, "Missing permission for advertising set", e);
+        } catch (Exception e) {
+            Log.e(TAG, "Error updating advertising set", e);
+            failed = true;
+        }
+        starting = false;
+        return false;
+    }
+
+    /** Pauses the set; it stays allocated for the next packet. */
+    @Override
+    public synchronized void stopAdvertising() {
+        wantEnabled = false;
+        pendingData = null;
+        if (advertisingSet == null || !enabled) return;
+        try {
+            advertisingSet.enableAdvertising(false, 0, 0);
+        } catch (SecurityException e) {
+            Log.e(TAG, "Missing permission to pause advertising set", e);
+        } catch (Exception e) {
+            Log.e(TAG, "Error pausing advertising set", e);
+        }
+        enabled = false;
+    }
+
+    /** Releases the set in the controller. */
+    public synchronized void close() {
+        wantEnabled = false;
+        pendingData = null;
+        if (advertisingSet == null && !starting) return;
+        try {
+            advertiser.stopAdvertisingSet(callback);
+        } catch (SecurityException e) {
+            Log.e(TAG, "Missing permission to stop advertising set", e);
+        } catch (Exception e) {
+            Log.e(TAG, "Error stopping advertising set", e);
+        }
+        advertisingSet = null;
+        enabled = false;
+        starting = false;
+    }
+}
@@ -0,0 +1,117 @@
+package com.antor.nearbychat.Radio;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import java.util.UUID;
+
+/**
+ * BLE 5 extended advertising: one non-connectable, non-scannable advertising
+ * set per packet, with the service data carried in the AUX_ADV_IND on the
+ * secondary channels. The secondary PHY stays at 1M so range matches the
+ * legacy path.
+ */
+public class ExtendedBleTransport implements RadioTransport {
+
+    private static final String TAG = "ExtendedBleTransport";
+    private static final int DURATION_UNIT_MS = 10;
+    private static final int MAX_DURATION_UNITS = 65535;
+
+    private final BluetoothLeAdvertiser advertiser;
+    private final int maxPacketSize;
+    private final int interval;
+    private final int txPower;
+    private AdvertisingSetCallback callback;
+
+    public ExtendedBleTransport(BluetoothLeAdvertiser advertiser, int maxPacketSize, int advertiseMode, int txPowerLevel) {
+        this.advertiser = advertiser;
+        this.maxPacketSize = maxPacketSize;
+        this.interval = AdvertisingSetTransport.interval(advertiseMode);
+        this.txPower = AdvertisingSetTransport.txPower(txPowerLevel);
+    }
+
+    /**
+     * Largest packet this controller can put in one extended advertisement,
+     * or 0 if it only supports legacy advertising.
+     */
+    public static int supportedPacketSize(BluetoothAdapter adapter) {
+        try {
+            if (adapter == null || !adapter.isLeExtendedAdvertisingSupported()) return 0;
+            int size = Math.min(EXTENDED_MAX_PACKET_SIZE,
+                    adapter.getLeMaximumAdvertisingDataLength() - SERVICE_DATA_OVERHEAD);
+            return size > LEGACY_MAX_PACKET_SIZE ? size : 0;
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading extended advertising support", e);
+            return 0;
+        }
+    }
+
+    @Override
+    public int maxPacketSize() {
+        return maxPacketSize;
+    }
+
+    @Override
+    public boolean isExtended() {
+        return true;
+    }
+
+    @Override
+    public synchronized boolean advertise(UUID serviceUuid, byte[] packet, long durationMs) {
+        if (packet == null || packet.length > maxPacketSize) return false;
+        try {
+            stopAdvertising();
+            AdvertisingSetParameters parameters = new AdvertisingSetParameters.Builder()
+                    .setLegacyMode(false)
+                    .setConnectable(false)
+                    .setScannable(false)
+                    .setInterval(interval)
+                    .setTxPowerLevel(txPower)
+                    .setPrimaryPhy(BluetoothDevice.PHY_LE_1M)
+                    .setSecondaryPhy(BluetoothDevice.PHY_LE_1M)
+                    .build();
+            AdvertiseData data = new AdvertiseData.Builder()
+                    .addServiceData(new ParcelUuid(serviceUuid), packet)
+                    .build();
+            int durationUnits = (int) Math.max(1, Math.min(MAX_DURATION_UNITS, durationMs / DURATION_UNIT_MS));
+
+            callback = new AdvertisingSetCallback() {
+                @Override
+                public void onAdvertisingSetStarted(AdvertisingSet advertisingSet, int txPower, int status) {
+                    if (status == ADVERTISE_SUCCESS) {
+                        Log.d(TAG, "Extended advertise started: " + packet.length + " bytes");
+                    } else {
+                        Log.e(TAG, "Extended advertise failed: " + status);
+                    }
+                }
+            };
+            advertiser.startAdvertisingSet(parameters, data, null, null, null, durationUnits, 0, callback);
+            return true;
+        } catch (SecurityException e) {
+            Log.e(TAG, "Missing permission for extended advertising", e);
+        } catch (Exception e) {
+            Log.e(TAG, "Error starting extended advertising", e);
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void stopAdvertising() {
+        if (callback == null) return;
+        try {
+            advertiser.stopAdvertisingSet(callback);
+        } catch (SecurityException e) {
+            Log.e(TAG, "Missing permission to stop extended advertising", e);
+        } catch (Exception e) {
+            Log.e(TAG, "Error stopping extended advertising", e);
+        }
+        callback = null;
+    }
+}
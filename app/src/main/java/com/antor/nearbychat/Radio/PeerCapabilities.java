@@ -0,0 +1,98 @@
+package com.antor.nearbychat.Radio;
+
+import com.antor.nearbychat.Message.MessageHelper;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Which recently heard peers can receive extended advertising. A legacy-only
+ * scanner never sees an extended PDU, so a sender only switches to large
+ * packets when every peer heard within {@link #PEER_WINDOW_MS} is known to be
+ * capable, and falls back to legacy framing otherwise.
+ *
+ * A peer proves it is capable by sending an extended PDU or a capability
+ * beacon: [!!][senderId x5][flags], sent as a legacy PDU on the extension
+ * UUID so that capable devices can announce themselves while the
+ * neighbourhood is still talking legacy.
+ */
+public class PeerCapabilities {
+
+    public static final long PEER_WINDOW_MS = 5 * 60 * 1000;
+    public static final long BEACON_INTERVAL_MS = 2 * 60 * 1000;
+
+    public static final String BEACON_MARKER = "!!";
+    public static final int BEACON_SIZE = 2 + 5 + 1;
+    public static final int FLAG_EXTENDED_RX = 0x01;
+
+    private static final class Peer {
+        long lastHeardMs;
+        boolean extended;
+    }
+
+    private final Map<Long, Peer> peers = new HashMap<>();
+    private long lastBeaconMs = Long.MIN_VALUE / 2;
+
+    /** Records a packet from {@code peerIdBits}; {@code extended} is sticky for the window. */
+    public synchronized void onHeard(long peerIdBits, boolean extended, long nowMs) {
+        Peer peer = peers.get(peerIdBits);
+        if (peer == null) {
+            peer = new Peer();
+            peers.put(peerIdBits, peer);
+        } else if (nowMs - peer.lastHeardMs > PEER_WINDOW_MS) {
+            peer.extended = false;
+        }
+        peer.lastHeardMs = nowMs;
+        peer.extended |= extended;
+    }
+
+    /** True if at least one peer is in range and all of them can receive extended PDUs. */
+    public synchronized boolean allExtended(long nowMs) {
+        boolean any = false;
+        Iterator<Peer> it = peers.values().iterator();
+        while (it.hasNext()) {
+            Peer peer = it.next();
+            if (nowMs - peer.lastHeardMs > PEER_WINDOW_MS) {
+                it.remove();
+                continue;
+            }
+            if (!peer.extended) return false;
+            any = true;
+        }
+        return any;
+    }
+
+    /**
+     * Packet size for the next message: {@code extendedSize} when this device
+     * has an extended transport (non-zero size) and every peer can hear it.
+     */
+    public int choosePacketSize(int legacySize, int extendedSize, long nowMs) {
+        return extendedSize > legacySize && allExtended(nowMs) ? extendedSize : legacySize;
+    }
+
+    /** True at most once per {@link #BEACON_INTERVAL_MS}; the caller then sends a beacon. */
+    public synchronized boolean beaconDue(long nowMs) {
+        if (nowMs - lastBeaconMs < BEACON_INTERVAL_MS) return false;
+        lastBeaconMs = nowMs;
+        return true;
+    }
+
+    public static byte[] encodeBeacon(long senderIdBits, boolean extendedRx) {
+        byte[] beacon = new byte[BEACON_SIZE];
+        beacon[0] = (byte) BEACON_MARKER.charAt(0);
+        beacon[1] = (byte) BEACON_MARKER.charAt(1);
+        MessageHelper.putId40(beacon, 2, senderIdBits);
+        beacon[BEACON_SIZE - 1] = (byte) (extendedRx ? FLAG_EXTENDED_RX : 0);
+        return beacon;
+    }
+
+    public static boolean isBeacon(byte[] data) {
+        return data != null && data.length == BEACON_SIZE
+                && data[0] == BEACON_MARKER.charAt(0) && data[1] == BEACON_MARKER.charAt(1);
+    }
+
+    public void onBeacon(byte[] beacon, long nowMs) {
+        onHeard(MessageHelper.readId40(beacon, 2), (beacon[BEACON_SIZE - 1] & FLAG_EXTENDED_RX) != 0, nowMs);
+    }
+}
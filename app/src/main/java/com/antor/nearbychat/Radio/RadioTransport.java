@@ -0,0 +1,30 @@
+package com.antor.nearbychat.Radio;
+
+import java.util.UUID;
+
+/**
+ * One advertiser that puts a single packet on air as service data under a
+ * 16-bit service UUID. The legacy path in BleMessagingService is capped at
+ * 31 bytes of advertising data; an extended transport carries one packet of
+ * up to {@link #EXTENDED_MAX_PACKET_SIZE} bytes in an AUX_ADV_IND PDU.
+ */
+public interface RadioTransport {
+
+    int LEGACY_MAX_PACKET_SIZE = 27;
+    int EXTENDED_MAX_PACKET_SIZE = 240;
+
+    /** Service data AD structure overhead: length, type and the 16-bit UUID. */
+    int SERVICE_DATA_OVERHEAD = 4;
+
+    int maxPacketSize();
+
+    boolean isExtended();
+
+    /**
+     * Replaces whatever this transport is advertising with {@code packet} for
+     * {@code durationMs}. Returns false if the packet could not be queued.
+     */
+    boolean advertise(UUID serviceUuid, byte[] packet, long durationMs);
+
+    void stopAdvertising();
+}
@@ -0,0 +1,160 @@
+package com.antor.nearbychat.Radio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Software stand-in for the BLE advertising channel so chunk sizing and
+ * reassembly can run on a plain JVM. Every node hears every other node
+ * unless a {@link Topology} says otherwise, so multi-hop layouts can be
+ * modelled too; a packet longer than the legacy limit goes out as an extended PDU and only
+ * reaches extended-capable nodes, the same way a legacy-only scanner never
+ * follows an AUX pointer. Each advertise() is one reception attempt per
+ * listener, dropped with probability {@link #setLossRate(double)}.
+ *
+ * Airtime is tallied at 1M PHY (8 us per byte on air) so transports can be
+ * compared by channel occupancy as well as by packet count.
+ */
+public class SimulatedRadio {
+
+    public interface Receiver {
+        void onPacket(UUID serviceUuid, byte[] packet, boolean extendedPdu);
+    }
+
+    /** Which nodes hear which, by attach order. */
+    public interface Topology {
+        boolean inRange(int fromIndex, int toIndex);
+    }
+
+    private static final int MICROS_PER_BYTE = 8;
+    private static final int PRIMARY_CHANNELS = 3;
+    // preamble, access address, PDU header, AdvA, service data overhead, CRC
+    private static final int LEGACY_PDU_OVERHEAD = 1 + 4 + 2 + 6 + RadioTransport.SERVICE_DATA_OVERHEAD + 3;
+    // ADV_EXT_IND: preamble, access address, PDU header, extended header (length, flags, ADI, AuxPtr), CRC
+    private static final int EXT_INDICATION_SIZE = 1 + 4 + 2 + 1 + 1 + 2 + 3 + 3;
+    // AUX_ADV_IND adds AdvA and ADI in its extended header
+    private static final int AUX_PDU_OVERHEAD = 1 + 4 + 2 + 1 + 1 + 6 + 2 + RadioTransport.SERVICE_DATA_OVERHEAD + 3;
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final Random random;
+    private double lossRate = 0;
+    private Topology topology;
+
+    private long packetsSent = 0;
+    private long deliveries = 0;
+    private long airtimeMicros = 0;
+
+    public SimulatedRadio(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public synchronized void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    public synchronized void setTopology(Topology topology) {
+        this.topology = topology;
+    }
+
+    public synchronized Node attach(boolean extendedCapable, Receiver receiver) {
+        Node node = new Node(nodes.size(), extendedCapable, receiver);
+        nodes.add(node);
+        return node;
+    }
+
+    public synchronized void detach(Node node) {
+        nodes.remove(node);
+    }
+
+    public static long airtimeMicros(int packetLength, boolean extendedPdu) {
+        if (!extendedPdu) {
+            return PRIMARY_CHANNELS * legacyPduMicros(packetLength);
+        }
+        return PRIMARY_CHANNELS * extIndicationMicros() + auxPduMicros(packetLength);
+    }
+
+    /** One ADV_NONCONN_IND carrying {@code packetLength} bytes of service data. */
+    public static long legacyPduMicros(int packetLength) {
+        return (long) (LEGACY_PDU_OVERHEAD + packetLength) * MICROS_PER_BYTE;
+    }
+
+    /** One ADV_EXT_IND on a primary channel. */
+    public static long extIndicationMicros() {
+        return (long) EXT_INDICATION_SIZE * MICROS_PER_BYTE;
+    }
+
+    /** The AUX_ADV_IND on a secondary channel carrying {@code packetLength} bytes. */
+    public static long auxPduMicros(int packetLength) {
+        return (long) (AUX_PDU_OVERHEAD + packetLength) * MICROS_PER_BYTE;
+    }
+
+    public synchronized long getPacketsSent() {
+        return packetsSent;
+    }
+
+    public synchronized long getDeliveries() {
+        return deliveries;
+    }
+
+    public synchronized long getAirtimeMicros() {
+        return airtimeMicros;
+    }
+
+    private void transmit(Node sender, UUID serviceUuid, byte[] packet) {
+        boolean extendedPdu = packet.length > RadioTransport.LEGACY_MAX_PACKET_SIZE;
+        List<Node> listeners = new ArrayList<>();
+        synchronized (this) {
+            packetsSent++;
+            airtimeMicros += airtimeMicros(packet.length, extendedPdu);
+            for (Node node : nodes) {
+                if (node == sender || (extendedPdu && !node.extendedCapable)) continue;
+                if (topology != null && !topology.inRange(sender.index, node.index)) continue;
+                if (lossRate > 0 && random.nextDouble() < lossRate) continue;
+                listeners.add(node);
+            }
+            deliveries += listeners.size();
+        }
+        for (Node node : listeners) {
+            node.receiver.onPacket(serviceUuid, packet.clone(), extendedPdu);
+        }
+    }
+
+    public final class Node implements RadioTransport {
+        private final int index;
+        private final boolean extendedCapable;
+        private final Receiver receiver;
+
+        private Node(int index, boolean extendedCapable, Receiver receiver) {
+            this.index = index;
+            this.extendedCapable = extendedCapable;
+            this.receiver = receiver;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public int maxPacketSize() {
+            return extendedCapable ? EXTENDED_MAX_PACKET_SIZE : LEGACY_MAX_PACKET_SIZE;
+        }
+
+        @Override
+        public boolean isExtended() {
+            return extendedCapable;
+        }
+
+        @Override
+        public boolean advertise(UUID serviceUuid, byte[] packet, long durationMs) {
+            if (packet == null || packet.length > maxPacketSize()) return false;
+            transmit(this, serviceUuid, packet);
+            return true;
+        }
+
+        @Override
+        public void stopAdvertising() {
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.antor.nearbychat.Radio;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the advertiser. Every slot it puts exactly one packet on air, taken
+ * from the highest non-empty priority class; jobs within a class take turns
+ * packet by packet, so two messages sent together interleave instead of
+ * overwriting each other's advertisement. Relayed traffic comes last, so
+ * forwarding for others only uses slots local sends leave idle. Runs on its
+ * own thread.
+ */
+public class TransmitScheduler {
+
+    private static final String TAG = "TransmitScheduler";
+
+    public enum Priority {
+        CONTROL, DIRECT, GROUP, NEARBY, RETRANSMIT, RELAY;
+
+        public static Priority forChatType(String chatType) {
+            if ("F".equals(chatType)) return DIRECT;
+            if ("G".equals(chatType)) return GROUP;
+            return NEARBY;
+        }
+    }
+
+    public interface Callback {
+        void onFinished(Job job);
+    }
+
+    public final class Job {
+        private final Priority priority;
+        private final List<byte[]> packets;
+        private final UUID serviceUuid;
+        private final int totalSends;
+        private final Callback callback;
+        private int sent = 0;
+        private int failures = 0;
+        private boolean cancelled = false;
+        private boolean finished = false;
+
+        private Job(Priority priority, List<byte[]> packets, int rounds, UUID serviceUuid, Callback callback) {
+            this.priority = priority;
+            this.packets = packets;
+            this.serviceUuid = serviceUuid;
+            this.totalSends = packets.size() * Math.max(1, rounds);
+            this.callback = callback;
+        }
+
+        public void cancel() {
+            TransmitScheduler.this.cancel(this);
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public int getTotalSends() {
+            return totalSends;
+        }
+
+        public int getFailures() {
+            synchronized (TransmitScheduler.this) {
+                return failures;
+            }
+        }
+
+        public boolean isCancelled() {
+            synchronized (TransmitScheduler.this) {
+                return cancelled;
+            }
+        }
+    }
+
+    private final RadioTransport transport;
+    private final ScheduledExecutorService executor;
+    private volatile long slotMs;
+    private final long airtimeMs;
+    private final ArrayDeque<Job>[] queues;
+    private Job onAir;
+    private boolean pumping = false;
+
+    public TransmitScheduler(RadioTransport transport, long slotMs, long airtimeMs) {
+        this(transport, slotMs, airtimeMs,
+                Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "ble-transmit")));
+    }
+
+    @SuppressWarnings("unchecked")
+    public TransmitScheduler(RadioTransport transport, long slotMs, long airtimeMs, ScheduledExecutorService executor) {
+        this.transport = transport;
+        this.slotMs = slotMs;
+        this.airtimeMs = airtimeMs;
+        this.executor = executor;
+        this.queues = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Queues {@code rounds} passes over {@code packets}. A null
+     * {@code serviceUuid} lets the transport pick one per packet.
+     */
+    public Job submit(Priority priority, List<byte[]> packets, int rounds, UUID serviceUuid, Callback callback) {
+        Job job = new Job(priority, new ArrayList<>(packets), rounds, serviceUuid, callback);
+        synchronized (this) {
+            if (job.totalSends == 0 || executor.isShutdown()) {
+                job.finished = true;
+            } else {
+                queues[priority.ordinal()].addLast(job);
+                if (!pumping) {
+                    pumping = true;
+                    executor.execute(this::pump);
+                }
+            }
+        }
+        if (job.finished) notifyFinished(job);
+        return job;
+    }
+
+    /** Time each packet stays on air before the next one replaces it. */
+    public void setSlotMs(long slotMs) {
+        this.slotMs = slotMs;
+    }
+
+    public void cancel(Job job) {
+        boolean wasOnAir;
+        synchronized (this) {
+            if (job.finished) return;
+            job.cancelled = true;
+            job.finished = true;
+            queues[job.priority.ordinal()].remove(job);
+            wasOnAir = onAir == job;
+            if (wasOnAir) onAir = null;
+        }
+        if (wasOnAir) transport.stopAdvertising();
+        notifyFinished(job);
+    }
+
+    /** Charges an asynchronous advertise failure to the job currently on air. */
+    public synchronized void reportFailure() {
+        if (onAir != null) onAir.failures++;
+    }
+
+    public synchronized boolean isIdle() {
+        return onAir == null && !hasQueuedJobs();
+    }
+
+    private boolean hasQueuedJobs() {
+        for (ArrayDeque<Job> queue : queues) {
+            if (!queue.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            for (ArrayDeque<Job> queue : queues) {
+                queue.clear();
+            }
+            onAir = null;
+        }
+        executor.shutdownNow();
+    }
+
+    private void pump() {
+        Job done = null;
+        Job job = null;
+        byte[] packet = null;
+        boolean wasOnAir;
+        synchronized (this) {
+            if (onAir != null && onAir.sent >= onAir.totalSends) {
+                onAir.finished = true;
+                done = onAir;
+            }
+            wasOnAir = onAir != null;
+            onAir = null;
+            for (ArrayDeque<Job> queue : queues) {
+                job = queue.pollFirst();
+                if (job != null) break;
+            }
+            if (job != null) {
+                packet = job.packets.get(job.sent % job.packets.size());
+                job.sent++;
+                if (job.sent < job.totalSends) queues[job.priority.ordinal()].addLast(job);
+                onAir = job;
+            }
+        }
+        if (done != null) notifyFinished(done);
+        if (job == null) {
+            // A persistent advertiser would otherwise repeat the last packet indefinitely
+            if (wasOnAir) transport.stopAdvertising();
+            synchronized (this) {
+                if (!hasQueuedJobs()) {
+                    pumping = false;
+                    return;
+                }
+            }
+            executor.execute(this::pump);
+            return;
+        }
+
+        boolean sent;
+        try {
+            sent = transport.advertise(job.serviceUuid, packet, airtimeMs);
+        } catch (Exception e) {
+            Log.e(TAG, "Error advertising packet", e);
+            sent = false;
+        }
+        if (!sent) {
+            synchronized (this) {
+                job.failures++;
+            }
+        }
+        try {
+            executor.schedule(this::pump, slotMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.e(TAG, "Transmit scheduler stopped", e);
+        }
+    }
+
+    private void notifyFinished(Job job) {
+        if (job.callback == null) return;
+        try {
+            job.callback.onFinished(job);
+        } catch (Exception e) {
+            Log.e(TAG, "Error in transmit callback", e);
+        }
+    }
+}
@@ -52,13 +52,22 @@ public class SettingsActivity extends BaseActivity {
         settingInputs.put("ADVERTISING_DURATION_MS", findViewById(R.id.editAdvertisingDuration));
         settingInputs.put("DELAY_BETWEEN_CHUNKS_MS", findViewById(R.id.editDelayBetweenChunks));
         settingInputs.put("CHUNK_TIMEOUT_MS", findViewById(R.id.editChunkTimeout));
-        settingInputs.put("CHUNK_CLEANUP_INTERVAL_MS", findViewById(R.id.editChunkCleanupInterval));
         settingInputs.put("MAX_RECENT_MESSAGES", findViewById(R.id.editMaxRecentMessages));
         settingInputs.put("MAX_RECENT_CHUNKS", findViewById(R.id.editMaxRecentChunks));
         settingInputs.put("MAX_MESSAGE_SAVED", findViewById(R.id.editMaxMessagesSaved));
+        settingInputs.put("MAX_MESSAGES_PER_CHAT", findViewById(R.id.editMaxMessagesPerChat));
+        settingInputs.put("MESSAGE_MAX_AGE_DAYS", findViewById(R.id.editMessageMaxAgeDays));
 
         settingInputs.put("BROADCAST_ROUNDS", findViewById(R.id.editBroadcastRounds));
+        settingInputs.put("FEC_PARITY_PERCENT", findViewById(R.id.editFecParityPercent));
+        settingInputs.put("COMPACT_HEADERS", findViewById(R.id.editCompactHeaders));
+        settingInputs.put("SEALED_MESSAGES", findViewById(R.id.editSealedMessages));
+        settingInputs.put("RELAY_HOPS", findViewById(R.id.editRelayHops));
+        settingInputs.put("SYNC_INTERVAL", findViewById(R.id.editSyncInterval));
+        settingInputs.put("EXTENDED_ADVERTISING", findViewById(R.id.editExtendedAdvertising));
+        settingInputs.put("PERSISTENT_ADVERTISING", findViewById(R.id.editPersistentAdvertising));
         settingInputs.put("SCAN_MODE", findViewById(R.id.editScanMode));
+        settingInputs.put("SCAN_REPORT_DELAY", findViewById(R.id.editScanReportDelay));
         settingInputs.put("ADVERTISE_MODE", findViewById(R.id.editAdvertiseMode));
         settingInputs.put("TX_POWER_LEVEL", findViewById(R.id.editTxPowerLevel));
         switchAutoImageThumbnails = findViewById(R.id.switchAutoImageThumbnails);
@@ -115,13 +124,22 @@ public class SettingsActivity extends BaseActivity {
         defaultValues.put("ADVERTISING_DURATION_MS", 900);
         defaultValues.put("DELAY_BETWEEN_CHUNKS_MS", 1000);
         defaultValues.put("CHUNK_TIMEOUT_MS", 300000);
-        defaultValues.put("CHUNK_CLEANUP_INTERVAL_MS", 60000);
         defaultValues.put("MAX_RECENT_MESSAGES", 1000);
         defaultValues.put("MAX_RECENT_CHUNKS", 2000);
         defaultValues.put("MAX_MESSAGE_SAVED", 2000);
+        defaultValues.put("MAX_MESSAGES_PER_CHAT", 0);
+        defaultValues.put("MESSAGE_MAX_AGE_DAYS", 0);
 
         defaultValues.put("BROADCAST_ROUNDS", 3);
+        defaultValues.put("FEC_PARITY_PERCENT", 0);
+        defaultValues.put("COMPACT_HEADERS", 0);
+        defaultValues.put("SEALED_MESSAGES", 0);
+        defaultValues.put("RELAY_HOPS", 0);
+        defaultValues.put("SYNC_INTERVAL", 0);
+        defaultValues.put("EXTENDED_ADVERTISING", 1);
+        defaultValues.put("PERSISTENT_ADVERTISING", 1);
         defaultValues.put("SCAN_MODE", 2);
+        defaultValues.put("SCAN_REPORT_DELAY", 0);
         defaultValues.put("ADVERTISE_MODE", 2);
         defaultValues.put("TX_POWER_LEVEL", 3);
 
@@ -183,6 +201,78 @@ public class SettingsActivity extends BaseActivity {
                         }
                     }
 
+                    if (key.equals("FEC_PARITY_PERCENT")) {
+                        if (value < 0 || value > 200) {
+                            Toast.makeText(this, "FEC Parity must be between 0-200", Toast.LENGTH_SHORT).show();
+                            hasError = true;
+                            break;
+                        }
+                    }
+
+                    if (key.equals("COMPACT_HEADERS")) {
+                        if (value < 0 || value > 1) {
+                            Toast.makeText(this, "Compact Headers must be 0 or 1", Toast.LENGTH_SHORT).show();
+                            hasError = true;
+                            break;
+                        }
+                    }
+
+                    if (key.equals("SEALED_MESSAGES")) {
+                        if (value < 0 || value > 1) {
+                            Toast.makeText(this, "Sealed Messages must be 0 or 1", Toast.LENGTH_SHORT).show();
+                            hasError = true;
+                            break;
+                        }
+                    }
+
+                    if (key.equals("RELAY_HOPS")) {
+                        if (value < 0 || value > 7) {
+                            Toast.makeText(this, "Relay Hops must be between 0-7", Toast.LENGTH_SHORT).show();
+                            hasError = true;
+                            break;
+                        }
+                    }
+
+                    if (key.equals("SYNC_INTERVAL")) {
+                        if (value < 0 || value > 3600) {
+                            Toast.makeText(this, "Sync Interval must be between 0-3600", Toast.LENGTH_SHORT).show();
+                            hasError = true;
+                            break;
+                        }
+                    }
+
+                    if (key.equals("EXTENDED_ADVERTISING")) {
+                        if (value < 0 || value > 1) {
+                            Toast.makeText(this, "Extended Advertising must be 0 or 1", Toast.LENGTH_SHORT).show();
+                            hasError = true;
+                            break;
+                        }
+                    }
+
+                    if (key.equals("PERSISTENT_ADVERTISING")) {
+                        if (value < 0 || value > 1) {
+                            Toast.makeText(this, "Persistent Advertising must be 0 or 1", Toast.LENGTH_SHORT).show();
+                            hasError = true;
+                            break;
+                        }
+                    }
+
+                    if (key.equals("MAX_MESSAGES_PER_CHAT") || key.equals("MESSAGE_MAX_AGE_DAYS")) {
+                        if (value < 0) {
+                            Toast.makeText(this, key + " must be 0 or more", Toast.LENGTH_SHORT).show();
+                            hasError = true;
+                            break;
+                        }
+                    }
+
+                    if (key.equals("SCAN_REPORT_DELAY")) {
+                        if (value < 0 || value > 10000) {
+                            Toast.makeText(this, "Scan Batching must be between 0-10000", Toast.LENGTH_SHORT).show();
+                            hasError = true;
+                            break;
+                        }
+                    }
+
                     if (key.equals("SCAN_MODE") || key.equals("ADVERTISE_MODE")) {
                         if (value < 0 || value > 2) {
                             Toast.makeText(this, key + " must be between 0-2", Toast.LENGTH_SHORT).show();
@@ -226,13 +316,22 @@ public class SettingsActivity extends BaseActivity {
         settingInputs.get("ADVERTISING_DURATION_MS").setText("900");
         settingInputs.get("DELAY_BETWEEN_CHUNKS_MS").setText("1000");
         settingInputs.get("CHUNK_TIMEOUT_MS").setText("300000");
-        settingInputs.get("CHUNK_CLEANUP_INTERVAL_MS").setText("60000");
         settingInputs.get("MAX_RECENT_MESSAGES").setText("1000");
         settingInputs.get("MAX_RECENT_CHUNKS").setText("2000");
         settingInputs.get("MAX_MESSAGE_SAVED").setText("2000");
+        settingInputs.get("MAX_MESSAGES_PER_CHAT").setText("0");
+        settingInputs.get("MESSAGE_MAX_AGE_DAYS").setText("0");
 
         settingInputs.get("BROADCAST_ROUNDS").setText("3");
+        settingInputs.get("FEC_PARITY_PERCENT").setText("0");
+        settingInputs.get("COMPACT_HEADERS").setText("0");
+        settingInputs.get("SEALED_MESSAGES").setText("0");
+        settingInputs.get("RELAY_HOPS").setText("0");
+        settingInputs.get("SYNC_INTERVAL").setText("0");
+        settingInputs.get("EXTENDED_ADVERTISING").setText("1");
+        settingInputs.get("PERSISTENT_ADVERTISING").setText("1");
         settingInputs.get("SCAN_MODE").setText("2");
+        settingInputs.get("SCAN_REPORT_DELAY").setText("0");
         settingInputs.get("ADVERTISE_MODE").setText("2");
         settingInputs.get("TX_POWER_LEVEL").setText("3");
 
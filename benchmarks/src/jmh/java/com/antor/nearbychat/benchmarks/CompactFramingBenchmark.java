@@ -0,0 +1,85 @@
+package com.antor.nearbychat.benchmarks;
+
+import com.antor.nearbychat.Message.MessageConverterForBle;
+import com.antor.nearbychat.Message.MessageHelper;
+import com.antor.nearbychat.PayloadCompress;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Encoding of realistic message sizes with and without compact framing.
+ * Besides the encode rate, the aux counters report chunks and on-air bytes
+ * per message, which is what compact framing is for.
+ */
+@State(Scope.Benchmark)
+public class CompactFramingBenchmark {
+
+    private static final String FILLER = "rain coming from the west, move the tents to the hall and keep the "
+            + "north door shut. Water at the school yard from 6, bring bottles! Road to the bridge is out; "
+            + "use the hill path (20 min). Ask for Sam at the gate if lost, phone 0171-555-0199. ";
+
+    /** Message text length in characters. */
+    @Param({"30", "100", "160", "250", "400"})
+    public int textLength;
+
+    /** N = Nearby (plain), G = group (encrypted). */
+    @Param({"N", "G"})
+    public String chatType;
+
+    @Param({"false", "true"})
+    public boolean compact;
+
+    @Param({"27"})
+    public int maxPayloadSize;
+
+    private BenchContext context;
+    private String payload;
+    private String chatId;
+    private String senderDisplayId;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Airtime {
+        public long messages;
+        public long chunks;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            messages = 0;
+            chunks = 0;
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        context = new BenchContext();
+        StringBuilder text = new StringBuilder();
+        while (text.length() < textLength) text.append(FILLER);
+        payload = PayloadCompress.buildPayload(text.substring(0, textLength), "", "");
+        chatId = "G".equals(chatType) ? MessageConverterBenchmark.GROUP_ID : "";
+        senderDisplayId = MessageHelper.timestampToDisplayId(MessageConverterBenchmark.SENDER_ID_BITS);
+    }
+
+    @Benchmark
+    public List<byte[]> encode(Airtime airtime) {
+        MessageConverterForBle converter = new MessageConverterForBle(context, payload, chatType, chatId,
+                senderDisplayId, MessageConverterBenchmark.SENDER_ID_BITS, maxPayloadSize);
+        converter.setCompactHeaders(compact);
+        converter.process();
+        List<byte[]> packets = converter.getBlePacketsToSend();
+        airtime.messages++;
+        airtime.chunks += packets.size();
+        for (byte[] packet : packets) airtime.bytes += packet.length;
+        return packets;
+    }
+}
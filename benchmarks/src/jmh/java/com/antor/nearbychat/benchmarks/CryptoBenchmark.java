@@ -0,0 +1,67 @@
+package com.antor.nearbychat.benchmarks;
+
+import com.antor.nearbychat.CryptoUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+
+@State(Scope.Thread)
+public class CryptoBenchmark {
+
+    /** One legacy advert chunk and a long multi-chunk stream. */
+    @Param({"14", "160"})
+    public int length;
+
+    private CryptoUtils.ChatKey key;
+    private String text;
+    private String encryptedText;
+    private byte[] plain;
+    private byte[] sealed;
+    private byte[] buffer;
+
+    @Setup
+    public void setup() {
+        key = CryptoUtils.deriveKey(MessageConverterBenchmark.GROUP_ID);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) sb.append(PayloadCompressBenchmark.LONG_TEXT);
+        text = sb.substring(0, length);
+        encryptedText = CryptoUtils.encrypt(text, key);
+        plain = text.getBytes(StandardCharsets.ISO_8859_1);
+        buffer = new byte[length + CryptoUtils.TAG_LENGTH];
+        sealed = new byte[length + CryptoUtils.TAG_LENGTH];
+        System.arraycopy(plain, 0, sealed, 0, length);
+        CryptoUtils.seal(key, 0x10, MessageConverterBenchmark.SENDER_ID_BITS, 1L, sealed, 0, 0, length);
+    }
+
+    @Benchmark
+    public String encryptLegacy() {
+        return CryptoUtils.encrypt(text, key);
+    }
+
+    @Benchmark
+    public String decryptLegacy() {
+        return CryptoUtils.decrypt(encryptedText, key);
+    }
+
+    @Benchmark
+    public byte[] encryptLegacyBytes() {
+        return CryptoUtils.encrypt(plain, 0, length, key);
+    }
+
+    @Benchmark
+    public int seal() {
+        System.arraycopy(plain, 0, buffer, 0, length);
+        return CryptoUtils.seal(key, 0x10, MessageConverterBenchmark.SENDER_ID_BITS, 1L, buffer, 0, 0, length);
+    }
+
+    @Benchmark
+    public boolean open() {
+        System.arraycopy(sealed, 0, buffer, 0, buffer.length);
+        return CryptoUtils.open(key, 0x10, MessageConverterBenchmark.SENDER_ID_BITS, 1L, buffer, 0, 0, buffer.length);
+    }
+}
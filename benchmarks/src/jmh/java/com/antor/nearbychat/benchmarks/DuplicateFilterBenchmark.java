@@ -0,0 +1,87 @@
+package com.antor.nearbychat.benchmarks;
+
+import android.util.LruCache;
+
+import com.antor.nearbychat.Message.DuplicateFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * One duplicate check per operation over a stream where every packet is
+ * heard three times, as with three broadcast rounds. {@code lruCachePair}
+ * is the scheme DuplicateFilter replaced: a header-hex key and an
+ * Arrays.toString key in two LruCache<String, Boolean>.
+ */
+@State(Scope.Thread)
+public class DuplicateFilterBenchmark {
+
+    private static final long WINDOW_MS = 10 * 60 * 1000;
+    private static final int HEADER_KEY_LENGTH = 13;
+
+    /** max(2000, heap / 100 KB) on a 256 MB heap, as BleMessagingService sizes it. */
+    @Param({"2621"})
+    public int capacity;
+
+    @Param({"27"})
+    public int packetSize;
+
+    private byte[][] stream;
+    private int next = 0;
+    private long now = 0;
+
+    private DuplicateFilter filter;
+    private LruCache<String, Boolean> receivedChunks;
+    private LruCache<String, Boolean> receivedMessages;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        int unique = capacity * 20;
+        stream = new byte[unique * 3][];
+        for (int i = 0; i < unique; i++) {
+            byte[] packet = new byte[packetSize];
+            random.nextBytes(packet);
+            stream[3 * i] = packet;
+            stream[3 * i + 1] = packet.clone();
+            stream[3 * i + 2] = packet.clone();
+        }
+        filter = new DuplicateFilter(capacity, WINDOW_MS, now);
+        receivedChunks = new LruCache<>(capacity);
+        receivedMessages = new LruCache<>(2000);
+    }
+
+    private byte[] nextPacket() {
+        byte[] packet = stream[next];
+        next = next + 1 == stream.length ? 0 : next + 1;
+        now++;
+        return packet;
+    }
+
+    @Benchmark
+    public boolean duplicateFilter() {
+        return filter.checkAndAdd(nextPacket(), now);
+    }
+
+    @Benchmark
+    public boolean lruCachePair() {
+        byte[] data = nextPacket();
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < Math.min(HEADER_KEY_LENGTH, data.length); i++) {
+            key.append(String.format("%02x", data[i]));
+        }
+        String chunkKey = key.toString();
+        if (receivedChunks.get(chunkKey) != null) return true;
+        receivedChunks.put(chunkKey, true);
+        String messageKey = Arrays.toString(data);
+        if (receivedMessages.get(messageKey) != null) return true;
+        receivedMessages.put(messageKey, true);
+        return false;
+    }
+}
@@ -0,0 +1,56 @@
+package com.antor.nearbychat.benchmarks;
+
+import com.antor.nearbychat.Message.MessageConverterForBle;
+import com.antor.nearbychat.Message.MessageHelper;
+import com.antor.nearbychat.PayloadCompress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class MessageConverterBenchmark {
+
+    static final long SENDER_ID_BITS = 0x12_3456_789AL;
+    static final String GROUP_ID = MessageHelper.timestampToAsciiId(0x00_CAFE_BABEL);
+
+    /** N = Nearby (plain), G = group (encrypted). */
+    @Param({"N", "G"})
+    public String chatType;
+
+    @Param({"short", "long"})
+    public String length;
+
+    @Param({"27"})
+    public int maxPayloadSize;
+
+    @Param({"0", "50"})
+    public int parityPercent;
+
+    private BenchContext context;
+    private String payload;
+    private String chatId;
+    private String senderDisplayId;
+
+    @Setup
+    public void setup() {
+        context = new BenchContext();
+        String text = "short".equals(length) ? PayloadCompressBenchmark.SHORT_TEXT : PayloadCompressBenchmark.LONG_TEXT;
+        payload = PayloadCompress.buildPayload(text, "", "");
+        chatId = "G".equals(chatType) ? GROUP_ID : "";
+        senderDisplayId = MessageHelper.timestampToDisplayId(SENDER_ID_BITS);
+    }
+
+    @Benchmark
+    public List<byte[]> process() {
+        MessageConverterForBle converter = new MessageConverterForBle(context, payload, chatType, chatId,
+                senderDisplayId, SENDER_ID_BITS, maxPayloadSize);
+        converter.setParityPercent(parityPercent);
+        converter.process();
+        return converter.getBlePacketsToSend();
+    }
+}
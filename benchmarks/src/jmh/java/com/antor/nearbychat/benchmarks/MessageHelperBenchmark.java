@@ -0,0 +1,55 @@
+package com.antor.nearbychat.benchmarks;
+
+import com.antor.nearbychat.Message.MessageHelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+public class MessageHelperBenchmark {
+
+    private long idBits;
+    private String asciiId;
+    private String displayId;
+    private final byte[] packet = new byte[13];
+
+    @Setup
+    public void setup() {
+        idBits = MessageConverterBenchmark.SENDER_ID_BITS;
+        asciiId = MessageHelper.timestampToAsciiId(idBits);
+        displayId = MessageHelper.timestampToDisplayId(idBits);
+        MessageHelper.putId40(packet, 1, idBits);
+    }
+
+    @Benchmark
+    public String timestampToAsciiId() {
+        return MessageHelper.timestampToAsciiId(idBits);
+    }
+
+    @Benchmark
+    public long asciiIdToTimestamp() {
+        return MessageHelper.asciiIdToTimestamp(asciiId);
+    }
+
+    @Benchmark
+    public String timestampToDisplayId() {
+        return MessageHelper.timestampToDisplayId(idBits);
+    }
+
+    @Benchmark
+    public long displayIdToTimestamp() {
+        return MessageHelper.displayIdToTimestamp(displayId);
+    }
+
+    @Benchmark
+    public long readId40() {
+        return MessageHelper.readId40(packet, 1);
+    }
+
+    @Benchmark
+    public long reconstructFullTimestamp() {
+        return MessageHelper.reconstructFullTimestamp(idBits);
+    }
+}
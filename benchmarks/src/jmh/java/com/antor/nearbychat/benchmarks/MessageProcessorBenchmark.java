@@ -0,0 +1,106 @@
+package com.antor.nearbychat.benchmarks;
+
+import com.antor.nearbychat.Message.MessageConverterForBle;
+import com.antor.nearbychat.Message.MessageHelper;
+import com.antor.nearbychat.Message.MessageProcessor;
+import com.antor.nearbychat.MessageModel;
+import com.antor.nearbychat.PayloadCompress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Ingest of one whole message per operation. The processor drops chunks of
+ * messages it has recently completed, so operations cycle through
+ * {@value #VARIANTS} copies of the message under distinct ids, more than it
+ * remembers.
+ */
+@State(Scope.Thread)
+public class MessageProcessorBenchmark {
+
+    static final long RECEIVER_ID_BITS = 0x00_0BAD_F00DL;
+    static final int VARIANTS = 4096;
+
+    @Param({"N", "G"})
+    public String chatType;
+
+    private ExecutorService executor;
+    private MessageProcessor processor;
+    private String myDisplayId;
+    private byte[][][] inOrder;
+    private byte[][][] reversed;
+    private byte[][][] duplicated;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        BenchContext context = new BenchContext();
+        String payload = PayloadCompress.buildPayload(PayloadCompressBenchmark.LONG_TEXT, "", "");
+        String chatId = "G".equals(chatType) ? MessageConverterBenchmark.GROUP_ID : "";
+        inOrder = new byte[VARIANTS][][];
+        reversed = new byte[VARIANTS][][];
+        duplicated = new byte[VARIANTS][][];
+        for (int v = 0; v < VARIANTS; v++) {
+            MessageModel model = new MessageModel(
+                    MessageHelper.timestampToDisplayId(MessageConverterBenchmark.SENDER_ID_BITS), payload, true, "",
+                    MessageConverterBenchmark.SENDER_ID_BITS, 0x01_0000_0000L + v);
+            model.setChatType(chatType);
+            model.setChatId(chatId);
+            MessageConverterForBle converter = new MessageConverterForBle(context, model, 27);
+            converter.process();
+            List<byte[]> packets = converter.getBlePacketsToSend();
+
+            int n = packets.size();
+            inOrder[v] = packets.toArray(new byte[0][]);
+            reversed[v] = new byte[n][];
+            duplicated[v] = new byte[2 * n - 1][];
+            for (int i = 0; i < n; i++) {
+                reversed[v][i] = inOrder[v][n - 1 - i];
+                // Every chunk but the last twice in a row; the last completes the message.
+                duplicated[v][2 * i] = inOrder[v][i];
+                if (i < n - 1) duplicated[v][2 * i + 1] = inOrder[v][i];
+            }
+        }
+
+        executor = Executors.newSingleThreadExecutor();
+        myDisplayId = MessageHelper.timestampToDisplayId(RECEIVER_ID_BITS);
+        processor = new MessageProcessor(context, executor, myDisplayId);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private void feed(byte[][][] variants, Blackhole bh) {
+        byte[][] packets = variants[next];
+        next = next + 1 == VARIANTS ? 0 : next + 1;
+        for (byte[] packet : packets) {
+            bh.consume(processor.processIncomingData(packet, myDisplayId));
+        }
+    }
+
+    @Benchmark
+    public void inOrder(Blackhole bh) {
+        feed(inOrder, bh);
+    }
+
+    @Benchmark
+    public void outOfOrder(Blackhole bh) {
+        feed(reversed, bh);
+    }
+
+    @Benchmark
+    public void withDuplicates(Blackhole bh) {
+        feed(duplicated, bh);
+    }
+}
@@ -0,0 +1,187 @@
+package com.antor.nearbychat.benchmarks;
+
+import com.antor.nearbychat.Database.MessageDao;
+import com.antor.nearbychat.Database.MessageEntity;
+import com.antor.nearbychat.Database.MessageWriter;
+import com.antor.nearbychat.Message.MessageHelper;
+import com.antor.nearbychat.MessageModel;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persisting a burst of received chunks into a fresh SQLite messages table:
+ * {@value #MESSAGES} messages of {@value #CHUNKS} chunks,
+ * {@value #IN_FLIGHT} at a time interleaved, each chunk delivered as the
+ * partial or complete model MessageProcessor returns for it. The primary
+ * score is chunk events per second; the aux counters are rows inserted and
+ * table invalidations (write commits, each of which re-runs every LiveData
+ * query on the table) per second of that work.
+ * <p>
+ * {@code perCallWrites} is the sequence addMessage ran before
+ * MessageWriter, every DAO call committing on its own; its per-insert
+ * cleanup thread is left out. {@code messageWriter} saves through the
+ * writer; its flush runs once per {@code arrivalPerSecond} x 20 ms of
+ * chunks, so at that arrival rate the invalidations per second on the
+ * device are invalidations per event x {@code arrivalPerSecond}.
+ */
+@State(Scope.Thread)
+public class MessageWriterBenchmark {
+
+    static final int MESSAGES = 300;
+    static final int CHUNKS = 10;
+    static final int IN_FLIGHT = 10;
+    static final int EVENTS = MESSAGES * CHUNKS;
+    private static final long WRITE_BEHIND_MS = 20;
+
+    private List<MessageModel> burst;
+    private File file;
+    private SqliteMessageDao sqlite;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Writes {
+        public long inserts;
+        public long invalidations;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            inserts = 0;
+            invalidations = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Arrival {
+        /** Chunks per second reaching the writer. */
+        @Param({"1000", "5000"})
+        public int arrivalPerSecond;
+    }
+
+    /** Runs whatever the writer scheduled when the benchmark says its delay is up. */
+    private static final class VirtualClock extends ScheduledThreadPoolExecutor {
+        private final List<Runnable> due = new ArrayList<>();
+
+        VirtualClock() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            due.add(command);
+            return null;
+        }
+
+        void advance() {
+            for (Runnable command : due) command.run();
+            due.clear();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        burst = new ArrayList<>(EVENTS);
+        for (int first = 0; first < MESSAGES; first += IN_FLIGHT) {
+            for (int chunk = 0; chunk < CHUNKS; chunk++) {
+                for (int message = first; message < first + IN_FLIGHT; message++) {
+                    burst.add(event(message, chunk));
+                }
+            }
+        }
+    }
+
+    private static MessageModel event(int message, int received) {
+        long senderIdBits = 0x10_0000_0000L + message % 30;
+        long messageIdBits = 0x01_0000_0000L + message;
+        boolean complete = received == CHUNKS - 1;
+        String text = complete
+                ? "message " + message + " from the burst, long enough to have needed ten chunks on air"
+                : "Receiving Chunk (" + (received + 1) + "/" + CHUNKS + ")";
+        MessageModel msg = new MessageModel(MessageHelper.timestampToDisplayId(senderIdBits), text, false,
+                "12:00 PM | " + CHUNKS, senderIdBits, messageIdBits);
+        msg.setMessageId(MessageHelper.timestampToDisplayId(messageIdBits));
+        msg.setChunkCount(CHUNKS);
+        msg.setIsComplete(complete);
+        msg.setChatType("N");
+        msg.setChatId("");
+        List<Integer> missing = new ArrayList<>();
+        for (int i = received + 1; i < CHUNKS; i++) missing.add(i);
+        msg.setMissingChunks(missing);
+        return msg;
+    }
+
+    @Setup(Level.Invocation)
+    public void openDatabase() throws IOException, SQLException {
+        file = File.createTempFile("messages", ".db");
+        sqlite = new SqliteMessageDao(file);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeDatabase() throws SQLException {
+        sqlite.close();
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    private void count(Writes writes) {
+        writes.inserts += sqlite.getInserts();
+        writes.invalidations += sqlite.getInvalidations();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void perCallWrites(Writes writes) {
+        MessageDao dao = sqlite.dao();
+        for (MessageModel msg : burst) {
+            if (msg.isComplete()) {
+                if (dao.partialMessageExists(msg.getSenderId(), msg.getMessageId()) > 0) {
+                    dao.deletePartialMessage(msg.getSenderId(), msg.getMessageId());
+                }
+                if (dao.messageExists(msg.getSenderId(), msg.getMessage(), msg.getTimestamp()) == 0) {
+                    dao.insertMessage(MessageEntity.fromMessageModel(msg));
+                }
+            } else if (dao.partialMessageExists(msg.getSenderId(), msg.getMessageId()) > 0) {
+                dao.updatePartialMessage(msg.getSenderId(), msg.getMessageId(), msg.getMessage());
+            } else {
+                dao.insertMessage(MessageEntity.fromMessageModel(msg));
+            }
+        }
+        count(writes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void messageWriter(Arrival arrival, Writes writes) {
+        VirtualClock clock = new VirtualClock();
+        MessageWriter writer = new MessageWriter(sqlite.dao(), WRITE_BEHIND_MS, inserted -> { }, clock);
+        int chunksPerFlush = (int) (arrival.arrivalPerSecond * WRITE_BEHIND_MS / 1000);
+        int sinceFlush = 0;
+        for (MessageModel msg : burst) {
+            writer.save(msg);
+            if (++sinceFlush == chunksPerFlush) {
+                clock.advance();
+                sinceFlush = 0;
+            }
+        }
+        clock.advance();
+        clock.shutdown();
+        count(writes);
+    }
+}
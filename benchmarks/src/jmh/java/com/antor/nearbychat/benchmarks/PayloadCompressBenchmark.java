@@ -0,0 +1,65 @@
+package com.antor.nearbychat.benchmarks;
+
+import com.antor.nearbychat.PayloadCompress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+public class PayloadCompressBenchmark {
+
+    static final String SHORT_TEXT = "hey, anyone near the north gate? meet at 5.";
+    static final String LONG_TEXT = "The shuttle is running late again, so we moved the meetup to the cafe "
+            + "next to the library. Bring the printed handouts (20 copies) and ping me on arrival!";
+    static final String IMAGE_URLS = "https://i.imgur.com/a1B2c3D.jpg,https://i.imgur.com/Zz9Yy8X.png";
+    static final String VIDEO_URLS = "https://youtu.be/dQw4w9WgXcQ";
+    static final String JSON_URL = "https://api.example.com/v1/rooms/42/messages?since=1700000000";
+
+    private String payload;
+    private String compressedUrl;
+    private String simplifiedLinks;
+
+    @Setup
+    public void setup() {
+        payload = PayloadCompress.buildPayload(LONG_TEXT, IMAGE_URLS, VIDEO_URLS);
+        compressedUrl = PayloadCompress.compressJsonUrl5Bit(JSON_URL);
+        simplifiedLinks = PayloadCompress.simplifyLinks(IMAGE_URLS);
+    }
+
+    @Benchmark
+    public String buildPayloadShort() {
+        return PayloadCompress.buildPayload(SHORT_TEXT, "", "");
+    }
+
+    @Benchmark
+    public String buildPayloadWithLinks() {
+        return PayloadCompress.buildPayload(LONG_TEXT, IMAGE_URLS, VIDEO_URLS);
+    }
+
+    @Benchmark
+    public PayloadCompress.ParsedPayload parsePayload() {
+        return PayloadCompress.parsePayload(payload);
+    }
+
+    @Benchmark
+    public String compressJsonUrl() {
+        return PayloadCompress.compressJsonUrl5Bit(JSON_URL);
+    }
+
+    @Benchmark
+    public String decompressJsonUrl() {
+        return PayloadCompress.decompressJsonUrl5Bit(compressedUrl);
+    }
+
+    @Benchmark
+    public String compressLink() {
+        return PayloadCompress.compressLink(PayloadCompress.simplifyLinks(IMAGE_URLS));
+    }
+
+    @Benchmark
+    public String desimplifyLinks() {
+        return PayloadCompress.desimplifyLinks(simplifiedLinks);
+    }
+}
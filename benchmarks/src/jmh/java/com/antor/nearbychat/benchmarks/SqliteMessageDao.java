@@ -0,0 +1,230 @@
+package com.antor.nearbychat.benchmarks;
+
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.Index;
+import androidx.room.Insert;
+import androidx.room.PrimaryKey;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import com.antor.nearbychat.Database.MessageDao;
+import com.antor.nearbychat.Database.MessageEntity;
+
+import java.io.File;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link MessageDao} over a SQLite file, standing in for the generated Room
+ * implementation: the table and indices come from {@link MessageEntity}'s
+ * annotations and each {@code @Query} runs its own SQL. Like Room, every
+ * write outside a transaction commits on its own and a {@code @Transaction}
+ * method commits once; each commit that changed rows is counted as one
+ * invalidation, since that is when Room refreshes the LiveData observing
+ * the table. Methods returning rows are not needed by the write path and
+ * are not supported.
+ */
+public final class SqliteMessageDao implements InvocationHandler {
+
+    private static final Pattern NAMED_PARAMETER = Pattern.compile(":(\\w+)");
+
+    private final Connection connection;
+    private final MessageDao dao;
+    private final Map<Method, PreparedStatement> statements = new HashMap<>();
+    private final Map<Method, List<Integer>> bindings = new HashMap<>();
+    private final List<Field> columns = new ArrayList<>();
+    private final String tableName;
+    private final PreparedStatement insert;
+    private int depth = 0;
+    private boolean changed = false;
+
+    private long inserts = 0;
+    private long invalidations = 0;
+
+    /** WAL with synchronous=FULL, the journal Room opens on the device. */
+    public SqliteMessageDao(File file) throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        Entity entity = MessageEntity.class.getAnnotation(Entity.class);
+        tableName = entity.tableName();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode=WAL");
+            statement.execute("PRAGMA synchronous=FULL");
+            statement.execute(createTable());
+            for (Index index : entity.indices()) {
+                String name = "index_" + tableName + "_" + String.join("_", index.value());
+                statement.execute("CREATE INDEX IF NOT EXISTS " + name + " ON " + tableName
+                        + " (" + String.join(", ", index.value()) + ")");
+            }
+        }
+        List<String> names = new ArrayList<>();
+        for (Field column : columns) names.add(column.getName());
+        insert = connection.prepareStatement("INSERT INTO " + tableName + " (" + String.join(", ", names)
+                + ") VALUES (" + String.join(", ", Collections.nCopies(names.size(), "?")) + ")");
+        dao = (MessageDao) Proxy.newProxyInstance(MessageDao.class.getClassLoader(),
+                new Class<?>[]{MessageDao.class}, this);
+    }
+
+    public MessageDao dao() {
+        return dao;
+    }
+
+    /** Rows added by {@code @Insert}. */
+    public long getInserts() {
+        return inserts;
+    }
+
+    /** Committed transactions that changed the table. */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    public void close() throws SQLException {
+        connection.close();
+    }
+
+    /** Columns are the entity's public fields; an auto-generated key is left out of inserts. */
+    private String createTable() {
+        List<String> definitions = new ArrayList<>();
+        for (Field field : MessageEntity.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.isAnnotationPresent(Ignore.class)) continue;
+            String definition = field.getName() + (field.getType() == String.class ? " TEXT" : " INTEGER");
+            if (field.getType().isPrimitive()) definition += " NOT NULL";
+            PrimaryKey key = field.getAnnotation(PrimaryKey.class);
+            if (key != null) definition += key.autoGenerate() ? " PRIMARY KEY AUTOINCREMENT" : " PRIMARY KEY";
+            if (key == null || !key.autoGenerate()) columns.add(field);
+            definitions.add(definition);
+        }
+        return "CREATE TABLE IF NOT EXISTS " + tableName + " (" + String.join(", ", definitions) + ")";
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals": return proxy == args[0];
+                case "hashCode": return System.identityHashCode(proxy);
+                default: return "SqliteMessageDao(" + tableName + ")";
+            }
+        }
+        if (depth > 0) return call(proxy, method, args);
+        // A single statement commits on its own, as Room runs it; a @Transaction method commits once.
+        boolean transaction = method.isAnnotationPresent(Transaction.class);
+        changed = false;
+        if (transaction) connection.setAutoCommit(false);
+        boolean completed = false;
+        try {
+            Object result = call(proxy, method, args);
+            completed = true;
+            return result;
+        } finally {
+            if (transaction) {
+                if (completed) {
+                    connection.commit();
+                } else {
+                    connection.rollback();
+                }
+                connection.setAutoCommit(true);
+            }
+            if (completed && changed) invalidations++;
+        }
+    }
+
+    private Object call(Object proxy, Method method, Object[] args) throws Throwable {
+        depth++;
+        try {
+            if (method.isDefault()) {
+                if (!method.isAnnotationPresent(Transaction.class)) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                return MethodHandles.privateLookupIn(MessageDao.class, MethodHandles.lookup())
+                        .unreflectSpecial(method, MessageDao.class)
+                        .bindTo(proxy)
+                        .invokeWithArguments(args);
+            }
+            if (method.isAnnotationPresent(Insert.class)) return insert((MessageEntity) args[0]);
+            return query(method, args);
+        } finally {
+            depth--;
+        }
+    }
+
+    private Object insert(MessageEntity entity) throws SQLException, IllegalAccessException {
+        for (int i = 0; i < columns.size(); i++) {
+            insert.setObject(i + 1, columns.get(i).get(entity));
+        }
+        insert.executeUpdate();
+        inserts++;
+        changed = true;
+        return null;
+    }
+
+    private Object query(Method method, Object[] args) throws SQLException {
+        PreparedStatement statement = statements.get(method);
+        if (statement == null) {
+            statement = prepare(method);
+        }
+        List<Integer> order = bindings.get(method);
+        for (int i = 0; i < order.size(); i++) {
+            statement.setObject(i + 1, args[order.get(i)]);
+        }
+        Class<?> returnType = method.getReturnType();
+        if (statement.execute()) {
+            try (ResultSet rows = statement.getResultSet()) {
+                if (returnType != int.class && returnType != long.class) {
+                    throw new UnsupportedOperationException(method.getName() + " returns rows");
+                }
+                long value = rows.next() ? rows.getLong(1) : 0;
+                return returnType == int.class ? (Object) (int) value : (Object) value;
+            }
+        }
+        int count = statement.getUpdateCount();
+        if (count > 0) changed = true;
+        if (returnType == void.class) return null;
+        return returnType == long.class ? (Object) (long) count : (Object) count;
+    }
+
+    /** Rewrites {@code :name} to positional parameters; needs classes compiled with -parameters. */
+    private PreparedStatement prepare(Method method) throws SQLException {
+        Parameter[] parameters = method.getParameters();
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < parameters.length; i++) {
+            if (!parameters[i].isNamePresent()) {
+                throw new IllegalStateException("MessageDao must be compiled with -parameters");
+            }
+            index.put(parameters[i].getName(), i);
+        }
+        List<Integer> order = new ArrayList<>();
+        Matcher matcher = NAMED_PARAMETER.matcher(method.getAnnotation(Query.class).value());
+        StringBuffer sql = new StringBuffer();
+        while (matcher.find()) {
+            Integer position = index.get(matcher.group(1));
+            if (position == null) throw new IllegalStateException(method.getName() + ": " + matcher.group());
+            order.add(position);
+            matcher.appendReplacement(sql, "?");
+        }
+        matcher.appendTail(sql);
+        PreparedStatement statement = connection.prepareStatement(sql.toString());
+        statements.put(method, statement);
+        bindings.put(method, order);
+        return statement;
+    }
+}
@@ -0,0 +1,11 @@
+package android.content;
+
+/** JVM stand-in for the parts of Context the benchmarked classes use. */
+public abstract class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract Context getApplicationContext();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+}
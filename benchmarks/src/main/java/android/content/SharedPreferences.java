@@ -0,0 +1,17 @@
+package android.content;
+
+/** JVM stand-in for the parts of SharedPreferences the benchmarked classes use. */
+public interface SharedPreferences {
+
+    interface OnSharedPreferenceChangeListener {
+        void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key);
+    }
+
+    String getString(String key, String defValue);
+
+    int getInt(String key, int defValue);
+
+    void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener);
+
+    void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener);
+}
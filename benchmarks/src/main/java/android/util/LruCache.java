@@ -0,0 +1,44 @@
+package android.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** JVM stand-in with the platform's layout: an access-ordered LinkedHashMap trimmed after each put. */
+public class LruCache<K, V> {
+
+    private final LinkedHashMap<K, V> map;
+    private final int maxSize;
+
+    public LruCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<>(0, 0.75f, true);
+    }
+
+    public final V get(K key) {
+        synchronized (this) {
+            return map.get(key);
+        }
+    }
+
+    public final V put(K key, V value) {
+        V previous;
+        synchronized (this) {
+            previous = map.put(key, value);
+        }
+        trimToSize(maxSize);
+        return previous;
+    }
+
+    public final synchronized int size() {
+        return map.size();
+    }
+
+    private void trimToSize(int size) {
+        synchronized (this) {
+            while (map.size() > size) {
+                Map.Entry<K, V> eldest = map.entrySet().iterator().next();
+                map.remove(eldest.getKey());
+            }
+        }
+    }
+}
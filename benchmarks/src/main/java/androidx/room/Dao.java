@@ -0,0 +1,9 @@
+package androidx.room;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/** JVM stand-in for the Room annotation. */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Dao {
+}
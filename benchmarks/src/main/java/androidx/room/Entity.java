@@ -0,0 +1,12 @@
+package androidx.room;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/** JVM stand-in, kept at runtime so a schema can be derived from the entity. */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Entity {
+    String tableName() default "";
+
+    Index[] indices() default {};
+}
@@ -0,0 +1,9 @@
+package androidx.room;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/** JVM stand-in, kept at runtime for a DAO proxy. */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Insert {
+}
@@ -0,0 +1,10 @@
+package androidx.room;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/** JVM stand-in, kept at runtime so a schema can be derived from the entity. */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface PrimaryKey {
+    boolean autoGenerate() default false;
+}
@@ -0,0 +1,10 @@
+package androidx.room;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/** JVM stand-in, kept at runtime so a DAO proxy can run the SQL. */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Query {
+    String value();
+}
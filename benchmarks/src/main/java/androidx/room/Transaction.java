@@ -0,0 +1,9 @@
+package androidx.room;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/** JVM stand-in, kept at runtime so a DAO proxy can see which methods run in one transaction. */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Transaction {
+}
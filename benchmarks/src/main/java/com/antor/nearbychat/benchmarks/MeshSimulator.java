@@ -0,0 +1,514 @@
+package com.antor.nearbychat.benchmarks;
+
+import com.antor.nearbychat.Message.DuplicateFilter;
+import com.antor.nearbychat.Message.MessageConverterForBle;
+import com.antor.nearbychat.Message.MessageHelper;
+import com.antor.nearbychat.Message.MessageProcessor;
+import com.antor.nearbychat.MessageModel;
+import com.antor.nearbychat.PayloadCompress;
+import com.antor.nearbychat.Radio.RadioTransport;
+import com.antor.nearbychat.Radio.SimulatedRadio;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless discrete-event simulation of a crowd of phones running the real
+ * send and receive pipeline: each node turns its messages into packets with
+ * {@link MessageConverterForBle} and feeds what it hears through a
+ * {@link DuplicateFilter} into its own {@link MessageProcessor}.
+ *
+ * The radio works in microseconds. A node puts one packet on air per slot,
+ * taking turns between queued messages like the transmit scheduler, and
+ * while a packet is up it sends an advertising event every advertising
+ * interval plus the 0-10 ms advDelay: the PDU on channels 37, 38 and 39, or
+ * for packets over the legacy limit three ADV_EXT_IND followed by one
+ * AUX_ADV_IND on a random secondary channel. Scanners listen on one primary
+ * channel per scan interval for the window of the scan mode, at a random
+ * phase. A PDU is received if the scanner was listening for all of it, was
+ * not transmitting itself, the signal after log-distance path loss and
+ * Gaussian shadowing is above sensitivity, and no overlapping PDU on the
+ * same channel comes within the capture margin.
+ *
+ * Everything random comes from one seeded {@link Random} and ties in the
+ * event queue are broken by insertion order, so a run is reproducible.
+ *
+ *   ./gradlew :benchmarks:simulate -PsimArgs="nodes=30 rounds=2 scanMode=1"
+ */
+public class MeshSimulator {
+
+    public static final class Config {
+        public int nodes = 20;
+        /** Side of the square the nodes are scattered over, in metres. */
+        public double areaMeters = 30;
+        public int messagesPerNode = 5;
+        /** Mean gap between two messages of one node; the first starts within one gap. */
+        public long meanGapMs = 20_000;
+        public int maxPayloadSize = 27;
+        public long advertisingDurationMs = 900;
+        public long slotMs = 1000;
+        public int broadcastRounds = 3;
+        public int parityPercent = 0;
+        /** 0 low power, 1 balanced, 2 low latency, as in the app settings. */
+        public int scanMode = 2;
+        public int advertiseMode = 2;
+        public int txPowerLevel = 3;
+        public double pathLossExponent = 2.7;
+        public double shadowingDb = 4;
+        public double sensitivityDbm = -92;
+        public double captureDb = 6;
+        /** Time after the last send is queued that receivers still get to finish. */
+        public long drainMs = 60_000;
+        public long seed = 1;
+
+        static Config parse(String[] args) {
+            Config c = new Config();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (eq <= 0) throw new IllegalArgumentException("Expected key=value: " + arg);
+                String key = arg.substring(0, eq);
+                String value = arg.substring(eq + 1);
+                switch (key) {
+                    case "nodes": c.nodes = Integer.parseInt(value); break;
+                    case "area": c.areaMeters = Double.parseDouble(value); break;
+                    case "messages": c.messagesPerNode = Integer.parseInt(value); break;
+                    case "gapMs": c.meanGapMs = Long.parseLong(value); break;
+                    case "payloadSize": c.maxPayloadSize = Integer.parseInt(value); break;
+                    case "advertisingDurationMs": c.advertisingDurationMs = Long.parseLong(value); break;
+                    case "slotMs": c.slotMs = Long.parseLong(value); break;
+                    case "rounds": c.broadcastRounds = Integer.parseInt(value); break;
+                    case "parity": c.parityPercent = Integer.parseInt(value); break;
+                    case "scanMode": c.scanMode = Integer.parseInt(value); break;
+                    case "advertiseMode": c.advertiseMode = Integer.parseInt(value); break;
+                    case "txPower": c.txPowerLevel = Integer.parseInt(value); break;
+                    case "pathLossExponent": c.pathLossExponent = Double.parseDouble(value); break;
+                    case "shadowingDb": c.shadowingDb = Double.parseDouble(value); break;
+                    case "sensitivityDbm": c.sensitivityDbm = Double.parseDouble(value); break;
+                    case "captureDb": c.captureDb = Double.parseDouble(value); break;
+                    case "drainMs": c.drainMs = Long.parseLong(value); break;
+                    case "seed": c.seed = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + key);
+                }
+            }
+            return c;
+        }
+    }
+
+    public static final class Report {
+        public long messagesSent;
+        public long expectedDeliveries;
+        public long deliveries;
+        public long corrupted;
+        public long deliveredBytes;
+        public long pdusSent;
+        public long airtimeMicros;
+        public long lostNotListening;
+        public long lostTransmitting;
+        public long lostWeakSignal;
+        public long lostCollision;
+        public long[] latenciesMs = new long[0];
+        public long simulatedMs;
+
+        public double deliveryRatio() {
+            return expectedDeliveries == 0 ? 0 : (double) deliveries / expectedDeliveries;
+        }
+
+        public double airtimeMicrosPerDeliveredByte() {
+            return deliveredBytes == 0 ? Double.NaN : (double) airtimeMicros / deliveredBytes;
+        }
+
+        public long latencyPercentileMs(double p) {
+            if (latenciesMs.length == 0) return -1;
+            int i = (int) Math.ceil(p / 100.0 * latenciesMs.length) - 1;
+            return latenciesMs[Math.max(0, Math.min(latenciesMs.length - 1, i))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "messages sent          %d%n"
+                            + "delivery ratio         %.4f (%d/%d, %d corrupted)%n"
+                            + "latency ms p50/p90/p99 %d / %d / %d (max %d)%n"
+                            + "airtime                %.1f ms, %d PDUs%n"
+                            + "airtime per byte       %.1f us (%d bytes delivered)%n"
+                            + "PDUs missed            not listening %d, transmitting %d, weak %d, collision %d%n"
+                            + "simulated              %.1f s",
+                    messagesSent, deliveryRatio(), deliveries, expectedDeliveries, corrupted,
+                    latencyPercentileMs(50), latencyPercentileMs(90), latencyPercentileMs(99),
+                    latencyPercentileMs(100),
+                    airtimeMicros / 1000.0, pdusSent,
+                    airtimeMicrosPerDeliveredByte(), deliveredBytes,
+                    lostNotListening, lostTransmitting, lostWeakSignal, lostCollision,
+                    simulatedMs / 1000.0);
+        }
+    }
+
+    public static void main(String[] args) {
+        Config config = Config.parse(args);
+        Report report = new MeshSimulator(config).run();
+        System.out.println(report);
+    }
+
+    private static final String[] TEXTS = {
+            "ok",
+            "on my way",
+            "anyone at the north gate?",
+            "meet at the cafe next to the library at 5, bring the handouts",
+            "The shuttle is running late again, so we moved the meetup to the cafe next to the library. "
+                    + "Bring the printed handouts (20 copies) and ping me on arrival!",
+    };
+
+    private static final long US_PER_MS = 1000;
+    private static final int PRIMARY_CHANNELS = 3;
+    private static final int SECONDARY_CHANNELS = 37;
+    /** Gap between the PDUs of one advertising event. */
+    private static final long INTER_PDU_US = 150;
+    /** Offset from the last ADV_EXT_IND to its AUX_ADV_IND. */
+    private static final long AUX_OFFSET_US = 300;
+    private static final long MAX_ADV_DELAY_US = 10_000;
+    /** Path loss at 1 m in the 2.4 GHz band. */
+    private static final double PATH_LOSS_1M_DB = 40;
+    private static final long ID_BASE = 0x10_0000_0000L;
+
+    private static final long[] ADVERTISE_INTERVAL_MS = {1000, 250, 100};
+    private static final long[] SCAN_WINDOW_MS = {512, 1024, 4096};
+    private static final long[] SCAN_INTERVAL_MS = {5120, 4096, 4096};
+    private static final int[] TX_POWER_DBM = {-21, -15, -7, 1};
+
+    private final Config config;
+    private final Random random;
+    private final BenchContext context = new BenchContext();
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final List<List<Pdu>> channels = new ArrayList<>();
+    private final Node[] nodes;
+    private final Map<Long, Sent> sent = new HashMap<>();
+    private final List<Long> latencies = new ArrayList<>();
+    private final Report report = new Report();
+    private final long advertiseIntervalUs;
+    private final long scanWindowUs;
+    private final long scanIntervalUs;
+    private final double txPowerDbm;
+    private long now = 0;
+    private long eventSeq = 0;
+    private long nextMessageId = 0;
+    private long maxPduUs = 0;
+
+    private static final class Sent {
+        final int sender;
+        final String payload;
+        final long queuedUs;
+        final int bytes;
+        final boolean[] deliveredTo;
+
+        Sent(int sender, String payload, long queuedUs, int bytes, int nodeCount) {
+            this.sender = sender;
+            this.payload = payload;
+            this.queuedUs = queuedUs;
+            this.bytes = bytes;
+            this.deliveredTo = new boolean[nodeCount];
+        }
+    }
+
+    private static final class Job {
+        final List<byte[]> packets;
+        final int totalSends;
+        int sends = 0;
+
+        Job(List<byte[]> packets, int rounds) {
+            this.packets = packets;
+            this.totalSends = packets.size() * rounds;
+        }
+    }
+
+    /** One PDU on one channel. */
+    private static final class Pdu {
+        final Node sender;
+        final AdvEvent event;
+        final int channel;
+        final boolean aux;
+        final long start;
+        final long end;
+
+        Pdu(Node sender, AdvEvent event, int channel, boolean aux, long start, long end) {
+            this.sender = sender;
+            this.event = event;
+            this.channel = channel;
+            this.aux = aux;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /** One advertising event; for extended packets, who caught an indication and may follow the AUX. */
+    private static final class AdvEvent {
+        final byte[] packet;
+        final boolean[] heardIndication;
+
+        AdvEvent(byte[] packet, boolean extended, int nodeCount) {
+            this.packet = packet;
+            this.heardIndication = extended ? new boolean[nodeCount] : null;
+        }
+    }
+
+    private final class Node {
+        final int index;
+        final double x;
+        final double y;
+        final long idBits;
+        final String displayId;
+        final MessageProcessor processor;
+        final DuplicateFilter duplicates;
+        final long scanPhaseUs;
+        final ArrayDeque<Job> queue = new ArrayDeque<>();
+        byte[] onAir;
+        long onAirUntil;
+        boolean pumping;
+        long lastTxStart = -1;
+        long lastTxEnd = -1;
+
+        Node(int index, ExecutorService executor) {
+            this.index = index;
+            this.x = random.nextDouble() * config.areaMeters;
+            this.y = random.nextDouble() * config.areaMeters;
+            this.idBits = ID_BASE + index + 1;
+            this.displayId = MessageHelper.timestampToDisplayId(idBits);
+            this.processor = new MessageProcessor(context, executor, displayId);
+            this.duplicates = new DuplicateFilter(2000, 10 * 60 * 1000, 0);
+            this.scanPhaseUs = (long) (random.nextDouble() * scanIntervalUs);
+        }
+
+        boolean listening(int channel, long start, long end) {
+            long t = start + scanPhaseUs;
+            long cycle = t / scanIntervalUs;
+            if ((int) (cycle % PRIMARY_CHANNELS) != channel) return false;
+            return end + scanPhaseUs <= cycle * scanIntervalUs + scanWindowUs;
+        }
+
+        /** The radio does not scan for the length of its own advertising event. */
+        boolean transmitting(long start, long end) {
+            return lastTxStart < end && start < lastTxEnd;
+        }
+    }
+
+    private abstract static class Event implements Comparable<Event> {
+        long time;
+        long seq;
+
+        abstract void fire();
+
+        @Override
+        public int compareTo(Event o) {
+            return time != o.time ? Long.compare(time, o.time) : Long.compare(seq, o.seq);
+        }
+    }
+
+    public MeshSimulator(Config config) {
+        this.config = config;
+        this.random = new Random(config.seed);
+        this.advertiseIntervalUs = ADVERTISE_INTERVAL_MS[clamp(config.advertiseMode, 0, 2)] * US_PER_MS;
+        this.scanWindowUs = SCAN_WINDOW_MS[clamp(config.scanMode, 0, 2)] * US_PER_MS;
+        this.scanIntervalUs = SCAN_INTERVAL_MS[clamp(config.scanMode, 0, 2)] * US_PER_MS;
+        this.txPowerDbm = TX_POWER_DBM[clamp(config.txPowerLevel, 0, 3)];
+        this.nodes = new Node[config.nodes];
+        for (int c = 0; c < PRIMARY_CHANNELS + SECONDARY_CHANNELS; c++) {
+            channels.add(new ArrayList<>());
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public Report run() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = new Node(i, executor);
+            }
+            long lastQueuedUs = 0;
+            for (Node node : nodes) {
+                long t = (long) (random.nextDouble() * config.meanGapMs * US_PER_MS);
+                for (int m = 0; m < config.messagesPerNode; m++) {
+                    String text = TEXTS[random.nextInt(TEXTS.length)];
+                    schedule(t, () -> queueMessage(node, text));
+                    lastQueuedUs = Math.max(lastQueuedUs, t);
+                    t += (long) (-Math.log(1 - random.nextDouble()) * config.meanGapMs * US_PER_MS);
+                }
+            }
+            long endUs = lastQueuedUs + config.drainMs * US_PER_MS;
+            while (!events.isEmpty() && events.peek().time <= endUs) {
+                Event event = events.poll();
+                now = event.time;
+                event.fire();
+            }
+            report.simulatedMs = now / US_PER_MS;
+        } finally {
+            executor.shutdownNow();
+        }
+        report.latenciesMs = new long[latencies.size()];
+        for (int i = 0; i < latencies.size(); i++) {
+            report.latenciesMs[i] = latencies.get(i);
+        }
+        Arrays.sort(report.latenciesMs);
+        return report;
+    }
+
+    private void schedule(long time, Runnable action) {
+        Event event = new Event() {
+            @Override
+            void fire() {
+                action.run();
+            }
+        };
+        event.time = time;
+        event.seq = eventSeq++;
+        events.add(event);
+    }
+
+    private void queueMessage(Node node, String text) {
+        String payload = PayloadCompress.buildPayload(text, "", "");
+        long messageIdBits = ID_BASE + (++nextMessageId);
+        MessageModel model = new MessageModel(node.displayId, payload, true, "", node.idBits, messageIdBits);
+        model.setChatType("N");
+        model.setChatId("");
+        MessageConverterForBle converter = new MessageConverterForBle(context, model, config.maxPayloadSize);
+        converter.setParityPercent(config.parityPercent);
+        converter.process();
+        List<byte[]> packets = converter.getBlePacketsToSend();
+        if (packets == null || packets.isEmpty()) return;
+
+        sent.put(messageIdBits, new Sent(node.index, payload, now,
+                text.getBytes(StandardCharsets.UTF_8).length, nodes.length));
+        report.messagesSent++;
+        report.expectedDeliveries += nodes.length - 1;
+        node.queue.addLast(new Job(packets, Math.max(1, config.broadcastRounds)));
+        if (!node.pumping) {
+            node.pumping = true;
+            pump(node);
+        }
+    }
+
+    /** Same rotation as the transmit scheduler: one packet per slot, queued messages take turns. */
+    private void pump(Node node) {
+        Job job = node.queue.pollFirst();
+        if (job == null) {
+            node.pumping = false;
+            node.onAir = null;
+            return;
+        }
+        byte[] packet = job.packets.get(job.sends % job.packets.size());
+        job.sends++;
+        if (job.sends < job.totalSends) node.queue.addLast(job);
+        node.onAir = packet;
+        node.onAirUntil = now + Math.min(config.advertisingDurationMs, config.slotMs) * US_PER_MS;
+        advertise(node, packet);
+        schedule(now + config.slotMs * US_PER_MS, () -> pump(node));
+    }
+
+    private void advertise(Node node, byte[] packet) {
+        if (node.onAir != packet || now >= node.onAirUntil) return;
+        boolean extended = packet.length > RadioTransport.LEGACY_MAX_PACKET_SIZE;
+        AdvEvent event = new AdvEvent(packet, extended, nodes.length);
+        long t = now;
+        long pduUs = extended ? SimulatedRadio.extIndicationMicros() : SimulatedRadio.legacyPduMicros(packet.length);
+        for (int c = 0; c < PRIMARY_CHANNELS; c++) {
+            transmit(new Pdu(node, event, c, false, t, t + pduUs));
+            t += pduUs + INTER_PDU_US;
+        }
+        t -= INTER_PDU_US;
+        if (extended) {
+            long start = t + AUX_OFFSET_US;
+            int channel = PRIMARY_CHANNELS + random.nextInt(SECONDARY_CHANNELS);
+            t = start + SimulatedRadio.auxPduMicros(packet.length);
+            transmit(new Pdu(node, event, channel, true, start, t));
+        }
+        node.lastTxStart = now;
+        node.lastTxEnd = t;
+        long next = now + advertiseIntervalUs + (long) (random.nextDouble() * MAX_ADV_DELAY_US);
+        schedule(next, () -> advertise(node, packet));
+    }
+
+    private void transmit(Pdu pdu) {
+        report.pdusSent++;
+        report.airtimeMicros += pdu.end - pdu.start;
+        maxPduUs = Math.max(maxPduUs, pdu.end - pdu.start);
+        channels.get(pdu.channel).add(pdu);
+        schedule(pdu.end, () -> onPduEnd(pdu));
+    }
+
+    private void onPduEnd(Pdu pdu) {
+        List<Pdu> onChannel = channels.get(pdu.channel);
+        // Nothing that ended before this PDU could have started can overlap it or any later one
+        onChannel.removeIf(other -> other.end <= now - 2 * maxPduUs);
+
+        for (Node receiver : nodes) {
+            if (receiver == pdu.sender) continue;
+            if (pdu.aux) {
+                if (!pdu.event.heardIndication[receiver.index]) continue;
+            } else if (!receiver.listening(pdu.channel, pdu.start, pdu.end)) {
+                report.lostNotListening++;
+                continue;
+            }
+            if (receiver.transmitting(pdu.start, pdu.end)) {
+                report.lostTransmitting++;
+                continue;
+            }
+            double signal = rssi(pdu.sender, receiver);
+            if (signal < config.sensitivityDbm) {
+                report.lostWeakSignal++;
+                continue;
+            }
+            if (collided(pdu, onChannel, receiver, signal)) {
+                report.lostCollision++;
+                continue;
+            }
+            if (pdu.event.heardIndication != null && !pdu.aux) {
+                pdu.event.heardIndication[receiver.index] = true;
+            } else {
+                receive(receiver, pdu.event.packet);
+            }
+        }
+    }
+
+    private boolean collided(Pdu pdu, List<Pdu> onChannel, Node receiver, double signal) {
+        for (Pdu other : onChannel) {
+            if (other == pdu || other.sender == receiver || other.end <= pdu.start || other.start >= pdu.end) {
+                continue;
+            }
+            if (signal - rssi(other.sender, receiver) < config.captureDb) return true;
+        }
+        return false;
+    }
+
+    private double rssi(Node from, Node to) {
+        double d = Math.max(1, Math.hypot(from.x - to.x, from.y - to.y));
+        double pathLoss = PATH_LOSS_1M_DB + 10 * config.pathLossExponent * Math.log10(d);
+        return txPowerDbm - pathLoss + random.nextGaussian() * config.shadowingDb;
+    }
+
+    private void receive(Node node, byte[] packet) {
+        if (node.duplicates.checkAndAdd(packet, now / US_PER_MS)) return;
+        MessageModel result = node.processor.processIncomingData(packet.clone(), node.displayId);
+        if (result == null || !result.isComplete()) return;
+        Sent message = sent.get(result.getMessageTimestampBits());
+        if (message == null || message.deliveredTo[node.index]) return;
+        message.deliveredTo[node.index] = true;
+        if (!message.payload.equals(result.getMessage())) {
+            report.corrupted++;
+            return;
+        }
+        report.deliveries++;
+        report.deliveredBytes += message.bytes;
+        latencies.add((now - message.queuedUs) / US_PER_MS);
+    }
+}
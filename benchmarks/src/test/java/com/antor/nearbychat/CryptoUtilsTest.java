@@ -0,0 +1,171 @@
+package com.antor.nearbychat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.antor.nearbychat.Message.BlePacketEncoder;
+import com.antor.nearbychat.Message.MessageConverterForBle;
+import com.antor.nearbychat.Message.MessageHelper;
+import com.antor.nearbychat.Message.MessageProcessor;
+import com.antor.nearbychat.benchmarks.BenchContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class CryptoUtilsTest {
+
+    private static final long SENDER_ID_BITS = 0x12_3456_789AL;
+    private static final long RECEIVER_ID_BITS = 0x00_0BAD_F00DL;
+    private static final long MESSAGE_ID_BITS = 0x01_0000_0007L;
+    private static final int HEADER_BYTE = 0x44;
+    private static final int PREFIX_LENGTH = 5;
+    private static final String TEXT = "meet at the north gate at six, bring water.";
+    private static final String PASSWORD = "harbour-watch";
+    // TEXT under PASSWORD from the String-keyed encrypt this cipher had before keys were derived once
+    private static final String LEGACY_CIPHERTEXT =
+            "d8fd9e62c147c5871fcc07056ae4e7615a3a3a08ffd57e7d1ff825383ff26899b8f49ca8c858b277fe4b1a";
+
+    private final BenchContext context = new BenchContext();
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /** [prefix][TEXT][tag space], the layout the converter seals. */
+    private static byte[] plainStream() {
+        byte[] text = TEXT.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] buf = new byte[PREFIX_LENGTH + text.length + CryptoUtils.TAG_LENGTH];
+        for (int i = 0; i < PREFIX_LENGTH; i++) buf[i] = (byte) ('a' + i);
+        System.arraycopy(text, 0, buf, PREFIX_LENGTH, text.length);
+        return buf;
+    }
+
+    private static int seal(byte[] buf, CryptoUtils.ChatKey key) {
+        return CryptoUtils.seal(key, HEADER_BYTE, SENDER_ID_BITS, MESSAGE_ID_BITS,
+                buf, 0, PREFIX_LENGTH, buf.length - PREFIX_LENGTH - CryptoUtils.TAG_LENGTH);
+    }
+
+    private static boolean open(byte[] buf, int sealedLength, CryptoUtils.ChatKey key) {
+        return CryptoUtils.open(key, HEADER_BYTE, SENDER_ID_BITS, MESSAGE_ID_BITS,
+                buf, 0, PREFIX_LENGTH, sealedLength);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) sb.append(String.format("%02x", b & 0xFF));
+        return sb.toString();
+    }
+
+    @Test
+    public void sealOpensInPlace() {
+        CryptoUtils.ChatKey key = CryptoUtils.deriveKey(PASSWORD);
+        byte[] plain = plainStream();
+        byte[] buf = plain.clone();
+
+        int sealedLength = seal(buf, key);
+
+        assertEquals(plain.length - PREFIX_LENGTH, sealedLength);
+        assertArrayEquals(Arrays.copyOf(plain, PREFIX_LENGTH), Arrays.copyOf(buf, PREFIX_LENGTH));
+        assertFalse(Arrays.equals(plain, buf));
+        assertTrue(open(buf, sealedLength, key));
+        int plainLength = plain.length - CryptoUtils.TAG_LENGTH;
+        assertArrayEquals(Arrays.copyOf(plain, plainLength), Arrays.copyOf(buf, plainLength));
+    }
+
+    @Test
+    public void anySingleBitFlipIsRejected() {
+        CryptoUtils.ChatKey key = CryptoUtils.deriveKey(PASSWORD);
+        byte[] sealed = plainStream();
+        int sealedLength = seal(sealed, key);
+
+        // Prefix, ciphertext and tag are all covered
+        for (int bit = 0; bit < sealed.length * 8; bit++) {
+            byte[] buf = sealed.clone();
+            buf[bit >>> 3] ^= (byte) (1 << (bit & 7));
+            assertFalse("bit " + bit, open(buf, sealedLength, key));
+            buf[bit >>> 3] ^= (byte) (1 << (bit & 7));
+            assertArrayEquals("untouched on reject", sealed, buf);
+        }
+        assertFalse(CryptoUtils.open(key, HEADER_BYTE ^ 1, SENDER_ID_BITS, MESSAGE_ID_BITS,
+                sealed.clone(), 0, PREFIX_LENGTH, sealedLength));
+        assertFalse(CryptoUtils.open(key, HEADER_BYTE, SENDER_ID_BITS, MESSAGE_ID_BITS + 1,
+                sealed.clone(), 0, PREFIX_LENGTH, sealedLength));
+    }
+
+    @Test
+    public void wrongGroupKeyIsRejected() {
+        byte[] buf = plainStream();
+        int sealedLength = seal(buf, CryptoUtils.deriveKey(PASSWORD));
+        byte[] sealed = buf.clone();
+
+        assertFalse(open(buf, sealedLength, CryptoUtils.deriveKey(PASSWORD + "!")));
+        assertFalse(open(buf, sealedLength, null));
+        assertArrayEquals(sealed, buf);
+    }
+
+    @Test
+    public void legacyCipherMatchesTheOriginal() {
+        CryptoUtils.ChatKey key = CryptoUtils.deriveKey(PASSWORD);
+
+        String encrypted = CryptoUtils.encrypt(TEXT, key);
+
+        assertEquals(LEGACY_CIPHERTEXT, hex(encrypted.getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals(TEXT, CryptoUtils.decrypt(encrypted, key));
+        byte[] text = TEXT.getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(LEGACY_CIPHERTEXT, hex(CryptoUtils.encrypt(text, 0, text.length, key)));
+    }
+
+    private MessageModel sendSealed(int parityPercent) {
+        MessageConverterForBle converter = new MessageConverterForBle(context,
+                PayloadCompress.buildPayload(TEXT, "", ""), "G", "abcde",
+                MessageHelper.timestampToDisplayId(SENDER_ID_BITS), SENDER_ID_BITS, 27);
+        converter.setSealed(true);
+        converter.setParityPercent(parityPercent);
+        converter.process();
+        List<byte[]> packets = converter.getBlePacketsToSend();
+        assertTrue(MessageConverterForBle.isSealedType(packets.get(0)[0] & 0x0F));
+        MessageProcessor processor = new MessageProcessor(context, executor,
+                MessageHelper.timestampToDisplayId(RECEIVER_ID_BITS));
+        MessageModel received = null;
+        for (byte[] packet : packets) {
+            // Lose the first data chunk after chunk 0 when parity can stand in for it
+            if (parityPercent > 0 && (packet[BlePacketEncoder.HEADER_SIZE - 1] & 0xFF) == 1) continue;
+            MessageModel msg = processor.processIncomingData(packet, RECEIVER_ID_BITS);
+            if (msg != null && msg.isComplete()) received = msg;
+        }
+        return received;
+    }
+
+    @Test
+    public void sealedMessageRoundTrips() {
+        MessageModel received = sendSealed(0);
+
+        assertNotNull(received);
+        assertEquals(TEXT, PayloadCompress.parsePayload(received.getMessage()).message);
+    }
+
+    @Test
+    public void sealedMessageWithParityRoundTrips() {
+        MessageModel received = sendSealed(50);
+
+        assertNotNull(received);
+        assertEquals(TEXT, PayloadCompress.parsePayload(received.getMessage()).message);
+    }
+}
@@ -0,0 +1,147 @@
+package com.antor.nearbychat.Message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.antor.nearbychat.MessageModel;
+import com.antor.nearbychat.PayloadCompress;
+import com.antor.nearbychat.benchmarks.BenchContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class CompactFramingTest {
+
+    private static final long RECEIVER_ID_BITS = 0x00_0BAD_F00DL;
+    private static final long SENDER_A = 0x12_3456_789AL;
+    private static final long SENDER_B = 0x0F_EDCB_A987L;
+    private static final long MESSAGE_A = 0x01_0000_0001L;
+    private static final String TEXT_A = "the east road is flooded past the bridge, take the hill path instead.";
+    private static final String TEXT_B = "water point moved to the school yard, queue starts at the side gate.";
+
+    private BenchContext context;
+    private ExecutorService executor;
+    private MessageProcessor processor;
+
+    @Before
+    public void setUp() {
+        context = new BenchContext();
+        executor = Executors.newSingleThreadExecutor();
+        processor = new MessageProcessor(context, executor, MessageHelper.timestampToDisplayId(RECEIVER_ID_BITS));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private List<byte[]> packets(long senderIdBits, long messageIdBits, String text, boolean compact) {
+        MessageModel model = new MessageModel(MessageHelper.timestampToDisplayId(senderIdBits),
+                PayloadCompress.buildPayload(text, "", ""), true, "", senderIdBits, messageIdBits);
+        model.setChatType("N");
+        model.setChatId("");
+        MessageConverterForBle converter = new MessageConverterForBle(context, model, 27);
+        converter.setCompactHeaders(compact);
+        converter.process();
+        return converter.getBlePacketsToSend();
+    }
+
+    private static String text(MessageModel msg) {
+        return PayloadCompress.parsePayload(msg.getMessage()).message;
+    }
+
+    @Test
+    public void compactFramingSavesChunks() {
+        int full = packets(SENDER_A, MESSAGE_A, TEXT_A, false).size();
+        int compact = packets(SENDER_A, MESSAGE_A, TEXT_A, true).size();
+        assertTrue(compact + " < " + full, compact < full);
+    }
+
+    @Test
+    public void continuationChunksBeforeChunkZeroAreReplayed() {
+        List<byte[]> packets = packets(SENDER_A, MESSAGE_A, TEXT_A, true);
+        MessageModel last = null;
+        for (int i = packets.size() - 1; i >= 0; i--) {
+            last = processor.processIncomingData(packets.get(i), RECEIVER_ID_BITS);
+        }
+        assertNotNull(last);
+        assertTrue(last.isComplete());
+        assertEquals(TEXT_A, text(last));
+        assertEquals(0, processor.getSessionCollisions());
+    }
+
+    @Test
+    public void interleavedSendersWithDistinctTokens() {
+        List<byte[]> a = packets(SENDER_A, MESSAGE_A, TEXT_A, true);
+        List<byte[]> b = packets(SENDER_B, MESSAGE_A, TEXT_B, true);
+        assertEquals(a.size(), b.size());
+        List<String> completed = new ArrayList<>();
+        for (int i = 0; i < a.size(); i++) {
+            for (byte[] packet : new byte[][]{a.get(i), b.get(i)}) {
+                MessageModel msg = processor.processIncomingData(packet, RECEIVER_ID_BITS);
+                if (msg != null && msg.isComplete()) completed.add(text(msg));
+            }
+        }
+        assertEquals(2, completed.size());
+        assertTrue(completed.contains(TEXT_A));
+        assertTrue(completed.contains(TEXT_B));
+    }
+
+    /**
+     * Two senders whose messages share a session token, header byte and
+     * chunk count: the receiver must not splice one's continuation chunks
+     * into the other. Both stay incomplete until full-header repairs arrive.
+     */
+    @Test
+    public void sessionTokenCollisionNeverMixesMessages() {
+        int token = BlePacketEncoder.sessionToken(SENDER_A, MESSAGE_A);
+        long messageB = 0;
+        while (BlePacketEncoder.sessionToken(SENDER_B, messageB) != token) messageB++;
+
+        List<byte[]> a = packets(SENDER_A, MESSAGE_A, TEXT_A, true);
+        List<byte[]> b = packets(SENDER_B, messageB, TEXT_B, true);
+        assertEquals(a.size(), b.size());
+        assertEquals(a.get(0)[0], b.get(0)[0]);
+
+        processor.processIncomingData(a.get(0), RECEIVER_ID_BITS);
+        processor.processIncomingData(b.get(0), RECEIVER_ID_BITS);
+        assertEquals(1, processor.getSessionCollisions());
+
+        for (int i = 1; i < a.size(); i++) {
+            MessageModel fromA = processor.processIncomingData(a.get(i), RECEIVER_ID_BITS);
+            MessageModel fromB = processor.processIncomingData(b.get(i), RECEIVER_ID_BITS);
+            assertFalse(fromA != null && fromA.isComplete());
+            assertFalse(fromB != null && fromB.isComplete());
+        }
+
+        // A repair from a device that holds message B answers with full headers.
+        MessageProcessor holder = new MessageProcessor(context, executor,
+                MessageHelper.timestampToDisplayId(SENDER_A));
+        OutboundChunkCache cache = new OutboundChunkCache();
+        holder.setOutboundCache(cache);
+        for (byte[] packet : b) {
+            holder.processIncomingData(packet, SENDER_A);
+        }
+        int[] indices = new int[b.size() - 1];
+        for (int i = 0; i < indices.length; i++) indices[i] = i + 1;
+        List<byte[]> repair = cache.getChunks(SENDER_B, messageB, indices, 0, 0);
+        assertEquals(indices.length, repair.size());
+        assertFalse(BlePacketEncoder.isCompactPacket(repair.get(0)));
+
+        MessageModel last = null;
+        for (byte[] packet : repair) {
+            last = processor.processIncomingData(packet, RECEIVER_ID_BITS);
+        }
+        assertNotNull(last);
+        assertTrue(last.isComplete());
+        assertEquals(TEXT_B, text(last));
+    }
+}
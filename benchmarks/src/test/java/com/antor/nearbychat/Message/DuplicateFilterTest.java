@@ -0,0 +1,105 @@
+package com.antor.nearbychat.Message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class DuplicateFilterTest {
+
+    private static final int CAPACITY = 2621;
+    private static final long WINDOW_MS = 10 * 60 * 1000;
+    private static final int PACKET_SIZE = 27;
+
+    private static byte[] randomPacket(Random random) {
+        byte[] packet = new byte[PACKET_SIZE];
+        random.nextBytes(packet);
+        return packet;
+    }
+
+    /**
+     * Every packet is new, so every hit is a false positive. The bound
+     * allows twice the design rate for sampling noise at ~25 expected hits.
+     */
+    @Test
+    public void falsePositiveRateMatchesDesign() {
+        DuplicateFilter filter = new DuplicateFilter(CAPACITY, WINDOW_MS, 0);
+        Random random = new Random(1);
+        int packets = 1_000_000;
+        int falsePositives = 0;
+        for (int i = 0; i < packets; i++) {
+            if (filter.checkAndAdd(randomPacket(random), 0)) falsePositives++;
+        }
+        double expected = filter.falsePositiveRate();
+        double measured = (double) falsePositives / packets;
+        assertTrue("design rate " + expected, expected < 1e-4);
+        assertTrue("measured " + measured + " vs design " + expected, measured <= 2 * expected);
+    }
+
+    /** Sequential message ids from one sender, the common header pattern on air. */
+    @Test
+    public void sequentialHeadersStayBelowDesignRate() {
+        DuplicateFilter filter = new DuplicateFilter(CAPACITY, WINDOW_MS, 0);
+        int falsePositives = 0;
+        int packets = 400_000;
+        for (int i = 0; i < packets; i++) {
+            byte[] packet = new byte[PACKET_SIZE];
+            MessageHelper.putId40(packet, 1, 0x12_3456_789AL);
+            MessageHelper.putId40(packet, 6, 0x01_0000_0000L + i / 4);
+            packet[11] = 4;
+            packet[12] = (byte) (i % 4);
+            if (filter.checkAndAdd(packet, 0)) falsePositives++;
+        }
+        assertTrue(falsePositives + " false positives",
+                (double) falsePositives / packets <= 2 * filter.falsePositiveRate());
+    }
+
+    @Test
+    public void rememberedForAtLeastOneWindow() {
+        DuplicateFilter filter = new DuplicateFilter(CAPACITY, WINDOW_MS, 0);
+        Random random = new Random(3);
+        byte[][] packets = new byte[CAPACITY][];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = randomPacket(random);
+            assertFalse(filter.checkAndAdd(packets[i], i));
+        }
+        for (byte[] packet : packets) {
+            assertTrue(filter.checkAndAdd(packet.clone(), WINDOW_MS - 1));
+        }
+    }
+
+    @Test
+    public void forgottenAfterTwoWindows() {
+        DuplicateFilter filter = new DuplicateFilter(CAPACITY, WINDOW_MS, 0);
+        byte[] packet = randomPacket(new Random(4));
+        assertFalse(filter.checkAndAdd(packet, 0));
+        assertTrue(filter.checkAndAdd(packet, WINDOW_MS / 2));
+        filter.checkAndAdd(randomPacket(new Random(5)), WINDOW_MS);
+        filter.checkAndAdd(randomPacket(new Random(6)), 2 * WINDOW_MS);
+        assertFalse(filter.checkAndAdd(packet, 2 * WINDOW_MS));
+    }
+
+    /** The scan thread only looks up; a packet shed before checkAndAdd is still new. */
+    @Test
+    public void containsRecordsNothing() {
+        DuplicateFilter filter = new DuplicateFilter(CAPACITY, WINDOW_MS, 0);
+        byte[] packet = randomPacket(new Random(7));
+        assertFalse(filter.contains(packet));
+        assertFalse(filter.contains(packet));
+        assertFalse(filter.checkAndAdd(packet, 0));
+        assertTrue(filter.contains(packet.clone()));
+        filter.checkAndAdd(randomPacket(new Random(8)), WINDOW_MS);
+        assertTrue(filter.contains(packet));
+        filter.checkAndAdd(randomPacket(new Random(9)), 2 * WINDOW_MS);
+        assertFalse(filter.contains(packet));
+    }
+
+    /** 16 bits per entry rounded up to a power of two, two generations. */
+    @Test
+    public void memoryIsFixed() {
+        assertEquals(16 * 1024, new DuplicateFilter(CAPACITY, WINDOW_MS, 0).memoryBytes());
+    }
+}
@@ -0,0 +1,233 @@
+package com.antor.nearbychat.Message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.antor.nearbychat.MessageModel;
+import com.antor.nearbychat.PayloadCompress;
+import com.antor.nearbychat.benchmarks.BenchContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MessageProcessorTest {
+
+    private static final long SENDER_ID_BITS = 0x12_3456_789AL;
+    private static final long RECEIVER_ID_BITS = 0x00_0BAD_F00DL;
+    private static final String TEXT = "meet at the north gate at six, bring water and a torch. "
+            + "the east road is flooded past the bridge so take the hill path instead.";
+
+    private BenchContext context;
+    private ExecutorService executor;
+    private MessageProcessor processor;
+
+    @Before
+    public void setUp() {
+        context = new BenchContext();
+        executor = Executors.newSingleThreadExecutor();
+        processor = new MessageProcessor(context, executor, MessageHelper.timestampToDisplayId(RECEIVER_ID_BITS));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private List<byte[]> packets(String text) {
+        return packets(text, 0);
+    }
+
+    private List<byte[]> packets(String text, int parityPercent) {
+        MessageConverterForBle converter = new MessageConverterForBle(context,
+                PayloadCompress.buildPayload(text, "", ""), "N", "",
+                MessageHelper.timestampToDisplayId(SENDER_ID_BITS), SENDER_ID_BITS, 27);
+        converter.setParityPercent(parityPercent);
+        converter.process();
+        return converter.getBlePacketsToSend();
+    }
+
+    private static boolean isParity(byte[] packet) {
+        return (packet[BlePacketEncoder.HEADER_SIZE - 1] & 0xFF) >= (packet[BlePacketEncoder.HEADER_SIZE - 2] & 0xFF);
+    }
+
+    /** Nothing left behind: no partial reassembly to ask repairs for or time out. */
+    private void assertNothingPending() {
+        long later = System.currentTimeMillis() + 600_000;
+        List<List<Integer>> requested = new ArrayList<>();
+        processor.requestStalledChunks(later, (sender, message, missing) -> requested.add(missing));
+        List<MessageModel> failed = new ArrayList<>();
+        processor.expireReassemblers(later, failed::add);
+        assertTrue("repair requests " + requested, requested.isEmpty());
+        assertTrue("timeouts " + failed.size(), failed.isEmpty());
+    }
+
+    @Test
+    public void duplicateChunkAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        List<byte[]> packets = packets(TEXT);
+        assertTrue(packets.size() > 1);
+        byte[] first = packets.get(0);
+        assertNotNull(processor.processIncomingData(first, RECEIVER_ID_BITS));
+
+        for (int i = 0; i < 20000; i++) {
+            processor.processIncomingData(first, RECEIVER_ID_BITS);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - before;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        MessageModel result = processor.processIncomingData(first, RECEIVER_ID_BITS);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertNull(result);
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void duplicatesAndReorderingStillComplete() {
+        List<byte[]> packets = packets(TEXT);
+        MessageModel complete = null;
+        for (int i = packets.size() - 1; i >= 0; i--) {
+            MessageModel msg = processor.processIncomingData(packets.get(i), RECEIVER_ID_BITS);
+            if (i > 0) {
+                assertFalse(msg.isComplete());
+                assertNull(processor.processIncomingData(packets.get(i), RECEIVER_ID_BITS));
+            } else {
+                complete = msg;
+            }
+        }
+        assertNotNull(complete);
+        assertTrue(complete.isComplete());
+        assertEquals(TEXT, PayloadCompress.parsePayload(complete.getMessage()).message);
+        assertEquals(MessageHelper.timestampToDisplayId(SENDER_ID_BITS), complete.getSenderId());
+    }
+
+    @Test
+    public void ownPacketsAreIgnored() {
+        for (byte[] packet : packets(TEXT)) {
+            assertNull(processor.processIncomingData(packet, SENDER_ID_BITS));
+        }
+    }
+
+    /** The timeout row carries the message's own send time, like the partial row it replaces. */
+    @Test
+    public void timedOutMessageKeepsItsSendTime() {
+        processor.setMaxChunkTimeoutMs(1000);
+        MessageModel partial = processor.processIncomingData(packets(TEXT).get(0), RECEIVER_ID_BITS);
+        assertNotNull(partial);
+        List<MessageModel> failed = new ArrayList<>();
+        processor.expireReassemblers(System.currentTimeMillis() + 10_000, failed::add);
+
+        assertEquals(1, failed.size());
+        String sendTime = partial.getTimestamp().substring(0, partial.getTimestamp().lastIndexOf(" | "));
+        assertEquals("Timeout | " + sendTime + " | 1C", failed.get(0).getTimestamp());
+        assertEquals(partial.getMessageTimestampBits(), failed.get(0).getMessageTimestampBits());
+    }
+
+    @Test
+    public void parityRebuildsAMissingDataChunk() {
+        List<byte[]> packets = packets(TEXT, 50);
+        assertTrue(isParity(packets.get(packets.size() - 1)));
+        MessageModel complete = null;
+        for (int i = 0; i < packets.size() && complete == null; i++) {
+            if (i == 1) continue;
+            MessageModel msg = processor.processIncomingData(packets.get(i), RECEIVER_ID_BITS);
+            if (msg != null && msg.isComplete()) complete = msg;
+        }
+        assertNotNull(complete);
+        assertEquals(TEXT, PayloadCompress.parsePayload(complete.getMessage()).message);
+        assertNothingPending();
+    }
+
+    /**
+     * Parity chunks heard after the data chunks completed the message are new
+     * bytes to the duplicate filter; they must not start a second reassembly.
+     */
+    @Test
+    public void leftoverParityAfterCompletionIsDropped() {
+        List<byte[]> packets = packets(TEXT, 50);
+        int completedAt = -1;
+        for (int i = 0; i < packets.size(); i++) {
+            MessageModel msg = processor.processIncomingData(packets.get(i), RECEIVER_ID_BITS);
+            if (completedAt < 0) {
+                if (msg != null && msg.isComplete()) completedAt = i;
+            } else {
+                assertTrue(isParity(packets.get(i)));
+                assertNull("chunk " + i, msg);
+            }
+        }
+        assertTrue(completedAt >= 0 && completedAt < packets.size() - 1);
+        assertNothingPending();
+    }
+
+    @Test
+    public void laterBroadcastRoundsOfACompletedMessageAreDropped() {
+        List<byte[]> packets = packets(TEXT);
+        for (byte[] packet : packets) processor.processIncomingData(packet, RECEIVER_ID_BITS);
+        for (int i = packets.size() - 1; i >= 0; i--) {
+            assertNull(processor.processIncomingData(packets.get(i), RECEIVER_ID_BITS));
+        }
+        assertNothingPending();
+    }
+
+    private List<byte[]> chatPackets(String chatType, String chatId) {
+        MessageModel model = new MessageModel(MessageHelper.timestampToDisplayId(SENDER_ID_BITS),
+                PayloadCompress.buildPayload(TEXT, "", ""), true, "", SENDER_ID_BITS, 0x01_0000_0007L);
+        model.setChatType(chatType);
+        model.setChatId(chatId);
+        MessageConverterForBle converter = new MessageConverterForBle(context, model, 27);
+        converter.process();
+        return converter.getBlePacketsToSend();
+    }
+
+    /** A bystander never asks for, or times out, someone else's Friend message. */
+    @Test
+    public void friendMessageForSomeoneElseLeavesNothingBehind() {
+        List<byte[]> packets = chatPackets("F", MessageHelper.timestampToAsciiId(0x0F_0000_0001L));
+        assertTrue(packets.size() > 2);
+        for (byte[] packet : packets) {
+            assertNull(processor.processIncomingData(packet, RECEIVER_ID_BITS));
+        }
+        assertNothingPending();
+    }
+
+    @Test
+    public void chunksAheadOfARejectedChunkZeroAreDropped() {
+        List<byte[]> packets = chatPackets("F", MessageHelper.timestampToAsciiId(0x0F_0000_0001L));
+        for (int i = packets.size() - 1; i > 0; i--) {
+            assertNotNull(processor.processIncomingData(packets.get(i), RECEIVER_ID_BITS));
+        }
+        assertNull(processor.processIncomingData(packets.get(0), RECEIVER_ID_BITS));
+        assertNull(processor.processIncomingData(packets.get(1), RECEIVER_ID_BITS));
+        assertNothingPending();
+    }
+
+    /** What the admission filter does for a group that was not joined. */
+    @Test
+    public void discardedMessageIsNeverReassembled() {
+        List<byte[]> packets = chatPackets("G", MessageHelper.timestampToAsciiId(0x00_CAFE_BABEL));
+        assertNotNull(processor.processIncomingData(packets.get(1), RECEIVER_ID_BITS));
+        processor.discardMessage(SENDER_ID_BITS, 0x01_0000_0007L);
+        for (byte[] packet : packets) {
+            assertNull(processor.processIncomingData(packet, RECEIVER_ID_BITS));
+        }
+        assertNothingPending();
+    }
+}
@@ -0,0 +1,98 @@
+package com.antor.nearbychat.Message;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.antor.nearbychat.PayloadCompress;
+import com.antor.nearbychat.benchmarks.BenchContext;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+public class MessageRelayTest {
+
+    private static final long SENDER_ID_BITS = 0x12_3456_789AL;
+    private static final long RELAY_ID_BITS = 0x00_0BAD_F00DL;
+    private static final long[] NEIGHBOUR_ID_BITS = {0x01_0000_0001L, 0x02_0000_0002L, 0x03_0000_0003L};
+    private static final int MAX_HOPS = 3;
+    private static final int ROUNDS = 3;
+    private static final long NOW = 1_000_000L;
+    private static final long ASSESSMENT_MS = 500;
+    private static final int MAX_FRAME_SIZE = 31;
+
+    private final MessageRelay relay = new MessageRelay(RELAY_ID_BITS, MAX_HOPS, ROUNDS,
+            MessageRelay.DEFAULT_SUPPRESS_COUNT, MessageRelay.DEFAULT_CAPACITY, ASSESSMENT_MS, new Random(1));
+
+    private static List<byte[]> packets() {
+        MessageConverterForBle converter = new MessageConverterForBle(new BenchContext(),
+                PayloadCompress.buildPayload("meet at the north gate at six, bring water and a torch.", "", ""),
+                "N", "", MessageHelper.timestampToDisplayId(SENDER_ID_BITS), SENDER_ID_BITS,
+                MAX_FRAME_SIZE - MessageRelay.RELAY_OVERHEAD);
+        converter.process();
+        return converter.getBlePacketsToSend();
+    }
+
+    /** A neighbour's relay as the scanner reports it: every round, each seen {@code reports} times. */
+    private void hearRelayFrom(long neighbourIdBits, List<byte[]> packets, int reports) {
+        int tag = MessageRelay.tagOf(neighbourIdBits);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (byte[] packet : packets) {
+                byte[] frame = MessageRelay.frame(packet, MAX_HOPS - 1, tag);
+                for (int report = 0; report < reports; report++) {
+                    relay.onPacket(MessageRelay.unwrap(frame), frame, NOW);
+                }
+            }
+        }
+    }
+
+    private void hearFromSender(List<byte[]> packets) {
+        for (byte[] packet : packets) relay.onPacket(packet, null, NOW);
+    }
+
+    @Test
+    public void relayFramesCarryHopsAndTag() {
+        List<byte[]> packets = packets();
+        hearFromSender(packets);
+
+        List<List<byte[]>> due = relay.pollDue(NOW + ASSESSMENT_MS, MAX_FRAME_SIZE);
+
+        assertEquals(1, due.size());
+        List<byte[]> frames = due.get(0);
+        assertEquals(packets.size() * ROUNDS, frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            byte[] frame = frames.get(i);
+            assertTrue(frame.length <= MAX_FRAME_SIZE);
+            assertEquals(MAX_HOPS - 1, MessageRelay.hopsLeft(frame));
+            assertEquals(MessageRelay.tagOf(RELAY_ID_BITS), MessageRelay.relayerTag(frame));
+            assertArrayEquals(packets.get(i % packets.size()), MessageRelay.unwrap(frame));
+        }
+    }
+
+    @Test
+    public void oneNeighbourHeardManyTimesDoesNotSuppress() {
+        List<byte[]> packets = packets();
+        hearFromSender(packets);
+        // Every round of one neighbour, each reported once per advertising event
+        hearRelayFrom(NEIGHBOUR_ID_BITS[0], packets, 5);
+
+        assertEquals(1, relay.pollDue(NOW + ASSESSMENT_MS, MAX_FRAME_SIZE).size());
+        assertEquals(0, relay.getSuppressed());
+    }
+
+    @Test
+    public void distinctNeighboursSuppress() {
+        for (int i = 1; i < NEIGHBOUR_ID_BITS.length; i++) {
+            assertNotEquals(MessageRelay.tagOf(NEIGHBOUR_ID_BITS[i - 1]), MessageRelay.tagOf(NEIGHBOUR_ID_BITS[i]));
+        }
+        List<byte[]> packets = packets();
+        hearFromSender(packets);
+        for (long neighbour : NEIGHBOUR_ID_BITS) hearRelayFrom(neighbour, packets, 1);
+
+        assertTrue(relay.pollDue(NOW + ASSESSMENT_MS, MAX_FRAME_SIZE).isEmpty());
+        assertEquals(1, relay.getSuppressed());
+    }
+}
@@ -0,0 +1,104 @@
+package com.antor.nearbychat.Message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.antor.nearbychat.Database.MessageEntity;
+import com.antor.nearbychat.MessageModel;
+import com.antor.nearbychat.PayloadCompress;
+import com.antor.nearbychat.benchmarks.BenchContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** The digest itself and the path answerSyncDigest takes from a stored row back onto the air. */
+public class SyncDigestTest {
+
+    private static final long SENDER_ID_BITS = 0x12_3456_789AL;
+    private static final long RECEIVER_ID_BITS = 0x00_0BAD_F00DL;
+    private static final int DIGEST_SIZE = 27;
+
+    private final BenchContext context = new BenchContext();
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void listedMessagesAreContained() {
+        int count = SyncDigest.capacity(DIGEST_SIZE);
+        long[] senders = new long[count];
+        long[] messages = new long[count];
+        for (int i = 0; i < count; i++) {
+            senders[i] = 0x01_0000_0000L + i % 3;
+            messages[i] = 0x00_1000_0000L + i * 977L;
+        }
+
+        SyncDigest digest = SyncDigest.decode(
+                SyncDigest.encode(0x1234, 600, 42, senders, messages, count, DIGEST_SIZE));
+
+        assertNotNull(digest);
+        assertEquals(0x1234, digest.getChatTag());
+        assertEquals(600, digest.getWindowSec());
+        for (int i = 0; i < count; i++) assertTrue(digest.mightContain(senders[i], messages[i]));
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (digest.mightContain(0x02_0000_0000L + i, 0x00_2000_0000L + i)) falsePositives++;
+        }
+        // Sized for about 5%
+        assertTrue("false positives " + falsePositives, falsePositives < 100);
+    }
+
+    @Test
+    public void chatTagsSeparateNearbyFromGroups() {
+        assertEquals(SyncDigest.NEARBY_TAG, SyncDigest.chatTag("N", ""));
+        assertNotEquals(SyncDigest.NEARBY_TAG, SyncDigest.chatTag("G", "abcde"));
+        assertNotEquals(SyncDigest.chatTag("G", "abcde"), SyncDigest.chatTag("G", "abcdf"));
+        assertNull(SyncDigest.decode(new byte[SyncDigest.HEADER_SIZE]));
+    }
+
+    @Test
+    public void syncedReplyKeepsItsReplyIds() {
+        long replyUserBits = 0x05_4321_0FEDL;
+        long replyMsgBits = 0x00_0123_4567L;
+        String text = "yes, the north gate";
+        MessageConverterForBle original = new MessageConverterForBle(context,
+                "[r>" + MessageHelper.timestampToAsciiId(replyUserBits)
+                        + MessageHelper.timestampToAsciiId(replyMsgBits)
+                        + PayloadCompress.buildPayload(text, "", ""),
+                "N", "", MessageHelper.timestampToDisplayId(SENDER_ID_BITS), SENDER_ID_BITS, 27);
+        original.process();
+        // What answerSyncDigest reads back: the stored row, without the [r> prefix
+        MessageModel stored = MessageEntity.fromMessageModel(original.getMessageToSave()).toMessageModel();
+
+        MessageConverterForBle resend = new MessageConverterForBle(context, stored, 27);
+        resend.process();
+        MessageProcessor processor = new MessageProcessor(context, executor,
+                MessageHelper.timestampToDisplayId(RECEIVER_ID_BITS));
+        MessageModel received = null;
+        List<byte[]> packets = resend.getBlePacketsToSend();
+        for (byte[] packet : packets) received = processor.processIncomingData(packet, RECEIVER_ID_BITS);
+
+        assertNotNull(received);
+        assertTrue(received.isComplete());
+        assertEquals(stored.getMessageTimestampBits(), received.getMessageTimestampBits());
+        assertEquals(MessageHelper.timestampToDisplayId(replyUserBits), received.getReplyToUserId());
+        assertEquals(MessageHelper.timestampToDisplayId(replyMsgBits), received.getReplyToMessageId());
+        assertEquals(text, PayloadCompress.parsePayload(received.getMessage()).message);
+    }
+}
@@ -0,0 +1,112 @@
+package com.antor.nearbychat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Locks the on-air format of the payload codecs. The expected bytes were
+ * produced by the original bit-string implementation; any change here is a
+ * protocol break with older builds.
+ */
+public class PayloadCompressTest {
+
+    private static final String[][] MESSAGES = {
+            {"hello world", "3916b772ce8ac607"},
+            {"meet me at the gate, bring water\n#7", "61093e309c04f933938604c9ae062869b9604c91dfbe7004"},
+            {"SOS! Need help @ Block C?", "f4bcef4bdce79a420f8722dfcf779e0adc2573c2f6c002"},
+            {"price: 120-150 (approx) {ok} [x] <y> ~z^",
+                    "7c50227f5cf87e2f83eaf87e5f839f901ef8baff9f3f672bf7e7e97fd79fe63ffe7fd9ff4002"},
+            {"a", "0005"},
+            {"zzzzzzzzzzzzzzzzzzzzzzzzzzzzzzz", "ce739ce739ce739ce739ce739ce739ce739ce72003"},
+    };
+
+    private static final String[][] URLS = {
+            {"https://example.com/a.png", "3ce6f9737b25c0c7ac9f0034f69806"},
+            {"http://192.168.0.10:8080/img_01.jpg", "3ce6fe6f7f87e9afd7f4fc50c37fdfa7eba4bcc003"},
+            {"ftp://files.cloud/Path/To/File=2", "2cdfcdeca85925f579e099f7e9bb7e2a164ffff608"},
+            {"abc.io/x?y=1&z=%20", "0045f0dfdbc7fffafb59fffdcfdbf408"},
+    };
+
+    private static final String[][] LINKS = {
+            {"https://i.imgur.com/abc123.png,https://i.imgur.com/def456.png",
+                    "10f440c0c508bd043863a00041356cdde8f1a19e030815c3983d1e3433b004"},
+            {"https://youtu.be/dQw4w9WgXcQ", "3038a1328f4084740d516705a6c033104a9d8001"},
+            {"http://a.b/c-d_e$f&g+h,i;j=k%l~m?n", "00f40ba0550760970b80d90eec46c4f05745f867c6ba7607"},
+    };
+
+    /** Every symbol the message models encode losslessly; '#' and '*' are the escape codes. */
+    private static final String MESSAGE_CHARS =
+            "abcdefghijklmnopqrstuvwxyz,\n ABCDEFGHIJKLMNOPQRSTUVWXYZ.?!@0123456789-_=&%+;'()[]{}\"|:\\<^~>";
+
+    @Test
+    public void messageCodecMatchesReferenceBytes() {
+        for (String[] c : MESSAGES) {
+            assertEquals(c[0], c[1], hex(PayloadCompress.compressMessage(c[0])));
+        }
+        assertNull(PayloadCompress.compressMessage("Ünïcode fällt zurück"));
+    }
+
+    @Test
+    public void urlCodecMatchesReferenceBytes() {
+        for (String[] c : URLS) {
+            assertEquals(c[0], c[1], hex(PayloadCompress.compressJsonUrl5Bit(c[0])));
+            assertEquals(c[0], PayloadCompress.decompressJsonUrl5Bit(PayloadCompress.compressJsonUrl5Bit(c[0])));
+        }
+    }
+
+    @Test
+    public void linkCodecMatchesReferenceBytes() {
+        for (String[] c : LINKS) {
+            assertEquals(c[0], c[1], hex(PayloadCompress.compressLink(PayloadCompress.simplifyLinks(c[0]))));
+        }
+    }
+
+    @Test
+    public void payloadMatchesReferenceBytes() {
+        assertEquals("9109cc3a9c04f8d739a0035b6d3e10f440c0c508bd043863a00041356cdde8f1a19d80015b763e"
+                        + "3038a1328f4084740d516705a6c033104a9d8001",
+                hex(PayloadCompress.buildPayload("see you at noon",
+                        "https://i.imgur.com/abc123.png", "https://youtu.be/dQw4w9WgXcQ")));
+        assertEquals("5b753ec39c6ec3af636f6465", hex(PayloadCompress.buildPayload("Ünïcode", "", null)));
+    }
+
+    @Test
+    public void randomMessagesRoundTrip() {
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            char[] chars = new char[1 + random.nextInt(120)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = MESSAGE_CHARS.charAt(random.nextInt(MESSAGE_CHARS.length()));
+            }
+            String msg = new String(chars);
+            assertEquals(msg, PayloadCompress.decompressMessage(PayloadCompress.compressMessage(msg)));
+        }
+    }
+
+    @Test
+    public void malformedTrailerDoesNotThrow() {
+        Random random = new Random(2);
+        for (int i = 0; i < 2000; i++) {
+            byte[] data = new byte[random.nextInt(12)];
+            random.nextBytes(data);
+            String ascii = new String(data, StandardCharsets.ISO_8859_1);
+            PayloadCompress.decompressMessage(ascii);
+            PayloadCompress.decompressJsonUrl5Bit(ascii);
+            PayloadCompress.decompressLink(ascii);
+        }
+    }
+
+    private static String hex(String latin1) {
+        if (latin1 == null) return null;
+        StringBuilder sb = new StringBuilder();
+        for (byte b : latin1.getBytes(StandardCharsets.ISO_8859_1)) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,291 @@
+package com.antor.nearbychat.Radio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.antor.nearbychat.Message.MessageConverterForBle;
+import com.antor.nearbychat.Message.MessageHelper;
+import com.antor.nearbychat.Message.MessageProcessor;
+import com.antor.nearbychat.Message.MessageRelay;
+import com.antor.nearbychat.MessageModel;
+import com.antor.nearbychat.PayloadCompress;
+import com.antor.nearbychat.benchmarks.BenchContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Chunk sizing and reassembly over the software radio: extended frames
+ * between capable devices, legacy fallback as soon as a legacy-only peer is
+ * around, and multi-hop delivery through MessageRelay on line and grid
+ * layouts.
+ */
+public class SimulatedRadioTest {
+
+    private static final UUID SERVICE_UUID = UUID.fromString("0000fef3-0000-1000-8000-00805f9b34fb");
+    private static final UUID RELAY_SERVICE_UUID = UUID.fromString("0000fef3-0002-1000-8000-00805f9b34fb");
+    private static final long NOW = 1_000_000L;
+    private static final int RELAY_HOPS = 6;
+    private static final int RELAY_ROUNDS = 2;
+    private static final long RELAY_ASSESSMENT_MS = 400;
+    private static final long RELAY_TICK_MS = 20;
+    private static final String TEXT = "meet at the north gate at six, bring water and a torch. the east road is "
+            + "flooded past the bridge so take the hill path instead. the school yard has a water point from "
+            + "seven and the clinic tent opens at eight. keep phones on low power and check in every hour.";
+
+    private final BenchContext context = new BenchContext();
+    private ExecutorService executor;
+    private SimulatedRadio radio;
+    private long clock = NOW;
+
+    private final class Device implements SimulatedRadio.Receiver {
+        final long idBits;
+        final MessageProcessor processor;
+        final PeerCapabilities peers = new PeerCapabilities();
+        final List<MessageModel> completed = new ArrayList<>();
+        final List<byte[]> heard = new ArrayList<>();
+        final MessageRelay relay;
+        SimulatedRadio.Node node;
+
+        Device(long idBits, boolean extendedCapable) {
+            this(idBits, extendedCapable, null);
+        }
+
+        Device(long idBits, boolean extendedCapable, MessageRelay relay) {
+            this.idBits = idBits;
+            this.processor = new MessageProcessor(context, executor, MessageHelper.timestampToDisplayId(idBits));
+            this.relay = relay;
+            this.node = radio.attach(extendedCapable, this);
+        }
+
+        @Override
+        public void onPacket(UUID serviceUuid, byte[] packet, boolean extendedPdu) {
+            heard.add(packet);
+            if (PeerCapabilities.isBeacon(packet)) {
+                peers.onBeacon(packet, NOW);
+                return;
+            }
+            byte[] relayFrame = null;
+            if (RELAY_SERVICE_UUID.equals(serviceUuid)) {
+                relayFrame = packet;
+                packet = MessageRelay.unwrap(relayFrame);
+            } else {
+                peers.onHeard(MessageHelper.readId40(packet, 1), extendedPdu, NOW);
+            }
+            if (relay != null) relay.onPacket(packet, relayFrame, clock);
+            MessageModel msg = processor.processIncomingData(packet, idBits);
+            if (msg != null && msg.isComplete()) completed.add(msg);
+        }
+
+        void beacon() {
+            assertTrue(node.advertise(SERVICE_UUID, PeerCapabilities.encodeBeacon(idBits, node.isExtended()), 0));
+        }
+
+        List<byte[]> send(String text, int rounds) {
+            int size = peers.choosePacketSize(RadioTransport.LEGACY_MAX_PACKET_SIZE, node.maxPacketSize(), NOW)
+                    - (relay != null ? MessageRelay.RELAY_OVERHEAD : 0);
+            MessageConverterForBle converter = new MessageConverterForBle(context,
+                    PayloadCompress.buildPayload(text, "", ""), "N", "",
+                    MessageHelper.timestampToDisplayId(idBits), idBits, size);
+            converter.process();
+            List<byte[]> packets = converter.getBlePacketsToSend();
+            for (int round = 0; round < rounds; round++) {
+                for (byte[] packet : packets) {
+                    assertTrue(node.advertise(SERVICE_UUID, packet, 0));
+                }
+            }
+            return packets;
+        }
+
+        void relayDue() {
+            for (List<byte[]> frames : relay.pollDue(clock, node.maxPacketSize())) {
+                for (byte[] frame : frames) {
+                    assertTrue(node.advertise(RELAY_SERVICE_UUID, frame, 0));
+                }
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        radio = new SimulatedRadio(7);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /** Legacy-only relaying devices, attached in order so the topology can place them by index. */
+    private List<Device> relayingDevices(int count) {
+        List<Device> devices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long idBits = 0x01_0000_0000L + i;
+            devices.add(new Device(idBits, false, new MessageRelay(idBits, RELAY_HOPS, RELAY_ROUNDS,
+                    MessageRelay.DEFAULT_SUPPRESS_COUNT, MessageRelay.DEFAULT_CAPACITY,
+                    RELAY_ASSESSMENT_MS, new Random(i))));
+        }
+        return devices;
+    }
+
+    /** Sends from the first device, runs the relays until all are idle, returns the share of others that got it. */
+    private double relayDeliveryRatio(List<Device> devices) {
+        devices.get(0).send(TEXT, 1);
+        long end = clock + (RELAY_HOPS + 1) * RELAY_ASSESSMENT_MS;
+        for (; clock <= end; clock += RELAY_TICK_MS) {
+            for (Device device : devices) device.relayDue();
+        }
+        int delivered = 0;
+        for (Device device : devices.subList(1, devices.size())) {
+            assertTrue(device.completed.size() <= 1);
+            if (device.completed.size() == 1 && TEXT.equals(text(device.completed.get(0)))) delivered++;
+        }
+        return delivered / (double) (devices.size() - 1);
+    }
+
+    private static long relayed(List<Device> devices) {
+        long relayed = 0;
+        for (Device device : devices) relayed += device.relay.getRelayed();
+        return relayed;
+    }
+
+    private static String text(MessageModel msg) {
+        return PayloadCompress.parsePayload(msg.getMessage()).message;
+    }
+
+    private static int largest(List<byte[]> packets) {
+        int largest = 0;
+        for (byte[] packet : packets) largest = Math.max(largest, packet.length);
+        return largest;
+    }
+
+    @Test
+    public void extendedPeersExchangeLargeFrames() {
+        Device sender = new Device(0x01_0000_0001L, true);
+        Device receiver = new Device(0x02_0000_0002L, true);
+        receiver.beacon();
+
+        List<byte[]> packets = sender.send(TEXT, 1);
+
+        assertTrue(largest(packets) > RadioTransport.LEGACY_MAX_PACKET_SIZE);
+        assertTrue(largest(packets) <= RadioTransport.EXTENDED_MAX_PACKET_SIZE);
+        assertTrue(packets.size() <= 2);
+        assertEquals(1, receiver.completed.size());
+        assertEquals(TEXT, text(receiver.completed.get(0)));
+    }
+
+    @Test
+    public void legacyPeerForcesLegacyFraming() {
+        Device sender = new Device(0x01_0000_0001L, true);
+        Device extended = new Device(0x02_0000_0002L, true);
+        Device legacy = new Device(0x03_0000_0003L, false);
+        extended.beacon();
+        legacy.beacon();
+
+        List<byte[]> packets = sender.send(TEXT, 1);
+
+        assertTrue(largest(packets) <= RadioTransport.LEGACY_MAX_PACKET_SIZE);
+        assertTrue(packets.size() > 2);
+        assertEquals(1, extended.completed.size());
+        assertEquals(1, legacy.completed.size());
+        assertEquals(TEXT, text(legacy.completed.get(0)));
+    }
+
+    @Test
+    public void extendedFramesNeverReachLegacyScanners() {
+        Device sender = new Device(0x01_0000_0001L, true);
+        Device extended = new Device(0x02_0000_0002L, true);
+        Device legacy = new Device(0x03_0000_0003L, false);
+        extended.beacon();
+
+        List<byte[]> packets = sender.send(TEXT, 1);
+
+        assertTrue(largest(packets) > RadioTransport.LEGACY_MAX_PACKET_SIZE);
+        assertEquals(1, extended.completed.size());
+        assertTrue(legacy.completed.isEmpty());
+        for (byte[] packet : legacy.heard) {
+            assertTrue(packet.length <= RadioTransport.LEGACY_MAX_PACKET_SIZE);
+        }
+        assertFalse(legacy.node.advertise(SERVICE_UUID, packets.get(0), 0));
+    }
+
+    @Test
+    public void lossyChannelCompletesWithRepeatRounds() {
+        radio.setLossRate(0.2);
+        Device sender = new Device(0x01_0000_0001L, false);
+        Device receiver = new Device(0x02_0000_0002L, false);
+
+        List<byte[]> packets = sender.send(TEXT, 4);
+
+        assertTrue(packets.size() > 2);
+        // Rounds after completion are dropped by the processor, so it completes once
+        assertEquals(1, receiver.completed.size());
+        assertEquals(TEXT, text(receiver.completed.get(0)));
+    }
+
+    @Test
+    public void airtimeFavoursExtendedFrames() {
+        Device sender = new Device(0x01_0000_0001L, true);
+        Device receiver = new Device(0x02_0000_0002L, true);
+        receiver.beacon();
+        long beaconAirtime = radio.getAirtimeMicros();
+        sender.send(TEXT, 1);
+        long extendedAirtime = radio.getAirtimeMicros() - beaconAirtime;
+
+        SimulatedRadio legacyRadio = radio = new SimulatedRadio(7);
+        Device legacySender = new Device(0x01_0000_0001L, false);
+        new Device(0x02_0000_0002L, false);
+        legacySender.send(TEXT, 1);
+
+        assertTrue(extendedAirtime < legacyRadio.getAirtimeMicros());
+    }
+
+    @Test
+    public void relayCarriesAMessageDownALine() {
+        // Six devices in a row, each hearing only its neighbours: the far end is five hops out
+        radio.setTopology((from, to) -> Math.abs(from - to) == 1);
+        List<Device> devices = relayingDevices(6);
+
+        assertEquals(1.0, relayDeliveryRatio(devices), 0);
+        // Each receiver forwards it once; with two neighbours at most nothing is suppressed
+        assertEquals(5, relayed(devices));
+    }
+
+    @Test
+    public void withoutRelayALineReachesOnlyTheNeighbour() {
+        radio.setTopology((from, to) -> Math.abs(from - to) == 1);
+        List<Device> devices = new ArrayList<>();
+        for (int i = 0; i < 6; i++) devices.add(new Device(0x01_0000_0000L + i, false));
+
+        devices.get(0).send(TEXT, 1);
+
+        assertEquals(1, devices.get(1).completed.size());
+        for (Device device : devices.subList(2, devices.size())) assertTrue(device.completed.isEmpty());
+    }
+
+    @Test
+    public void relayCoversAGridWithSuppression() {
+        // 5x5 grid, each device hearing the eight around it; sent from a corner
+        int side = 5;
+        radio.setTopology((from, to) -> Math.abs(from / side - to / side) <= 1
+                && Math.abs(from % side - to % side) <= 1);
+        List<Device> devices = relayingDevices(side * side);
+
+        assertEquals(1.0, relayDeliveryRatio(devices), 0);
+        // Dense neighbourhoods hear enough relays to hold back their own
+        long suppressed = 0;
+        for (Device device : devices) suppressed += device.relay.getSuppressed();
+        assertTrue("suppressed " + suppressed, suppressed > 0);
+        assertTrue("relayed " + relayed(devices), relayed(devices) < devices.size() - 1);
+    }
+}